@@ -1,5 +1,10 @@
 package com.pqc.videoencryption;
 
+import com.pqc.videoencryption.cluster.ShardWorker;
+import com.pqc.videoencryption.crypto.CryptoWarmup;
+import com.pqc.videoencryption.loadtest.LoadHarness;
+import com.pqc.videoencryption.server.EncryptionServer;
+import com.pqc.videoencryption.server.ServerConfig;
 import com.pqc.videoencryption.storage.UserRepository;
 import com.pqc.videoencryption.ui.LoginFrame;
 import org.slf4j.Logger;
@@ -7,12 +12,28 @@ import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.io.IOException;
+import java.util.Arrays;
 
 public class Main {
     
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
     
     public static void main(String[] args) {
+        CryptoWarmup.startIfRequested();
+        
+        if (args.length > 0 && "--server".equals(args[0])) {
+            runServer();
+            return;
+        }
+        if (args.length > 0 && "--worker".equals(args[0])) {
+            runWorker(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--loadtest".equals(args[0])) {
+            runLoadTest(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
         } catch (Exception e) {
@@ -35,5 +56,34 @@ public class Main {
             loginFrame.setVisible(true);
         });
     }
+    
+    private static void runServer() {
+        try {
+            UserRepository.initialize();
+            EncryptionServer server = new EncryptionServer(ServerConfig.fromSystemProperties());
+            server.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5), "pqve-shutdown"));
+        } catch (IOException e) {
+            logger.error("Failed to start encryption server", e);
+            System.exit(1);
+        }
+    }
+    
+    private static void runWorker(String[] args) {
+        try {
+            ShardWorker.main(args);
+        } catch (Exception e) {
+            logger.error("Shard worker failed", e);
+            System.exit(1);
+        }
+    }
+    
+    private static void runLoadTest(String[] args) {
+        try {
+            LoadHarness.main(args);
+        } catch (Exception e) {
+            logger.error("Load test failed", e);
+            System.exit(1);
+        }
+    }
 }
-
@@ -0,0 +1,125 @@
+package com.pqc.videoencryption.audit;
+
+import java.time.Instant;
+
+/**
+ * One audited action: who did what to which file, how much data it
+ * covered, how long it took and how it ended.
+ */
+public final class AuditEvent {
+
+    public enum Operation { LOGIN, ENCRYPT, DECRYPT, DELETE }
+
+    public enum Outcome { SUCCESS, FAILURE, DENIED }
+
+    private final long timestampMillis;
+    private final String username;
+    private final Operation operation;
+    private final String file;
+    private final long bytes;
+    private final long durationNanos;
+    private final Outcome outcome;
+    private final String detail;
+
+    public AuditEvent(long timestampMillis, String username, Operation operation, String file, long bytes,
+                      long durationNanos, Outcome outcome, String detail) {
+        this.timestampMillis = timestampMillis;
+        this.username = username == null ? "" : username;
+        this.operation = operation;
+        this.file = file == null ? "" : file;
+        this.bytes = bytes;
+        this.durationNanos = durationNanos;
+        this.outcome = outcome;
+        this.detail = detail == null ? "" : detail;
+    }
+
+    /**
+     * An action that started at {@code startNanos} ({@link System#nanoTime()}) and succeeded.
+     */
+    public static AuditEvent success(String username, Operation operation, String file, long bytes,
+                                     long startNanos) {
+        return new AuditEvent(System.currentTimeMillis(), username, operation, file, bytes,
+            System.nanoTime() - startNanos, Outcome.SUCCESS, null);
+    }
+
+    /**
+     * An action that started at {@code startNanos} and failed with {@code error}.
+     */
+    public static AuditEvent failure(String username, Operation operation, String file, long startNanos,
+                                     Throwable error) {
+        return new AuditEvent(System.currentTimeMillis(), username, operation, file, 0,
+            System.nanoTime() - startNanos, Outcome.FAILURE, error.getClass().getSimpleName());
+    }
+
+    /**
+     * An action refused before it started, such as a login with a wrong password.
+     */
+    public static AuditEvent denied(String username, Operation operation, String file, long startNanos) {
+        return new AuditEvent(System.currentTimeMillis(), username, operation, file, 0,
+            System.nanoTime() - startNanos, Outcome.DENIED, null);
+    }
+
+    public long getTimestampMillis() {
+        return timestampMillis;
+    }
+
+    public String getUsername() {
+        return username;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public String getFile() {
+        return file;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    public Outcome getOutcome() {
+        return outcome;
+    }
+
+    public String getDetail() {
+        return detail;
+    }
+
+    /**
+     * The audit file line: tab-separated timestamp, user, operation, file,
+     * bytes, duration in microseconds, outcome and detail. Tabs and line
+     * breaks inside fields are replaced with spaces.
+     */
+    String toLine() {
+        return Instant.ofEpochMilli(timestampMillis) + "\t" + clean(username) + "\t" + operation + "\t"
+            + clean(file) + "\t" + bytes + "\t" + durationNanos / 1_000 + "\t" + outcome + "\t"
+            + clean(detail) + "\n";
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        text.append(operation).append(' ').append(outcome);
+        if (!file.isEmpty()) {
+            text.append(' ').append(file);
+        }
+        if (bytes > 0) {
+            text.append(String.format(" (%,d bytes)", bytes));
+        }
+        text.append(" in ").append(durationNanos / 1_000_000).append(" ms");
+        if (!detail.isEmpty()) {
+            text.append(": ").append(detail);
+        }
+        return text.toString();
+    }
+
+    private static String clean(String field) {
+        return field.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,378 @@
+package com.pqc.videoencryption.audit;
+
+import com.pqc.videoencryption.crypto.OutputCommitter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * Append-only audit file fed through a bounded lock-free ring buffer.
+ *
+ * <p>{@link #publish} claims a slot with one compare-and-set and returns;
+ * it never blocks and never touches the disk, so auditing adds no I/O
+ * latency to the encrypt and decrypt paths. If the buffer is full the
+ * event is dropped and counted, and the writer records the gap in the
+ * file. A single writer thread drains whatever has queued up, writes it
+ * with one {@code write} and one {@code force}, then hands the batch to
+ * the listeners (the UI's activity log). When the file would grow past its
+ * size limit it is renamed to {@code audit.log.1}, older files shift up
+ * by one and the oldest beyond the kept count is deleted.
+ *
+ * <p>Lines are tab-separated: timestamp, user, operation, file, bytes,
+ * duration in microseconds, outcome and detail.
+ */
+public final class AuditTrail implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditTrail.class);
+
+    public static final String DIRECTORY_PROPERTY = "pqve.audit.dir";
+    public static final String FILE_NAME = "audit.log";
+    static final int DEFAULT_CAPACITY = 8192;
+    static final long DEFAULT_MAX_FILE_BYTES = 16L << 20;
+    static final int DEFAULT_KEEP_FILES = 5;
+    private static final int MAX_BATCH = 1024;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+    private static final long RELOCATE_FLUSH_SECONDS = 5;
+
+    private Path directory;
+    private final long maxFileBytes;
+    private final int keepFiles;
+    private final int mask;
+    private final AtomicReferenceArray<AuditEvent> slots;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final CopyOnWriteArrayList<Consumer<List<AuditEvent>>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private long size;
+    private long head;
+    private long droppedRecorded;
+    private volatile long processed;
+    private volatile boolean parked;
+    private volatile boolean closed;
+    private long batches;
+    private long rotations;
+
+    private AuditTrail(Path directory, int capacity, long maxFileBytes, int keepFiles) {
+        int slotCount = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.directory = directory;
+        this.maxFileBytes = maxFileBytes;
+        this.keepFiles = keepFiles;
+        this.mask = slotCount - 1;
+        this.slots = new AtomicReferenceArray<>(slotCount);
+        this.sequences = new AtomicLongArray(slotCount);
+        for (int i = 0; i < slotCount; i++) {
+            sequences.set(i, i);
+        }
+        this.writer = new Thread(this::run, "pqve-audit");
+        this.writer.setDaemon(true);
+    }
+
+    public static AuditTrail open(Path directory) throws IOException {
+        return open(directory, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES, DEFAULT_KEEP_FILES);
+    }
+
+    /**
+     * Opens the trail in {@code directory}, appending to an existing
+     * {@code audit.log}.
+     *
+     * @param capacity ring buffer slots, rounded up to a power of two
+     * @param maxFileBytes size at which the file is rotated
+     * @param keepFiles rotated files kept besides the current one
+     */
+    public static AuditTrail open(Path directory, int capacity, long maxFileBytes, int keepFiles)
+            throws IOException {
+        if (maxFileBytes <= 0 || keepFiles < 0) {
+            throw new IllegalArgumentException("Invalid audit rotation: " + maxFileBytes + " bytes, "
+                + keepFiles + " files");
+        }
+        AuditTrail trail = new AuditTrail(directory, capacity, maxFileBytes, keepFiles);
+        Files.createDirectories(directory);
+        trail.openFile();
+        trail.writer.start();
+        return trail;
+    }
+
+    /**
+     * The process-wide trail in {@code pqve.audit.dir} (default
+     * {@code data/audit}). If that directory cannot be opened, events still
+     * reach the listeners but are not written.
+     */
+    public static AuditTrail shared() {
+        return Shared.TRAIL;
+    }
+
+    /**
+     * Queues {@code event} without blocking; returns false if the buffer is
+     * full or the trail is closed and the event was dropped.
+     */
+    public boolean publish(AuditEvent event) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        while (true) {
+            long position = tail.get();
+            int slot = (int) position & mask;
+            long sequence = sequences.get(slot);
+            if (sequence == position) {
+                if (tail.compareAndSet(position, position + 1)) {
+                    slots.set(slot, event);
+                    sequences.set(slot, position + 1);
+                    break;
+                }
+            } else if (sequence < position) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        }
+        if (parked) {
+            LockSupport.unpark(writer);
+        }
+        return true;
+    }
+
+    /**
+     * Registers a listener that receives every written batch on the writer
+     * thread; it must return quickly and hand any real work elsewhere.
+     */
+    public void addListener(Consumer<List<AuditEvent>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<List<AuditEvent>> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Waits until every event published before this call has been written,
+     * or the timeout passes; returns whether it got there.
+     */
+    public boolean flush(long timeout, TimeUnit unit) throws InterruptedException {
+        long target = tail.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (this) {
+            while (processed < target) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0 || !writer.isAlive()) {
+                    return false;
+                }
+                LockSupport.unpark(writer);
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+        return true;
+    }
+
+    public synchronized Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Writes what is already queued to the current file, then appends to
+     * {@code audit.log} in {@code newDirectory}. For tools whose events must
+     * not reach the real trail.
+     *
+     * @return the previous directory
+     */
+    public Path relocate(Path newDirectory) throws IOException {
+        try {
+            flush(RELOCATE_FLUSH_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while relocating the audit trail");
+        }
+        synchronized (this) {
+            Path previous = directory;
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+            directory = newDirectory;
+            Files.createDirectories(newDirectory);
+            openFile();
+            return previous;
+        }
+    }
+
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getRotations() {
+        return rotations;
+    }
+
+    /**
+     * Writes what is still queued and stops the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (channel != null) {
+                channel.close();
+                channel = null;
+            }
+        }
+    }
+
+    private void run() {
+        List<AuditEvent> batch = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            drain(batch);
+            long lost = dropped.get() - droppedRecorded;
+            if (batch.isEmpty() && lost == 0) {
+                if (closed) {
+                    // A publish racing with close may have landed after the last drain.
+                    drain(batch);
+                    if (batch.isEmpty()) {
+                        return;
+                    }
+                } else {
+                    parked = true;
+                    if (sequences.get((int) head & mask) != head + 1 && !closed) {
+                        LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                    }
+                    parked = false;
+                    continue;
+                }
+            }
+            droppedRecorded += lost;
+            write(batch, lost);
+            for (Consumer<List<AuditEvent>> listener : listeners) {
+                try {
+                    listener.accept(batch);
+                } catch (RuntimeException e) {
+                    logger.warn("Audit listener failed: {}", e.toString());
+                }
+            }
+            synchronized (this) {
+                batches++;
+                processed = head;
+                notifyAll();
+            }
+            batch = new ArrayList<>(MAX_BATCH);
+        }
+    }
+
+    private void drain(List<AuditEvent> batch) {
+        while (batch.size() < MAX_BATCH) {
+            int slot = (int) head & mask;
+            if (sequences.get(slot) != head + 1) {
+                return;
+            }
+            batch.add(slots.get(slot));
+            slots.set(slot, null);
+            sequences.set(slot, head + mask + 1);
+            head++;
+        }
+    }
+
+    private void write(List<AuditEvent> batch, long lost) {
+        StringBuilder text = new StringBuilder(batch.size() * 128);
+        if (lost > 0) {
+            text.append(Instant.now()).append("\t-\t-\t-\t").append(lost).append("\t0\tDROPPED\taudit buffer full\n");
+        }
+        for (AuditEvent event : batch) {
+            text.append(event.toLine());
+        }
+        ByteBuffer data = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        synchronized (this) {
+            if (channel == null) {
+                return;
+            }
+            try {
+                if (size > 0 && size + data.remaining() > maxFileBytes) {
+                    rotate();
+                }
+                while (data.hasRemaining()) {
+                    size += channel.write(data);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                logger.error("Writing {} audit events failed", batch.size(), e);
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        channel = null;
+        Path current = directory.resolve(FILE_NAME);
+        try {
+            if (keepFiles == 0) {
+                Files.delete(current);
+            } else {
+                Files.deleteIfExists(directory.resolve(FILE_NAME + "." + keepFiles));
+                for (int i = keepFiles - 1; i >= 1; i--) {
+                    Path older = directory.resolve(FILE_NAME + "." + i);
+                    if (Files.exists(older)) {
+                        Files.move(older, directory.resolve(FILE_NAME + "." + (i + 1)),
+                            StandardCopyOption.ATOMIC_MOVE);
+                    }
+                }
+                Files.move(current, directory.resolve(FILE_NAME + ".1"), StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            // Keep appending to whichever file is current, even if a rename failed.
+            openFile();
+        }
+        OutputCommitter.forceDirectory(directory);
+        rotations++;
+    }
+
+    private void openFile() throws IOException {
+        channel = FileChannel.open(directory.resolve(FILE_NAME), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        size = channel.size();
+    }
+
+    private static final class Shared {
+        static final AuditTrail TRAIL = create();
+
+        private static AuditTrail create() {
+            Path directory = Paths.get(System.getProperty(DIRECTORY_PROPERTY, "data/audit"));
+            try {
+                return open(directory);
+            } catch (IOException e) {
+                logger.warn("Audit file in {} unavailable, events are not written: {}", directory, e.toString());
+                AuditTrail trail = new AuditTrail(directory, DEFAULT_CAPACITY, DEFAULT_MAX_FILE_BYTES,
+                    DEFAULT_KEEP_FILES);
+                trail.writer.start();
+                return trail;
+            }
+        }
+    }
+}
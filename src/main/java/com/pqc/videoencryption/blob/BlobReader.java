@@ -0,0 +1,77 @@
+package com.pqc.videoencryption.blob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Positional reads from one committed blob; safe for concurrent use.
+ */
+public interface BlobReader extends Closeable {
+
+    long size();
+
+    /**
+     * Reads up to {@code dst.remaining()} bytes starting at {@code position}.
+     * Returns the bytes read, or -1 if {@code position} is at or past the end.
+     */
+    int read(ByteBuffer dst, long position) throws IOException;
+
+    /**
+     * A sequential view starting at {@code position}. Closing it leaves this reader open.
+     */
+    default ReadableByteChannel channel(long position) {
+        return new ReadableByteChannel() {
+            private long next = position;
+            private boolean open = true;
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+                int n = BlobReader.this.read(dst, next);
+                if (n > 0) {
+                    next += n;
+                }
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    /**
+     * Reads an open file; closing the reader closes {@code channel}.
+     */
+    static BlobReader of(FileChannel channel) throws IOException {
+        long size = channel.size();
+        return new BlobReader() {
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public int read(ByteBuffer dst, long position) throws IOException {
+                return channel.read(dst, position);
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+        };
+    }
+}
@@ -0,0 +1,51 @@
+package com.pqc.videoencryption.blob;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Where encrypted videos are kept: a flat namespace of immutable blobs
+ * addressed by {@code /}-separated keys.
+ *
+ * <p>A blob is written once through a {@link BlobWriter} and becomes visible
+ * only when the writer commits, so readers never see a partial upload. It
+ * is read back by position through a {@link BlobReader}, which lets
+ * decryption and seeking fetch just the segments they need.
+ */
+public interface BlobStore extends Closeable {
+
+    /**
+     * Starts writing {@code key}, replacing any existing blob once committed.
+     */
+    BlobWriter create(String key) throws IOException;
+
+    /**
+     * @throws java.nio.file.NoSuchFileException if there is no blob at {@code key}
+     */
+    BlobReader open(String key) throws IOException;
+
+    boolean exists(String key) throws IOException;
+
+    /**
+     * Returns false if there was nothing to delete, where the backend can tell.
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * The store selected by {@code pqve.blob.backend}: {@code local} (the
+     * default) under {@code pqve.blob.root}, or {@code s3} configured by
+     * {@link S3Config#fromSystemProperties()}.
+     */
+    static BlobStore fromSystemProperties() {
+        String backend = System.getProperty("pqve.blob.backend", "local");
+        switch (backend) {
+            case "local":
+                return new LocalBlobStore(Paths.get(System.getProperty("pqve.blob.root", "encryptedVideos")));
+            case "s3":
+                return new S3BlobStore(S3Config.fromSystemProperties());
+            default:
+                throw new IllegalArgumentException("Unknown blob backend: " + backend);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.pqc.videoencryption.blob;
+
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * Sequential writer for one blob. Nothing is visible under the key until
+ * {@link #commit}; closing an uncommitted writer discards what was written.
+ */
+public interface BlobWriter extends WritableByteChannel {
+
+    /**
+     * Publishes everything written so far under the key and returns its
+     * length. The writer accepts no more data afterwards.
+     */
+    long commit() throws IOException;
+}
@@ -0,0 +1,136 @@
+package com.pqc.videoencryption.blob;
+
+import com.pqc.videoencryption.crypto.OutputCommitter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Blobs as files under a root directory; a key's {@code /}-separated parts
+ * become subdirectories. Writes go to a hidden temporary file that
+ * {@link OutputCommitter} renames into place on commit.
+ */
+public final class LocalBlobStore implements BlobStore {
+
+    private final Path root;
+
+    public LocalBlobStore(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * The file holding {@code key}.
+     *
+     * @throws IllegalArgumentException if the key would escape the root
+     */
+    public Path resolve(String key) {
+        if (key.isEmpty() || key.startsWith("/") || key.endsWith("/")) {
+            throw new IllegalArgumentException("Invalid blob key: " + key);
+        }
+        for (String part : key.split("/", -1)) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..") || part.indexOf('\\') >= 0) {
+                throw new IllegalArgumentException("Invalid blob key: " + key);
+            }
+        }
+        return root.resolve(key);
+    }
+
+    @Override
+    public BlobWriter create(String key) throws IOException {
+        Path file = resolve(key);
+        Files.createDirectories(file.getParent());
+        Path temp = OutputCommitter.tempPath(file);
+        return new Writer(temp, file,
+            FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW));
+    }
+
+    @Override
+    public BlobReader open(String key) throws IOException {
+        FileChannel channel = FileChannel.open(resolve(key), StandardOpenOption.READ);
+        try {
+            return BlobReader.of(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.isRegularFile(resolve(key));
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static final class Writer implements BlobWriter {
+        private final Path temp;
+        private final Path file;
+        private final FileChannel channel;
+        private boolean done;
+
+        Writer(Path temp, Path file, FileChannel channel) {
+            this.temp = temp;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (done) {
+                throw new ClosedChannelException();
+            }
+            int written = 0;
+            while (src.hasRemaining()) {
+                written += channel.write(src);
+            }
+            return written;
+        }
+
+        @Override
+        public long commit() throws IOException {
+            if (done) {
+                throw new ClosedChannelException();
+            }
+            done = true;
+            long size = channel.size();
+            channel.close();
+            try {
+                OutputCommitter.shared().commit(temp, file);
+            } catch (IOException e) {
+                Files.deleteIfExists(temp);
+                throw e;
+            }
+            return size;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !done;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!done) {
+                done = true;
+                channel.close();
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+}
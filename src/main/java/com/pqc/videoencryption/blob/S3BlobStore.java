@@ -0,0 +1,538 @@
+package com.pqc.videoencryption.blob;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Blobs in an S3-compatible object store, spoken to over plain HTTP with
+ * Signature Version 4 and path-style bucket addressing.
+ *
+ * <p>A writer fills one part buffer at a time. Blobs that fit in a single
+ * part are sent with one PUT on commit; larger ones become a multipart
+ * upload whose parts are sent in the background as soon as each buffer
+ * fills, up to {@link S3Config#getUploadThreads()} at once, so the
+ * producer only waits when that many parts are already in flight. Nothing
+ * is staged on local disk. Reads are ranged GETs. Every request is retried
+ * with jittered exponential backoff on connection failures, throttling and
+ * 5xx responses.
+ */
+public final class S3BlobStore implements BlobStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(S3BlobStore.class);
+    private static final DateTimeFormatter AMZ_DATE =
+        DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    private static final String UNSIGNED_PAYLOAD = "UNSIGNED-PAYLOAD";
+    private static final String SIGNED_HEADERS = "host;x-amz-content-sha256;x-amz-date";
+    private static final long BASE_BACKOFF_MILLIS = 100;
+    private static final long MAX_BACKOFF_MILLIS = 5_000;
+    private static final Pattern UPLOAD_ID = Pattern.compile("<UploadId>([^<]+)</UploadId>");
+    private static final Pattern ERROR_CODE = Pattern.compile("<Code>([^<]+)</Code>");
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final S3Config config;
+    private final HttpClient http;
+    private final ExecutorService uploads;
+    private final String basePath;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public S3BlobStore(S3Config config) {
+        this.config = config;
+        this.http = HttpClient.newBuilder()
+            .version(HttpClient.Version.HTTP_1_1)
+            .connectTimeout(config.getRequestTimeout())
+            .build();
+        // Each upload bounds its own parts in flight, so the pool itself need not.
+        this.uploads = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "pqve-s3-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        String path = config.getEndpoint().getRawPath();
+        this.basePath = (path == null ? "" : path.replaceAll("/+$", "")) + "/" + encode(config.getBucket());
+    }
+
+    public S3Config getConfig() {
+        return config;
+    }
+
+    /** Requests sent, counting each retry. */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getRetries() {
+        return retries.get();
+    }
+
+    @Override
+    public BlobWriter create(String key) {
+        return new Upload(key);
+    }
+
+    @Override
+    public BlobReader open(String key) throws IOException {
+        HttpResponse<byte[]> response = execute("HEAD", key, Map.of(), Map.of(), null, 0, 0);
+        if (response.statusCode() != 200) {
+            throw failure("HEAD", key, response);
+        }
+        long size = response.headers().firstValueAsLong("Content-Length")
+            .orElseThrow(() -> new IOException("No length for blob " + key));
+        return new Reader(key, size);
+    }
+
+    @Override
+    public boolean exists(String key) throws IOException {
+        HttpResponse<byte[]> response = execute("HEAD", key, Map.of(), Map.of(), null, 0, 0);
+        if (response.statusCode() == 404) {
+            return false;
+        }
+        if (response.statusCode() != 200) {
+            throw failure("HEAD", key, response);
+        }
+        return true;
+    }
+
+    /**
+     * Always true on success: S3 does not say whether the key existed.
+     */
+    @Override
+    public boolean delete(String key) throws IOException {
+        HttpResponse<byte[]> response = execute("DELETE", key, Map.of(), Map.of(), null, 0, 0);
+        if (response.statusCode() != 204 && response.statusCode() != 200) {
+            throw failure("DELETE", key, response);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        uploads.shutdownNow();
+    }
+
+    private void putObject(String key, byte[] data, int length) throws IOException {
+        HttpResponse<byte[]> response = execute("PUT", key, Map.of(), Map.of(), data, 0, length);
+        if (response.statusCode() != 200) {
+            throw failure("PUT", key, response);
+        }
+    }
+
+    private String initiate(String key) throws IOException {
+        HttpResponse<byte[]> response = execute("POST", key, Map.of("uploads", ""), Map.of(), null, 0, 0);
+        if (response.statusCode() != 200) {
+            throw failure("Starting upload of", key, response);
+        }
+        Matcher matcher = UPLOAD_ID.matcher(new String(response.body(), StandardCharsets.UTF_8));
+        if (!matcher.find()) {
+            throw new IOException("No upload id for blob " + key);
+        }
+        return matcher.group(1);
+    }
+
+    private String uploadPart(String key, String uploadId, int number, byte[] data, int length) throws IOException {
+        HttpResponse<byte[]> response = execute("PUT", key,
+            Map.of("partNumber", Integer.toString(number), "uploadId", uploadId), Map.of(), data, 0, length);
+        if (response.statusCode() != 200) {
+            throw failure("Uploading part " + number + " of", key, response);
+        }
+        return response.headers().firstValue("ETag")
+            .orElseThrow(() -> new IOException("No ETag for part " + number + " of blob " + key));
+    }
+
+    private void complete(String key, String uploadId, List<String> etags) throws IOException {
+        StringBuilder xml = new StringBuilder("<CompleteMultipartUpload>");
+        for (int i = 0; i < etags.size(); i++) {
+            xml.append("<Part><PartNumber>").append(i + 1).append("</PartNumber><ETag>")
+                .append(etags.get(i).replace("&", "&amp;").replace("<", "&lt;"))
+                .append("</ETag></Part>");
+        }
+        byte[] body = xml.append("</CompleteMultipartUpload>").toString().getBytes(StandardCharsets.UTF_8);
+        HttpResponse<byte[]> response = execute("POST", key, Map.of("uploadId", uploadId),
+            Map.of("Content-Type", "application/xml"), body, 0, body.length);
+        // Completion can fail after the 200 status line has gone out; the error is then in the body.
+        if (response.statusCode() != 200 || new String(response.body(), StandardCharsets.UTF_8).contains("<Error>")) {
+            throw failure("Completing upload of", key, response);
+        }
+    }
+
+    private void abort(String key, String uploadId) {
+        try {
+            HttpResponse<byte[]> response = execute("DELETE", key, Map.of("uploadId", uploadId), Map.of(),
+                null, 0, 0);
+            if (response.statusCode() != 204 && response.statusCode() != 404) {
+                logger.warn("Aborting upload of {} failed: HTTP {}", key, response.statusCode());
+            }
+        } catch (IOException e) {
+            logger.warn("Aborting upload of {} failed: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * Sends a signed request, retrying retryable failures. The response of
+     * the last attempt is returned whatever its status.
+     */
+    private HttpResponse<byte[]> execute(String method, String key, Map<String, String> query,
+                                         Map<String, String> headers, byte[] body, int offset, int length)
+            throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpRequest request = sign(method, key, query, headers, body == null
+                ? HttpRequest.BodyPublishers.noBody()
+                : HttpRequest.BodyPublishers.ofByteArray(body, offset, length));
+            requests.incrementAndGet();
+            try {
+                HttpResponse<byte[]> response = http.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (!retryable(response.statusCode()) || attempt >= config.getMaxAttempts()) {
+                    return response;
+                }
+                logger.debug("{} {} returned HTTP {}, retrying", method, key, response.statusCode());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted during " + method + " " + key);
+            } catch (IOException e) {
+                if (attempt >= config.getMaxAttempts()) {
+                    throw e;
+                }
+                logger.debug("{} {} failed, retrying: {}", method, key, e.toString());
+            }
+            retries.incrementAndGet();
+            backoff(attempt);
+        }
+    }
+
+    private static boolean retryable(int status) {
+        return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    private static void backoff(int attempt) throws InterruptedIOException {
+        long ceiling = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while backing off");
+        }
+    }
+
+    private HttpRequest sign(String method, String key, Map<String, String> query, Map<String, String> headers,
+                             HttpRequest.BodyPublisher body) {
+        String path = basePath + "/" + encodePath(key);
+        String canonicalQuery = canonicalQuery(query);
+        URI endpoint = config.getEndpoint();
+        URI uri = URI.create(endpoint.getScheme() + "://" + endpoint.getRawAuthority() + path
+            + (canonicalQuery.isEmpty() ? "" : "?" + canonicalQuery));
+        String host = uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+
+        String timestamp = AMZ_DATE.format(Instant.now());
+        String day = timestamp.substring(0, 8);
+        String scope = day + "/" + config.getRegion() + "/s3/aws4_request";
+        String canonicalRequest = method + "\n" + path + "\n" + canonicalQuery + "\n"
+            + "host:" + host + "\n"
+            + "x-amz-content-sha256:" + UNSIGNED_PAYLOAD + "\n"
+            + "x-amz-date:" + timestamp + "\n\n"
+            + SIGNED_HEADERS + "\n" + UNSIGNED_PAYLOAD;
+        String stringToSign = ALGORITHM + "\n" + timestamp + "\n" + scope + "\n" + hex(sha256(canonicalRequest));
+
+        byte[] signingKey = hmac(("AWS4" + config.getSecretKey()).getBytes(StandardCharsets.UTF_8), day);
+        signingKey = hmac(signingKey, config.getRegion());
+        signingKey = hmac(signingKey, "s3");
+        signingKey = hmac(signingKey, "aws4_request");
+        String signature = hex(hmac(signingKey, stringToSign));
+
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri)
+            .timeout(config.getRequestTimeout())
+            .method(method, body)
+            .header("x-amz-date", timestamp)
+            .header("x-amz-content-sha256", UNSIGNED_PAYLOAD)
+            .header("Authorization", ALGORITHM + " Credential=" + config.getAccessKey() + "/" + scope
+                + ", SignedHeaders=" + SIGNED_HEADERS + ", Signature=" + signature);
+        headers.forEach(builder::header);
+        return builder.build();
+    }
+
+    private static String canonicalQuery(Map<String, String> query) {
+        StringJoiner joined = new StringJoiner("&");
+        new TreeMap<>(query).forEach((name, value) -> joined.add(encode(name) + "=" + encode(value)));
+        return joined.toString();
+    }
+
+    private static String encodePath(String key) {
+        StringJoiner joined = new StringJoiner("/");
+        for (String part : key.split("/", -1)) {
+            joined.add(encode(part));
+        }
+        return joined.toString();
+    }
+
+    /** RFC 3986 percent-encoding, as SigV4 requires. */
+    private static String encode(String value) {
+        return URLEncoder.encode(value, StandardCharsets.UTF_8)
+            .replace("+", "%20").replace("*", "%2A").replace("%7E", "~");
+    }
+
+    private static byte[] sha256(String value) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private static byte[] hmac(byte[] key, String value) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(value.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 not available", e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    private static IOException failure(String action, String key, HttpResponse<byte[]> response) {
+        if (response.statusCode() == 404) {
+            return new NoSuchFileException(key);
+        }
+        Matcher code = ERROR_CODE.matcher(new String(response.body(), StandardCharsets.UTF_8));
+        return new IOException(action + " blob " + key + " failed: HTTP " + response.statusCode()
+            + (code.find() ? " " + code.group(1) : ""));
+    }
+
+    private static IOException unwrap(Throwable failure) {
+        if (failure instanceof CompletionException || failure instanceof ExecutionException) {
+            failure = failure.getCause();
+        }
+        return failure instanceof IOException ? (IOException) failure : new IOException("Upload failed", failure);
+    }
+
+    private final class Upload implements BlobWriter {
+        private final String key;
+        private final Semaphore inFlight = new Semaphore(config.getUploadThreads());
+        private final ConcurrentLinkedQueue<byte[]> spare = new ConcurrentLinkedQueue<>();
+        private final List<CompletableFuture<String>> parts = new ArrayList<>();
+        private volatile Throwable failed;
+        private byte[] buffer;
+        private int filled;
+        private long size;
+        private String uploadId;
+        private boolean done;
+
+        Upload(String key) {
+            this.key = key;
+            this.buffer = new byte[config.getPartSize()];
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            if (done) {
+                throw new ClosedChannelException();
+            }
+            if (failed != null) {
+                throw unwrap(failed);
+            }
+            int written = src.remaining();
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), buffer.length - filled);
+                src.get(buffer, filled, n);
+                filled += n;
+                if (filled == buffer.length) {
+                    sendPart();
+                }
+            }
+            size += written;
+            return written;
+        }
+
+        private void sendPart() throws IOException {
+            if (uploadId == null) {
+                uploadId = initiate(key);
+            }
+            try {
+                inFlight.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to upload " + key);
+            }
+            int number = parts.size() + 1;
+            byte[] data = buffer;
+            int length = filled;
+            String id = uploadId;
+            CompletableFuture<String> etag;
+            try {
+                etag = CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return uploadPart(key, id, number, data, length);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    } finally {
+                        spare.offer(data);
+                        inFlight.release();
+                    }
+                }, uploads);
+            } catch (RuntimeException e) {
+                inFlight.release();
+                throw new IOException("Blob store is closed", e);
+            }
+            etag.whenComplete((value, failure) -> {
+                if (failure != null) {
+                    failed = failure;
+                }
+            });
+            parts.add(etag);
+            byte[] next = spare.poll();
+            buffer = next != null ? next : new byte[config.getPartSize()];
+            filled = 0;
+        }
+
+        @Override
+        public long commit() throws IOException {
+            if (done) {
+                throw new ClosedChannelException();
+            }
+            done = true;
+            try {
+                if (uploadId == null) {
+                    putObject(key, buffer, filled);
+                } else {
+                    if (filled > 0) {
+                        sendPart();
+                    }
+                    List<String> etags = new ArrayList<>(parts.size());
+                    for (CompletableFuture<String> part : parts) {
+                        etags.add(part.get());
+                    }
+                    complete(key, uploadId, etags);
+                    logger.debug("Uploaded {} in {} parts ({} bytes)", key, etags.size(), size);
+                }
+                return size;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                abandon();
+                throw new InterruptedIOException("Interrupted while uploading " + key);
+            } catch (ExecutionException e) {
+                abandon();
+                throw unwrap(e);
+            } catch (IOException | RuntimeException e) {
+                abandon();
+                throw e;
+            } finally {
+                buffer = null;
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !done;
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                buffer = null;
+                abandon();
+            }
+        }
+
+        private void abandon() {
+            if (uploadId == null) {
+                return;
+            }
+            // Parts still uploading after an abort would be kept (and billed), so let them land first.
+            for (CompletableFuture<String> part : parts) {
+                try {
+                    part.join();
+                } catch (RuntimeException ignored) {
+                    // Reported by commit, or irrelevant once the upload is abandoned.
+                }
+            }
+            abort(key, uploadId);
+        }
+    }
+
+    private final class Reader implements BlobReader {
+        private final String key;
+        private final long size;
+
+        Reader(String key, long size) {
+            this.key = key;
+            this.size = size;
+        }
+
+        @Override
+        public long size() {
+            return size;
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            if (position >= size) {
+                return -1;
+            }
+            int length = (int) Math.min(dst.remaining(), size - position);
+            if (length == 0) {
+                return 0;
+            }
+            HttpResponse<byte[]> response = execute("GET", key, Map.of(),
+                Map.of("Range", "bytes=" + position + "-" + (position + length - 1)), null, 0, 0);
+            byte[] body = response.body();
+            int start = 0;
+            if (response.statusCode() == 200) {
+                // The store ignored the range and sent the whole blob.
+                start = (int) Math.min(position, body.length);
+            } else if (response.statusCode() != 206) {
+                throw failure("GET", key, response);
+            }
+            int n = Math.min(length, body.length - start);
+            if (n <= 0) {
+                throw new IOException("Short read of blob " + key + " at " + position);
+            }
+            dst.put(body, start, n);
+            return n;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
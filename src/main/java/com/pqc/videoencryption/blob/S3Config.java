@@ -0,0 +1,103 @@
+package com.pqc.videoencryption.blob;
+
+import java.net.URI;
+import java.time.Duration;
+
+public final class S3Config {
+
+    /** Smallest part S3 accepts in a multipart upload, other than the last. */
+    public static final int MIN_PART_SIZE = 5 << 20;
+
+    private final URI endpoint;
+    private final String bucket;
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+    private final int partSize;
+    private final int uploadThreads;
+    private final int maxAttempts;
+    private final Duration requestTimeout;
+
+    /**
+     * @param endpoint     e.g. {@code https://s3.eu-west-1.amazonaws.com} or a MinIO URL; buckets are
+     *                     addressed path-style
+     * @param partSize     bytes per multipart part; a blob no larger than this is sent in one PUT
+     * @param uploadThreads parts of one blob uploaded concurrently
+     * @param maxAttempts  tries per request before a throttled, failed or dropped request is given up
+     */
+    public S3Config(URI endpoint, String bucket, String region, String accessKey, String secretKey,
+                    int partSize, int uploadThreads, int maxAttempts, Duration requestTimeout) {
+        if (partSize < MIN_PART_SIZE) {
+            throw new IllegalArgumentException("Part size must be at least " + MIN_PART_SIZE + " bytes");
+        }
+        if (uploadThreads < 1 || maxAttempts < 1) {
+            throw new IllegalArgumentException("Upload threads and attempts must be positive");
+        }
+        if (bucket == null || bucket.isEmpty() || accessKey == null || secretKey == null) {
+            throw new IllegalArgumentException("Bucket and credentials are required");
+        }
+        this.endpoint = endpoint;
+        this.bucket = bucket;
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+        this.partSize = partSize;
+        this.uploadThreads = uploadThreads;
+        this.maxAttempts = maxAttempts;
+        this.requestTimeout = requestTimeout;
+    }
+
+    /**
+     * Reads {@code pqve.blob.s3.*}; credentials fall back to the usual
+     * {@code AWS_ACCESS_KEY_ID} and {@code AWS_SECRET_ACCESS_KEY} variables.
+     */
+    public static S3Config fromSystemProperties() {
+        return new S3Config(
+            URI.create(System.getProperty("pqve.blob.s3.endpoint", "https://s3.amazonaws.com")),
+            System.getProperty("pqve.blob.s3.bucket"),
+            System.getProperty("pqve.blob.s3.region", "us-east-1"),
+            System.getProperty("pqve.blob.s3.accessKey", System.getenv("AWS_ACCESS_KEY_ID")),
+            System.getProperty("pqve.blob.s3.secretKey", System.getenv("AWS_SECRET_ACCESS_KEY")),
+            Integer.getInteger("pqve.blob.s3.partSize", 8 << 20),
+            Integer.getInteger("pqve.blob.s3.uploadThreads", 4),
+            Integer.getInteger("pqve.blob.s3.maxAttempts", 5),
+            Duration.ofSeconds(Long.getLong("pqve.blob.s3.timeoutSeconds", 60L))
+        );
+    }
+
+    public URI getEndpoint() {
+        return endpoint;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getRegion() {
+        return region;
+    }
+
+    String getAccessKey() {
+        return accessKey;
+    }
+
+    String getSecretKey() {
+        return secretKey;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public int getUploadThreads() {
+        return uploadThreads;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+}
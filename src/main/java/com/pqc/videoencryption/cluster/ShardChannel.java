@@ -0,0 +1,317 @@
+package com.pqc.videoencryption.cluster;
+
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.KeyDerivation;
+import com.pqc.videoencryption.crypto.KyberEncapsulator;
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import com.pqc.videoencryption.crypto.RandomSource;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * An authenticated, encrypted link between a coordinator and one worker
+ * connection.
+ *
+ * <p>The handshake runs an ephemeral Kyber-1024 exchange and both sides
+ * prove knowledge of the cluster secret over its transcript, the worker
+ * first. The session keys are derived from the Kyber secret and the
+ * cluster secret together, one per direction, so recorded traffic stays
+ * private even if the cluster secret later leaks. Every message after the
+ * handshake is one AES-256-GCM record whose nonce is the count of records
+ * sent in that direction; a reordered, replayed or altered record fails
+ * its tag and ends the connection.
+ *
+ * <p>A record carries a message, an optional body encrypted along with it
+ * and an optional attachment that is only authenticated, as additional data
+ * under the same tag. Attachments are for payloads that are ciphertext
+ * already, such as sealed segments, which gain nothing from a second
+ * encryption. Record buffers are kept per channel and reused.
+ */
+final class ShardChannel {
+
+    private static final byte[] WORKER_LABEL = "PQSH worker".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] COORDINATOR_LABEL = "PQSH coordinator".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SESSION_INFO = "PQSH session keys".getBytes(StandardCharsets.US_ASCII);
+    private static final int KEY_SIZE = 32;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final SecretKey sendKey;
+    private final SecretKey receiveKey;
+    private final Cipher sendCipher;
+    private final Cipher receiveCipher;
+    private final ByteBuffer lengths = ByteBuffer.allocate(12);
+    private byte[] sendBuffer = new byte[0];
+    private byte[] receiveBuffer = new byte[0];
+    private byte[] openBuffer = new byte[0];
+    private byte[] attachmentBuffer = new byte[0];
+    private int messageLength;
+    private int bodyLength;
+    private int attachmentLength;
+    private long sent;
+    private long received;
+
+    private ShardChannel(DataInputStream in, DataOutputStream out, SecretKey sendKey, SecretKey receiveKey)
+            throws GeneralSecurityException {
+        this.in = in;
+        this.out = out;
+        this.sendKey = sendKey;
+        this.receiveKey = receiveKey;
+        this.sendCipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
+        this.receiveCipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
+    }
+
+    /**
+     * Runs the coordinator side of the handshake.
+     *
+     * @throws IOException if the peer is not a worker holding {@code secret}
+     */
+    static ShardChannel coordinator(DataInputStream in, DataOutputStream out, byte[] secret)
+            throws IOException, GeneralSecurityException {
+        byte[] coordinatorNonce = RandomSource.nextBytes(ShardProtocol.CHALLENGE_SIZE);
+        KeyPair ephemeral = PostQuantumKeyExchange.generateKeyPair();
+        byte[] publicKey = PostQuantumKeyExchange.encodePublicKey(ephemeral.getPublic());
+        out.writeInt(ShardProtocol.MAGIC);
+        out.writeInt(ShardProtocol.VERSION);
+        out.write(coordinatorNonce);
+        ShardProtocol.writeBytes(out, publicKey);
+        out.flush();
+
+        byte[] workerNonce = ShardProtocol.readBytes(in, ShardProtocol.CHALLENGE_SIZE);
+        byte[] encapsulation = ShardProtocol.readBytes(in, in.readInt(), ShardProtocol.MAX_HANDSHAKE_FIELD);
+        byte[] workerProof = ShardProtocol.readBytes(in, ShardProtocol.PROOF_SIZE);
+        byte[] transcript = transcript(coordinatorNonce, publicKey, workerNonce, encapsulation);
+        if (!MessageDigest.isEqual(ShardProtocol.prove(secret, WORKER_LABEL, transcript), workerProof)) {
+            throw new IOException("Worker failed authentication");
+        }
+        out.write(ShardProtocol.prove(secret, COORDINATOR_LABEL, transcript));
+        out.flush();
+
+        SecretKey shared = KyberEncapsulator.decapsulate(ephemeral.getPrivate(), encapsulation);
+        byte[] keys = sessionKeys(shared, secret, transcript);
+        SymmetricEncryption.wipe(shared);
+        return open(in, out, keys, true);
+    }
+
+    /**
+     * Runs the worker side of the handshake.
+     *
+     * @throws IOException if the peer is not a coordinator holding {@code secret}
+     */
+    static ShardChannel worker(DataInputStream in, DataOutputStream out, byte[] secret)
+            throws IOException, GeneralSecurityException {
+        if (in.readInt() != ShardProtocol.MAGIC || in.readInt() != ShardProtocol.VERSION) {
+            throw new IOException("Not a compatible shard coordinator");
+        }
+        byte[] coordinatorNonce = ShardProtocol.readBytes(in, ShardProtocol.CHALLENGE_SIZE);
+        byte[] publicKey = ShardProtocol.readBytes(in, in.readInt(), ShardProtocol.MAX_HANDSHAKE_FIELD);
+        KyberEncapsulator.Encapsulation kem =
+            KyberEncapsulator.encapsulate(PostQuantumKeyExchange.decodePublicKey(publicKey));
+        byte[] workerNonce = RandomSource.nextBytes(ShardProtocol.CHALLENGE_SIZE);
+        byte[] encapsulation = kem.getEncapsulation();
+        byte[] transcript = transcript(coordinatorNonce, publicKey, workerNonce, encapsulation);
+        try {
+            out.write(workerNonce);
+            ShardProtocol.writeBytes(out, encapsulation);
+            out.write(ShardProtocol.prove(secret, WORKER_LABEL, transcript));
+            out.flush();
+
+            byte[] coordinatorProof = ShardProtocol.readBytes(in, ShardProtocol.PROOF_SIZE);
+            if (!MessageDigest.isEqual(ShardProtocol.prove(secret, COORDINATOR_LABEL, transcript),
+                    coordinatorProof)) {
+                throw new IOException("Coordinator failed authentication");
+            }
+            SecretKey shared = kem.getSecret();
+            byte[] keys = sessionKeys(shared, secret, transcript);
+            SymmetricEncryption.wipe(shared);
+            return open(in, out, keys, false);
+        } finally {
+            kem.wipe();
+        }
+    }
+
+    void send(byte[] message) throws IOException {
+        send(message, null, null);
+    }
+
+    /**
+     * Sends {@code message} and the remaining bytes of {@code body}
+     * encrypted, and the remaining bytes of {@code attachment} in the clear
+     * but covered by the record's tag. Either buffer may be null.
+     */
+    void send(byte[] message, ByteBuffer body, ByteBuffer attachment) throws IOException {
+        int bodyBytes = body == null ? 0 : body.remaining();
+        int attachmentBytes = attachment == null ? 0 : attachment.remaining();
+        if ((long) message.length + bodyBytes + attachmentBytes > ShardProtocol.MAX_PAYLOAD) {
+            throw new IOException("Shard message too large");
+        }
+        lengths.clear().putInt(message.length).putInt(bodyBytes).putInt(attachmentBytes);
+        try {
+            sendCipher.init(Cipher.ENCRYPT_MODE, sendKey, nonce(sent++));
+            sendCipher.updateAAD(lengths.array());
+            if (attachment != null) {
+                sendCipher.updateAAD(attachment.duplicate());
+            }
+            sendBuffer = grow(sendBuffer, message.length + bodyBytes + CryptoConstants.GCM_TAG_LENGTH);
+            ByteBuffer sealed = ByteBuffer.wrap(sendBuffer);
+            sendCipher.update(ByteBuffer.wrap(message), sealed);
+            sendCipher.doFinal(body == null ? ByteBuffer.allocate(0) : body, sealed);
+            out.write(lengths.array());
+            if (attachment != null) {
+                writeAttachment(attachment);
+            }
+            out.write(sendBuffer, 0, sealed.position());
+            out.flush();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not seal shard message", e);
+        }
+    }
+
+    /**
+     * Reads and opens the next record. The message stream, {@link #body()}
+     * and {@link #attachment()} are only valid until the next call.
+     *
+     * @throws java.io.EOFException if the peer closed the connection between records
+     */
+    DataInputStream receive() throws IOException {
+        in.readFully(lengths.array());
+        messageLength = lengths.getInt(0);
+        bodyLength = lengths.getInt(4);
+        attachmentLength = lengths.getInt(8);
+        if (messageLength < 0 || bodyLength < 0 || attachmentLength < 0
+                || (long) messageLength + bodyLength + attachmentLength > ShardProtocol.MAX_PAYLOAD) {
+            throw new IOException("Invalid shard record lengths");
+        }
+        int sealedLength = messageLength + bodyLength + CryptoConstants.GCM_TAG_LENGTH;
+        attachmentBuffer = grow(attachmentBuffer, attachmentLength);
+        receiveBuffer = grow(receiveBuffer, sealedLength);
+        openBuffer = grow(openBuffer, sealedLength);
+        in.readFully(attachmentBuffer, 0, attachmentLength);
+        in.readFully(receiveBuffer, 0, sealedLength);
+        try {
+            receiveCipher.init(Cipher.DECRYPT_MODE, receiveKey, nonce(received++));
+            receiveCipher.updateAAD(lengths.array());
+            receiveCipher.updateAAD(attachmentBuffer, 0, attachmentLength);
+            receiveCipher.doFinal(receiveBuffer, 0, sealedLength, openBuffer, 0);
+            return new DataInputStream(new ByteArrayInputStream(openBuffer, 0, messageLength));
+        } catch (AEADBadTagException e) {
+            throw new IOException("Shard message failed authentication", e);
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not open shard message", e);
+        }
+    }
+
+    /**
+     * The decrypted body of the last record received.
+     */
+    ByteBuffer body() {
+        return ByteBuffer.wrap(openBuffer, messageLength, bodyLength).slice();
+    }
+
+    /**
+     * The authenticated attachment of the last record received.
+     */
+    ByteBuffer attachment() {
+        return ByteBuffer.wrap(attachmentBuffer, 0, attachmentLength).slice();
+    }
+
+    void wipe() {
+        SymmetricEncryption.wipe(sendKey);
+        SymmetricEncryption.wipe(receiveKey);
+        Arrays.fill(sendBuffer, (byte) 0);
+        Arrays.fill(openBuffer, (byte) 0);
+    }
+
+    private void writeAttachment(ByteBuffer attachment) throws IOException {
+        if (attachment.hasArray()) {
+            out.write(attachment.array(), attachment.arrayOffset() + attachment.position(), attachment.remaining());
+            attachment.position(attachment.limit());
+            return;
+        }
+        byte[] staging = new byte[Math.min(attachment.remaining(), 1 << 16)];
+        while (attachment.hasRemaining()) {
+            int n = Math.min(staging.length, attachment.remaining());
+            attachment.get(staging, 0, n);
+            out.write(staging, 0, n);
+        }
+    }
+
+    private static byte[] grow(byte[] buffer, int size) {
+        return buffer.length >= size ? buffer : new byte[Math.max(size, buffer.length * 2)];
+    }
+
+    /**
+     * Collects one outgoing message for {@link #send}.
+     */
+    static final class Message extends DataOutputStream {
+        Message(int type) throws IOException {
+            super(new ByteArrayOutputStream());
+            writeInt(type);
+        }
+
+        byte[] toByteArray() {
+            return ((ByteArrayOutputStream) out).toByteArray();
+        }
+    }
+
+    private static ShardChannel open(DataInputStream in, DataOutputStream out, byte[] keys, boolean coordinator)
+            throws GeneralSecurityException {
+        byte[] workerBound = Arrays.copyOfRange(keys, 0, KEY_SIZE);
+        byte[] coordinatorBound = Arrays.copyOfRange(keys, KEY_SIZE, 2 * KEY_SIZE);
+        try {
+            SecretKey toWorker = SymmetricEncryption.createKey(workerBound);
+            SecretKey toCoordinator = SymmetricEncryption.createKey(coordinatorBound);
+            return coordinator
+                ? new ShardChannel(in, out, toWorker, toCoordinator)
+                : new ShardChannel(in, out, toCoordinator, toWorker);
+        } finally {
+            Arrays.fill(keys, (byte) 0);
+            Arrays.fill(workerBound, (byte) 0);
+            Arrays.fill(coordinatorBound, (byte) 0);
+        }
+    }
+
+    private static byte[] sessionKeys(SecretKey shared, byte[] secret, byte[] transcript)
+            throws GeneralSecurityException {
+        byte[] kemSecret = shared.getEncoded();
+        byte[] material = ByteBuffer.allocate(kemSecret.length + secret.length).put(kemSecret).put(secret).array();
+        try {
+            return KeyDerivation.deriveKey(material, transcript, SESSION_INFO, 2 * KEY_SIZE);
+        } finally {
+            Arrays.fill(kemSecret, (byte) 0);
+            Arrays.fill(material, (byte) 0);
+        }
+    }
+
+    private static byte[] transcript(byte[] coordinatorNonce, byte[] publicKey, byte[] workerNonce,
+                                     byte[] encapsulation) throws GeneralSecurityException {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(ByteBuffer.allocate(8).putInt(ShardProtocol.MAGIC).putInt(ShardProtocol.VERSION).array());
+        digest.update(coordinatorNonce);
+        digest.update(publicKey);
+        digest.update(workerNonce);
+        digest.update(encapsulation);
+        return digest.digest();
+    }
+
+    private static GCMParameterSpec nonce(long counter) {
+        byte[] iv = new byte[CryptoConstants.GCM_IV_SIZE];
+        ByteBuffer.wrap(iv).putLong(iv.length - 8, counter);
+        return new GCMParameterSpec(CryptoConstants.GCM_TAG_SIZE, iv);
+    }
+}
@@ -0,0 +1,491 @@
+package com.pqc.videoencryption.cluster;
+
+import com.pqc.videoencryption.crypto.BufferPool;
+import com.pqc.videoencryption.crypto.CheckpointJournal;
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.EncryptedFileHeader;
+import com.pqc.videoencryption.crypto.KeyDerivation;
+import com.pqc.videoencryption.crypto.OutputCommitter;
+import com.pqc.videoencryption.crypto.SegmentPipeline;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coordinator for encrypting large files across worker processes.
+ *
+ * <p>Workers ({@link ShardWorker}) connect to the coordinator's socket and
+ * the two sides authenticate each other with the cluster secret over an
+ * ephemeral Kyber exchange; everything after that, plaintext and segment
+ * keys included, travels encrypted ({@link ShardChannel}).
+ *
+ * <p>{@link #encrypt} splits the input into ranges of
+ * {@link #RANGE_SEGMENTS} segments and queues them; every
+ * worker connection takes one range at a time along with the file's
+ * segment key. A worker that shares storage with the coordinator reads
+ * the range from the input itself and writes the sealed segments at their
+ * fixed offset in {@code <output>.partial}, so only range descriptors cross
+ * the link. A connection whose worker cannot reach the files is sent the
+ * plaintext instead and returns the sealed segments, which the link only
+ * authenticates since they are ciphertext already. Because sealed sizes
+ * are known up front, ranges complete in any order. A connection that fails or
+ * stalls for {@link #TASK_TIMEOUT_MILLIS} puts its range back on the queue
+ * for another worker; a range that fails {@link #MAX_ATTEMPTS} times fails
+ * the file, as does a job that has had no worker connected for the
+ * worker wait. The output appears by atomic rename once every range is
+ * written.
+ */
+public final class ShardCoordinator implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    public static final int RANGE_SEGMENTS = 8;
+    public static final int MAX_ATTEMPTS = 4;
+    public static final int TASK_TIMEOUT_MILLIS = 60_000;
+    public static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+    public static final long DEFAULT_WORKER_WAIT_MILLIS = 60_000;
+
+    private final byte[] secret;
+    private final long workerWaitMillis;
+    private final ServerSocket server;
+    private final LinkedBlockingQueue<Task> queue = new LinkedBlockingQueue<>();
+    private final Set<Socket> workers = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger connectionCounter = new AtomicInteger();
+    private final AtomicLong redispatched = new AtomicLong();
+    private final AtomicLong inlineRanges = new AtomicLong();
+    private final BufferPool pool = BufferPool.shared();
+    private final AtomicLong taskCounter = new AtomicLong();
+    private volatile boolean closed;
+
+    public ShardCoordinator(InetSocketAddress bindAddress, byte[] secret) throws IOException {
+        this(bindAddress, secret, DEFAULT_WORKER_WAIT_MILLIS);
+    }
+
+    /**
+     * @param workerWaitMillis how long a job waits with no worker connected before it fails
+     */
+    public ShardCoordinator(InetSocketAddress bindAddress, byte[] secret, long workerWaitMillis) throws IOException {
+        if (workerWaitMillis < 1) {
+            throw new IllegalArgumentException("Worker wait must be positive");
+        }
+        this.secret = secret.clone();
+        this.workerWaitMillis = workerWaitMillis;
+        this.server = new ServerSocket();
+        server.bind(bindAddress, 64);
+        Thread acceptor = new Thread(this::acceptLoop, "pqve-shard-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        logger.info("Shard coordinator listening on {}", server.getLocalSocketAddress());
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Number of authenticated worker connections.
+     */
+    public int getWorkerConnections() {
+        return workers.size();
+    }
+
+    /**
+     * Number of ranges handed to another worker after a failure.
+     */
+    public long getRedispatched() {
+        return redispatched.get();
+    }
+
+    /**
+     * Number of ranges whose plaintext was sent over a worker link because
+     * the worker could not reach the files.
+     */
+    public long getInlineRanges() {
+        return inlineRanges.get();
+    }
+
+    /**
+     * Encrypts {@code input} into a v2 file at {@code output} using the
+     * connected workers. Waits up to the worker wait for a worker if none
+     * is connected.
+     */
+    public SegmentPipeline.Stats encrypt(Path input, Path output, String owner, SecretKey masterKey)
+            throws IOException, GeneralSecurityException {
+        EncryptedFileHeader header = EncryptedFileHeader.create(
+            input.getFileName().toString(), owner, CryptoConstants.SEGMENT_SIZE);
+        long inputSize = Files.size(input);
+        long inputModified = Files.getLastModifiedTime(input).toMillis();
+        long segments = Math.max(1, (inputSize + header.getSegmentSize() - 1) / header.getSegmentSize());
+        Path partial = CheckpointJournal.partialPath(output);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        long start = System.nanoTime();
+
+        boolean success = false;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(partial, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.wrap(header.getEncoded()), 0);
+            // Workers on other hosts check this header before writing into the file.
+            out.force(false);
+            Job job = new Job(header, segmentKey.getEncoded(), input.toAbsolutePath(), inputModified,
+                partial.toAbsolutePath(), in, out, inputSize, segments);
+            try {
+                for (long first = 0; first < segments; first += RANGE_SEGMENTS) {
+                    queue.add(new Task(taskCounter.incrementAndGet(), job, first,
+                        Math.min(RANGE_SEGMENTS, segments - first)));
+                }
+                await(job);
+            } finally {
+                job.failed = true;
+                Arrays.fill(job.keyBytes, (byte) 0);
+                queue.removeIf(task -> task.job == job);
+            }
+            if (Files.size(input) != inputSize || Files.getLastModifiedTime(input).toMillis() != inputModified) {
+                throw new IOException(input.getFileName() + " changed while being encrypted");
+            }
+            success = true;
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+            if (!success) {
+                Files.deleteIfExists(partial);
+            }
+        }
+
+        OutputCommitter.shared().commit(partial, output);
+        long sealed = inputSize + segments * CryptoConstants.GCM_TAG_LENGTH;
+        SegmentPipeline.Stats stats = new SegmentPipeline.Stats(segments, inputSize, header.length() + sealed,
+            System.nanoTime() - start, 0);
+        logger.info("Sharded encryption of {}: {} segments in {} ranges, {} MB/s",
+            input.getFileName(), segments, (segments + RANGE_SEGMENTS - 1) / RANGE_SEGMENTS,
+            String.format("%.1f", stats.megabytesPerSecond()));
+        return stats;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Socket worker : workers) {
+            worker.close();
+        }
+        Task task;
+        while ((task = queue.poll()) != null) {
+            task.job.fail(new IOException("Shard coordinator closed"));
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    logger.warn("Shard coordinator stopped accepting: {}", e.toString());
+                }
+                return;
+            }
+            Thread handler = new Thread(() -> serve(socket), "pqve-shard-" + connectionCounter.incrementAndGet());
+            handler.setDaemon(true);
+            handler.start();
+        }
+    }
+
+    private void serve(Socket socket) {
+        Task task = null;
+        ShardChannel channel = null;
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            try {
+                channel = ShardChannel.coordinator(in, out, secret);
+            } catch (IOException | GeneralSecurityException e) {
+                logger.warn("Rejected shard worker from {}: {}", socket.getRemoteSocketAddress(), e.getMessage());
+                return;
+            }
+            socket.setSoTimeout(TASK_TIMEOUT_MILLIS);
+            workers.add(socket);
+            if (closed) {
+                return;
+            }
+            boolean shared = true;
+            while (!closed) {
+                task = queue.poll(1, TimeUnit.SECONDS);
+                if (task == null || task.job.failed) {
+                    task = null;
+                    continue;
+                }
+                shared = run(task, channel, shared);
+                task = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (!closed) {
+                logger.warn("Shard worker {} dropped: {}", socket.getRemoteSocketAddress(), e.toString());
+            }
+        } finally {
+            workers.remove(socket);
+            if (channel != null) {
+                channel.wipe();
+            }
+            if (task != null) {
+                retry(task, "worker connection lost");
+            }
+        }
+    }
+
+    /**
+     * Has one range sealed: by the worker on shared storage while
+     * {@code shared} holds, otherwise by sending it the plaintext and
+     * writing the sealed result. I/O failures on the worker link propagate
+     * so the caller re-queues the range; a failure reported by the worker
+     * is retried without dropping the connection.
+     *
+     * @return whether the worker can still be given ranges on shared storage
+     */
+    private boolean run(Task task, ShardChannel channel, boolean shared) throws IOException {
+        Job job = task.job;
+        int segmentSize = job.header.getSegmentSize();
+        long plainOffset = task.firstIndex * segmentSize;
+        int plainLength = (int) Math.min((long) task.count * segmentSize, job.inputSize - plainOffset);
+
+        if (shared) {
+            try (ShardChannel.Message message = task(task, plainLength, false)) {
+                message.writeUTF(job.inputPath.toString());
+                message.writeLong(job.inputSize);
+                message.writeLong(job.inputModified);
+                message.writeUTF(job.outputPath.toString());
+                message.writeInt(job.header.length());
+                channel.send(message.toByteArray());
+            }
+            DataInputStream in = channel.receive();
+            int type = reply(task, in);
+            if (type == ShardProtocol.WRITTEN) {
+                job.completed(task.count);
+                return true;
+            }
+            if (type != ShardProtocol.UNSHARED) {
+                answered(task, type, in);
+                return true;
+            }
+            logger.info("Shard worker cannot reach {} directly ({}); sending it plaintext",
+                job.inputPath.getFileName(), in.readUTF());
+        }
+
+        inlineRanges.incrementAndGet();
+        try (BufferPool.PooledBuffer plaintext = pool.acquire(plainLength)) {
+            try {
+                readFully(job.input, plaintext.buffer(), plainOffset);
+            } catch (IOException e) {
+                job.fail(e);
+                return false;
+            }
+            try (ShardChannel.Message message = task(task, plainLength, true)) {
+                channel.send(message.toByteArray(), plaintext.buffer().flip(), null);
+            }
+        }
+        DataInputStream in = channel.receive();
+        int type = reply(task, in);
+        if (type != ShardProtocol.RESULT) {
+            answered(task, type, in);
+            return false;
+        }
+        int expected = plainLength + task.count * CryptoConstants.GCM_TAG_LENGTH;
+        ByteBuffer sealed = channel.attachment();
+        if (sealed.remaining() != expected) {
+            throw new IOException("Worker returned " + sealed.remaining() + " sealed bytes, expected " + expected);
+        }
+        try {
+            writeFully(job.output, sealed, job.header.length() + task.firstIndex * job.header.sealedSegmentSize());
+        } catch (IOException e) {
+            job.fail(e);
+            return false;
+        }
+        job.completed(task.count);
+        return false;
+    }
+
+    private ShardChannel.Message task(Task task, int plainLength, boolean inline) throws IOException {
+        Job job = task.job;
+        ShardChannel.Message message = new ShardChannel.Message(ShardProtocol.TASK);
+        message.writeLong(task.id);
+        message.write(job.keyBytes);
+        message.write(job.digest);
+        message.writeInt(job.header.getSegmentSize());
+        message.writeLong(task.firstIndex);
+        message.writeBoolean(task.firstIndex + task.count == job.segments);
+        message.writeInt(plainLength);
+        message.writeBoolean(inline);
+        return message;
+    }
+
+    /**
+     * Reads the type of the worker's answer to {@code task}.
+     */
+    private static int reply(Task task, DataInputStream in) throws IOException {
+        int type = in.readInt();
+        long id = in.readLong();
+        if (id != task.id) {
+            throw new IOException("Worker answered task " + id + " instead of " + task.id);
+        }
+        return type;
+    }
+
+    /**
+     * Handles an answer that does not complete the range.
+     */
+    private void answered(Task task, int type, DataInputStream in) throws IOException {
+        if (type != ShardProtocol.FAILED) {
+            throw new IOException("Unexpected shard message " + type);
+        }
+        retry(task, in.readUTF());
+    }
+
+    private void retry(Task task, String reason) {
+        if (task.job.failed) {
+            return;
+        }
+        if (++task.attempts >= MAX_ATTEMPTS) {
+            task.job.fail(new IOException("Segments " + task.firstIndex + ".." + (task.firstIndex + task.count - 1)
+                + " failed on " + MAX_ATTEMPTS + " workers: " + reason));
+            return;
+        }
+        logger.warn("Re-dispatching segments {}..{}: {}", task.firstIndex, task.firstIndex + task.count - 1, reason);
+        redispatched.incrementAndGet();
+        queue.add(task);
+    }
+
+    private void await(Job job) throws IOException, GeneralSecurityException {
+        long idleSince = System.nanoTime();
+        try {
+            while (true) {
+                try {
+                    job.done.get(200, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (TimeoutException e) {
+                    if (!workers.isEmpty()) {
+                        idleSince = System.nanoTime();
+                    } else if (System.nanoTime() - idleSince > TimeUnit.MILLISECONDS.toNanos(workerWaitMillis)) {
+                        job.fail(new IOException("No shard worker connected for " + workerWaitMillis + " ms"));
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for shard workers");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            }
+            throw new IOException("Sharded encryption failed", cause);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Input shrank while being encrypted");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static final class Job {
+        final EncryptedFileHeader header;
+        final byte[] keyBytes;
+        final byte[] digest;
+        final Path inputPath;
+        final long inputModified;
+        final Path outputPath;
+        final FileChannel input;
+        final FileChannel output;
+        final long inputSize;
+        final long segments;
+        final AtomicLong remaining;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile boolean failed;
+
+        Job(EncryptedFileHeader header, byte[] keyBytes, Path inputPath, long inputModified, Path outputPath,
+            FileChannel input, FileChannel output, long inputSize, long segments) {
+            this.header = header;
+            this.keyBytes = keyBytes;
+            this.digest = header.digest();
+            this.inputPath = inputPath;
+            this.inputModified = inputModified;
+            this.outputPath = outputPath;
+            this.input = input;
+            this.output = output;
+            this.inputSize = inputSize;
+            this.segments = segments;
+            this.remaining = new AtomicLong(segments);
+        }
+
+        void completed(int count) {
+            if (remaining.addAndGet(-count) == 0) {
+                done.complete(null);
+            }
+        }
+
+        void fail(Throwable failure) {
+            failed = true;
+            done.completeExceptionally(failure);
+        }
+    }
+
+    private static final class Task {
+        final long id;
+        final Job job;
+        final long firstIndex;
+        final int count;
+        int attempts;
+
+        Task(long id, Job job, long firstIndex, long count) {
+            this.id = id;
+            this.job = job;
+            this.firstIndex = firstIndex;
+            this.count = (int) count;
+        }
+    }
+}
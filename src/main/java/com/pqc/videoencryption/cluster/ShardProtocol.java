@@ -0,0 +1,97 @@
+package com.pqc.videoencryption.cluster;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+
+/**
+ * Wire format shared by {@link ShardCoordinator} and {@link ShardWorker}.
+ *
+ * <pre>
+ * coordinator -> worker  [4: magic "PQSH"][4: version][32: coordinator nonce][4 + ephemeral Kyber-1024 public key]
+ * worker -> coordinator  [32: worker nonce][4 + Kyber ciphertext][32: HMAC(secret, "PQSH worker" || transcript)]
+ * coordinator -> worker  [32: HMAC(secret, "PQSH coordinator" || transcript)]
+ * </pre>
+ *
+ * After the handshake every message travels as one {@link ShardChannel}
+ * record, {@code [4: message length][4: body length][4: attachment length]
+ * [attachment][AES-256-GCM ciphertext of message and body]}:
+ *
+ * <pre>
+ * coordinator -> worker  [4: TASK][8: task id][32: segment key][32: header digest]
+ *                        [4: segment size][8: first segment index][1: final range]
+ *                        [4: plaintext length][1: inline]
+ *                        inline:  body = plaintext
+ *                        shared:  [UTF: input path][8: input size][8: input mtime]
+ *                                 [UTF: partial output path][4: header length]
+ * worker -> coordinator  [4: WRITTEN][8: task id]                 sealed range written to the partial file
+ *                     or [4: RESULT][8: task id], attachment = sealed segments
+ *                     or [4: UNSHARED][8: task id][UTF: reason]  the worker cannot reach the files
+ *                     or [4: FAILED][8: task id][UTF: message]
+ * </pre>
+ */
+final class ShardProtocol {
+
+    static final int MAGIC = 0x50515348;
+    static final int VERSION = 3;
+    static final int CHALLENGE_SIZE = 32;
+    static final int PROOF_SIZE = 32;
+    static final int TASK = 1;
+    static final int RESULT = 2;
+    static final int FAILED = 3;
+    static final int WRITTEN = 4;
+    static final int UNSHARED = 5;
+    static final int MAX_HANDSHAKE_FIELD = 4096;
+    static final int MAX_PAYLOAD = 256 << 20;
+    static final String SECRET_ENV = "PQVE_CLUSTER_SECRET";
+    static final String SECRET_PROPERTY = "pqve.cluster.secret";
+
+    private ShardProtocol() {
+        throw new AssertionError("Utility class");
+    }
+
+    /**
+     * Reads the cluster secret from {@code pqve.cluster.secret} or the
+     * {@code PQVE_CLUSTER_SECRET} environment variable.
+     */
+    static byte[] configuredSecret() {
+        String secret = System.getProperty(SECRET_PROPERTY, System.getenv(SECRET_ENV));
+        if (secret == null || secret.length() < 16) {
+            throw new IllegalStateException("Set " + SECRET_ENV + " to a shared secret of at least 16 characters");
+        }
+        return secret.getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] prove(byte[] secret, byte[] label, byte[] transcript) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            mac.update(label);
+            return mac.doFinal(transcript);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+        }
+    }
+
+    static byte[] readBytes(DataInputStream in, int length) throws IOException {
+        return readBytes(in, length, MAX_PAYLOAD);
+    }
+
+    static byte[] readBytes(DataInputStream in, int length, int max) throws IOException {
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid shard frame length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,351 @@
+package com.pqc.videoencryption.cluster;
+
+import com.pqc.videoencryption.crypto.BufferPool;
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Worker process for sharded encryption. Each of its connections to the
+ * coordinator receives one segment range at a time and seals it with the
+ * file's segment key. When the worker can reach the coordinator's input
+ * and partial output, e.g. on shared storage, it reads the range and writes
+ * the sealed segments there itself; otherwise it seals the plaintext the
+ * coordinator sends and returns the ciphertext. Connections are
+ * independent, so a worker with {@code n} connections seals {@code n}
+ * ranges in parallel. The worker only ever sees per-file segment keys,
+ * never a user's master key, and only after the coordinator has proved it
+ * holds the cluster secret. A connection gives up if the coordinator cannot
+ * be reached within {@link #CONNECT_TIMEOUT_MILLIS} or sends nothing for
+ * {@link #IDLE_TIMEOUT_MILLIS}.
+ */
+public final class ShardWorker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ShardWorker.class);
+
+    public static final int CONNECT_TIMEOUT_MILLIS = 10_000;
+    public static final int IDLE_TIMEOUT_MILLIS = 10 * 60_000;
+
+    private final InetSocketAddress coordinator;
+    private final byte[] secret;
+    private final int connections;
+    private final int idleTimeoutMillis;
+    private final boolean sharedStorage;
+    private final BufferPool pool = BufferPool.shared();
+
+    public ShardWorker(InetSocketAddress coordinator, byte[] secret, int connections) {
+        this(coordinator, secret, connections, IDLE_TIMEOUT_MILLIS, true);
+    }
+
+    /**
+     * @param sharedStorage whether to read and write the coordinator's files
+     *                      directly when they are reachable from this worker
+     */
+    public ShardWorker(InetSocketAddress coordinator, byte[] secret, int connections, int idleTimeoutMillis,
+                       boolean sharedStorage) {
+        if (connections < 1) {
+            throw new IllegalArgumentException("Worker needs at least one connection");
+        }
+        if (idleTimeoutMillis < 1) {
+            throw new IllegalArgumentException("Idle timeout must be positive");
+        }
+        this.coordinator = coordinator;
+        this.secret = secret.clone();
+        this.connections = connections;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.sharedStorage = sharedStorage;
+    }
+
+    /**
+     * Entry point for {@code --worker host:port [connections] [--no-shared-storage]};
+     * the cluster secret comes from {@code PQVE_CLUSTER_SECRET}.
+     */
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<>(Arrays.asList(args));
+        boolean sharedStorage = !arguments.remove("--no-shared-storage");
+        if (arguments.isEmpty()) {
+            throw new IllegalArgumentException("Usage: --worker host:port [connections] [--no-shared-storage]");
+        }
+        String target = arguments.get(0);
+        int colon = target.lastIndexOf(':');
+        InetSocketAddress address = new InetSocketAddress(target.substring(0, colon),
+            Integer.parseInt(target.substring(colon + 1)));
+        int connections = arguments.size() > 1
+            ? Integer.parseInt(arguments.get(1)) : Runtime.getRuntime().availableProcessors();
+        new ShardWorker(address, ShardProtocol.configuredSecret(), connections, IDLE_TIMEOUT_MILLIS,
+            sharedStorage).run();
+    }
+
+    /**
+     * Serves the coordinator until it disconnects or goes idle.
+     *
+     * @throws IOException if no connection got past the handshake, e.g.
+     *                     because the coordinator is unreachable or failed authentication
+     */
+    public void run() throws IOException, InterruptedException {
+        List<Thread> threads = new ArrayList<>(connections);
+        AtomicInteger established = new AtomicInteger();
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        for (int i = 0; i < connections; i++) {
+            Thread thread = new Thread(() -> serve(established, failure), "pqve-shard-worker-" + i);
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (established.get() == 0) {
+            throw new IOException("Could not join shard coordinator at " + coordinator, failure.get());
+        }
+        logger.info("Shard worker finished");
+    }
+
+    private void serve(AtomicInteger established, AtomicReference<Exception> failure) {
+        ShardChannel channel = null;
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(coordinator, CONNECT_TIMEOUT_MILLIS);
+            socket.setSoTimeout(ShardCoordinator.HANDSHAKE_TIMEOUT_MILLIS);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            channel = ShardChannel.worker(in, out, secret);
+            established.incrementAndGet();
+            socket.setSoTimeout(idleTimeoutMillis);
+
+            Cipher cipher = SymmetricEncryption.newSegmentCipher();
+            byte[] sealed = new byte[0];
+            while (true) {
+                DataInputStream message;
+                try {
+                    message = channel.receive();
+                } catch (EOFException e) {
+                    return;
+                } catch (SocketTimeoutException e) {
+                    logger.info("Shard coordinator idle for {} ms, disconnecting", idleTimeoutMillis);
+                    return;
+                }
+                int type = message.readInt();
+                if (type != ShardProtocol.TASK) {
+                    throw new IOException("Unexpected shard message " + type);
+                }
+                Range range = Range.read(message);
+                ShardChannel.Message reply;
+                try {
+                    if (range.inline) {
+                        ByteBuffer plaintext = channel.body();
+                        if (plaintext.remaining() != range.length) {
+                            throw new IOException("Range of " + range.length + " bytes arrived with "
+                                + plaintext.remaining());
+                        }
+                        if (sealed.length < range.sealedLength()) {
+                            sealed = new byte[range.sealedLength()];
+                        }
+                        ByteBuffer output = ByteBuffer.wrap(sealed, 0, range.sealedLength());
+                        seal(cipher, range, plaintext, output);
+                        reply = new ShardChannel.Message(ShardProtocol.RESULT);
+                        reply.writeLong(range.taskId);
+                        channel.send(reply.toByteArray(), null, output.flip());
+                        continue;
+                    }
+                    String unreachable = sharedStorage ? unreachable(range) : "shared storage disabled";
+                    if (unreachable != null) {
+                        reply = new ShardChannel.Message(ShardProtocol.UNSHARED);
+                        reply.writeLong(range.taskId);
+                        reply.writeUTF(unreachable);
+                    } else {
+                        writeShared(cipher, range);
+                        reply = new ShardChannel.Message(ShardProtocol.WRITTEN);
+                        reply.writeLong(range.taskId);
+                    }
+                } catch (GeneralSecurityException | IOException | RuntimeException e) {
+                    // Only this range failed; the coordinator retries it, here or elsewhere.
+                    reply = new ShardChannel.Message(ShardProtocol.FAILED);
+                    reply.writeLong(range.taskId);
+                    reply.writeUTF(String.valueOf(e.getMessage()));
+                } finally {
+                    Arrays.fill(range.keyBytes, (byte) 0);
+                    if (range.inline) {
+                        BufferPool.zero(channel.body());
+                    }
+                }
+                channel.send(reply.toByteArray());
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            failure.compareAndSet(null, e);
+            logger.warn("Shard worker connection ended: {}", e.toString());
+        } finally {
+            if (channel != null) {
+                channel.wipe();
+            }
+        }
+    }
+
+    /**
+     * Returns why this worker cannot seal {@code range} in place, or null if
+     * it sees the same input and partial output the coordinator does.
+     */
+    private static String unreachable(Range range) {
+        try {
+            if (Files.size(range.input) != range.inputSize
+                    || Files.getLastModifiedTime(range.input).toMillis() != range.inputModified) {
+                return range.input + " differs from the coordinator's copy";
+            }
+            if (!Files.isWritable(range.output)) {
+                return range.output + " is not writable";
+            }
+            ByteBuffer header = ByteBuffer.allocate(range.headerLength);
+            try (FileChannel output = FileChannel.open(range.output, StandardOpenOption.READ)) {
+                readFully(output, header, 0);
+            }
+            if (!MessageDigest.isEqual(MessageDigest.getInstance("SHA-256").digest(header.array()), range.digest)) {
+                return range.output + " is not the coordinator's partial file";
+            }
+            return null;
+        } catch (IOException | GeneralSecurityException e) {
+            return e.toString();
+        }
+    }
+
+    private void writeShared(Cipher cipher, Range range) throws IOException, GeneralSecurityException {
+        long sealedSegmentSize = range.segmentSize + (long) CryptoConstants.GCM_TAG_LENGTH;
+        try (FileChannel input = FileChannel.open(range.input, StandardOpenOption.READ);
+             FileChannel output = FileChannel.open(range.output, StandardOpenOption.WRITE);
+             BufferPool.PooledBuffer plaintext = pool.acquire(range.length);
+             BufferPool.PooledBuffer sealed = pool.acquire(range.sealedLength())) {
+            readFully(input, plaintext.buffer(), range.firstIndex * range.segmentSize);
+            seal(cipher, range, plaintext.buffer().flip(), sealed.buffer());
+            ByteBuffer data = sealed.buffer().flip();
+            long position = range.headerLength + range.firstIndex * sealedSegmentSize;
+            while (data.hasRemaining()) {
+                position += output.write(data, position);
+            }
+            // Closing flushes to the file server on NFS-style mounts; the
+            // coordinator forces the whole file before renaming it.
+        }
+    }
+
+    /**
+     * Seals one range exactly as {@code SegmentPipeline} would: segment
+     * {@code firstIndex + i}, the last segment of the file flagged as final.
+     */
+    static void seal(Cipher cipher, Range range, ByteBuffer plaintext, ByteBuffer sealed)
+            throws GeneralSecurityException {
+        long count = range.segments();
+        SecretKey key = SymmetricEncryption.createKey(range.keyBytes);
+        byte[] aad = SymmetricEncryption.segmentAad(range.digest);
+        int end = plaintext.limit();
+        try {
+            for (long i = 0; i < count; i++) {
+                plaintext.limit(Math.min(end, plaintext.position() + range.segmentSize));
+                boolean last = range.finalRange && i == count - 1;
+                SymmetricEncryption.sealSegment(cipher, key, range.firstIndex + i, last, aad, plaintext, sealed);
+            }
+        } finally {
+            plaintext.limit(end);
+            SymmetricEncryption.wipe(key);
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Input shrank while being encrypted");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * One {@link ShardProtocol#TASK}.
+     */
+    static final class Range {
+        final long taskId;
+        final byte[] keyBytes;
+        final byte[] digest;
+        final int segmentSize;
+        final long firstIndex;
+        final boolean finalRange;
+        final int length;
+        final boolean inline;
+        Path input;
+        long inputSize;
+        long inputModified;
+        Path output;
+        int headerLength;
+
+        private Range(long taskId, byte[] keyBytes, byte[] digest, int segmentSize, long firstIndex,
+                      boolean finalRange, int length, boolean inline) {
+            this.taskId = taskId;
+            this.keyBytes = keyBytes;
+            this.digest = digest;
+            this.segmentSize = segmentSize;
+            this.firstIndex = firstIndex;
+            this.finalRange = finalRange;
+            this.length = length;
+            this.inline = inline;
+        }
+
+        static Range read(DataInputStream in) throws IOException {
+            long taskId = in.readLong();
+            byte[] keyBytes = ShardProtocol.readBytes(in, CryptoConstants.HKDF_KEY_SIZE);
+            byte[] digest = ShardProtocol.readBytes(in, 32);
+            int segmentSize = in.readInt();
+            long firstIndex = in.readLong();
+            boolean finalRange = in.readBoolean();
+            int length = in.readInt();
+            boolean inline = in.readBoolean();
+            if (segmentSize < CryptoConstants.MIN_SEGMENT_SIZE || segmentSize > CryptoConstants.MAX_SEGMENT_SIZE
+                    || length < 0 || length > ShardProtocol.MAX_PAYLOAD) {
+                throw new IOException("Invalid shard range");
+            }
+            Range range = new Range(taskId, keyBytes, digest, segmentSize, firstIndex, finalRange, length, inline);
+            if (!inline) {
+                range.input = Paths.get(in.readUTF());
+                range.inputSize = in.readLong();
+                range.inputModified = in.readLong();
+                range.output = Paths.get(in.readUTF());
+                range.headerLength = in.readInt();
+                if (range.headerLength < 0 || range.headerLength > ShardProtocol.MAX_HANDSHAKE_FIELD) {
+                    throw new IOException("Invalid shard range");
+                }
+            }
+            return range;
+        }
+
+        long segments() {
+            long count = (length + (long) segmentSize - 1) / segmentSize;
+            return finalRange ? Math.max(1, count) : count;
+        }
+
+        int sealedLength() {
+            return (int) (length + segments() * CryptoConstants.GCM_TAG_LENGTH);
+        }
+    }
+}
@@ -0,0 +1,282 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Shared pool of page-aligned direct buffers in size classes. Buffers are
+ * zeroed when they come back, and the total reserved off-heap memory,
+ * including the extra page each buffer allocates for alignment, is capped.
+ * A buffer that becomes unreachable without being closed is reported as a
+ * leak and left to the garbage collector, never returned to the pool: views
+ * of it obtained from {@link PooledBuffer#buffer()} may still be live.
+ */
+public final class BufferPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    public static final int PAGE_SIZE = 4096;
+    private static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30_000;
+    private static final ByteBuffer ZEROS = ByteBuffer.allocateDirect(64 * 1024).asReadOnlyBuffer();
+    private static final Cleaner cleaner = Cleaner.create();
+    private static final BufferPool SHARED = new BufferPool(
+        Long.getLong("pqve.pool.maxBytes", Math.min(1L << 30, Runtime.getRuntime().maxMemory() / 2)),
+        Boolean.getBoolean("pqve.pool.trackLeaks"));
+
+    private final long maxBytes;
+    private final boolean recordAllocationSites;
+    private final ConcurrentHashMap<Integer, ConcurrentLinkedDeque<ByteBuffer>> freeLists = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final AtomicLong reservedBytes = new AtomicLong();
+    private final AtomicLong inUseBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong leaks = new AtomicLong();
+
+    public BufferPool(long maxBytes, boolean recordAllocationSites) {
+        if (maxBytes < footprint(PAGE_SIZE)) {
+            throw new IllegalArgumentException("Pool cap must fit a one-page buffer");
+        }
+        this.maxBytes = maxBytes;
+        this.recordAllocationSites = recordAllocationSites;
+    }
+
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public PooledBuffer acquire(int size) throws IOException {
+        return acquire(size, DEFAULT_ACQUIRE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public PooledBuffer acquire(int size, long timeout, TimeUnit unit) throws IOException {
+        if (size < 0) {
+            throw new IllegalArgumentException("Negative buffer size");
+        }
+        int sizeClass = sizeClass(size);
+        if (footprint(sizeClass) > maxBytes) {
+            throw new IllegalArgumentException("Buffer of " + size + " bytes exceeds pool cap");
+        }
+
+        ByteBuffer buffer = freeList(sizeClass).pollFirst();
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = allocate(sizeClass, unit.toNanos(timeout));
+        }
+        inUseBytes.addAndGet(sizeClass);
+        return new PooledBuffer(this, buffer, size, recordAllocationSites ? new Throwable("Buffer acquired here") : null);
+    }
+
+    private ByteBuffer allocate(int sizeClass, long timeoutNanos) throws IOException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (!tryReserve(sizeClass)) {
+            if (trimFreeLists(sizeClass)) {
+                continue;
+            }
+            ByteBuffer recycled = freeList(sizeClass).pollFirst();
+            if (recycled != null) {
+                return recycled;
+            }
+            lock.lock();
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new IOException("Off-heap buffer pool exhausted: " + reservedBytes.get()
+                        + " of " + maxBytes + " bytes reserved");
+                }
+                released.awaitNanos(Math.min(remaining, TimeUnit.MILLISECONDS.toNanos(50)));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted waiting for pool buffer");
+            } finally {
+                lock.unlock();
+            }
+        }
+        ByteBuffer raw = ByteBuffer.allocateDirect(sizeClass + PAGE_SIZE);
+        return raw.alignedSlice(PAGE_SIZE).limit(sizeClass).slice();
+    }
+
+    private boolean tryReserve(int sizeClass) {
+        long needed = footprint(sizeClass);
+        long current;
+        do {
+            current = reservedBytes.get();
+            if (current + needed > maxBytes) {
+                return false;
+            }
+        } while (!reservedBytes.compareAndSet(current, current + needed));
+        return true;
+    }
+
+    /**
+     * Off-heap bytes a buffer acquired for {@code size} bytes really takes:
+     * its size class, cut from an allocation one page larger so that it can
+     * start on a page. Budgets for pool users should be counted in these.
+     */
+    static long footprint(int size) {
+        return (long) sizeClass(size) + PAGE_SIZE;
+    }
+
+    private boolean trimFreeLists(int needed) {
+        long freed = 0;
+        for (var entry : freeLists.entrySet()) {
+            if (entry.getKey() == needed) {
+                continue;
+            }
+            ByteBuffer dropped;
+            while (freed < needed && (dropped = entry.getValue().pollFirst()) != null) {
+                reservedBytes.addAndGet(-footprint(dropped.capacity()));
+                freed += dropped.capacity();
+            }
+            if (freed >= needed) {
+                break;
+            }
+        }
+        return freed > 0;
+    }
+
+    void recycle(ByteBuffer buffer) {
+        zero(buffer);
+        inUseBytes.addAndGet(-buffer.capacity());
+        freeList(buffer.capacity()).offerFirst(buffer);
+        signalReleased();
+    }
+
+    /**
+     * Handles a buffer whose owner was collected without closing it: logs
+     * the leak and frees its reservation, leaving the memory to the
+     * collector. It is not even zeroed, since a live view may still be in use.
+     */
+    void discardLeaked(ByteBuffer buffer, Throwable site) {
+        leaks.incrementAndGet();
+        if (site != null) {
+            logger.warn("Pooled buffer of {} bytes was never released", buffer.capacity(), site);
+        } else {
+            logger.warn("Pooled buffer of {} bytes was never released "
+                + "(set -Dpqve.pool.trackLeaks=true to record allocation sites)", buffer.capacity());
+        }
+        inUseBytes.addAndGet(-buffer.capacity());
+        reservedBytes.addAndGet(-footprint(buffer.capacity()));
+        signalReleased();
+    }
+
+    private void signalReleased() {
+        lock.lock();
+        try {
+            released.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public static void zero(ByteBuffer buffer) {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            ByteBuffer zeros = ZEROS.duplicate();
+            zeros.limit(Math.min(zeros.capacity(), buffer.remaining()));
+            buffer.put(zeros);
+        }
+        buffer.clear();
+    }
+
+    private ConcurrentLinkedDeque<ByteBuffer> freeList(int sizeClass) {
+        return freeLists.computeIfAbsent(sizeClass, k -> new ConcurrentLinkedDeque<>());
+    }
+
+    /**
+     * Rounds up to a page multiple, then to the next quarter step between
+     * powers of two, which keeps segment-plus-tag requests within 25% waste.
+     */
+    static int sizeClass(int size) {
+        int pages = Math.max(1, (size + PAGE_SIZE - 1) / PAGE_SIZE);
+        if (pages <= 4) {
+            return pages * PAGE_SIZE;
+        }
+        int highBit = Integer.highestOneBit(pages);
+        int step = highBit / 4;
+        int rounded = (pages + step - 1) / step * step;
+        return Math.multiplyExact(rounded, PAGE_SIZE);
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getReservedBytes() {
+        return reservedBytes.get();
+    }
+
+    public long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getLeaks() {
+        return leaks.get();
+    }
+
+    public static final class PooledBuffer implements AutoCloseable {
+        private final ByteBuffer buffer;
+        private final Release release;
+        private final Cleaner.Cleanable cleanable;
+
+        private PooledBuffer(BufferPool pool, ByteBuffer pooled, int size, Throwable site) {
+            this.buffer = pooled.clear().limit(size).slice();
+            this.release = new Release(pool, pooled, site);
+            this.cleanable = cleaner.register(this, release);
+        }
+
+        public ByteBuffer buffer() {
+            return buffer;
+        }
+
+        @Override
+        public void close() {
+            release.closed = true;
+            cleanable.clean();
+        }
+    }
+
+    private static final class Release implements Runnable {
+        private final BufferPool pool;
+        private final ByteBuffer buffer;
+        private final Throwable site;
+        private volatile boolean closed;
+
+        Release(BufferPool pool, ByteBuffer buffer, Throwable site) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.site = site;
+        }
+
+        @Override
+        public void run() {
+            if (closed) {
+                pool.recycle(buffer);
+            } else {
+                pool.discardLeaked(buffer, site);
+            }
+        }
+    }
+}
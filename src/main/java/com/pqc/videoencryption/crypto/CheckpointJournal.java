@@ -0,0 +1,191 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * Small journal kept next to an in-progress encryption. It records the output
+ * header, the identity of the input, how many sealed segments are durable in
+ * the partial file, a running SHA-256 chain over their tags, and the SHA-256
+ * of the input bytes those segments were sealed from.
+ *
+ * <pre>
+ * [4 bytes: magic "PQVJ"][4 bytes: header length][header bytes]
+ * [8 bytes: input size][8 bytes: input mtime][8 bytes: committed segments]
+ * [32 bytes: tag chain][32 bytes: input prefix hash][8 bytes: CRC32 of everything before]
+ * </pre>
+ */
+public final class CheckpointJournal {
+
+    private static final Logger logger = LoggerFactory.getLogger(CheckpointJournal.class);
+    private static final int MAGIC = 0x5051564A;
+    public static final int CHAIN_SIZE = 32;
+
+    private final EncryptedFileHeader header;
+    private final long inputSize;
+    private final long inputModified;
+    private final long committedSegments;
+    private final byte[] tagChain;
+    private final byte[] inputHash;
+
+    public CheckpointJournal(EncryptedFileHeader header, long inputSize, long inputModified,
+                             long committedSegments, byte[] tagChain, byte[] inputHash) {
+        this.header = header;
+        this.inputSize = inputSize;
+        this.inputModified = inputModified;
+        this.committedSegments = committedSegments;
+        this.tagChain = tagChain.clone();
+        this.inputHash = inputHash.clone();
+    }
+
+    public static Path journalPath(Path output) {
+        return output.resolveSibling(output.getFileName() + ".journal");
+    }
+
+    public static Path partialPath(Path output) {
+        return output.resolveSibling(output.getFileName() + ".partial");
+    }
+
+    /**
+     * Returns the journal at {@code path}, or null when it is missing or unreadable.
+     */
+    public static CheckpointJournal load(Path path) {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(path));
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), 0, data.limit() - 8);
+            if (data.getLong(data.limit() - 8) != crc.getValue() || data.getInt() != MAGIC) {
+                logger.warn("Ignoring corrupt checkpoint journal {}", path.getFileName());
+                return null;
+            }
+            byte[] headerBytes = new byte[data.getInt()];
+            data.get(headerBytes);
+            EncryptedFileHeader header = EncryptedFileHeader.read(
+                Channels.newChannel(new ByteArrayInputStream(headerBytes)));
+            long inputSize = data.getLong();
+            long inputModified = data.getLong();
+            long committed = data.getLong();
+            byte[] chain = new byte[CHAIN_SIZE];
+            data.get(chain);
+            byte[] inputHash = new byte[CHAIN_SIZE];
+            data.get(inputHash);
+            return new CheckpointJournal(header, inputSize, inputModified, committed, chain, inputHash);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Ignoring unreadable checkpoint journal {}: {}", path.getFileName(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * Replaces the journal atomically through {@link OutputCommitter}, so it
+     * shares fsyncs with other commits; the caller must have forced the
+     * partial file first so the journal never claims more than is durable.
+     */
+    public void store(Path path) throws IOException {
+        byte[] headerBytes = header.getEncoded();
+        ByteBuffer data = ByteBuffer.allocate(4 + 4 + headerBytes.length + 8 + 8 + 8 + 2 * CHAIN_SIZE + 8);
+        data.putInt(MAGIC);
+        data.putInt(headerBytes.length);
+        data.put(headerBytes);
+        data.putLong(inputSize);
+        data.putLong(inputModified);
+        data.putLong(committedSegments);
+        data.put(tagChain);
+        data.put(inputHash);
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.position());
+        data.putLong(crc.getValue());
+        data.flip();
+
+        Path temp = OutputCommitter.tempPath(path);
+        boolean stored = false;
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.CREATE_NEW)) {
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+            }
+            OutputCommitter.shared().commit(temp, path);
+            stored = true;
+        } finally {
+            if (!stored) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    public CheckpointJournal advance(long committedSegments, byte[] tagChain, byte[] inputHash) {
+        return new CheckpointJournal(header, inputSize, inputModified, committedSegments, tagChain, inputHash);
+    }
+
+    public static byte[] emptyChain() {
+        return new byte[CHAIN_SIZE];
+    }
+
+    /**
+     * Folds the tag at the end of a sealed segment into the running chain.
+     */
+    public static void extendChain(MessageDigest sha256, byte[] chain, ByteBuffer sealedSegment) {
+        ByteBuffer tag = sealedSegment.duplicate();
+        tag.position(tag.limit() - CryptoConstants.GCM_TAG_LENGTH);
+        sha256.update(chain);
+        sha256.update(tag);
+        try {
+            sha256.digest(chain, 0, CHAIN_SIZE);
+        } catch (DigestException e) {
+            throw new IllegalStateException("SHA-256 digest failed", e);
+        }
+    }
+
+    public static MessageDigest newChainDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public EncryptedFileHeader getHeader() {
+        return header;
+    }
+
+    public long getInputSize() {
+        return inputSize;
+    }
+
+    public long getInputModified() {
+        return inputModified;
+    }
+
+    public long getCommittedSegments() {
+        return committedSegments;
+    }
+
+    public byte[] getTagChain() {
+        return tagChain.clone();
+    }
+
+    /**
+     * SHA-256 of the input's first {@code committedSegments} segments.
+     */
+    public byte[] getInputHash() {
+        return inputHash.clone();
+    }
+}
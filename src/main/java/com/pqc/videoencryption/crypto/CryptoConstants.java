@@ -1,9 +1,9 @@
 package com.pqc.videoencryption.crypto;
 
-import org.bouncycastle.jce.provider.BouncyCastleProvider;
 import org.bouncycastle.pqc.jcajce.provider.BouncyCastlePQCProvider;
 
 import java.security.Provider;
+import java.security.Security;
 
 public final class CryptoConstants {
     
@@ -11,15 +11,24 @@ public final class CryptoConstants {
         throw new AssertionError("Utility class");
     }
 
-    public static final Provider BC_PROVIDER = new BouncyCastleProvider();
-    public static final Provider PQC_PROVIDER = new BouncyCastlePQCProvider();
-    
     public static final String KYBER_ALGORITHM = "KYBER1024";
+    public static final String SIGNATURE_ALGORITHM = "DILITHIUM";
     public static final String AES_ALGORITHM = "AES";
     public static final String AES_CIPHER = "AES/GCM/NoPadding";
     public static final int AES_KEY_SIZE = 256;
     public static final int GCM_IV_SIZE = 12;
     public static final int GCM_TAG_SIZE = 128;
+    public static final int GCM_TAG_LENGTH = GCM_TAG_SIZE / 8;
+    
+    public static final int SEGMENT_SIZE = 1 << 20;
+    public static final int MIN_SEGMENT_SIZE = 4 * 1024;
+    public static final int MAX_SEGMENT_SIZE = 64 << 20;
+    public static final String SEGMENT_KEY_INFO = "PQVE-v2 segment key";
+    
+    public static final String HLS_CIPHER = "AES/CBC/PKCS5Padding";
+    public static final int HLS_KEY_SIZE = 16;
+    public static final int HLS_IV_SIZE = 16;
+    public static final String HLS_IV_INFO = "PQVE hls segment iv ";
     
     public static final String HKDF_ALGORITHM = "HKDF";
     public static final String HKDF_HASH = "SHA-256";
@@ -29,9 +38,26 @@ public final class CryptoConstants {
     public static final String KEYSTORE_ALIAS_KEM = "Kyber-KeyPair";
     public static final String KEYSTORE_ALIAS_SYMMETRIC = "AES-Key";
     
-    static {
-        java.security.Security.addProvider(BC_PROVIDER);
-        java.security.Security.addProvider(PQC_PROVIDER);
+    public static final String VAULT_KDF_ALGORITHM = "PBKDF2WithHmacSHA256";
+    public static final int VAULT_KDF_ITERATIONS = 120_000;
+    public static final int VAULT_SALT_SIZE = 16;
+    
+    /**
+     * The BouncyCastle PQC provider, for Kyber and Dilithium. It is built and registered
+     * on first use, so launches that never touch either skip its setup.
+     * AES, HMAC and key generation use the JDK's own providers.
+     */
+    public static Provider pqcProvider() {
+        return PqcProviderHolder.PROVIDER;
+    }
+    
+    private static final class PqcProviderHolder {
+        static final Provider PROVIDER = register(new BouncyCastlePQCProvider());
+        
+        private static Provider register(Provider provider) {
+            Security.addProvider(provider);
+            return provider;
+        }
     }
 }
 
@@ -0,0 +1,101 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the AES-GCM segment, HKDF and Kyber code paths once, so class
+ * loading, provider setup and JIT compilation happen before the first real
+ * request instead of during it.
+ *
+ * <p>{@link #startIfRequested()} does this on a low-priority daemon thread
+ * when {@code -Dpqve.warmup=true} is set. {@link #main} runs it in the
+ * foreground and is the training run for the class-data sharing archive
+ * built by the {@code cds} Maven profile.
+ */
+public final class CryptoWarmup {
+
+    private static final Logger logger = LoggerFactory.getLogger(CryptoWarmup.class);
+
+    public static final String PROPERTY = "pqve.warmup";
+    private static final int SEGMENT = 64 * 1024;
+    private static final int ROUNDS = 256;
+
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private CryptoWarmup() {
+        throw new AssertionError("Utility class");
+    }
+
+    public static void main(String[] args) throws GeneralSecurityException {
+        run();
+    }
+
+    /**
+     * Starts the background warm-up if {@code pqve.warmup} is set and it has
+     * not run yet in this JVM.
+     */
+    public static void startIfRequested() {
+        if (Boolean.getBoolean(PROPERTY)) {
+            start();
+        }
+    }
+
+    /**
+     * Starts the background warm-up; returns false if it was already started.
+     */
+    public static boolean start() {
+        if (!started.compareAndSet(false, true)) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                run();
+            } catch (GeneralSecurityException | RuntimeException e) {
+                logger.warn("Crypto warm-up failed: {}", e.toString());
+            }
+        }, "pqve-warmup");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+        return true;
+    }
+
+    public static void run() throws GeneralSecurityException {
+        long start = System.nanoTime();
+
+        SecretKey masterKey = SymmetricEncryption.createKey(RandomSource.nextBytes(CryptoConstants.HKDF_KEY_SIZE));
+        EncryptedFileHeader header = EncryptedFileHeader.create("warmup", "warmup", SEGMENT);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        byte[] aad = SymmetricEncryption.segmentAad(header.digest());
+        Cipher cipher = SymmetricEncryption.newSegmentCipher();
+        ByteBuffer plaintext = ByteBuffer.allocateDirect(SEGMENT);
+        ByteBuffer sealed = ByteBuffer.allocateDirect(SEGMENT + CryptoConstants.GCM_TAG_LENGTH);
+        try {
+            for (int i = 0; i < ROUNDS; i++) {
+                plaintext.clear();
+                sealed.clear();
+                SymmetricEncryption.sealSegment(cipher, segmentKey, i, false, aad, plaintext, sealed);
+                sealed.flip();
+                plaintext.clear();
+                SymmetricEncryption.openSegment(cipher, segmentKey, i, false, aad, sealed, plaintext);
+            }
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+            SymmetricEncryption.wipe(masterKey);
+        }
+
+        KeyPair keyPair = PostQuantumKeyExchange.generateKeyPair();
+        PostQuantumKeyExchange.decodePublicKey(keyPair.getPublic().getEncoded());
+        PostQuantumKeyExchange.decodePrivateKey(keyPair.getPrivate().getEncoded());
+
+        logger.info("Crypto warm-up finished in {} ms", (System.nanoTime() - start) / 1_000_000);
+    }
+}
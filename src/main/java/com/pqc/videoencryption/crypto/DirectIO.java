@@ -0,0 +1,348 @@
+package com.pqc.videoencryption.crypto;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * File channels that bypass the page cache ({@code O_DIRECT}), so bulk jobs
+ * stream at device speed without evicting other processes' cached data.
+ *
+ * <p>Direct I/O needs block-aligned file offsets, lengths and memory. Each
+ * channel gets a page-aligned staging buffer from the {@link BufferPool}:
+ * reads fetch whole blocks into it, and writes collect there until a whole
+ * block can be written, so callers keep the file format's unaligned
+ * offsets (header, 16-byte segment tags). A read into a page-aligned
+ * pipeline slot at a block boundary skips the staging copy, which is the
+ * common case for plaintext, since segment sizes are powers of two. A
+ * partly filled last block is written zero-padded, and the file is
+ * truncated to its real length when the output is finished.
+ *
+ * <p>If the platform or filesystem rejects {@code O_DIRECT} (tmpfs, some
+ * network filesystems, non-Linux systems), the file is opened normally and
+ * the same calls go through the page cache.
+ */
+public final class DirectIO {
+
+    private static final Logger logger = LoggerFactory.getLogger(DirectIO.class);
+
+    public static final String PROPERTY = "pqve.io.direct";
+    public static final int STAGING_SIZE = 4 << 20;
+
+    private static final AtomicLong fallbacks = new AtomicLong();
+
+    private DirectIO() {
+        throw new AssertionError("Utility class");
+    }
+
+    /**
+     * Whether direct I/O was requested with {@code -Dpqve.io.direct=true}.
+     */
+    public static boolean requested() {
+        return Boolean.getBoolean(PROPERTY);
+    }
+
+    /**
+     * Number of files opened through the page cache because direct I/O was refused.
+     */
+    public static long getFallbacks() {
+        return fallbacks.get();
+    }
+
+    /**
+     * Opens {@code file} for reading from {@code position}.
+     */
+    public static Input openInput(Path file, long position, BufferPool pool) throws IOException {
+        int blockSize = blockSize(file);
+        FileChannel channel = open(file, blockSize, StandardOpenOption.READ);
+        if (channel != null) {
+            try {
+                return new Input(channel, position, blockSize, pool.acquire(STAGING_SIZE));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        return new Input(FileChannel.open(file, StandardOpenOption.READ), position, 0, null);
+    }
+
+    /**
+     * Opens {@code file} for writing at {@code position}, creating it if
+     * needed and discarding anything after that position.
+     */
+    public static Output openOutput(Path file, long position, BufferPool pool) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        int blockSize = blockSize(parent);
+        FileChannel channel = open(file, blockSize, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE);
+        if (channel != null) {
+            try {
+                return new Output(channel, position, blockSize, pool.acquire(STAGING_SIZE));
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        return new Output(FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+            StandardOpenOption.CREATE), position, 0, null);
+    }
+
+    private static FileChannel open(Path file, int blockSize, OpenOption... options) throws IOException {
+        if (blockSize <= 0) {
+            return null;
+        }
+        OpenOption[] direct = new OpenOption[options.length + 1];
+        System.arraycopy(options, 0, direct, 0, options.length);
+        direct[options.length] = ExtendedOpenOption.DIRECT;
+        try {
+            return FileChannel.open(file, direct);
+        } catch (UnsupportedOperationException | IOException e) {
+            if (options.length == 1 && !Files.exists(file)) {
+                throw e;
+            }
+            fallbacks.incrementAndGet();
+            logger.info("Direct I/O unavailable for {}, using the page cache: {}", file.getFileName(), e.toString());
+            return null;
+        }
+    }
+
+    /**
+     * The filesystem block size, which all direct transfers are multiples of,
+     * or 0 when it is unknown or too large to stage.
+     */
+    private static int blockSize(Path file) {
+        long size;
+        try {
+            size = Files.getFileStore(file).getBlockSize();
+        } catch (IOException | UnsupportedOperationException e) {
+            size = BufferPool.PAGE_SIZE;
+        }
+        size = Math.max(size, BufferPool.PAGE_SIZE);
+        if (Long.bitCount(size) != 1 || size > STAGING_SIZE) {
+            fallbacks.incrementAndGet();
+            logger.info("Unusable block size {} for direct I/O on {}", size, file);
+            return 0;
+        }
+        return (int) size;
+    }
+
+    public static final class Input implements SegmentPipeline.SegmentSource, Closeable {
+        private final FileChannel channel;
+        private final int blockSize;
+        private final BufferPool.PooledBuffer pooled;
+        private final ByteBuffer staging;
+        private long stagingStart;
+        private long position;
+
+        private Input(FileChannel channel, long position, int blockSize, BufferPool.PooledBuffer pooled) {
+            this.channel = channel;
+            this.position = position;
+            this.blockSize = blockSize;
+            this.pooled = pooled;
+            this.staging = pooled == null ? null : pooled.buffer().flip();
+        }
+
+        public boolean isDirect() {
+            return pooled != null;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (!dst.hasRemaining()) {
+                return 0;
+            }
+            if (pooled == null) {
+                int n = channel.read(dst, position);
+                if (n > 0) {
+                    position += n;
+                }
+                return n;
+            }
+
+            long offset = position - stagingStart;
+            if (offset < 0 || offset >= staging.limit()) {
+                int aligned = dst.remaining() - dst.remaining() % blockSize;
+                if (position % blockSize == 0 && aligned > 0 && dst.isDirect()
+                        && dst.alignmentOffset(dst.position(), BufferPool.PAGE_SIZE) == 0) {
+                    // Block-aligned read straight into the caller's buffer.
+                    int limit = dst.limit();
+                    dst.limit(dst.position() + aligned);
+                    int n;
+                    try {
+                        n = channel.read(dst, position);
+                    } finally {
+                        dst.limit(limit);
+                    }
+                    if (n > 0) {
+                        position += n;
+                    }
+                    return n;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                offset = position - stagingStart;
+            }
+
+            int n = (int) Math.min(dst.remaining(), staging.limit() - offset);
+            dst.put(staging.duplicate().position((int) offset).limit((int) offset + n));
+            position += n;
+            return n;
+        }
+
+        private boolean fill() throws IOException {
+            stagingStart = position - position % blockSize;
+            staging.clear();
+            while (staging.hasRemaining()) {
+                int n = channel.read(staging, stagingStart + staging.position());
+                // A short read ends at end of file; the next offset would be unaligned.
+                if (n <= 0 || staging.position() % blockSize != 0) {
+                    break;
+                }
+            }
+            staging.flip();
+            return position - stagingStart < staging.limit();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (pooled != null) {
+                    pooled.close();
+                }
+            }
+        }
+    }
+
+    public static final class Output implements SegmentPipeline.SegmentSink, Closeable {
+        private final FileChannel channel;
+        private final int blockSize;
+        private final BufferPool.PooledBuffer pooled;
+        private final ByteBuffer staging;
+        private long stagingStart;
+        private long position;
+
+        private Output(FileChannel channel, long position, int blockSize, BufferPool.PooledBuffer pooled)
+                throws IOException {
+            this.channel = channel;
+            this.blockSize = blockSize;
+            this.pooled = pooled;
+            this.staging = pooled == null ? null : pooled.buffer().clear();
+            this.position = position;
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+            if (pooled != null) {
+                // Start from the block holding the first byte, keeping what precedes it.
+                stagingStart = position - position % blockSize;
+                int head = (int) (position - stagingStart);
+                if (head > 0) {
+                    ByteBuffer block = staging.duplicate().limit(blockSize);
+                    while (block.hasRemaining() && block.position() % blockSize == 0) {
+                        if (channel.read(block, stagingStart + block.position()) <= 0) {
+                            break;
+                        }
+                    }
+                    if (block.position() < head) {
+                        throw new IOException("File is shorter than the write position " + position);
+                    }
+                }
+                staging.position(head);
+            }
+        }
+
+        public boolean isDirect() {
+            return pooled != null;
+        }
+
+        @Override
+        public void write(long index, ByteBuffer data) throws IOException {
+            if (pooled == null) {
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position);
+                }
+                return;
+            }
+            while (data.hasRemaining()) {
+                int n = Math.min(data.remaining(), staging.remaining());
+                staging.put(data.duplicate().limit(data.position() + n));
+                data.position(data.position() + n);
+                position += n;
+                if (!staging.hasRemaining()) {
+                    writeStaging(staging.capacity());
+                    stagingStart += staging.capacity();
+                    staging.clear();
+                }
+            }
+        }
+
+        /**
+         * Writes everything accepted so far and forces it to the device. A
+         * partly filled last block goes out zero-padded and is rewritten
+         * by later writes; the padding is cut off by {@link #finish}.
+         */
+        public void force() throws IOException {
+            flushTail();
+            channel.force(false);
+        }
+
+        /**
+         * Writes any staged bytes, trims block padding and forces data and metadata.
+         */
+        public void finish() throws IOException {
+            flushTail();
+            if (channel.size() > position) {
+                channel.truncate(position);
+            }
+            channel.force(true);
+        }
+
+        private void flushTail() throws IOException {
+            if (pooled == null || staging.position() == 0) {
+                return;
+            }
+            int length = staging.position();
+            int padded = (length + blockSize - 1) / blockSize * blockSize;
+            BufferPool.zero(staging.duplicate().position(length).limit(padded).slice());
+            writeStaging(padded);
+
+            int whole = length - length % blockSize;
+            if (whole > 0) {
+                staging.position(whole).limit(length);
+                staging.compact();
+                stagingStart += whole;
+            }
+            staging.limit(staging.capacity()).position(length - whole);
+        }
+
+        private void writeStaging(int length) throws IOException {
+            ByteBuffer out = staging.duplicate().position(0).limit(length);
+            while (out.hasRemaining()) {
+                channel.write(out, stagingStart + out.position());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                channel.close();
+            } finally {
+                if (pooled != null) {
+                    pooled.close();
+                }
+            }
+        }
+    }
+}
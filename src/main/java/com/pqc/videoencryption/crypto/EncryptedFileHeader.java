@@ -0,0 +1,240 @@
+package com.pqc.videoencryption.crypto;
+
+import com.pqc.videoencryption.blob.BlobReader;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Header of the segmented (version 2) encrypted video format.
+ *
+ * <pre>
+ * [4 bytes: magic "PQVE"]
+ * [1 byte : format version]
+ * [1 byte : flags]
+ * [4 bytes: plaintext segment size]
+ * [8 bytes: creation time, epoch millis]
+ * [32 bytes: per-file key derivation salt]
+ * [2 bytes: filename length][filename bytes, UTF-8]
+ * [2 bytes: owner length][owner bytes, UTF-8]
+ * </pre>
+ *
+ * The header is followed by the sealed segments, each being the AES-GCM
+ * ciphertext of up to {@code segmentSize} plaintext bytes plus its tag.
+ * With {@link #FLAG_FRAMED} (live streams) segments may be cut short and each
+ * one is preceded by its 4-byte big-endian sealed length.
+ */
+public final class EncryptedFileHeader {
+
+    public static final int MAGIC = 0x50515645;
+    public static final int VERSION = 2;
+    public static final int SALT_SIZE = 32;
+    public static final int FIXED_SIZE = 4 + 1 + 1 + 4 + 8 + SALT_SIZE;
+    public static final int FLAG_FRAMED = 0x01;
+    public static final int FRAME_PREFIX = 4;
+    private static final int MAX_STRING_LENGTH = 0xFFFF;
+
+    private final int version;
+    private final int flags;
+    private final int segmentSize;
+    private final long createdAt;
+    private final byte[] salt;
+    private final String originalFilename;
+    private final String owner;
+    private final byte[] encoded;
+
+    public EncryptedFileHeader(int flags, int segmentSize, long createdAt, byte[] salt,
+                               String originalFilename, String owner) {
+        if (segmentSize < CryptoConstants.MIN_SEGMENT_SIZE || segmentSize > CryptoConstants.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (salt == null || salt.length != SALT_SIZE) {
+            throw new IllegalArgumentException("Salt must be " + SALT_SIZE + " bytes");
+        }
+        this.version = VERSION;
+        this.flags = flags;
+        this.segmentSize = segmentSize;
+        this.createdAt = createdAt;
+        this.salt = salt.clone();
+        this.originalFilename = originalFilename == null ? "" : originalFilename;
+        this.owner = owner == null ? "" : owner;
+        this.encoded = encode();
+    }
+
+    public static EncryptedFileHeader create(String originalFilename, String owner, int segmentSize) {
+        return create(originalFilename, owner, segmentSize, 0);
+    }
+
+    public static EncryptedFileHeader create(String originalFilename, String owner, int segmentSize, int flags) {
+        byte[] salt = RandomSource.nextBytes(SALT_SIZE);
+        return new EncryptedFileHeader(flags, segmentSize, System.currentTimeMillis(), salt, originalFilename, owner);
+    }
+
+    public static boolean hasMagic(ByteBuffer prefix) {
+        return prefix.remaining() >= 4 && prefix.getInt(prefix.position()) == MAGIC;
+    }
+
+    public static boolean isSegmented(FileChannel channel) throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(4);
+        channel.read(prefix, 0);
+        prefix.flip();
+        return hasMagic(prefix);
+    }
+
+    public static EncryptedFileHeader read(FileChannel channel, long position) throws IOException {
+        channel.position(position);
+        return read(channel);
+    }
+
+    /**
+     * Reads the header at the start of a blob, in one request for any
+     * header of ordinary length.
+     */
+    public static EncryptedFileHeader read(BlobReader blob) throws IOException {
+        try (InputStream in = new BufferedInputStream(Channels.newInputStream(blob.channel(0)), 4096)) {
+            return read(Channels.newChannel(in));
+        }
+    }
+
+    public static EncryptedFileHeader read(ReadableByteChannel channel) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_SIZE + 2);
+        readFully(channel, fixed);
+        fixed.flip();
+
+        if (fixed.getInt() != MAGIC) {
+            throw new IOException("Not a segmented encrypted video file");
+        }
+        int version = fixed.get() & 0xFF;
+        if (version != VERSION) {
+            throw new IOException("Unsupported encrypted file version: " + version);
+        }
+        int flags = fixed.get() & 0xFF;
+        int segmentSize = fixed.getInt();
+        long createdAt = fixed.getLong();
+        byte[] salt = new byte[SALT_SIZE];
+        fixed.get(salt);
+        int filenameLength = fixed.getShort() & 0xFFFF;
+
+        ByteBuffer variable = ByteBuffer.allocate(filenameLength + 2);
+        readFully(channel, variable);
+        variable.flip();
+        byte[] filename = new byte[filenameLength];
+        variable.get(filename);
+        int ownerLength = variable.getShort() & 0xFFFF;
+
+        ByteBuffer ownerBuffer = ByteBuffer.allocate(ownerLength);
+        readFully(channel, ownerBuffer);
+
+        try {
+            return new EncryptedFileHeader(flags, segmentSize, createdAt, salt,
+                new String(filename, StandardCharsets.UTF_8),
+                new String(ownerBuffer.array(), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupt encrypted file header", e);
+        }
+    }
+
+    private static void readFully(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated encrypted file header");
+            }
+        }
+    }
+
+    private byte[] encode() {
+        byte[] filenameBytes = originalFilename.getBytes(StandardCharsets.UTF_8);
+        byte[] ownerBytes = owner.getBytes(StandardCharsets.UTF_8);
+        if (filenameBytes.length > MAX_STRING_LENGTH || ownerBytes.length > MAX_STRING_LENGTH) {
+            throw new IllegalArgumentException("Filename or owner too long");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(FIXED_SIZE + 2 + filenameBytes.length + 2 + ownerBytes.length);
+        buffer.putInt(MAGIC);
+        buffer.put((byte) version);
+        buffer.put((byte) flags);
+        buffer.putInt(segmentSize);
+        buffer.putLong(createdAt);
+        buffer.put(salt);
+        buffer.putShort((short) filenameBytes.length);
+        buffer.put(filenameBytes);
+        buffer.putShort((short) ownerBytes.length);
+        buffer.put(ownerBytes);
+        return buffer.array();
+    }
+
+    /**
+     * Returns the header bytes; segments are authenticated against their digest.
+     */
+    public byte[] getEncoded() {
+        return encoded.clone();
+    }
+
+    public int length() {
+        return encoded.length;
+    }
+
+    public byte[] digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(encoded);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public int sealedSegmentSize() {
+        return segmentSize + CryptoConstants.GCM_TAG_LENGTH;
+    }
+
+    /**
+     * Number of sealed segments in a payload of the given length. An empty
+     * plaintext still produces one (empty, final) segment.
+     */
+    public long segmentCount(long payloadLength) {
+        return Math.max(1, (payloadLength + sealedSegmentSize() - 1) / sealedSegmentSize());
+    }
+
+    public long plaintextLength(long payloadLength) {
+        return payloadLength - segmentCount(payloadLength) * CryptoConstants.GCM_TAG_LENGTH;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    public boolean isFramed() {
+        return (flags & FLAG_FRAMED) != 0;
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public byte[] getSalt() {
+        return salt.clone();
+    }
+
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+}
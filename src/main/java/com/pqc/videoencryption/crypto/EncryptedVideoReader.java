@@ -0,0 +1,222 @@
+package com.pqc.videoencryption.crypto;
+
+import com.pqc.videoencryption.blob.BlobReader;
+import com.pqc.videoencryption.blob.BlobStore;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Random-access plaintext view of a segmented encrypted file. Segments are
+ * authenticated on first use and kept in a {@link SegmentCache}; when reads
+ * walk forward through the file, the next segments are decrypted ahead of
+ * time on the cache's read-ahead threads, with a window that doubles on each
+ * sequential step and collapses on a seek. Segments stay cached while any
+ * reader of the same file is open.
+ */
+public final class EncryptedVideoReader implements Closeable {
+
+    public static final int MAX_READ_AHEAD = 8;
+
+    private final BlobReader blob;
+    private final EncryptedFileHeader header;
+    private final SecretKey segmentKey;
+    private final SegmentCache cache;
+    private final Object fileId;
+    private final long version;
+    private final long keyId;
+    private final long segmentCount;
+    private final long plaintextLength;
+    private final byte[] headerDigest;
+    private final ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+    private final SegmentCache.Loader loader = this::decryptSegment;
+    private volatile boolean closed;
+    private long lastIndex = -2;
+    private int window;
+
+    private EncryptedVideoReader(BlobReader blob, EncryptedFileHeader header, SecretKey segmentKey,
+                                 SegmentCache cache, Object fileId) {
+        this.blob = blob;
+        this.header = header;
+        this.segmentKey = segmentKey;
+        this.cache = cache;
+        this.fileId = fileId;
+        this.version = ByteBuffer.wrap(header.getSalt()).getLong() ^ header.getCreatedAt();
+        this.keyId = fingerprint(segmentKey);
+        long payload = blob.size() - header.length();
+        this.segmentCount = header.segmentCount(payload);
+        this.plaintextLength = header.plaintextLength(payload);
+        this.headerDigest = header.digest();
+        cache.attach(fileId);
+    }
+
+    public static EncryptedVideoReader open(Path file, SecretKey masterKey, SegmentCache cache)
+            throws IOException, GeneralSecurityException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            if (!EncryptedFileHeader.isSegmented(channel)) {
+                throw new IOException("Random access requires the segmented file format");
+            }
+            EncryptedFileHeader header = EncryptedFileHeader.read(channel, 0);
+            Object fileKey = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+            Object fileId = fileKey != null ? fileKey : file.toAbsolutePath().normalize();
+            return open(BlobReader.of(channel), header, masterKey, cache, fileId);
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a blob; each segment is fetched with its own ranged read when
+     * it is first needed.
+     */
+    public static EncryptedVideoReader open(BlobStore store, String key, SecretKey masterKey, SegmentCache cache)
+            throws IOException, GeneralSecurityException {
+        BlobReader blob = store.open(key);
+        try {
+            return open(blob, EncryptedFileHeader.read(blob), masterKey, cache, List.of(store, key));
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            blob.close();
+            throw e;
+        }
+    }
+
+    private static EncryptedVideoReader open(BlobReader blob, EncryptedFileHeader header, SecretKey masterKey,
+                                             SegmentCache cache, Object fileId)
+            throws IOException, GeneralSecurityException {
+        if (header.isFramed()) {
+            throw new IOException("Live stream recordings have no fixed segment layout to seek in");
+        }
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        return new EncryptedVideoReader(blob, header, segmentKey, cache, fileId);
+    }
+
+    public long size() {
+        return plaintextLength;
+    }
+
+    public EncryptedFileHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * Copies plaintext starting at {@code position} into {@code dst}, never
+     * crossing a segment boundary. Returns the bytes copied, or -1 at the end.
+     */
+    public int read(long position, ByteBuffer dst) throws IOException, GeneralSecurityException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        if (position >= plaintextLength) {
+            return -1;
+        }
+        long index = position / header.getSegmentSize();
+        int offset = (int) (position % header.getSegmentSize());
+        int copied;
+        try (SegmentCache.Entry entry = cache.get(key(index), loader)) {
+            ByteBuffer src = entry.data();
+            src.position(offset);
+            copied = Math.min(src.remaining(), dst.remaining());
+            src.limit(offset + copied);
+            dst.put(src);
+        }
+        readAhead(index);
+        return copied;
+    }
+
+    private synchronized void readAhead(long index) {
+        if (closed || index == lastIndex) {
+            return;
+        }
+        window = index == lastIndex + 1 ? Math.min(MAX_READ_AHEAD, Math.max(1, window * 2)) : 0;
+        lastIndex = index;
+        for (long next = index + 1; next <= index + window && next < segmentCount; next++) {
+            cache.prefetch(key(next), loader);
+        }
+    }
+
+    private SegmentCache.Key key(long index) {
+        return new SegmentCache.Key(fileId, version, keyId, index);
+    }
+
+    private BufferPool.PooledBuffer decryptSegment(long index) throws IOException, GeneralSecurityException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        long offset = header.length() + index * header.sealedSegmentSize();
+        int length = (int) Math.min(header.sealedSegmentSize(), blob.size() - offset);
+        if (index >= segmentCount || length < CryptoConstants.GCM_TAG_LENGTH) {
+            throw new IOException("Segment " + index + " is beyond the end of the file");
+        }
+        Cipher cipher = ciphers.poll();
+        if (cipher == null) {
+            cipher = SymmetricEncryption.newSegmentCipher();
+        }
+        BufferPool pool = BufferPool.shared();
+        try (BufferPool.PooledBuffer sealed = pool.acquire(length)) {
+            ByteBuffer in = sealed.buffer();
+            while (in.hasRemaining()) {
+                if (blob.read(in, offset + in.position()) < 0) {
+                    throw new IOException("Unexpected end of encrypted file");
+                }
+            }
+            in.flip();
+            BufferPool.PooledBuffer plaintext = pool.acquire(length - CryptoConstants.GCM_TAG_LENGTH);
+            try {
+                SymmetricEncryption.openSegment(cipher, segmentKey, index, index == segmentCount - 1,
+                    SymmetricEncryption.segmentAad(headerDigest), in, plaintext.buffer());
+                plaintext.buffer().flip();
+                return plaintext;
+            } catch (GeneralSecurityException | RuntimeException e) {
+                plaintext.close();
+                throw e;
+            }
+        } finally {
+            ciphers.offer(cipher);
+        }
+    }
+
+    private static long fingerprint(SecretKey key) {
+        byte[] encoded = key.getEncoded();
+        try {
+            MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+            sha256.update("PQVE cache key id".getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(sha256.digest(encoded)).getLong();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        } finally {
+            Arrays.fill(encoded, (byte) 0);
+        }
+    }
+
+    /**
+     * Closes the file and, if no other reader has it open, evicts its
+     * plaintext from the cache.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        cache.detach(fileId);
+        SymmetricEncryption.wipe(segmentKey);
+        blob.close();
+    }
+}
@@ -0,0 +1,413 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Packages a directory of already-segmented HLS renditions (MPEG-TS or fMP4
+ * segments plus their playlists) as standard HLS AES-128 output. Every media
+ * segment and initialization section is encrypted once, across all
+ * renditions in parallel, with its own IV from
+ * {@link KeyDerivation#deriveSegmentIv}. Playlists are rewritten with an
+ * {@code EXT-X-KEY} carrying that IV in front of each segment and are only
+ * written after every segment they reference is complete. Segments and
+ * playlists alike are published through {@link OutputCommitter}, so a
+ * playlist never points at a segment a crash could leave torn.
+ */
+public final class HlsPackager {
+
+    private static final Logger logger = LoggerFactory.getLogger(HlsPackager.class);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final Pattern URI_ATTRIBUTE = Pattern.compile("URI=\"([^\"]*)\"");
+    private static final Pattern VERSION_TAG = Pattern.compile("#EXT-X-VERSION:(\\d+)");
+
+    public static final int CHUNK_SIZE = 256 * 1024;
+
+    private final int workers;
+    private final int chunkSize;
+    private final BufferPool pool;
+    private final ResourceGovernor governor;
+
+    public HlsPackager(int workers, int chunkSize) {
+        this(workers, chunkSize, BufferPool.shared(), ResourceGovernor.shared());
+    }
+
+    public HlsPackager(int workers, int chunkSize, BufferPool pool, ResourceGovernor governor) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one worker is required");
+        }
+        if (chunkSize < CryptoConstants.MIN_SEGMENT_SIZE || chunkSize % CryptoConstants.HLS_IV_SIZE != 0) {
+            throw new IllegalArgumentException("Invalid chunk size: " + chunkSize);
+        }
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+        this.governor = governor;
+    }
+
+    public static HlsPackager defaults() {
+        int workers = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        return new HlsPackager(workers, CHUNK_SIZE);
+    }
+
+    /**
+     * Wraps HLS AES-128 content key material, which is shorter than the
+     * AES-256 keys used everywhere else.
+     */
+    public static SecretKey createContentKey(byte[] keyMaterial) {
+        if (keyMaterial.length != CryptoConstants.HLS_KEY_SIZE) {
+            throw new IllegalArgumentException("HLS AES-128 needs a 16-byte content key");
+        }
+        return new SecretKeySpec(keyMaterial, CryptoConstants.AES_ALGORITHM);
+    }
+
+    /**
+     * Encrypts every segment referenced by the playlists under {@code inputDir}
+     * into the same layout under {@code outputDir}. {@code keyUri} is written
+     * verbatim into each key tag; serving the 16-byte content key there is the
+     * caller's job.
+     */
+    public Result pack(Path inputDir, Path outputDir, SecretKey contentKey, byte[] salt, String keyUri)
+            throws IOException, GeneralSecurityException {
+        if (contentKey.getEncoded().length != CryptoConstants.HLS_KEY_SIZE) {
+            throw new IllegalArgumentException("HLS AES-128 needs a 16-byte content key");
+        }
+        Path root = inputDir.toAbsolutePath().normalize();
+        Path target = outputDir.toAbsolutePath().normalize();
+        if (target.startsWith(root)) {
+            throw new IllegalArgumentException("Output directory must not be inside the input directory");
+        }
+
+        Map<String, byte[]> segments = new LinkedHashMap<>();
+        Map<String, List<String>> playlists = new LinkedHashMap<>();
+        for (Path playlist : listPlaylists(root)) {
+            String name = relativeName(root, playlist);
+            playlists.put(name, rewrite(root, playlist, contentKey, salt, keyUri, segments));
+        }
+        if (segments.isEmpty()) {
+            throw new IOException("No media segments found under " + inputDir);
+        }
+
+        long start = System.nanoTime();
+        AtomicLong bytesIn = new AtomicLong();
+        AtomicLong bytesOut = new AtomicLong();
+        List<Path> written = new ArrayList<>();
+        boolean success = false;
+        long footprint = (long) workers
+            * (BufferPool.footprint(chunkSize) + BufferPool.footprint(chunkSize + CryptoConstants.HLS_IV_SIZE));
+        try (ResourceGovernor.Lease lease = governor.admit(footprint, List.of(root, target))) {
+            encryptAll(root, target, contentKey, segments, written, bytesIn, bytesOut);
+            List<CompletableFuture<Void>> commits = new ArrayList<>(playlists.size());
+            try {
+                // Queued together so the committer syncs every playlist in one batch.
+                for (Map.Entry<String, List<String>> playlist : playlists.entrySet()) {
+                    Path output = target.resolve(playlist.getKey());
+                    Path temp = OutputCommitter.tempPath(output);
+                    written.add(output);
+                    written.add(temp);
+                    writePlaylist(temp, playlist.getValue());
+                    commits.add(OutputCommitter.shared().commitAsync(temp, output));
+                }
+            } finally {
+                for (CompletableFuture<Void> commit : commits) {
+                    OutputCommitter.await(commit);
+                }
+            }
+            // The committer syncs the directories it renames into; this makes
+            // the rendition directories created under the target durable too.
+            OutputCommitter.forceDirectory(target);
+            success = true;
+            Result result = new Result(segments.size(), playlists.size(), bytesIn.get(), bytesOut.get(),
+                System.nanoTime() - start, lease.getWaitNanos());
+            logger.info("Packaged {} segments from {} playlists ({} MB/s)", result.getSegments(),
+                result.getPlaylists(), String.format("%.1f", result.megabytesPerSecond()));
+            return result;
+        } finally {
+            if (!success) {
+                for (Path path : written) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private static List<Path> listPlaylists(Path root) throws IOException {
+        try (Stream<Path> files = Files.walk(root)) {
+            List<Path> all = files.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            for (Path file : all) {
+                if (file.getFileName().toString().endsWith(".mpd")) {
+                    // DASH players expect CENC sample encryption, which needs box-level
+                    // rewriting of fMP4; whole-segment AES-128 is HLS only.
+                    logger.warn("Skipping DASH manifest {}: only HLS playlists are packaged", file.getFileName());
+                }
+            }
+            return all.stream()
+                .filter(file -> file.getFileName().toString().endsWith(".m3u8"))
+                .collect(Collectors.toList());
+        }
+    }
+
+    private static List<String> rewrite(Path root, Path playlist, SecretKey contentKey, byte[] salt,
+                                        String keyUri, Map<String, byte[]> segments)
+            throws IOException, GeneralSecurityException {
+        List<String> lines = Files.readAllLines(playlist, StandardCharsets.UTF_8);
+        boolean media = lines.stream().anyMatch(line -> line.startsWith("#EXTINF"));
+        if (!media) {
+            // Master playlists only point at rendition playlists, which keep their paths.
+            return lines;
+        }
+
+        Path directory = playlist.getParent();
+        List<String> rewritten = new ArrayList<>(lines.size() * 2);
+        for (String line : lines) {
+            String trimmed = line.trim();
+            if (trimmed.startsWith("#EXT-X-KEY") || trimmed.startsWith("#EXT-X-SESSION-KEY")) {
+                if (!trimmed.contains("METHOD=NONE")) {
+                    throw new IOException(playlist.getFileName() + " is already encrypted");
+                }
+            } else if (trimmed.startsWith("#EXT-X-BYTERANGE") || trimmed.startsWith("#EXT-X-PART")
+                    || (trimmed.startsWith("#EXT-X-MAP") && trimmed.contains("BYTERANGE="))) {
+                throw new IOException(playlist.getFileName() + " uses sub-file ranges, which cannot be "
+                    + "encrypted as whole segments");
+            } else if (trimmed.startsWith("#EXT-X-MAP")) {
+                Matcher uri = URI_ATTRIBUTE.matcher(trimmed);
+                if (!uri.find()) {
+                    throw new IOException("EXT-X-MAP without URI in " + playlist.getFileName());
+                }
+                rewritten.add(keyTag(root, directory, uri.group(1), contentKey, salt, keyUri, segments));
+                rewritten.add(line);
+            } else if (trimmed.startsWith("#EXT-X-VERSION")) {
+                // The IV attribute needs protocol version 2.
+                Matcher version = VERSION_TAG.matcher(trimmed);
+                if (!version.matches()) {
+                    throw new IOException("Malformed EXT-X-VERSION in " + playlist.getFileName());
+                }
+                rewritten.add("#EXT-X-VERSION:" + Math.max(2, Integer.parseInt(version.group(1))));
+            } else if (!trimmed.isEmpty() && !trimmed.startsWith("#")) {
+                rewritten.add(keyTag(root, directory, trimmed, contentKey, salt, keyUri, segments));
+                rewritten.add(line);
+            } else {
+                rewritten.add(line);
+            }
+        }
+        return rewritten;
+    }
+
+    private static String keyTag(Path root, Path directory, String uri, SecretKey contentKey, byte[] salt,
+                                 String keyUri, Map<String, byte[]> segments)
+            throws IOException, GeneralSecurityException {
+        if (uri.contains("://") || uri.startsWith("/") || uri.contains("?")) {
+            throw new IOException("Only relative segment URIs can be packaged: " + uri);
+        }
+        Path segment = directory.resolve(uri).normalize();
+        if (!segment.startsWith(root) || !Files.isRegularFile(segment)) {
+            throw new IOException("Segment " + uri + " is not a file inside the input directory");
+        }
+        String name = relativeName(root, segment);
+        byte[] iv = segments.get(name);
+        if (iv == null) {
+            iv = KeyDerivation.deriveSegmentIv(contentKey, salt, name);
+            segments.put(name, iv);
+        }
+        StringBuilder tag = new StringBuilder("#EXT-X-KEY:METHOD=AES-128,URI=\"")
+            .append(keyUri).append("\",IV=0x");
+        for (byte b : iv) {
+            tag.append(String.format("%02X", b));
+        }
+        return tag.toString();
+    }
+
+    private void encryptAll(Path root, Path target, SecretKey contentKey, Map<String, byte[]> segments,
+                            List<Path> written, AtomicLong bytesIn, AtomicLong bytesOut)
+            throws IOException, GeneralSecurityException {
+        ConcurrentLinkedQueue<Cipher> ciphers = new ConcurrentLinkedQueue<>();
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "pqve-hls-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>(segments.size());
+            for (Map.Entry<String, byte[]> segment : segments.entrySet()) {
+                Path output = target.resolve(segment.getKey());
+                written.add(output);
+                tasks.add(executor.submit(() -> {
+                    encryptSegment(root.resolve(segment.getKey()), output, contentKey, segment.getValue(),
+                        ciphers, bytesIn, bytesOut);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            }
+            throw new IOException("Segment encryption failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while packaging segments");
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void encryptSegment(Path input, Path output, SecretKey contentKey, byte[] iv,
+                                ConcurrentLinkedQueue<Cipher> ciphers, AtomicLong bytesIn, AtomicLong bytesOut)
+            throws IOException, GeneralSecurityException {
+        Cipher cipher = ciphers.poll();
+        if (cipher == null) {
+            // JDK provider for the same intrinsic and direct-buffer reasons as segment ciphers.
+            cipher = Cipher.getInstance(CryptoConstants.HLS_CIPHER);
+        }
+        Files.createDirectories(output.getParent());
+        Path temp = OutputCommitter.tempPath(output);
+        boolean committed = false;
+        try {
+            encrypt(input, temp, contentKey, iv, cipher, bytesIn, bytesOut);
+            // From the worker, so segments finishing together share the committer's syncs.
+            OutputCommitter.shared().commit(temp, output);
+            committed = true;
+        } finally {
+            ciphers.offer(cipher);
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private void encrypt(Path input, Path temp, SecretKey contentKey, byte[] iv, Cipher cipher,
+                         AtomicLong bytesIn, AtomicLong bytesOut)
+            throws IOException, GeneralSecurityException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+             BufferPool.PooledBuffer source = pool.acquire(chunkSize);
+             BufferPool.PooledBuffer sealed = pool.acquire(chunkSize + CryptoConstants.HLS_IV_SIZE)) {
+
+            cipher.init(Cipher.ENCRYPT_MODE, contentKey, new IvParameterSpec(iv));
+            ByteBuffer src = source.buffer();
+            ByteBuffer dst = sealed.buffer();
+            while (true) {
+                src.clear();
+                int n = in.read(src);
+                if (n < 0) {
+                    break;
+                }
+                bytesIn.addAndGet(n);
+                src.flip();
+                dst.clear();
+                cipher.update(src, dst);
+                bytesOut.addAndGet(write(out, dst.flip()));
+            }
+            src.clear().limit(0);
+            dst.clear();
+            cipher.doFinal(src, dst);
+            bytesOut.addAndGet(write(out, dst.flip()));
+        }
+    }
+
+    private static int write(FileChannel channel, ByteBuffer data) throws IOException {
+        int length = data.remaining();
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+        return length;
+    }
+
+    private static void writePlaylist(Path temp, List<String> lines) throws IOException {
+        Files.createDirectories(temp.getParent());
+        Files.write(temp, lines, StandardCharsets.UTF_8, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW);
+    }
+
+    private static String relativeName(Path root, Path file) {
+        return root.relativize(file).toString().replace(file.getFileSystem().getSeparator(), "/");
+    }
+
+    public static final class Result {
+        private final int segments;
+        private final int playlists;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long elapsedNanos;
+        private final long admissionWaitNanos;
+
+        public Result(int segments, int playlists, long bytesIn, long bytesOut, long elapsedNanos,
+                      long admissionWaitNanos) {
+            this.segments = segments;
+            this.playlists = playlists;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.elapsedNanos = elapsedNanos;
+            this.admissionWaitNanos = admissionWaitNanos;
+        }
+
+        public int getSegments() {
+            return segments;
+        }
+
+        public int getPlaylists() {
+            return playlists;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getAdmissionWaitNanos() {
+            return admissionWaitNanos;
+        }
+
+        public double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (bytesIn / (1024.0 * 1024.0)) / (elapsedNanos / 1e9);
+        }
+    }
+}
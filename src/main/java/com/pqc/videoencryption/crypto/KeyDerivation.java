@@ -4,7 +4,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.crypto.Mac;
+import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
@@ -27,7 +29,7 @@ public final class KeyDerivation {
             throw new IllegalArgumentException("Invalid key length");
         }
         
-        Mac hmac = Mac.getInstance("HmacSHA256", CryptoConstants.BC_PROVIDER);
+        Mac hmac = Mac.getInstance("HmacSHA256");
         SecretKeySpec hmacKey = new SecretKeySpec(sharedSecret, "HmacSHA256");
         hmac.init(hmacKey);
         
@@ -40,6 +42,36 @@ public final class KeyDerivation {
         return okm;
     }
     
+    public static SecretKey deriveSegmentKey(SecretKey masterKey, byte[] salt) 
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] master = masterKey.getEncoded();
+        byte[] okm = deriveKey(master, salt, 
+            CryptoConstants.SEGMENT_KEY_INFO.getBytes(StandardCharsets.UTF_8), 
+            CryptoConstants.HKDF_KEY_SIZE);
+        try {
+            return SymmetricEncryption.createKey(okm);
+        } finally {
+            wipe(master);
+            wipe(okm);
+        }
+    }
+    
+    /**
+     * Derives the IV of one packaged media segment from the content key, the
+     * package salt and the segment's path within the package.
+     */
+    public static byte[] deriveSegmentIv(SecretKey contentKey, byte[] salt, String segmentName) 
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        byte[] content = contentKey.getEncoded();
+        try {
+            return deriveKey(content, salt, 
+                (CryptoConstants.HLS_IV_INFO + segmentName).getBytes(StandardCharsets.UTF_8), 
+                CryptoConstants.HLS_IV_SIZE);
+        } finally {
+            wipe(content);
+        }
+    }
+    
     private static byte[] extract(Mac hmac, byte[] ikm, byte[] salt) 
             throws InvalidKeyException {
         if (salt == null || salt.length == 0) {
@@ -0,0 +1,125 @@
+package com.pqc.videoencryption.crypto;
+
+import org.bouncycastle.jcajce.SecretKeyWithEncapsulation;
+import org.bouncycastle.jcajce.spec.KEMExtractSpec;
+import org.bouncycastle.jcajce.spec.KEMGenerateSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Kyber-1024 key encapsulation for one recipient or a whole distribution
+ * list.
+ *
+ * <p>Each thread keeps its own KEM instance and reinitialises it per
+ * recipient, so the provider lookup is paid once per thread rather than
+ * once per key. {@link #encapsulateAll} splits a list into one slice per
+ * worker and runs the slices in parallel; results come back in the order
+ * of the recipients.
+ */
+public final class KyberEncapsulator implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KyberEncapsulator.class);
+    private static final String SECRET_ALGORITHM = CryptoConstants.AES_ALGORITHM;
+    private static final ThreadLocal<KeyGenerator> kems = new ThreadLocal<>();
+
+    private final ParallelSlices workers;
+
+    /**
+     * @param threads encapsulations run in parallel by {@link #encapsulateAll}
+     */
+    public KyberEncapsulator(int threads) {
+        this.workers = new ParallelSlices(threads, "pqve-kem-");
+    }
+
+    public static KyberEncapsulator shared() {
+        return Holder.SHARED;
+    }
+
+    public int getThreads() {
+        return workers.getThreads();
+    }
+
+    /**
+     * Generates a fresh shared secret for {@code recipient} on the calling thread.
+     */
+    public static Encapsulation encapsulate(PublicKey recipient) throws GeneralSecurityException {
+        KeyGenerator kem = kems.get();
+        if (kem == null) {
+            kem = KeyGenerator.getInstance(CryptoConstants.KYBER_ALGORITHM, CryptoConstants.pqcProvider());
+            kems.set(kem);
+        }
+        kem.init(new KEMGenerateSpec(recipient, SECRET_ALGORITHM), RandomSource.current());
+        SecretKeyWithEncapsulation generated = (SecretKeyWithEncapsulation) kem.generateKey();
+        return new Encapsulation(generated.getEncoded(), generated.getEncapsulation());
+    }
+
+    /**
+     * Recovers the shared secret from an encapsulation made for {@code privateKey}'s public key.
+     */
+    public static SecretKey decapsulate(PrivateKey privateKey, byte[] encapsulation)
+            throws GeneralSecurityException {
+        KeyGenerator kem = KeyGenerator.getInstance(CryptoConstants.KYBER_ALGORITHM, CryptoConstants.pqcProvider());
+        kem.init(new KEMExtractSpec(privateKey, encapsulation, SECRET_ALGORITHM));
+        SecretKeyWithEncapsulation extracted = (SecretKeyWithEncapsulation) kem.generateKey();
+        byte[] secret = extracted.getEncoded();
+        try {
+            return SymmetricEncryption.createKey(secret);
+        } finally {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    /**
+     * Encapsulates a fresh shared secret to every recipient in parallel.
+     * The result at index {@code i} belongs to {@code recipients.get(i)}.
+     */
+    public List<Encapsulation> encapsulateAll(List<PublicKey> recipients) throws GeneralSecurityException {
+        List<Encapsulation> results = workers.map(recipients, KyberEncapsulator::encapsulate, "key encapsulation");
+        logger.debug("Encapsulated keys for {} recipients on up to {} threads", results.size(), getThreads());
+        return results;
+    }
+
+    @Override
+    public void close() {
+        workers.close();
+    }
+
+    /**
+     * A shared secret and the Kyber ciphertext that conveys it to the
+     * recipient. Callers wipe the secret when done.
+     */
+    public static final class Encapsulation {
+        private final byte[] secret;
+        private final byte[] encapsulation;
+
+        Encapsulation(byte[] secret, byte[] encapsulation) {
+            this.secret = secret;
+            this.encapsulation = encapsulation;
+        }
+
+        public SecretKey getSecret() {
+            return SymmetricEncryption.createKey(secret);
+        }
+
+        public byte[] getEncapsulation() {
+            return encapsulation.clone();
+        }
+
+        public void wipe() {
+            Arrays.fill(secret, (byte) 0);
+        }
+    }
+
+    private static final class Holder {
+        static final KyberEncapsulator SHARED =
+            new KyberEncapsulator(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+}
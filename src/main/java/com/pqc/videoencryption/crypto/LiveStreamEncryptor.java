@@ -0,0 +1,367 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Encrypts a live byte stream as it arrives. Upstream chunks are collected
+ * into a pooled segment buffer that is sealed and published as soon as it is
+ * full or its oldest byte has waited {@code maxLatencyMillis}. Downstream
+ * items form a framed version 2 file: the header first, then one
+ * length-prefixed sealed segment per item, ending with a segment flagged last.
+ *
+ * <p>Backpressure comes from the bounded per-subscriber buffer: when a
+ * consumer falls behind, publishing blocks, so the next upstream item is not
+ * requested until it catches up. Only the producer's thread ever blocks; the
+ * latency flushes of all streams share one timer thread and never wait on a
+ * stream that cannot take a segment yet, so one slow subscriber stalls only
+ * its own stream. Subscribe consumers before connecting the
+ * producer, since the header is published on the upstream subscription.
+ */
+public final class LiveStreamEncryptor extends SubmissionPublisher<ByteBuffer>
+        implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    private static final Logger logger = LoggerFactory.getLogger(LiveStreamEncryptor.class);
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "pqve-live-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public static final int SEGMENT_SIZE = 64 * 1024;
+    public static final long MAX_LATENCY_MILLIS = 20;
+    public static final int MAX_BUFFERED_SEGMENTS = 8;
+
+    private final EncryptedFileHeader header;
+    private final SecretKey segmentKey;
+    private final long maxLatencyMillis;
+    private final byte[] aad;
+    private final Cipher cipher;
+    private final BufferPool.PooledBuffer current;
+    // Not the publisher's own monitor: seal() may block in submit() while holding this.
+    private final ReentrantLock lock = new ReentrantLock();
+    // Generation of a flush that found the lock taken, or -1; rerun by whoever unlocks.
+    private final AtomicLong missedFlush = new AtomicLong(-1);
+    private Flow.Subscription upstream;
+    private ScheduledFuture<?> pendingFlush;
+    private long generation;
+    private long segments;
+    private long bytesIn;
+    private boolean finished;
+    private boolean released;
+
+    public LiveStreamEncryptor(EncryptedFileHeader header, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        this(header, segmentKey, MAX_LATENCY_MILLIS, ForkJoinPool.commonPool(), MAX_BUFFERED_SEGMENTS);
+    }
+
+    public LiveStreamEncryptor(EncryptedFileHeader header, SecretKey segmentKey, long maxLatencyMillis,
+                               Executor executor, int maxBufferedSegments)
+            throws IOException, GeneralSecurityException {
+        super(executor, maxBufferedSegments);
+        if (!header.isFramed()) {
+            throw new IllegalArgumentException("Live streams need a framed header");
+        }
+        if (maxLatencyMillis < 1) {
+            throw new IllegalArgumentException("Latency bound must be at least 1 ms");
+        }
+        this.header = header;
+        this.segmentKey = segmentKey;
+        this.maxLatencyMillis = maxLatencyMillis;
+        this.aad = SymmetricEncryption.segmentAad(header.digest());
+        this.cipher = SymmetricEncryption.newSegmentCipher();
+        this.current = BufferPool.shared().acquire(header.getSegmentSize());
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        lock.lock();
+        try {
+            if (upstream != null || finished) {
+                subscription.cancel();
+                return;
+            }
+            upstream = subscription;
+        } finally {
+            unlock();
+        }
+        submit(ByteBuffer.wrap(header.getEncoded()));
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(ByteBuffer chunk) {
+        try {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                ByteBuffer segment = current.buffer();
+                while (chunk.hasRemaining()) {
+                    if (segment.position() == 0) {
+                        scheduleFlush();
+                    }
+                    int n = Math.min(chunk.remaining(), segment.remaining());
+                    ByteBuffer slice = chunk.duplicate();
+                    slice.limit(slice.position() + n);
+                    segment.put(slice);
+                    chunk.position(chunk.position() + n);
+                    bytesIn += n;
+                    if (!segment.hasRemaining()) {
+                        seal(false);
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            upstream.cancel();
+            fail(e);
+            return;
+        }
+        if (isClosed()) {
+            upstream.cancel();
+            release();
+        } else {
+            upstream.request(1);
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        try {
+            lock.lock();
+            try {
+                if (finished) {
+                    return;
+                }
+                seal(true);
+                finished = true;
+            } finally {
+                unlock();
+            }
+            close();
+            logger.info("Live stream {} sealed: {} segments, {} bytes",
+                header.getOriginalFilename(), segments, bytesIn);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            fail(e);
+        } finally {
+            release();
+        }
+    }
+
+    public long getSegments() {
+        lock.lock();
+        try {
+            return segments;
+        } finally {
+            unlock();
+        }
+    }
+
+    public long getBytesIn() {
+        lock.lock();
+        try {
+            return bytesIn;
+        } finally {
+            unlock();
+        }
+    }
+
+    public EncryptedFileHeader getHeader() {
+        return header;
+    }
+
+    private void scheduleFlush() {
+        long scheduled = generation;
+        pendingFlush = timer.schedule(() -> flush(scheduled), maxLatencyMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs on the timer shared by every stream, so it never waits. If the
+     * lock is held (the producer may be blocked publishing to a slow
+     * subscriber), it leaves the flush to be rerun when the holder unlocks;
+     * if a subscriber's buffer is full, it tries again one latency bound
+     * later. Either way the producer may seal the segment first.
+     */
+    private void flush(long scheduled) {
+        if (!lock.tryLock()) {
+            missedFlush.set(scheduled);
+            // The holder may have unlocked before it could see the note.
+            if (!lock.tryLock()) {
+                return;
+            }
+            missedFlush.compareAndSet(scheduled, -1);
+        }
+        try {
+            if (finished || generation != scheduled || current.buffer().position() == 0) {
+                return;
+            }
+            // Only this stream publishes, under the lock, so the lag can only shrink before submit().
+            if (estimateMaximumLag() >= getMaxBufferCapacity()) {
+                pendingFlush = timer.schedule(() -> flush(scheduled), maxLatencyMillis, TimeUnit.MILLISECONDS);
+                return;
+            }
+            seal(false);
+        } catch (GeneralSecurityException | RuntimeException e) {
+            if (upstream != null) {
+                upstream.cancel();
+            }
+            fail(e);
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Seals the buffered bytes as the next segment and publishes it. Blocks
+     * while a subscriber's buffer is full.
+     */
+    private void seal(boolean last) throws GeneralSecurityException {
+        ByteBuffer plaintext = current.buffer().flip();
+        ByteBuffer frame = ByteBuffer.allocate(EncryptedFileHeader.FRAME_PREFIX + plaintext.remaining()
+            + CryptoConstants.GCM_TAG_LENGTH);
+        frame.putInt(plaintext.remaining() + CryptoConstants.GCM_TAG_LENGTH);
+        SymmetricEncryption.sealSegment(cipher, segmentKey, segments, last, aad, plaintext, frame);
+        BufferPool.zero(current.buffer().clear());
+        segments++;
+        generation++;
+        if (pendingFlush != null) {
+            pendingFlush.cancel(false);
+            pendingFlush = null;
+        }
+        submit(frame.flip());
+    }
+
+    private void unlock() {
+        lock.unlock();
+        long missed = missedFlush.getAndSet(-1);
+        if (missed >= 0) {
+            timer.execute(() -> flush(missed));
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        lock.lock();
+        try {
+            if (finished) {
+                return;
+            }
+            finished = true;
+            if (pendingFlush != null) {
+                pendingFlush.cancel(false);
+            }
+        } finally {
+            unlock();
+        }
+        logger.warn("Live stream {} failed: {}", header.getOriginalFilename(), throwable.toString());
+        closeExceptionally(throwable);
+        release();
+    }
+
+    private void release() {
+        lock.lock();
+        try {
+            finished = true;
+            if (!released) {
+                released = true;
+                current.close();
+                SymmetricEncryption.wipe(segmentKey);
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Decrypts a framed stream whose header has already been consumed from
+     * {@code input}. Fails if the stream ends before its last segment.
+     */
+    public static SegmentPipeline.Stats decrypt(ReadableByteChannel input, WritableByteChannel output,
+                                                EncryptedFileHeader header, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        if (!header.isFramed()) {
+            throw new IllegalArgumentException("Not a framed stream");
+        }
+        long start = System.nanoTime();
+        Cipher cipher = SymmetricEncryption.newSegmentCipher();
+        byte[] aad = SymmetricEncryption.segmentAad(header.digest());
+        BufferPool pool = BufferPool.shared();
+        long segments = 0;
+        long bytesIn = 0;
+        long bytesOut = 0;
+        try (BufferPool.PooledBuffer sealed = pool.acquire(header.sealedSegmentSize());
+             BufferPool.PooledBuffer opened = pool.acquire(header.getSegmentSize())) {
+            int length = readFrameLength(input, header, true);
+            while (length >= 0) {
+                ByteBuffer in = sealed.buffer().clear().limit(length);
+                readFully(input, in);
+                int next = readFrameLength(input, header, false);
+                in.flip();
+                ByteBuffer out = opened.buffer().clear();
+                SymmetricEncryption.openSegment(cipher, segmentKey, segments, next < 0, aad, in, out);
+                out.flip();
+                while (out.hasRemaining()) {
+                    output.write(out);
+                }
+                segments++;
+                bytesIn += EncryptedFileHeader.FRAME_PREFIX + length;
+                bytesOut += out.limit();
+                length = next;
+            }
+            BufferPool.zero(opened.buffer().clear());
+        }
+        return new SegmentPipeline.Stats(segments, bytesIn, bytesOut, System.nanoTime() - start, 0);
+    }
+
+    private static int readFrameLength(ReadableByteChannel input, EncryptedFileHeader header, boolean required)
+            throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(EncryptedFileHeader.FRAME_PREFIX);
+        while (prefix.hasRemaining()) {
+            if (input.read(prefix) < 0) {
+                if (prefix.position() == 0 && !required) {
+                    return -1;
+                }
+                throw new EOFException("Truncated live stream");
+            }
+        }
+        int length = prefix.getInt(0);
+        if (length < CryptoConstants.GCM_TAG_LENGTH || length > header.sealedSegmentSize()) {
+            throw new IOException("Corrupt segment frame length: " + length);
+        }
+        return length;
+    }
+
+    private static void readFully(ReadableByteChannel input, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (input.read(buffer) < 0) {
+                throw new EOFException("Truncated live stream");
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.pqc.videoencryption.crypto;
+
+import org.bouncycastle.pqc.jcajce.spec.DilithiumParameterSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Signs {@link SegmentManifest}s with a Dilithium3 private key.
+ *
+ * <p>Dilithium signing costs far more than hashing, so it is paid once per
+ * file rather than per segment, and {@link #signBatch} pays it once for a
+ * whole job: the manifests' roots become the leaves of a hash tree and only
+ * the tree's root is signed. {@link #signAll} instead signs each manifest
+ * on its own, spreading the signatures over the worker threads. Each thread
+ * keeps its own signature instance.
+ */
+public final class ManifestSigner implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ManifestSigner.class);
+    private static final ThreadLocal<Signature> signers = new ThreadLocal<>();
+
+    private final PrivateKey privateKey;
+    private final ParallelSlices workers;
+
+    /**
+     * @param threads signatures computed in parallel by {@link #signAll}
+     */
+    public ManifestSigner(PrivateKey privateKey, int threads) {
+        this.workers = new ParallelSlices(threads, "pqve-sign-");
+        this.privateKey = privateKey;
+    }
+
+    public static KeyPair generateKeyPair() throws GeneralSecurityException {
+        KeyPairGenerator kpg = KeyPairGenerator.getInstance(
+            CryptoConstants.SIGNATURE_ALGORITHM, CryptoConstants.pqcProvider());
+        kpg.initialize(DilithiumParameterSpec.dilithium3, RandomSource.current());
+        KeyPair kp = kpg.generateKeyPair();
+        logger.debug("Generated Dilithium3 key pair");
+        return kp;
+    }
+
+    public static PrivateKey decodePrivateKey(byte[] encoded) throws GeneralSecurityException {
+        KeyFactory kf = KeyFactory.getInstance(CryptoConstants.SIGNATURE_ALGORITHM, CryptoConstants.pqcProvider());
+        return kf.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+
+    public int getThreads() {
+        return workers.getThreads();
+    }
+
+    public SignedManifest sign(SegmentManifest manifest) throws GeneralSecurityException {
+        return signBatch(List.of(manifest)).get(0);
+    }
+
+    /**
+     * Signs every manifest separately, in parallel. Each result verifies
+     * without reference to the others.
+     */
+    public List<SignedManifest> signAll(List<SegmentManifest> manifests) throws GeneralSecurityException {
+        List<SignedManifest> results = workers.map(manifests, this::sign, "manifest signing");
+        logger.debug("Signed {} manifests on up to {} threads", results.size(), getThreads());
+        return results;
+    }
+
+    /**
+     * Signs all manifests with one signature over their hash tree. The
+     * result at index {@code i} belongs to {@code manifests.get(i)} and
+     * carries the path from its leaf to the signed root.
+     */
+    public List<SignedManifest> signBatch(List<SegmentManifest> manifests) throws GeneralSecurityException {
+        if (manifests.isEmpty()) {
+            return List.of();
+        }
+        List<byte[][]> tree = SignedManifest.tree(manifests);
+        byte[] root = tree.get(tree.size() - 1)[0];
+        byte[] signature = sign(SignedManifest.message(manifests.size(), root));
+        List<SignedManifest> results = new ArrayList<>(manifests.size());
+        for (int i = 0; i < manifests.size(); i++) {
+            results.add(new SignedManifest(manifests.get(i), i, manifests.size(),
+                SignedManifest.path(tree, i), signature));
+        }
+        if (manifests.size() > 1) {
+            logger.debug("Signed a batch of {} manifests", manifests.size());
+        }
+        return results;
+    }
+
+    private byte[] sign(byte[] message) throws GeneralSecurityException {
+        Signature signer = signers.get();
+        if (signer == null) {
+            signer = Signature.getInstance(CryptoConstants.SIGNATURE_ALGORITHM, CryptoConstants.pqcProvider());
+            signers.set(signer);
+        }
+        signer.initSign(privateKey, RandomSource.current());
+        signer.update(message);
+        return signer.sign();
+    }
+
+    @Override
+    public void close() {
+        workers.close();
+    }
+}
@@ -0,0 +1,137 @@
+package com.pqc.videoencryption.crypto;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks {@link SignedManifest}s against one signer's Dilithium public key,
+ * then hands out a {@link Verified} that checks segments one at a time as
+ * they stream past.
+ *
+ * <p>Signatures already verified are remembered, so the manifests of a
+ * batch cost one Dilithium verification between them and every further
+ * check is a hash path up to the batch root.
+ */
+public final class ManifestVerifier {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final ThreadLocal<Signature> verifiers = new ThreadLocal<>();
+
+    private final PublicKey publicKey;
+    private final Map<ByteBuffer, Boolean> verified;
+    private final AtomicLong signatureChecks = new AtomicLong();
+
+    public ManifestVerifier(PublicKey publicKey) {
+        this(publicKey, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity verified signatures remembered, least recently used evicted first
+     */
+    public ManifestVerifier(PublicKey publicKey, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.publicKey = publicKey;
+        this.verified = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public static PublicKey decodePublicKey(byte[] encoded) throws GeneralSecurityException {
+        KeyFactory kf = KeyFactory.getInstance(CryptoConstants.SIGNATURE_ALGORITHM, CryptoConstants.pqcProvider());
+        return kf.generatePublic(new X509EncodedKeySpec(encoded));
+    }
+
+    /**
+     * Verifies that {@code signed} is signed by this verifier's key and
+     * describes the file whose header is {@code header}.
+     *
+     * @throws SignatureException if either check fails
+     */
+    public Verified verify(SignedManifest signed, EncryptedFileHeader header) throws GeneralSecurityException {
+        SegmentManifest manifest = signed.getManifest();
+        if (!MessageDigest.isEqual(manifest.getHeaderDigest(), header.digest())
+                || manifest.getSegmentSize() != header.getSegmentSize()) {
+            throw new SignatureException("Manifest belongs to a different file");
+        }
+        byte[] message = signed.signedMessage();
+        if (message == null) {
+            throw new SignatureException("Malformed manifest batch path");
+        }
+        byte[] signature = signed.getSignature();
+        ByteBuffer key = ByteBuffer.wrap(SegmentManifest.hash((byte) 0, message, signature));
+        synchronized (verified) {
+            if (verified.get(key) != null) {
+                return new Verified(manifest);
+            }
+        }
+        Signature verifier = verifiers.get();
+        if (verifier == null) {
+            verifier = Signature.getInstance(CryptoConstants.SIGNATURE_ALGORITHM, CryptoConstants.pqcProvider());
+            verifiers.set(verifier);
+        }
+        verifier.initVerify(publicKey);
+        verifier.update(message);
+        signatureChecks.incrementAndGet();
+        if (!verifier.verify(signature)) {
+            throw new SignatureException("Manifest signature is invalid");
+        }
+        synchronized (verified) {
+            verified.put(key, Boolean.TRUE);
+        }
+        return new Verified(manifest);
+    }
+
+    /**
+     * Dilithium verifications performed; signatures found in the cache are not counted.
+     */
+    public long getSignatureChecks() {
+        return signatureChecks.get();
+    }
+
+    /**
+     * A manifest whose signature has been checked. Segments are checked
+     * against it by hash alone.
+     */
+    public static final class Verified {
+        private final SegmentManifest manifest;
+
+        Verified(SegmentManifest manifest) {
+            this.manifest = manifest;
+        }
+
+        public SegmentManifest getManifest() {
+            return manifest;
+        }
+
+        /**
+         * Checks sealed segment {@code index} (position to limit, left
+         * unchanged). {@code last} marks the final segment read, which must
+         * also be the final segment signed, so a truncated file fails here.
+         *
+         * @throws SignatureException if the segment is not the one signed
+         */
+        public void check(long index, boolean last, ByteBuffer sealed) throws SignatureException {
+            if (!manifest.matches(index, sealed)) {
+                throw new SignatureException("Segment " + index + " does not match the signed manifest");
+            }
+            if (last && index != manifest.getSegmentCount() - 1) {
+                throw new SignatureException("File ends at segment " + index + " of "
+                    + manifest.getSegmentCount() + " signed");
+            }
+        }
+    }
+}
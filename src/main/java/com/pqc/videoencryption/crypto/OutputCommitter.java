@@ -0,0 +1,264 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Publishes finished output files so that a crash never leaves a partial
+ * file under its final name.
+ *
+ * <p>Writers fill a hidden temporary sibling ({@link #tempPath}) and then
+ * {@link #commit} it. Commits from all concurrent jobs go onto one queue; a
+ * single committer thread drains whatever has queued up, fsyncs those files
+ * in parallel, renames each onto its destination atomically and then
+ * fsyncs every affected directory once for the whole batch. A commit
+ * returns only after its directory fsync, so every visible output is
+ * complete and durable, and a batch of small files costs one directory
+ * fsync per directory instead of one per file.
+ *
+ * <p>A crash before the rename leaves only the temporary file, which is
+ * hidden and never mistaken for an output.
+ */
+public final class OutputCommitter implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputCommitter.class);
+    private static final int MAX_BATCH = 1024;
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+    private static final OutputCommitter shared = new OutputCommitter(4);
+
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final ExecutorService syncs;
+    private final Thread committer;
+    private volatile boolean closed;
+    private long batches;
+    private long commits;
+    private long directorySyncs;
+
+    /**
+     * @param syncThreads file fsyncs issued in parallel within a batch
+     */
+    public OutputCommitter(int syncThreads) {
+        if (syncThreads < 1) {
+            throw new IllegalArgumentException("At least one sync thread is required");
+        }
+        this.syncs = Executors.newFixedThreadPool(syncThreads, runnable -> {
+            Thread thread = new Thread(runnable, "pqve-commit-sync-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.committer = new Thread(this::run, "pqve-commit");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    public static OutputCommitter shared() {
+        return shared;
+    }
+
+    /**
+     * A fresh hidden name next to {@code output} to write it under before
+     * committing, unique per call so concurrent writers never collide.
+     */
+    public static Path tempPath(Path output) {
+        return output.resolveSibling("." + output.getFileName() + "."
+            + HexFormat.of().formatHex(RandomSource.nextBytes(6)) + ".tmp");
+    }
+
+    /**
+     * Makes {@code temp} durable and renames it to {@code output}, replacing
+     * any existing file, and waits until the rename itself is durable.
+     * {@code temp} must be in the same directory as {@code output}. On
+     * failure {@code temp} is left for the caller to delete or reuse.
+     */
+    public void commit(Path temp, Path output) throws IOException {
+        await(commitAsync(temp, output));
+    }
+
+    /**
+     * Queues a commit; the future completes when it is durable.
+     */
+    public CompletableFuture<Void> commitAsync(Path temp, Path output) {
+        Pending pending = new Pending(temp, output);
+        queue.add(pending);
+        LockSupport.unpark(committer);
+        if (closed && queue.remove(pending)) {
+            pending.done.completeExceptionally(new IOException("Output committer is closed"));
+        }
+        return pending.done;
+    }
+
+    /**
+     * Waits for a commit future, rethrowing a failure as the {@link IOException} behind it.
+     */
+    public static void await(CompletableFuture<Void> future) throws IOException {
+        try {
+            future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while committing output");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Committing output failed", cause);
+        }
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getCommits() {
+        return commits;
+    }
+
+    public synchronized long getDirectorySyncs() {
+        return directorySyncs;
+    }
+
+    /**
+     * Finishes queued commits and stops the committer.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(committer);
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        syncs.shutdownNow();
+        for (Pending pending : drain(Integer.MAX_VALUE)) {
+            pending.done.completeExceptionally(new IOException("Output committer is closed"));
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending> batch = drain(MAX_BATCH);
+            if (batch.isEmpty()) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            commitBatch(batch);
+        }
+    }
+
+    private void commitBatch(List<Pending> batch) {
+        List<Future<?>> forced = new ArrayList<>(batch.size());
+        for (Pending pending : batch) {
+            forced.add(syncs.submit(() -> {
+                force(pending.temp);
+                return null;
+            }));
+        }
+
+        Set<Path> directories = new LinkedHashSet<>();
+        List<Pending> renamed = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Pending pending = batch.get(i);
+            try {
+                forced.get(i).get();
+                move(pending.temp, pending.output);
+                directories.add(pending.output.toAbsolutePath().getParent());
+                renamed.add(pending);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pending.done.completeExceptionally(new InterruptedIOException("Commit interrupted"));
+            } catch (ExecutionException e) {
+                pending.done.completeExceptionally(e.getCause());
+            } catch (IOException | RuntimeException e) {
+                pending.done.completeExceptionally(e);
+            }
+        }
+
+        for (Path directory : directories) {
+            forceDirectory(directory);
+        }
+        synchronized (this) {
+            batches++;
+            commits += renamed.size();
+            directorySyncs += directories.size();
+        }
+        for (Pending pending : renamed) {
+            pending.done.complete(null);
+        }
+        logger.trace("Committed {} outputs with {} directory syncs", renamed.size(), directories.size());
+    }
+
+    /**
+     * Makes a rename or a new entry in {@code directory} durable. Not every
+     * platform allows opening a directory, in which case this is a no-op.
+     */
+    public static void forceDirectory(Path directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            logger.trace("Directory fsync not supported for {}", directory);
+        }
+    }
+
+    private static void force(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static void move(Path temp, Path output) throws IOException {
+        try {
+            Files.move(temp, output, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private List<Pending> drain(int limit) {
+        List<Pending> batch = new ArrayList<>();
+        Pending pending;
+        while (batch.size() < limit && (pending = queue.poll()) != null) {
+            batch.add(pending);
+        }
+        return batch;
+    }
+
+    private static final class Pending {
+        final Path temp;
+        final Path output;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Path temp, Path output) {
+            this.temp = temp;
+            this.output = output;
+        }
+    }
+}
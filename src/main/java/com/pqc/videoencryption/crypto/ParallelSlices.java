@@ -0,0 +1,101 @@
+package com.pqc.videoencryption.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker threads that apply one public-key operation to every element of a
+ * list. The list is cut into one contiguous slice per worker, so each
+ * thread reuses its thread-local engine across its slice; results come back
+ * in list order. A failure cancels the other slices.
+ */
+final class ParallelSlices implements AutoCloseable {
+
+    interface Operation<T, R> {
+        R apply(T item) throws GeneralSecurityException;
+    }
+
+    private final int threads;
+    private final ExecutorService workers;
+
+    /**
+     * @param threadPrefix worker names, e.g. {@code "pqve-kem-"}
+     */
+    ParallelSlices(int threads, String threadPrefix) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        AtomicInteger threadCounter = new AtomicInteger();
+        this.threads = threads;
+        this.workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, threadPrefix + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    int getThreads() {
+        return threads;
+    }
+
+    /**
+     * @param what the operation, for error messages (e.g. "key encapsulation")
+     */
+    <T, R> List<R> map(List<T> items, Operation<T, R> operation, String what) throws GeneralSecurityException {
+        int count = items.size();
+        Object[] results = new Object[count];
+        int slices = Math.min(threads, count);
+        if (slices <= 1) {
+            for (int i = 0; i < count; i++) {
+                results[i] = operation.apply(items.get(i));
+            }
+            return cast(results);
+        }
+
+        List<Future<?>> pending = new ArrayList<>(slices);
+        for (int slice = 0; slice < slices; slice++) {
+            int from = (int) ((long) count * slice / slices);
+            int to = (int) ((long) count * (slice + 1) / slices);
+            pending.add(workers.submit(() -> {
+                for (int i = from; i < to; i++) {
+                    results[i] = operation.apply(items.get(i));
+                }
+                return null;
+            }));
+        }
+        try {
+            for (Future<?> future : pending) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            pending.forEach(future -> future.cancel(true));
+            throw new GeneralSecurityException("Interrupted during " + what, e);
+        } catch (ExecutionException e) {
+            pending.forEach(future -> future.cancel(true));
+            Throwable cause = e.getCause();
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            }
+            throw new GeneralSecurityException("Failed during " + what, cause);
+        }
+        return cast(results);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <R> List<R> cast(Object[] results) {
+        return (List<R>) Arrays.asList(results);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
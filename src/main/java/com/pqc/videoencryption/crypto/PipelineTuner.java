@@ -0,0 +1,510 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Picks segment size, cipher worker count and queue depth for each job from
+ * what earlier jobs measured on the same devices, and keeps adjusting the
+ * worker count while a job runs.
+ *
+ * <p>The segment size is fixed per file by its header, so it is tuned
+ * across jobs: each candidate size is tried once, after which the best
+ * smoothed throughput wins and every eighth job re-probes a neighbour of
+ * the best in case the device or load has changed. Within a job a
+ * {@link WorkerControl} gates the cipher workers and hill-climbs their
+ * number on the throughput measured every 250 ms, without adding workers
+ * while the CPUs are saturated. The queue depth for the next job grows
+ * when the reader keeps running out of free slots while workers go idle
+ * (bursty I/O), and shrinks back when it does not.
+ *
+ * <p>Results are kept per pair of input and output file stores in a
+ * properties file, {@code data/pipeline-profile.properties} by default
+ * ({@code pqve.tuning.profile}), which belongs to this host. Tuning is on
+ * unless {@code -Dpqve.tuning=false}.
+ */
+public final class PipelineTuner {
+
+    private static final Logger logger = LoggerFactory.getLogger(PipelineTuner.class);
+
+    public static final String PROPERTY = "pqve.tuning";
+    public static final String PROFILE_PROPERTY = "pqve.tuning.profile";
+    static final int[] SEGMENT_SIZES = {256 << 10, 1 << 20, 4 << 20};
+    static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+    private static final int PROBE_INTERVAL = 8;
+    private static final double SMOOTHING = 0.3;
+    private static final long MIN_SAMPLE_BYTES = 8L << 20;
+
+    private final Path profileFile;
+    private final int maxWorkers;
+    private final Properties profile;
+
+    /**
+     * @param profileFile where measurements are kept; read now if it exists
+     * @param maxWorkers upper bound for cipher workers
+     */
+    public PipelineTuner(Path profileFile, int maxWorkers) throws IOException {
+        this(profileFile, maxWorkers, load(profileFile));
+    }
+
+    private PipelineTuner(Path profileFile, int maxWorkers, Properties profile) {
+        if (maxWorkers < 1) {
+            throw new IllegalArgumentException("At least one cipher worker is required");
+        }
+        this.profileFile = profileFile;
+        this.maxWorkers = maxWorkers;
+        this.profile = profile;
+    }
+
+    private static Properties load(Path profileFile) throws IOException {
+        Properties profile = new Properties();
+        if (Files.exists(profileFile)) {
+            try (InputStream in = Files.newInputStream(profileFile)) {
+                profile.load(in);
+            }
+        }
+        return profile;
+    }
+
+    public static PipelineTuner shared() {
+        return Shared.TUNER;
+    }
+
+    public static boolean enabled() {
+        return !"false".equalsIgnoreCase(System.getProperty(PROPERTY));
+    }
+
+    /**
+     * Plans a job with the shared tuner, or with {@link SegmentPipeline#defaults()}
+     * if tuning is disabled.
+     *
+     * @param segmentSize the file's segment size, or 0 to let the tuner choose
+     */
+    public static Job start(Path input, Path output, int segmentSize) {
+        if (!enabled()) {
+            SegmentPipeline pipeline = SegmentPipeline.defaults();
+            return new Job(null, null, segmentSize > 0 ? pipeline.withSegmentSize(segmentSize) : pipeline, null);
+        }
+        return shared().begin(input, output, segmentSize);
+    }
+
+    /**
+     * Plans a job from {@code input} to {@code output}.
+     *
+     * @param segmentSize the file's segment size, or 0 to let the tuner choose
+     */
+    public synchronized Job begin(Path input, Path output, int segmentSize) {
+        String device = deviceKey(input, output);
+        int workers = Math.min(maxWorkers, getInt(device + ".workers", defaultWorkers()));
+        int depth = Math.min(maxDepth(), getInt(device + ".queueDepth", 2 * workers + 2));
+        if (segmentSize <= 0) {
+            segmentSize = chooseSegmentSize(device, size(input), workers);
+        }
+        WorkerControl control = new WorkerControl(workers, maxWorkers, WINDOW_NANOS);
+        SegmentPipeline pipeline = new SegmentPipeline(segmentSize, maxWorkers, Math.max(2, depth))
+            .withDirectIo(DirectIO.requested())
+            .withWorkerControl(control);
+        logger.debug("Tuned pipeline for {}: {} byte segments, {} of {} workers, queue depth {}",
+            device, segmentSize, workers, maxWorkers, depth);
+        return new Job(this, device, pipeline, control);
+    }
+
+    /**
+     * The smoothed throughput recorded for a segment size on a device, or 0.
+     */
+    public synchronized double getRecordedRate(String device, int segmentSize) {
+        return getDouble(device + ".segment." + segmentSize + ".mbps");
+    }
+
+    private int chooseSegmentSize(String device, long inputSize, int workers) {
+        // Enough segments to keep every worker busy; the smallest size always qualifies.
+        List<Integer> candidates = new ArrayList<>();
+        for (int size : SEGMENT_SIZES) {
+            if (candidates.isEmpty() || (long) size * workers <= inputSize) {
+                candidates.add(size);
+            }
+        }
+        int best = -1;
+        double bestRate = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            double rate = getDouble(device + ".segment." + candidates.get(i) + ".mbps");
+            if (rate <= 0) {
+                return candidates.get(i);
+            }
+            if (rate > bestRate) {
+                bestRate = rate;
+                best = i;
+            }
+        }
+        int jobs = getInt(device + ".jobs", 0);
+        if (jobs % PROBE_INTERVAL == PROBE_INTERVAL - 1 && candidates.size() > 1) {
+            int neighbour = (jobs / PROBE_INTERVAL) % 2 == 0 ? best + 1 : best - 1;
+            if (neighbour < 0 || neighbour >= candidates.size()) {
+                neighbour = best == 0 ? 1 : best - 1;
+            }
+            return candidates.get(neighbour);
+        }
+        return candidates.get(best);
+    }
+
+    private synchronized void record(Job job, SegmentPipeline.Stats stats) {
+        if (stats.getBytesIn() < MIN_SAMPLE_BYTES || stats.getElapsedNanos() <= 0) {
+            return;
+        }
+        int segmentSize = job.pipeline.getSegmentSize();
+        long segments = stats.getSegments();
+        if (stats.getBytesIn() <= (segments - 1) * segmentSize
+                || stats.getBytesIn() > segments * (segmentSize + CryptoConstants.GCM_TAG_LENGTH)) {
+            // A resumed file keeps the segment size of its first attempt.
+            return;
+        }
+        String device = job.device;
+        String rateKey = device + ".segment." + segmentSize + ".mbps";
+        double previous = getDouble(rateKey);
+        double rate = stats.megabytesPerSecond();
+        profile.setProperty(rateKey, String.format(Locale.ROOT, "%.1f", previous > 0
+            ? previous + SMOOTHING * (rate - previous) : rate));
+
+        WorkerControl control = job.control;
+        int workers = control.getSettledWorkers();
+        int depth = job.pipeline.getQueueDepth();
+        int base = 2 * workers + 2;
+        if (control.getReaderBlockedFraction() > 0.25 && control.getStarvedFraction() > 0.25) {
+            depth = Math.min(maxDepth(), depth + workers);
+        } else if (depth > base) {
+            depth--;
+        } else {
+            depth = base;
+        }
+        profile.setProperty(device + ".workers", Integer.toString(workers));
+        profile.setProperty(device + ".queueDepth", Integer.toString(depth));
+        profile.setProperty(device + ".jobs", Integer.toString(getInt(device + ".jobs", 0) + 1));
+        try {
+            save();
+        } catch (IOException e) {
+            logger.warn("Could not save the pipeline tuning profile: {}", e.toString());
+        }
+    }
+
+    private void save() throws IOException {
+        Path parent = profileFile.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        Path temp = OutputCommitter.tempPath(profileFile);
+        boolean saved = false;
+        try {
+            try (OutputStream out = Files.newOutputStream(temp, StandardOpenOption.CREATE_NEW)) {
+                profile.store(out, "PQVE pipeline tuning profile");
+            }
+            OutputCommitter.shared().commit(temp, profileFile);
+            saved = true;
+        } finally {
+            if (!saved) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    private int maxDepth() {
+        return 4 * maxWorkers + 2;
+    }
+
+    private int defaultWorkers() {
+        return Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private int getInt(String key, int defaultValue) {
+        try {
+            return Math.max(1, Integer.parseInt(profile.getProperty(key, Integer.toString(defaultValue))));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    private double getDouble(String key) {
+        try {
+            return Double.parseDouble(profile.getProperty(key, "0"));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static long size(Path input) {
+        try {
+            return Files.size(input);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Names the input and output file stores, e.g. {@code /dev/nvme0n1p2(ext4)>nfs0(nfs)}.
+     */
+    static String deviceKey(Path input, Path output) {
+        return storeName(input) + ">" + storeName(output.toAbsolutePath().getParent());
+    }
+
+    private static String storeName(Path path) {
+        try {
+            FileStore store = Files.getFileStore(path);
+            return store.name() + "(" + store.type() + ")";
+        } catch (IOException | RuntimeException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * One planned job. Run it with {@link #getPipeline()}, then report the
+     * result with {@link #finish}.
+     */
+    public static final class Job {
+        private final PipelineTuner tuner;
+        private final String device;
+        private final SegmentPipeline pipeline;
+        private final WorkerControl control;
+
+        private Job(PipelineTuner tuner, String device, SegmentPipeline pipeline, WorkerControl control) {
+            this.tuner = tuner;
+            this.device = device;
+            this.pipeline = pipeline;
+            this.control = control;
+        }
+
+        public SegmentPipeline getPipeline() {
+            return pipeline;
+        }
+
+        public String getDevice() {
+            return device;
+        }
+
+        /**
+         * Records what the job measured; too-small jobs are ignored as noise.
+         */
+        public void finish(SegmentPipeline.Stats stats) {
+            if (tuner != null) {
+                tuner.record(this, stats);
+            }
+        }
+    }
+
+    /**
+     * Gates a pipeline's cipher workers and adjusts how many may run from the
+     * throughput measured in fixed time windows. The pipeline starts the
+     * maximum number of worker threads; only as many as there are permits
+     * work at a time.
+     *
+     * <p>The count climbs one worker per window while each step raises
+     * throughput by more than 5%. The first step that does not is undone
+     * and the count settles there; every fourth window after that it
+     * probes one step up or down, alternating, and climbs on if that pays
+     * off.
+     */
+    public static final class WorkerControl {
+        private static final double SIGNIFICANT = 0.05;
+        private static final int PROBE_EVERY = 4;
+
+        private final int maxWorkers;
+        private final long windowNanos;
+        private final Gate gate;
+        private final AtomicLong starved = new AtomicLong();
+        private final AtomicLong readerBlocked = new AtomicLong();
+        private final AtomicLong taken = new AtomicLong();
+        private final AtomicLong read = new AtomicLong();
+
+        // Written only by the pipeline's writer thread.
+        private volatile int active;
+        private volatile int settledWorkers;
+        private volatile int adjustments;
+        private int direction = 1;
+        private int probeDirection = -1;
+        private boolean settled;
+        private int heldWindows;
+        private long windowStart;
+        private long windowBytes;
+        private double lastRate = -1;
+
+        public WorkerControl(int initialWorkers, int maxWorkers, long windowNanos) {
+            if (initialWorkers < 1 || initialWorkers > maxWorkers) {
+                throw new IllegalArgumentException("Invalid worker counts: " + initialWorkers + " of " + maxWorkers);
+            }
+            this.maxWorkers = maxWorkers;
+            this.windowNanos = windowNanos;
+            this.gate = new Gate(initialWorkers);
+            this.active = initialWorkers;
+            this.settledWorkers = initialWorkers;
+        }
+
+        public int getMaxWorkers() {
+            return maxWorkers;
+        }
+
+        public int getActiveWorkers() {
+            return active;
+        }
+
+        /**
+         * The worker count the control last settled on, or the initial count.
+         */
+        public int getSettledWorkers() {
+            return settledWorkers;
+        }
+
+        public int getAdjustments() {
+            return adjustments;
+        }
+
+        /**
+         * Share of segments a worker had to wait for because none were ready.
+         */
+        public double getStarvedFraction() {
+            return (double) starved.get() / Math.max(1, taken.get());
+        }
+
+        /**
+         * Share of reads that had to wait for a free slot.
+         */
+        public double getReaderBlockedFraction() {
+            return (double) readerBlocked.get() / Math.max(1, read.get());
+        }
+
+        void acquire() throws InterruptedException {
+            gate.acquire();
+        }
+
+        void release() {
+            gate.release();
+        }
+
+        void workerTook(boolean waited) {
+            taken.incrementAndGet();
+            if (waited) {
+                starved.incrementAndGet();
+            }
+        }
+
+        void readerTook(boolean waited) {
+            read.incrementAndGet();
+            if (waited) {
+                readerBlocked.incrementAndGet();
+            }
+        }
+
+        void onSegment(long bytes) {
+            onSegment(bytes, System.nanoTime());
+        }
+
+        void onSegment(long bytes, long now) {
+            if (windowStart == 0) {
+                // The first segment includes start-up; measure from its completion.
+                windowStart = now;
+                return;
+            }
+            windowBytes += bytes;
+            long elapsed = now - windowStart;
+            if (elapsed >= windowNanos) {
+                double rate = windowBytes * 1e9 / elapsed;
+                windowStart = now;
+                windowBytes = 0;
+                adjust(rate, cpuSaturated());
+            }
+        }
+
+        void adjust(double rate, boolean cpuSaturated) {
+            double previous = lastRate;
+            lastRate = rate;
+            if (settled) {
+                if (++heldWindows % PROBE_EVERY == 0) {
+                    settled = false;
+                    probeDirection = -probeDirection;
+                    step(probeDirection, cpuSaturated);
+                }
+                return;
+            }
+            if (previous >= 0 && rate <= previous * (1 + SIGNIFICANT)) {
+                // The last step did not pay off: take it back and hold.
+                step(-direction, false);
+                settle();
+                return;
+            }
+            step(direction, cpuSaturated);
+        }
+
+        private void step(int stepDirection, boolean cpuSaturated) {
+            direction = stepDirection;
+            int target = active + stepDirection;
+            if ((stepDirection > 0 && cpuSaturated) || target < 1 || target > maxWorkers) {
+                settle();
+                return;
+            }
+            if (target > active) {
+                gate.release(target - active);
+            } else {
+                gate.reduce(active - target);
+            }
+            adjustments++;
+            active = target;
+        }
+
+        private void settle() {
+            settled = true;
+            heldWindows = 0;
+            settledWorkers = active;
+        }
+
+        private static boolean cpuSaturated() {
+            OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                return ((com.sun.management.OperatingSystemMXBean) os).getCpuLoad() >= 0.95;
+            }
+            return false;
+        }
+    }
+
+    private static final class Gate extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        Gate(int permits) {
+            super(permits);
+        }
+
+        void reduce(int permits) {
+            reducePermits(permits);
+        }
+    }
+
+    private static final class Shared {
+        static final PipelineTuner TUNER = create();
+
+        private static PipelineTuner create() {
+            Path file = Paths.get(System.getProperty(PROFILE_PROPERTY, "data/pipeline-profile.properties"));
+            int workers = Math.max(1, Math.min(16, Runtime.getRuntime().availableProcessors()));
+            try {
+                return new PipelineTuner(file, workers);
+            } catch (IOException | IllegalArgumentException e) {
+                // The profile is only a cache of measurements; start over and replace it.
+                logger.warn("Ignoring unreadable pipeline tuning profile {}: {}", file, e.toString());
+                return new PipelineTuner(file, workers, new Properties());
+            }
+        }
+    }
+}
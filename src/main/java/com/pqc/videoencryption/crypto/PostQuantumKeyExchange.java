@@ -6,6 +6,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.crypto.Cipher;
 import java.security.*;
+import java.security.spec.PKCS8EncodedKeySpec;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.Arrays;
 
@@ -20,9 +21,9 @@ public final class PostQuantumKeyExchange {
     public static KeyPair generateKeyPair() throws GeneralSecurityException {
         KeyPairGenerator kpg = KeyPairGenerator.getInstance(
             CryptoConstants.KYBER_ALGORITHM, 
-            CryptoConstants.PQC_PROVIDER
+            CryptoConstants.pqcProvider()
         );
-        kpg.initialize(KyberParameterSpec.kyber1024, new SecureRandom());
+        kpg.initialize(KyberParameterSpec.kyber1024, RandomSource.current());
         KeyPair kp = kpg.generateKeyPair();
         logger.debug("Generated Kyber-1024 key pair");
         return kp;
@@ -31,9 +32,9 @@ public final class PostQuantumKeyExchange {
     public static byte[] encapsulate(PublicKey recipientPublicKey) throws GeneralSecurityException {
         Cipher kem = Cipher.getInstance(
             CryptoConstants.KYBER_ALGORITHM, 
-            CryptoConstants.PQC_PROVIDER
+            CryptoConstants.pqcProvider()
         );
-        kem.init(Cipher.ENCRYPT_MODE, recipientPublicKey, new SecureRandom());
+        kem.init(Cipher.ENCRYPT_MODE, recipientPublicKey, RandomSource.current());
         byte[] sharedSecret = kem.doFinal();
         logger.debug("Kyber encapsulation completed, shared secret: {} bytes", sharedSecret.length);
         return sharedSecret;
@@ -43,7 +44,7 @@ public final class PostQuantumKeyExchange {
             throws GeneralSecurityException {
         Cipher kem = Cipher.getInstance(
             CryptoConstants.KYBER_ALGORITHM, 
-            CryptoConstants.PQC_PROVIDER
+            CryptoConstants.pqcProvider()
         );
         kem.init(Cipher.DECRYPT_MODE, privateKey);
         byte[] sharedSecret = kem.doFinal(encapsulatedKey);
@@ -54,11 +55,19 @@ public final class PostQuantumKeyExchange {
     public static PublicKey decodePublicKey(byte[] encoded) throws GeneralSecurityException {
         KeyFactory kf = KeyFactory.getInstance(
             CryptoConstants.KYBER_ALGORITHM, 
-            CryptoConstants.PQC_PROVIDER
+            CryptoConstants.pqcProvider()
         );
         return kf.generatePublic(new X509EncodedKeySpec(encoded));
     }
     
+    public static PrivateKey decodePrivateKey(byte[] encoded) throws GeneralSecurityException {
+        KeyFactory kf = KeyFactory.getInstance(
+            CryptoConstants.KYBER_ALGORITHM, 
+            CryptoConstants.pqcProvider()
+        );
+        return kf.generatePrivate(new PKCS8EncodedKeySpec(encoded));
+    }
+    
     public static byte[] encodePublicKey(PublicKey publicKey) {
         return publicKey.getEncoded();
     }
@@ -0,0 +1,140 @@
+package com.pqc.videoencryption.crypto;
+
+import org.bouncycastle.crypto.digests.SHA512Digest;
+import org.bouncycastle.crypto.prng.SP800SecureRandom;
+import org.bouncycastle.crypto.prng.SP800SecureRandomBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Randomness for keys, salts and nonces without a shared lock.
+ *
+ * <p>Every thread gets its own SP 800-90A Hash_DRBG (SHA-512, 256-bit
+ * strength), seeded from the operating system's non-blocking source so
+ * first use never stalls on a low-entropy VM. A thread's generator is
+ * reseeded from that source after {@link #RESEED_INTERVAL_NANOS} or
+ * {@link #RESEED_REQUESTS} requests, whichever comes first; the DRBG also
+ * reseeds itself when its own counter runs out.
+ *
+ * <p>Generators are thread-confined: hand the result of {@link #current()}
+ * only to code running on the same thread, e.g. a {@code KeyGenerator} that
+ * is initialised and used in one call.
+ */
+public final class RandomSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(RandomSource.class);
+
+    public static final long RESEED_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(10);
+    public static final int RESEED_REQUESTS = 1 << 16;
+    private static final int SECURITY_STRENGTH = 256;
+
+    private static final SecureRandom seedSource = createSeedSource();
+    private static final AtomicLong instances = new AtomicLong();
+    private static final ThreadLocal<Drbg> drbgs = ThreadLocal.withInitial(Drbg::new);
+    private static final ThreadLocal<NonceSequence> nonces = ThreadLocal.withInitial(RandomSource::nonceSequence);
+
+    private RandomSource() {
+        throw new AssertionError("Utility class");
+    }
+
+    /**
+     * Returns this thread's DRBG, reseeding it first if it is due.
+     */
+    public static SecureRandom current() {
+        return drbgs.get().next();
+    }
+
+    public static byte[] nextBytes(int length) {
+        byte[] bytes = new byte[length];
+        current().nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Returns a fresh 96-bit GCM nonce from this thread's nonce sequence.
+     */
+    public static byte[] nextNonce() {
+        return nonces.get().next();
+    }
+
+    /**
+     * Starts a new counter-based nonce sequence for one key or one thread.
+     */
+    public static NonceSequence nonceSequence() {
+        SecureRandom random = current();
+        return new NonceSequence(random.nextInt(), random.nextLong());
+    }
+
+    private static SecureRandom createSeedSource() {
+        try {
+            return SecureRandom.getInstance("NativePRNGNonBlocking");
+        } catch (NoSuchAlgorithmException e) {
+            logger.debug("NativePRNGNonBlocking unavailable, seeding DRBGs from the default SecureRandom");
+            return new SecureRandom();
+        }
+    }
+
+    private static final class Drbg {
+        private final SP800SecureRandom random;
+        private long reseededAt = System.nanoTime();
+        private int requests;
+
+        Drbg() {
+            // The nonce and personalization string keep two threads seeded in
+            // the same instant from ever sharing an initial state.
+            ByteBuffer nonce = ByteBuffer.allocate(8 + 8 + 16);
+            nonce.putLong(instances.incrementAndGet());
+            nonce.putLong(System.nanoTime());
+            byte[] extra = new byte[16];
+            seedSource.nextBytes(extra);
+            nonce.put(extra);
+            random = new SP800SecureRandomBuilder(seedSource, false)
+                .setSecurityStrength(SECURITY_STRENGTH)
+                .setEntropyBitsRequired(SECURITY_STRENGTH)
+                .setPersonalizationString(Thread.currentThread().getName().getBytes(StandardCharsets.UTF_8))
+                .buildHash(new SHA512Digest(), nonce.array(), false);
+        }
+
+        SecureRandom next() {
+            if (++requests >= RESEED_REQUESTS || System.nanoTime() - reseededAt >= RESEED_INTERVAL_NANOS) {
+                random.reseed((byte[]) null);
+                reseededAt = System.nanoTime();
+                requests = 0;
+            }
+            return random;
+        }
+    }
+
+    /**
+     * Deterministic GCM nonces in the style of SP 800-38D section 8.2.1: a
+     * 32-bit fixed field and a 64-bit invocation counter. Both start at
+     * random values, so sequences that share a key collide no more often
+     * than random nonces would, while one sequence never repeats.
+     */
+    public static final class NonceSequence {
+        private final int fixed;
+        private final long start;
+        private final AtomicLong counter;
+
+        NonceSequence(int fixed, long start) {
+            this.fixed = fixed;
+            this.start = start;
+            this.counter = new AtomicLong(start);
+        }
+
+        public byte[] next() {
+            long value = counter.getAndIncrement();
+            if (value == start - 1) {
+                throw new IllegalStateException("Nonce sequence exhausted");
+            }
+            return ByteBuffer.allocate(CryptoConstants.GCM_IV_SIZE).putInt(fixed).putLong(value).array();
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Process-wide admission for pipeline jobs. A job reserves its whole in-flight
+ * buffer footprint up front, so concurrent jobs never interleave partial
+ * allocations, and holds one slot on every storage device it touches. Both
+ * budgets are granted strictly in arrival order.
+ *
+ * <p>Footprints are counted as {@link BufferPool} reserves them, size class
+ * plus alignment page. The shared governor's byte budget is the shared
+ * pool's cap less what {@link SegmentCache#shared()} may hold, since cached
+ * segments sit in the same pool without a lease; admitted jobs can then
+ * never wait on buffers the cache keeps.
+ */
+public final class ResourceGovernor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResourceGovernor.class);
+    private static final ResourceGovernor SHARED = new ResourceGovernor(
+        Long.getLong("pqve.governor.maxBytes", defaultBudget(BufferPool.shared(), SegmentCache.shared())),
+        Integer.getInteger("pqve.governor.perDevice", 2));
+
+    private final long maxBytes;
+    private final int perDevice;
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final ArrayDeque<Condition> waiters = new ArrayDeque<>();
+    private final ConcurrentHashMap<String, Semaphore> devices = new ConcurrentHashMap<>();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private long availableBytes;
+
+    public ResourceGovernor(long maxBytes, int perDevice) {
+        if (maxBytes <= 0 || perDevice < 1) {
+            throw new IllegalArgumentException("Governor budgets must be positive");
+        }
+        this.maxBytes = maxBytes;
+        this.perDevice = perDevice;
+        this.availableBytes = maxBytes;
+    }
+
+    public static ResourceGovernor shared() {
+        return SHARED;
+    }
+
+    /**
+     * The byte budget for jobs drawing on {@code pool} while {@code cache}
+     * also fills from it. At least half the pool is left to jobs even if the
+     * cache is configured larger.
+     */
+    static long defaultBudget(BufferPool pool, SegmentCache cache) {
+        return pool.getMaxBytes() - Math.min(cache.getCapacityBytes(), pool.getMaxBytes() / 2);
+    }
+
+    public Lease admit(long bytes, Collection<Path> paths) throws IOException {
+        long start = System.nanoTime();
+        // A job larger than the whole budget runs alone rather than never.
+        long reserved = Math.min(bytes, maxBytes);
+        List<Semaphore> held = new ArrayList<>();
+        try {
+            for (String device : deviceKeys(paths)) {
+                Semaphore slots = devices.computeIfAbsent(device, k -> new Semaphore(perDevice, true));
+                slots.acquire();
+                held.add(slots);
+            }
+            reserveBytes(reserved);
+        } catch (InterruptedException e) {
+            held.forEach(Semaphore::release);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for admission");
+        }
+        long waited = System.nanoTime() - start;
+        totalWaitNanos.addAndGet(waited);
+        if (waited > 1_000_000_000L) {
+            logger.debug("Job waited {} ms for {} bytes of in-flight budget", waited / 1_000_000, reserved);
+        }
+        return new Lease(reserved, held, waited);
+    }
+
+    private void reserveBytes(long bytes) throws InterruptedException {
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && availableBytes >= bytes) {
+                availableBytes -= bytes;
+                return;
+            }
+            Condition turn = lock.newCondition();
+            waiters.addLast(turn);
+            try {
+                while (waiters.peekFirst() != turn || availableBytes < bytes) {
+                    turn.await();
+                }
+                availableBytes -= bytes;
+            } finally {
+                waiters.remove(turn);
+                Condition next = waiters.peekFirst();
+                if (next != null) {
+                    next.signal();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void releaseBytes(long bytes) {
+        lock.lock();
+        try {
+            availableBytes += bytes;
+            Condition next = waiters.peekFirst();
+            if (next != null) {
+                next.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static TreeSet<String> deviceKeys(Collection<Path> paths) {
+        // Sorted so that jobs touching several devices always lock them in the same order.
+        TreeSet<String> keys = new TreeSet<>();
+        for (Path path : paths) {
+            keys.add(deviceKey(path));
+        }
+        return keys;
+    }
+
+    static String deviceKey(Path path) {
+        Path probe = path.toAbsolutePath();
+        while (probe != null && !Files.exists(probe)) {
+            probe = probe.getParent();
+        }
+        if (probe == null) {
+            return "unknown";
+        }
+        try {
+            FileStore store = Files.getFileStore(probe);
+            return store.name() + ":" + store.type();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    public long getAvailableBytes() {
+        lock.lock();
+        try {
+            return availableBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedJobs() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    public final class Lease implements AutoCloseable {
+        private final long bytes;
+        private final List<Semaphore> deviceSlots;
+        private final long waitNanos;
+        private boolean released;
+
+        private Lease(long bytes, List<Semaphore> deviceSlots, long waitNanos) {
+            this.bytes = bytes;
+            this.deviceSlots = deviceSlots;
+            this.waitNanos = waitNanos;
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                releaseBytes(bytes);
+                deviceSlots.forEach(Semaphore::release);
+            }
+        }
+    }
+}
@@ -0,0 +1,502 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * File encryption that survives being killed. Segments are written to
+ * {@code <output>.partial}; every {@code checkpointBytes} the partial file is
+ * forced and {@link CheckpointJournal} records how many segments are durable.
+ * A later call with the same input and output validates that prefix and
+ * continues after it. The output only appears, by atomic rename, once complete.
+ * The journal is first written at the first checkpoint, so inputs shorter
+ * than one checkpoint interval are not journaled at all.
+ *
+ * <p>Each checkpoint also records a SHA-256 of the input it covers, so a
+ * resume never continues over changed input. The pipeline's reader hashes
+ * the input as it reads it; only a resume reads the committed prefix again.
+ *
+ * <p>A {@link SegmentListener} sees every sealed segment of the output in
+ * order, including those a resumed run takes over from the partial file, so
+ * callers can derive things like a {@link SegmentManifest} without reading
+ * the output back.
+ */
+public final class ResumableEncryption {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResumableEncryption.class);
+    public static final long CHECKPOINT_BYTES = 64L << 20;
+
+    private ResumableEncryption() {
+        throw new AssertionError("Utility class");
+    }
+
+    /**
+     * Receives the sealed segments of an output file in index order.
+     */
+    public interface SegmentListener {
+        /**
+         * @param sealed the sealed segment, position to limit; must not be modified
+         */
+        void segment(EncryptedFileHeader header, long index, ByteBuffer sealed) throws IOException;
+    }
+
+    public static SegmentPipeline.Stats encrypt(Path input, Path output, String owner, SecretKey masterKey,
+                                                SegmentPipeline pipeline)
+            throws IOException, GeneralSecurityException {
+        return encrypt(input, output, owner, masterKey, pipeline, null);
+    }
+
+    /**
+     * @param listener sees every sealed segment of the output, or null
+     */
+    public static SegmentPipeline.Stats encrypt(Path input, Path output, String owner, SecretKey masterKey,
+                                                SegmentPipeline pipeline, SegmentListener listener)
+            throws IOException, GeneralSecurityException {
+        return encrypt(input, output, owner, masterKey, pipeline, CHECKPOINT_BYTES, listener);
+    }
+
+    /**
+     * An {@link IOException}, e.g. a full disk or an interrupt, leaves the
+     * partial file and journal for a later call to resume from; any other
+     * failure deletes them. Inputs shorter than {@code checkpointBytes} are
+     * not journaled, since there is no checkpoint to resume from.
+     */
+    static SegmentPipeline.Stats encrypt(Path input, Path output, String owner, SecretKey masterKey,
+                                         SegmentPipeline pipeline, long checkpointBytes, SegmentListener listener)
+            throws IOException, GeneralSecurityException {
+
+        Path partial = CheckpointJournal.partialPath(output);
+        Path journalPath = CheckpointJournal.journalPath(output);
+        long inputSize = Files.size(input);
+        long inputModified = Files.getLastModifiedTime(input).toMillis();
+
+        SegmentPipeline.Stats stats = new SegmentPipeline.Stats(0, 0, 0, 0, 0);
+        boolean journaled = false;
+        try {
+            InputDigest inputDigest = new InputDigest();
+            CheckpointJournal previous = CheckpointJournal.load(journalPath);
+            CheckpointJournal journal = resumable(previous, partial, input, inputSize, inputModified, owner,
+                masterKey, pipeline, inputDigest);
+            journaled = journal != null || inputSize >= checkpointBytes;
+            if (journal == null) {
+                if (previous != null) {
+                    Files.deleteIfExists(journalPath);
+                }
+                EncryptedFileHeader header = EncryptedFileHeader.create(
+                    input.getFileName().toString(), owner, pipeline.getSegmentSize());
+                inputDigest.reset();
+                journal = new CheckpointJournal(header, inputSize, inputModified, 0, CheckpointJournal.emptyChain(),
+                    inputDigest.current());
+                try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer headerBytes = ByteBuffer.wrap(header.getEncoded());
+                    while (headerBytes.hasRemaining()) {
+                        channel.write(headerBytes);
+                    }
+                }
+                // Nothing is forced or journaled yet: the first checkpoint's
+                // force covers the header, and until it stores the journal a
+                // crash just means starting over.
+            } else {
+                logger.info("Resuming encryption of {} after {} committed segments",
+                    input.getFileName(), journal.getCommittedSegments());
+            }
+
+            EncryptedFileHeader header = journal.getHeader();
+            pipeline = pipeline.withSegmentSize(header.getSegmentSize());
+            long committed = journal.getCommittedSegments();
+            long expected = expectedSegments(header, inputSize);
+            if (listener != null && committed > 0) {
+                replayPrefix(partial, header, inputSize, committed, listener);
+            }
+
+            long resumeAt = header.length() + committed * header.sealedSegmentSize();
+            long inputPosition = committed * header.getSegmentSize();
+            // As many segments as make up checkpointBytes of sealed output.
+            long interval = journaled
+                ? Math.max(1, (checkpointBytes + header.sealedSegmentSize() - 1) / header.sealedSegmentSize())
+                : Long.MAX_VALUE;
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+            SegmentPipeline.TransformFactory transforms =
+                SegmentPipeline.offset(SegmentPipeline.sealing(segmentKey, header.digest()), committed);
+            try {
+                if (pipeline.isDirectIo()) {
+                    try (DirectIO.Output out = DirectIO.openOutput(partial, resumeAt, pipeline.getPool())) {
+                        if (committed < expected) {
+                            try (DirectIO.Input in = DirectIO.openInput(input, inputPosition, pipeline.getPool())) {
+                                CheckpointSink sink = new CheckpointSink(out, out::force, journal, journalPath,
+                                    inputDigest, interval, expected, listener);
+                                stats = pipeline.run(inputDigest.hashing(in, interval, header.getSegmentSize()),
+                                    header.getSegmentSize(), transforms, header.sealedSegmentSize(), sink,
+                                    List.of(input, output));
+                            }
+                        }
+                        out.finish();
+                    }
+                } else {
+                    try (AsynchronousFileChannel out = AsynchronousFileChannel.open(partial,
+                            StandardOpenOption.WRITE)) {
+                        out.truncate(resumeAt);
+                        if (committed < expected) {
+                            try (AsynchronousFileChannel in = AsynchronousFileChannel.open(input,
+                                    StandardOpenOption.READ)) {
+                                CheckpointSink sink = new CheckpointSink(new SegmentPipeline.FileSink(out, resumeAt),
+                                    () -> out.force(false), journal, journalPath, inputDigest, interval, expected,
+                                    listener);
+                                stats = pipeline.run(inputDigest.hashing(new SegmentPipeline.FileSource(in,
+                                        inputPosition), interval, header.getSegmentSize()),
+                                    header.getSegmentSize(), transforms, header.sealedSegmentSize(), sink,
+                                    List.of(input, output));
+                            }
+                        }
+                    }
+                }
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            // Not something a retry gets past; don't leave a checkpoint behind to resume from.
+            Files.deleteIfExists(journalPath);
+            Files.deleteIfExists(partial);
+            throw e;
+        } catch (IOException e) {
+            if (!journaled) {
+                Files.deleteIfExists(partial);
+            }
+            throw e;
+        }
+
+        // The committer forces the partial file before renaming it; the
+        // journal is deleted right after, so no final checkpoint is taken.
+        OutputCommitter.shared().commit(partial, output);
+        Files.deleteIfExists(journalPath);
+        return stats;
+    }
+
+    /**
+     * Returns the journal if its committed prefix can be continued: same
+     * input size, mtime and owner, an intact prefix in the partial file,
+     * and input bytes under that prefix that still hash to what the journal
+     * recorded. Resuming over changed input would seal new plaintext under
+     * nonces the old prefix already used. On success {@code inputDigest} has
+     * consumed the prefix.
+     */
+    private static CheckpointJournal resumable(CheckpointJournal journal, Path partial, Path input, long inputSize,
+                                               long inputModified, String owner, SecretKey masterKey,
+                                               SegmentPipeline pipeline, InputDigest inputDigest)
+            throws IOException {
+        if (journal == null) {
+            return null;
+        }
+        if (journal.getInputSize() != inputSize || journal.getInputModified() != inputModified
+                || !journal.getHeader().getOwner().equals(owner) || !Files.exists(partial)) {
+            logger.info("Discarding checkpoint for {}: input or owner changed", partial.getFileName());
+            return null;
+        }
+        try {
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, journal.getHeader().getSalt());
+            try {
+                if (!validatePrefix(partial, journal, segmentKey)) {
+                    logger.info("Discarding checkpoint for {}: committed prefix is not intact",
+                        partial.getFileName());
+                    return null;
+                }
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            logger.warn("Checkpoint for {} failed validation: {}", partial.getFileName(), e.toString());
+            return null;
+        }
+        byte[] inputHash = inputDigest.hashPrefix(input,
+            inputEnd(journal.getHeader(), inputSize, journal.getCommittedSegments()), pipeline);
+        if (!MessageDigest.isEqual(inputHash, journal.getInputHash())) {
+            logger.info("Discarding checkpoint for {}: input content changed", partial.getFileName());
+            return null;
+        }
+        return journal;
+    }
+
+    /**
+     * Checks the header and the tag chain of the committed prefix, then
+     * authenticates its last segment, which also proves the key is the one
+     * the prefix was sealed with.
+     */
+    private static boolean validatePrefix(Path partial, CheckpointJournal journal, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        EncryptedFileHeader header = journal.getHeader();
+        long committed = journal.getCommittedSegments();
+        long expected = expectedSegments(header, journal.getInputSize());
+        if (committed < 0 || committed > expected) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.READ)) {
+            ByteBuffer headerBytes = ByteBuffer.allocate(header.length());
+            readFully(channel, headerBytes, 0);
+            if (!Arrays.equals(headerBytes.array(), header.getEncoded())) {
+                return false;
+            }
+            if (committed == 0) {
+                return true;
+            }
+            long prefixEnd = segmentOffset(header, committed - 1)
+                + sealedLength(header, journal.getInputSize(), committed - 1);
+            if (channel.size() < prefixEnd) {
+                return false;
+            }
+
+            MessageDigest sha256 = CheckpointJournal.newChainDigest();
+            byte[] chain = CheckpointJournal.emptyChain();
+            ByteBuffer tag = ByteBuffer.allocate(CryptoConstants.GCM_TAG_LENGTH);
+            for (long i = 0; i < committed; i++) {
+                long end = segmentOffset(header, i) + sealedLength(header, journal.getInputSize(), i);
+                tag.clear();
+                readFully(channel, tag, end - CryptoConstants.GCM_TAG_LENGTH);
+                tag.flip();
+                CheckpointJournal.extendChain(sha256, chain, tag);
+            }
+            if (!MessageDigest.isEqual(chain, journal.getTagChain())) {
+                return false;
+            }
+
+            long last = committed - 1;
+            int length = sealedLength(header, journal.getInputSize(), last);
+            ByteBuffer sealed = ByteBuffer.allocate(length);
+            readFully(channel, sealed, segmentOffset(header, last));
+            sealed.flip();
+            ByteBuffer opened = ByteBuffer.allocate(length);
+            Cipher cipher = SymmetricEncryption.newSegmentCipher();
+            SymmetricEncryption.openSegment(cipher, segmentKey, last, last == expected - 1,
+                SymmetricEncryption.segmentAad(header.digest()), sealed, opened);
+            BufferPool.zero(opened);
+            return true;
+        }
+    }
+
+    /**
+     * Hands the segments a previous run committed to {@code listener}.
+     */
+    private static void replayPrefix(Path partial, EncryptedFileHeader header, long inputSize, long committed,
+                                     SegmentListener listener) throws IOException {
+        ByteBuffer sealed = ByteBuffer.allocate(header.sealedSegmentSize());
+        try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.READ)) {
+            for (long i = 0; i < committed; i++) {
+                sealed.clear().limit(sealedLength(header, inputSize, i));
+                readFully(channel, sealed, segmentOffset(header, i));
+                listener.segment(header, i, sealed.flip());
+            }
+        }
+    }
+
+    private static long inputEnd(EncryptedFileHeader header, long inputSize, long segments) {
+        return Math.min(inputSize, segments * header.getSegmentSize());
+    }
+
+    static long expectedSegments(EncryptedFileHeader header, long inputSize) {
+        return Math.max(1, (inputSize + header.getSegmentSize() - 1) / header.getSegmentSize());
+    }
+
+    private static long segmentOffset(EncryptedFileHeader header, long index) {
+        return header.length() + index * header.sealedSegmentSize();
+    }
+
+    private static int sealedLength(EncryptedFileHeader header, long inputSize, long index) {
+        long plaintext = Math.min(header.getSegmentSize(), Math.max(0, inputSize - index * header.getSegmentSize()));
+        return (int) plaintext + CryptoConstants.GCM_TAG_LENGTH;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new IOException("Partial file shorter than its checkpoint");
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * SHA-256 over a growing prefix of the input. While the pipeline runs
+     * it is fed by the reader stage from the buffers it has just filled, so
+     * the input is read once and the writer never hashes; at every
+     * checkpoint boundary the reader keeps the hash so far for the writer,
+     * which reaches that boundary later.
+     */
+    private static final class InputDigest {
+        private static final int PREFIX_BUFFER = 1 << 20;
+
+        private final MessageDigest sha256 = CheckpointJournal.newChainDigest();
+        private final Map<Long, byte[]> boundaries = new ConcurrentHashMap<>();
+        private long position;
+
+        /**
+         * Hashes the input's first {@code end} bytes, reading them the way
+         * {@code pipeline} reads, e.g. around the page cache.
+         */
+        byte[] hashPrefix(Path input, long end, SegmentPipeline pipeline) throws IOException {
+            if (pipeline.isDirectIo()) {
+                try (DirectIO.Input in = DirectIO.openInput(input, 0, pipeline.getPool())) {
+                    consume(in, end, pipeline.getPool());
+                }
+            } else {
+                try (AsynchronousFileChannel channel = AsynchronousFileChannel.open(input, StandardOpenOption.READ)) {
+                    consume(new SegmentPipeline.FileSource(channel, 0, end), end, pipeline.getPool());
+                }
+            }
+            return current();
+        }
+
+        /**
+         * Wraps the pipeline's source, hashing what it reads and keeping the
+         * hash every {@code interval} segments.
+         */
+        SegmentPipeline.SegmentSource hashing(SegmentPipeline.SegmentSource source, long interval, int segmentSize) {
+            long step = interval == Long.MAX_VALUE ? Long.MAX_VALUE : interval * segmentSize;
+            return new SegmentPipeline.SegmentSource() {
+                private long next = step == Long.MAX_VALUE ? Long.MAX_VALUE : position + step;
+
+                @Override
+                public int read(ByteBuffer dst) throws IOException {
+                    int start = dst.position();
+                    int n = source.read(dst);
+                    if (n > 0) {
+                        ByteBuffer read = dst.duplicate();
+                        read.limit(read.position()).position(start);
+                        while (read.hasRemaining()) {
+                            int take = (int) Math.min(read.remaining(), next - position);
+                            ByteBuffer part = read.duplicate();
+                            part.limit(part.position() + take);
+                            sha256.update(part);
+                            read.position(read.position() + take);
+                            position += take;
+                            if (position == next) {
+                                boundaries.put(position, current());
+                                next += step;
+                            }
+                        }
+                    }
+                    return n;
+                }
+            };
+        }
+
+        /**
+         * @return the hash of the input's first {@code end} bytes, a boundary the reader has passed
+         */
+        byte[] at(long end) {
+            byte[] hash = boundaries.remove(end);
+            if (hash == null) {
+                throw new IllegalStateException("Input not hashed up to " + end);
+            }
+            return hash;
+        }
+
+        byte[] current() {
+            try {
+                return ((MessageDigest) sha256.clone()).digest();
+            } catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("SHA-256 digest cannot be cloned", e);
+            }
+        }
+
+        void reset() {
+            sha256.reset();
+            boundaries.clear();
+            position = 0;
+        }
+
+        private void consume(SegmentPipeline.SegmentSource source, long end, BufferPool pool) throws IOException {
+            try (BufferPool.PooledBuffer pooled = pool.acquire(PREFIX_BUFFER)) {
+                ByteBuffer buffer = pooled.buffer();
+                while (position < end) {
+                    buffer.clear().limit((int) Math.min(PREFIX_BUFFER, end - position));
+                    int n = source.read(buffer);
+                    if (n < 0) {
+                        throw new IOException("Input shorter than its checkpoint");
+                    }
+                    sha256.update(buffer.flip());
+                    position += n;
+                }
+            }
+        }
+    }
+
+    private interface Durability {
+        void force() throws IOException;
+    }
+
+    /**
+     * Writes sealed segments and, every {@code interval} segments short of
+     * the last, forces them and records a checkpoint.
+     */
+    private static final class CheckpointSink implements SegmentPipeline.SegmentSink {
+        private final SegmentPipeline.SegmentSink file;
+        private final Durability durability;
+        private final Path journalPath;
+        private final InputDigest inputDigest;
+        private final long interval;
+        private final long expected;
+        private final SegmentListener listener;
+        private final MessageDigest sha256 = CheckpointJournal.newChainDigest();
+        private final byte[] chain;
+        private CheckpointJournal journal;
+        private long committed;
+        private long sinceCheckpoint;
+
+        CheckpointSink(SegmentPipeline.SegmentSink file, Durability durability, CheckpointJournal journal,
+                       Path journalPath, InputDigest inputDigest, long interval, long expected,
+                       SegmentListener listener) {
+            this.file = file;
+            this.durability = durability;
+            this.journal = journal;
+            this.journalPath = journalPath;
+            this.inputDigest = inputDigest;
+            this.interval = interval;
+            this.expected = expected;
+            this.listener = listener;
+            this.chain = journal.getTagChain();
+            this.committed = journal.getCommittedSegments();
+        }
+
+        @Override
+        public void write(long index, ByteBuffer data) throws IOException {
+            if (interval != Long.MAX_VALUE) {
+                CheckpointJournal.extendChain(sha256, chain, data);
+            }
+            if (listener != null) {
+                // Before the write, which consumes the buffer.
+                listener.segment(journal.getHeader(), committed, data.duplicate());
+            }
+            file.write(index, data);
+            committed++;
+            if (++sinceCheckpoint == interval && committed < expected) {
+                checkpoint();
+            }
+        }
+
+        private void checkpoint() throws IOException {
+            byte[] inputHash = inputDigest.at(committed * journal.getHeader().getSegmentSize());
+            durability.force();
+            journal = journal.advance(committed, chain, inputHash);
+            journal.store(journalPath);
+            sinceCheckpoint = 0;
+        }
+    }
+}
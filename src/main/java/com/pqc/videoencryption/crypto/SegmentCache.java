@@ -0,0 +1,323 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU of decrypted, authenticated segments held in pooled off-heap
+ * buffers. Entries are reference counted so eviction never pulls a buffer
+ * out from under a reader; evicted buffers are zeroed when the pool takes
+ * them back. Concurrent requests for the same segment share one decryption.
+ * Capacity is counted in {@link BufferPool#footprint pool footprint}, the
+ * off-heap bytes entries really hold.
+ *
+ * <p>A file's segments are cached only while some reader has it
+ * {@linkplain #attach attached}; when the last one detaches they are
+ * evicted, so plaintext does not outlive the readers that asked for it.
+ */
+public final class SegmentCache implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentCache.class);
+    private static final SegmentCache SHARED = new SegmentCache(
+        Long.getLong("pqve.cache.maxBytes", 256L << 20),
+        Integer.getInteger("pqve.cache.readAheadThreads", 2));
+
+    private final long capacityBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<Object, Integer> openFiles = new HashMap<>();
+    private final ConcurrentHashMap<Key, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+    private final ExecutorService readAhead;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private long sizeBytes;
+    private boolean closed;
+
+    public SegmentCache(long capacityBytes, int readAheadThreads) {
+        this.capacityBytes = capacityBytes;
+        AtomicInteger threadCounter = new AtomicInteger();
+        // Read-ahead is best effort: when the queue is full the hint is dropped.
+        this.readAhead = new ThreadPoolExecutor(readAheadThreads, readAheadThreads, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(64), runnable -> {
+                Thread thread = new Thread(runnable, "pqve-readahead-" + threadCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }, new ThreadPoolExecutor.DiscardPolicy());
+        ((ThreadPoolExecutor) readAhead).allowCoreThreadTimeOut(true);
+    }
+
+    public static SegmentCache shared() {
+        return SHARED;
+    }
+
+    public Entry get(Key key, Loader loader) throws IOException, GeneralSecurityException {
+        Entry cached = lookup(key);
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+
+        CompletableFuture<Entry> mine = new CompletableFuture<>();
+        CompletableFuture<Entry> existing = loading.putIfAbsent(key, mine);
+        if (existing != null) {
+            try {
+                existing.join();
+            } catch (CompletionException e) {
+                logger.debug("Shared load of segment {} failed, retrying", key.index);
+            }
+            // Normally a hit now; if the segment was already evicted, load it ourselves.
+            return get(key, loader);
+        }
+        return load(key, loader, mine);
+    }
+
+    public void prefetch(Key key, Loader loader) {
+        if (capacityBytes <= 0 || !isCaching(key) || contains(key) || loading.containsKey(key)) {
+            return;
+        }
+        readAhead.execute(() -> {
+            CompletableFuture<Entry> mine = new CompletableFuture<>();
+            if (contains(key) || loading.putIfAbsent(key, mine) != null) {
+                return;
+            }
+            try {
+                load(key, loader, mine).close();
+            } catch (Exception e) {
+                logger.debug("Read-ahead of segment {} failed: {}", key.index, e.toString());
+            }
+        });
+    }
+
+    private Entry load(Key key, Loader loader, CompletableFuture<Entry> future)
+            throws IOException, GeneralSecurityException {
+        try {
+            BufferPool.PooledBuffer plaintext = loader.load(key.index);
+            Entry entry = insert(key, plaintext);
+            future.complete(entry);
+            return entry;
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, future);
+        }
+    }
+
+    private synchronized Entry lookup(Key key) {
+        Entry entry = entries.get(key);
+        return entry == null ? null : entry.retain();
+    }
+
+    private synchronized boolean contains(Key key) {
+        return entries.containsKey(key);
+    }
+
+    private synchronized boolean isCaching(Key key) {
+        return !closed && openFiles.containsKey(key.fileId);
+    }
+
+    private synchronized Entry insert(Key key, BufferPool.PooledBuffer plaintext) {
+        Entry entry = new Entry(this, plaintext);
+        entry.retain();
+        if (entry.size() > capacityBytes || closed || !openFiles.containsKey(key.fileId)) {
+            // Too large, or no reader holds the file (any more): hand it out uncached, freed on release.
+            entry.evicted = true;
+            return entry;
+        }
+        Entry previous = entries.put(key, entry);
+        sizeBytes += entry.size();
+        if (previous != null) {
+            sizeBytes -= previous.size();
+            previous.evict();
+        }
+        Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+        while (sizeBytes > capacityBytes && eldest.hasNext()) {
+            Entry victim = eldest.next().getValue();
+            if (victim == entry) {
+                continue;
+            }
+            eldest.remove();
+            sizeBytes -= victim.size();
+            victim.evict();
+            evictions.incrementAndGet();
+        }
+        return entry;
+    }
+
+    /**
+     * Registers a reader of {@code fileId}. Its segments are cached until
+     * the matching {@link #detach}.
+     */
+    public synchronized void attach(Object fileId) {
+        openFiles.merge(fileId, 1, Integer::sum);
+    }
+
+    /**
+     * Unregisters a reader of {@code fileId}; when it was the last one, the
+     * file's segments are evicted as by {@link #invalidate}.
+     */
+    public synchronized void detach(Object fileId) {
+        if (openFiles.computeIfPresent(fileId, (k, readers) -> readers == 1 ? null : readers - 1) == null) {
+            invalidate(fileId);
+        }
+    }
+
+    /**
+     * Drops every cached segment of one file, e.g. after it was deleted.
+     * Buffers not in use are zeroed and returned to the pool now, the rest
+     * as soon as their last user closes them.
+     */
+    public synchronized void invalidate(Object fileId) {
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> next = it.next();
+            if (next.getKey().fileId.equals(fileId)) {
+                it.remove();
+                sizeBytes -= next.getValue().size();
+                next.getValue().evict();
+            }
+        }
+    }
+
+    /**
+     * Evicts everything and stops read-ahead. Segments loaded afterwards are
+     * handed out uncached.
+     */
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            for (Entry entry : entries.values()) {
+                entry.evict();
+            }
+            entries.clear();
+            sizeBytes = 0;
+        }
+        readAhead.shutdown();
+    }
+
+    public synchronized long getSizeBytes() {
+        return sizeBytes;
+    }
+
+    public long getCapacityBytes() {
+        return capacityBytes;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public interface Loader {
+        BufferPool.PooledBuffer load(long index) throws IOException, GeneralSecurityException;
+    }
+
+    /**
+     * Identifies a segment by file, by file version and by the key that
+     * authenticated it, so a different key never gets another key's plaintext.
+     */
+    public static final class Key {
+        private final Object fileId;
+        private final long version;
+        private final long keyId;
+        private final long index;
+
+        public Key(Object fileId, long version, long keyId, long index) {
+            this.fileId = fileId;
+            this.version = version;
+            this.keyId = keyId;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return version == other.version && keyId == other.keyId && index == other.index
+                && fileId.equals(other.fileId);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileId, version, keyId, index);
+        }
+    }
+
+    public static final class Entry implements AutoCloseable {
+        private final SegmentCache cache;
+        private final BufferPool.PooledBuffer plaintext;
+        private int references;
+        private boolean evicted;
+
+        private Entry(SegmentCache cache, BufferPool.PooledBuffer plaintext) {
+            this.cache = cache;
+            this.plaintext = plaintext;
+        }
+
+        /**
+         * Read-only view of the plaintext; valid until this entry is closed.
+         */
+        public ByteBuffer data() {
+            return plaintext.buffer().asReadOnlyBuffer();
+        }
+
+        long size() {
+            return BufferPool.footprint(plaintext.buffer().capacity());
+        }
+
+        private Entry retain() {
+            synchronized (cache) {
+                references++;
+                return this;
+            }
+        }
+
+        private void evict() {
+            evicted = true;
+            if (references == 0) {
+                plaintext.close();
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (cache) {
+                if (--references == 0 && evicted) {
+                    plaintext.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.pqc.videoencryption.crypto;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * SHA-256 of every sealed segment of one encrypted file, bound to that
+ * file's header. Its {@link #root()} is what gets signed, so one signature
+ * covers the whole file and each segment can then be checked on its own
+ * against its hash. Hashes are over ciphertext, so anyone can check
+ * provenance without the file's key.
+ *
+ * <pre>
+ * [32 bytes: header digest][4 bytes: segment size][4 bytes: segment count]
+ * [32 bytes per segment: SHA-256 of the sealed segment]
+ * </pre>
+ */
+public final class SegmentManifest {
+
+    public static final int HASH_SIZE = 32;
+    private static final byte[] ROOT_DOMAIN = "PQVE manifest v1".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<MessageDigest> sha256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    });
+
+    private final byte[] headerDigest;
+    private final int segmentSize;
+    private final byte[] hashes;
+
+    private SegmentManifest(byte[] headerDigest, int segmentSize, byte[] hashes) {
+        this.headerDigest = headerDigest;
+        this.segmentSize = segmentSize;
+        this.hashes = hashes;
+    }
+
+    /**
+     * Hashes the sealed segments of a segmented encrypted file.
+     */
+    public static SegmentManifest of(Path encryptedFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(encryptedFile, StandardOpenOption.READ)) {
+            if (!EncryptedFileHeader.isSegmented(channel)) {
+                throw new IOException("Manifests require the segmented file format");
+            }
+            EncryptedFileHeader header = EncryptedFileHeader.read(channel, 0);
+            if (header.isFramed()) {
+                throw new IOException("Live stream recordings have no fixed segment layout to sign");
+            }
+            Builder builder = new Builder(header);
+            long position = header.length();
+            long size = channel.size();
+            try (BufferPool.PooledBuffer pooled = BufferPool.shared().acquire(header.sealedSegmentSize())) {
+                ByteBuffer buffer = pooled.buffer();
+                while (position < size) {
+                    buffer.clear().limit((int) Math.min(header.sealedSegmentSize(), size - position));
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, position + buffer.position()) < 0) {
+                            throw new EOFException("Truncated encrypted file");
+                        }
+                    }
+                    position += buffer.position();
+                    builder.add(buffer.flip());
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    public static SegmentManifest decode(ByteBuffer encoded) throws IOException {
+        if (encoded.remaining() < HASH_SIZE + 8) {
+            throw new IOException("Truncated segment manifest");
+        }
+        byte[] headerDigest = new byte[HASH_SIZE];
+        encoded.get(headerDigest);
+        int segmentSize = encoded.getInt();
+        int count = encoded.getInt();
+        if (count < 0 || (long) count * HASH_SIZE > encoded.remaining()) {
+            throw new IOException("Corrupt segment manifest");
+        }
+        byte[] hashes = new byte[count * HASH_SIZE];
+        encoded.get(hashes);
+        return new SegmentManifest(headerDigest, segmentSize, hashes);
+    }
+
+    public byte[] getEncoded() {
+        return ByteBuffer.allocate(HASH_SIZE + 8 + hashes.length)
+            .put(headerDigest).putInt(segmentSize).putInt(getSegmentCount()).put(hashes)
+            .array();
+    }
+
+    /**
+     * The value a signature covers: a hash of the whole encoded manifest.
+     */
+    public byte[] root() {
+        MessageDigest digest = sha256.get();
+        digest.update(ROOT_DOMAIN);
+        return digest.digest(getEncoded());
+    }
+
+    public byte[] getHeaderDigest() {
+        return headerDigest.clone();
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getSegmentCount() {
+        return hashes.length / HASH_SIZE;
+    }
+
+    /**
+     * True if {@code sealed} (from position to limit, which is left
+     * unchanged) is segment {@code index} as listed.
+     */
+    public boolean matches(long index, ByteBuffer sealed) {
+        if (index < 0 || index >= getSegmentCount()) {
+            return false;
+        }
+        byte[] actual = hash(sealed);
+        int offset = (int) index * HASH_SIZE;
+        return MessageDigest.isEqual(actual, Arrays.copyOfRange(hashes, offset, offset + HASH_SIZE));
+    }
+
+    static byte[] hash(ByteBuffer data) {
+        MessageDigest digest = sha256.get();
+        digest.update(data.duplicate());
+        return digest.digest();
+    }
+
+    static byte[] hash(byte prefix, byte[]... parts) {
+        MessageDigest digest = sha256.get();
+        digest.update(prefix);
+        for (byte[] part : parts) {
+            digest.update(part);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * Collects segment hashes in order, e.g. from sealed segments as an
+     * encryptor produces them.
+     */
+    public static final class Builder {
+        private final byte[] headerDigest;
+        private final int segmentSize;
+        private byte[] hashes = new byte[64 * HASH_SIZE];
+        private int count;
+
+        public Builder(EncryptedFileHeader header) {
+            this.headerDigest = header.digest();
+            this.segmentSize = header.getSegmentSize();
+        }
+
+        /**
+         * Adds the next sealed segment (position to limit, left unchanged).
+         */
+        public Builder add(ByteBuffer sealed) {
+            if ((count + 1) * HASH_SIZE > hashes.length) {
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            System.arraycopy(hash(sealed), 0, hashes, count * HASH_SIZE, HASH_SIZE);
+            count++;
+            return this;
+        }
+
+        public SegmentManifest build() {
+            return new SegmentManifest(headerDigest.clone(), segmentSize, Arrays.copyOf(hashes, count * HASH_SIZE));
+        }
+    }
+}
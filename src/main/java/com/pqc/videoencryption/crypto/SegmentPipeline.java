@@ -0,0 +1,818 @@
+package com.pqc.videoencryption.crypto;
+
+import com.pqc.videoencryption.blob.BlobReader;
+import com.pqc.videoencryption.blob.BlobStore;
+import com.pqc.videoencryption.blob.BlobWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Three-stage segment engine: a reader fills slots from the source, N cipher
+ * workers seal or open them, and the calling thread writes them back in order.
+ * The stages are joined by bounded queues over a fixed set of slots, so a slow
+ * stage stalls the others instead of growing memory.
+ */
+public final class SegmentPipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(SegmentPipeline.class);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final int segmentSize;
+    private final int workers;
+    private final int queueDepth;
+    private final BufferPool pool;
+    private final ResourceGovernor governor;
+    private final boolean directIo;
+    private final PipelineTuner.WorkerControl control;
+
+    public SegmentPipeline(int segmentSize, int workers, int queueDepth) {
+        this(segmentSize, workers, queueDepth, BufferPool.shared(), ResourceGovernor.shared());
+    }
+
+    public SegmentPipeline(int segmentSize, int workers, int queueDepth, BufferPool pool,
+                           ResourceGovernor governor) {
+        this(segmentSize, workers, queueDepth, pool, governor, false, null);
+    }
+
+    private SegmentPipeline(int segmentSize, int workers, int queueDepth, BufferPool pool,
+                            ResourceGovernor governor, boolean directIo, PipelineTuner.WorkerControl control) {
+        if (segmentSize < CryptoConstants.MIN_SEGMENT_SIZE || segmentSize > CryptoConstants.MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("At least one cipher worker is required");
+        }
+        if (queueDepth < 2) {
+            throw new IllegalArgumentException("Queue depth must be at least 2");
+        }
+        if (control != null && control.getMaxWorkers() != workers) {
+            throw new IllegalArgumentException("Worker control must cover all " + workers + " workers");
+        }
+        this.segmentSize = segmentSize;
+        this.workers = workers;
+        this.queueDepth = queueDepth;
+        this.pool = pool;
+        this.governor = governor;
+        this.directIo = directIo;
+        this.control = control;
+    }
+
+    public static SegmentPipeline defaults() {
+        int workers = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        return new SegmentPipeline(CryptoConstants.SEGMENT_SIZE, workers, 2 * workers + 2)
+            .withDirectIo(DirectIO.requested());
+    }
+
+    public SegmentPipeline withSegmentSize(int segmentSize) {
+        return segmentSize == this.segmentSize ? this
+            : new SegmentPipeline(segmentSize, workers, queueDepth, pool, governor, directIo, control);
+    }
+
+    /**
+     * Returns a pipeline whose file-to-file runs open input and output with
+     * {@link DirectIO}, bypassing the page cache where the filesystem allows.
+     */
+    public SegmentPipeline withDirectIo(boolean directIo) {
+        return directIo == this.directIo ? this
+            : new SegmentPipeline(segmentSize, workers, queueDepth, pool, governor, directIo, control);
+    }
+
+    /**
+     * Returns a pipeline whose cipher workers are gated by {@code control},
+     * which decides how many of them run at a time. The control keeps
+     * per-run measurements, so the pipeline is meant for a single job.
+     */
+    public SegmentPipeline withWorkerControl(PipelineTuner.WorkerControl control) {
+        return control == this.control ? this
+            : new SegmentPipeline(segmentSize, workers, queueDepth, pool, governor, directIo, control);
+    }
+
+    public int getSegmentSize() {
+        return segmentSize;
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public BufferPool getPool() {
+        return pool;
+    }
+
+    public boolean isDirectIo() {
+        return directIo;
+    }
+
+    /**
+     * Encrypts {@code input} to {@code output}. The file is written under a
+     * temporary name and committed by {@link OutputCommitter}, so
+     * {@code output} only ever appears complete.
+     */
+    public Stats encrypt(Path input, Path output, EncryptedFileHeader header, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        if (header.getSegmentSize() != segmentSize) {
+            throw new IllegalArgumentException("Header segment size does not match pipeline");
+        }
+        return runToFile(input, 0, output, header.getEncoded(), segmentSize,
+            sealing(segmentKey, header.digest()), header.sealedSegmentSize());
+    }
+
+    /**
+     * Decrypts {@code input} to {@code output}, committed like {@link #encrypt(Path, Path, EncryptedFileHeader,
+     * SecretKey)}, so a failed tag check never leaves plaintext under the output name.
+     */
+    public Stats decrypt(Path input, Path output, EncryptedFileHeader header, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        if (header.getSegmentSize() != segmentSize) {
+            throw new IllegalArgumentException("Header segment size does not match pipeline");
+        }
+        return runToFile(input, header.length(), output, new byte[0], header.sealedSegmentSize(),
+            opening(segmentKey, header.digest()), segmentSize);
+    }
+
+    /**
+     * Decrypts like {@link #decrypt(Path, Path, EncryptedFileHeader, SecretKey)}, checking each sealed
+     * segment against a signed manifest before it is opened.
+     */
+    public Stats decrypt(Path input, Path output, EncryptedFileHeader header, SecretKey segmentKey,
+                         ManifestVerifier.Verified manifest) throws IOException, GeneralSecurityException {
+        if (header.getSegmentSize() != segmentSize) {
+            throw new IllegalArgumentException("Header segment size does not match pipeline");
+        }
+        return runToFile(input, header.length(), output, new byte[0], header.sealedSegmentSize(),
+            verified(opening(segmentKey, header.digest()), manifest), segmentSize);
+    }
+
+    private Stats runToFile(Path input, long inputPosition, Path output, byte[] prefix, int inputChunk,
+                            TransformFactory transforms, int outputChunk)
+            throws IOException, GeneralSecurityException {
+        Path temp = OutputCommitter.tempPath(output);
+        boolean success = false;
+        try {
+            Stats stats;
+            if (directIo) {
+                try (DirectIO.Input in = DirectIO.openInput(input, inputPosition, pool);
+                     DirectIO.Output out = DirectIO.openOutput(temp, 0, pool)) {
+                    out.write(-1, ByteBuffer.wrap(prefix));
+                    stats = run(in, inputChunk, transforms, outputChunk, out, List.of(input, output));
+                    out.finish();
+                }
+            } else {
+                try (AsynchronousFileChannel in = AsynchronousFileChannel.open(input, StandardOpenOption.READ);
+                     AsynchronousFileChannel out = AsynchronousFileChannel.open(temp,
+                         StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                    FileSink sink = new FileSink(out, 0);
+                    sink.write(-1, ByteBuffer.wrap(prefix));
+                    stats = run(new FileSource(in, inputPosition), inputChunk, transforms, outputChunk, sink,
+                        List.of(input, output));
+                }
+            }
+            OutputCommitter.shared().commit(temp, output);
+            success = true;
+            return stats;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Encrypts {@code input} straight into the blob {@code key}. Sealed
+     * segments are handed to the store as they come off the pipeline, and
+     * the blob becomes visible only once all of them are stored.
+     */
+    public Stats encrypt(Path input, BlobStore store, String key, EncryptedFileHeader header,
+                         SecretKey segmentKey) throws IOException, GeneralSecurityException {
+        if (header.getSegmentSize() != segmentSize) {
+            throw new IllegalArgumentException("Header segment size does not match pipeline");
+        }
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(input, StandardOpenOption.READ);
+             BlobWriter out = store.create(key)) {
+            ChannelSink sink = new ChannelSink(out);
+            sink.write(-1, ByteBuffer.wrap(header.getEncoded()));
+            Stats stats = run(new FileSource(in, 0), segmentSize, sealing(segmentKey, header.digest()),
+                header.sealedSegmentSize(), sink, List.of(input));
+            out.commit();
+            return stats;
+        }
+    }
+
+    /**
+     * Decrypts a blob to {@code output}, committed like {@link #decrypt(Path, Path, EncryptedFileHeader,
+     * SecretKey)}. Up to {@link #getQueueDepth()} sealed segments are fetched ahead with concurrent
+     * ranged reads.
+     */
+    public Stats decrypt(BlobReader input, Path output, EncryptedFileHeader header, SecretKey segmentKey)
+            throws IOException, GeneralSecurityException {
+        if (header.getSegmentSize() != segmentSize) {
+            throw new IllegalArgumentException("Header segment size does not match pipeline");
+        }
+        Path temp = OutputCommitter.tempPath(output);
+        boolean success = false;
+        try {
+            Stats stats;
+            try (AsynchronousFileChannel out = AsynchronousFileChannel.open(temp,
+                     StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                stats = run(new BlobSource(input, header.length(), header.sealedSegmentSize(), queueDepth),
+                    header.sealedSegmentSize(), opening(segmentKey, header.digest()), segmentSize,
+                    new FileSink(out, 0), List.of(output));
+            }
+            OutputCommitter.shared().commit(temp, output);
+            success = true;
+            return stats;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    public Stats encrypt(ReadableByteChannel input, WritableByteChannel output, EncryptedFileHeader header,
+                         SecretKey segmentKey) throws IOException, GeneralSecurityException {
+        ChannelSink sink = new ChannelSink(output);
+        sink.write(-1, ByteBuffer.wrap(header.getEncoded()));
+        return run(new ChannelSource(input), segmentSize, sealing(segmentKey, header.digest()),
+            header.sealedSegmentSize(), sink);
+    }
+
+    /**
+     * Decrypts the segments following a header that has already been consumed from {@code input}.
+     */
+    public Stats decrypt(ReadableByteChannel input, WritableByteChannel output, EncryptedFileHeader header,
+                         SecretKey segmentKey) throws IOException, GeneralSecurityException {
+        return run(new ChannelSource(input), header.sealedSegmentSize(), opening(segmentKey, header.digest()),
+            segmentSize, new ChannelSink(output));
+    }
+
+    public Stats run(SegmentSource source, int inputChunk, TransformFactory transforms,
+                     int outputChunk, SegmentSink sink) throws IOException, GeneralSecurityException {
+        return run(source, inputChunk, transforms, outputChunk, sink, List.of());
+    }
+
+    /**
+     * Runs the pipeline once the governor has admitted its buffer footprint and
+     * a slot on each storage device holding one of {@code devices}.
+     */
+    public Stats run(SegmentSource source, int inputChunk, TransformFactory transforms,
+                     int outputChunk, SegmentSink sink, Collection<Path> devices)
+            throws IOException, GeneralSecurityException {
+        long footprint = queueDepth * (BufferPool.footprint(inputChunk) + BufferPool.footprint(outputChunk));
+        if (directIo) {
+            // The DirectIO input and output the caller opens around this run stage through the same pool.
+            footprint += 2 * BufferPool.footprint(DirectIO.STAGING_SIZE);
+        }
+        try (ResourceGovernor.Lease lease = governor.admit(footprint, devices)) {
+            return runAdmitted(source, inputChunk, transforms, outputChunk, sink, lease.getWaitNanos());
+        }
+    }
+
+    private Stats runAdmitted(SegmentSource source, int inputChunk, TransformFactory transforms,
+                              int outputChunk, SegmentSink sink, long waitNanos)
+            throws IOException, GeneralSecurityException {
+
+        BlockingQueue<Slot> free = new ArrayBlockingQueue<>(queueDepth);
+        BlockingQueue<Slot> work = new ArrayBlockingQueue<>(queueDepth + workers);
+        BlockingQueue<Slot> done = new ArrayBlockingQueue<>(queueDepth + workers + 1);
+        List<BufferPool.PooledBuffer> buffers = new ArrayList<>(2 * queueDepth);
+
+        ExecutorService stages = null;
+        try {
+            for (int i = 0; i < queueDepth; i++) {
+                BufferPool.PooledBuffer in = pool.acquire(inputChunk);
+                buffers.add(in);
+                BufferPool.PooledBuffer out = pool.acquire(outputChunk);
+                buffers.add(out);
+                free.add(new Slot(in.buffer(), out.buffer()));
+            }
+
+            long start = System.nanoTime();
+            stages = Executors.newFixedThreadPool(workers + 1, daemonThreads());
+            stages.execute(() -> readStage(source, free, work, done));
+            for (int i = 0; i < workers; i++) {
+                stages.execute(() -> cipherStage(transforms, work, done));
+            }
+            return writeStage(sink, free, done, start, waitNanos);
+        } finally {
+            if (stages != null) {
+                stages.shutdownNow();
+                awaitStages(stages);
+            }
+            for (BufferPool.PooledBuffer buffer : buffers) {
+                buffer.close();
+            }
+        }
+    }
+
+    private static void awaitStages(ExecutorService stages) {
+        try {
+            if (!stages.awaitTermination(10, TimeUnit.SECONDS)) {
+                logger.warn("Pipeline stages did not stop within 10s");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void readStage(SegmentSource source, BlockingQueue<Slot> free,
+                           BlockingQueue<Slot> work, BlockingQueue<Slot> done) {
+        try {
+            long index = 0;
+            Slot current = free.take();
+            fill(source, current);
+            while (true) {
+                Slot next = takeFree(free);
+                if (fill(source, next) == 0) {
+                    free.put(next);
+                    current.begin(index, true);
+                    work.put(current);
+                    break;
+                }
+                current.begin(index++, false);
+                work.put(current);
+                current = next;
+            }
+            for (int i = 0; i < workers; i++) {
+                work.put(Slot.END);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            done.offer(Slot.failed(t));
+        }
+    }
+
+    private Slot takeFree(BlockingQueue<Slot> free) throws InterruptedException {
+        if (control == null) {
+            return free.take();
+        }
+        Slot slot = free.poll();
+        control.readerTook(slot == null);
+        return slot != null ? slot : free.take();
+    }
+
+    private static int fill(SegmentSource source, Slot slot) throws IOException {
+        slot.in.clear();
+        while (slot.in.hasRemaining()) {
+            if (source.read(slot.in) <= 0) {
+                break;
+            }
+        }
+        slot.in.flip();
+        return slot.in.remaining();
+    }
+
+    private void cipherStage(TransformFactory transforms, BlockingQueue<Slot> work, BlockingQueue<Slot> done) {
+        try {
+            SegmentTransform transform = transforms.create();
+            if (control != null) {
+                controlledCipherStage(transform, work, done);
+                return;
+            }
+            while (true) {
+                Slot slot = work.take();
+                if (slot == Slot.END) {
+                    break;
+                }
+                slot.out.clear();
+                transform.apply(slot.index, slot.last, slot.in, slot.out);
+                slot.out.flip();
+                done.put(slot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Throwable t) {
+            done.offer(Slot.failed(t));
+        }
+    }
+
+    /**
+     * The cipher loop under a {@link PipelineTuner.WorkerControl}: each
+     * segment is processed while holding one of its permits.
+     */
+    private void controlledCipherStage(SegmentTransform transform, BlockingQueue<Slot> work,
+                                       BlockingQueue<Slot> done) throws InterruptedException, GeneralSecurityException {
+        while (true) {
+            control.acquire();
+            try {
+                Slot slot = work.poll();
+                control.workerTook(slot == null);
+                if (slot == null) {
+                    slot = work.take();
+                }
+                if (slot == Slot.END) {
+                    return;
+                }
+                slot.out.clear();
+                transform.apply(slot.index, slot.last, slot.in, slot.out);
+                slot.out.flip();
+                done.put(slot);
+            } finally {
+                control.release();
+            }
+        }
+    }
+
+    private Stats writeStage(SegmentSink sink, BlockingQueue<Slot> free, BlockingQueue<Slot> done, long start,
+                             long waitNanos) throws IOException, GeneralSecurityException {
+        Map<Long, Slot> pending = new HashMap<>();
+        long next = 0;
+        long bytesIn = 0;
+        long bytesOut = 0;
+        try {
+            while (true) {
+                Slot slot = done.take();
+                if (slot.failure != null) {
+                    throw rethrow(slot.failure);
+                }
+                pending.put(slot.index, slot);
+                while ((slot = pending.remove(next)) != null) {
+                    bytesIn += slot.in.limit();
+                    bytesOut += slot.out.remaining();
+                    sink.write(next, slot.out);
+                    next++;
+                    if (control != null) {
+                        control.onSegment(slot.in.limit());
+                    }
+                    if (slot.last) {
+                        Stats stats = new Stats(next, bytesIn, bytesOut, System.nanoTime() - start, waitNanos);
+                        logger.debug("Pipeline processed {} segments, {} -> {} bytes", next, bytesIn, bytesOut);
+                        return stats;
+                    }
+                    free.put(slot);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segment pipeline interrupted");
+        }
+    }
+
+    private static IOException rethrow(Throwable failure) throws GeneralSecurityException {
+        if (failure instanceof GeneralSecurityException) {
+            throw (GeneralSecurityException) failure;
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+        if (failure instanceof IOException) {
+            return (IOException) failure;
+        }
+        return new IOException("Segment pipeline failed", failure);
+    }
+
+    private static ThreadFactory daemonThreads() {
+        return runnable -> {
+            Thread thread = new Thread(runnable, "pqve-pipeline-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public static TransformFactory sealing(SecretKey segmentKey, byte[] headerDigest) {
+        return () -> {
+            Cipher cipher = SymmetricEncryption.newSegmentCipher();
+            byte[] aad = SymmetricEncryption.segmentAad(headerDigest);
+            return (index, last, in, out) ->
+                SymmetricEncryption.sealSegment(cipher, segmentKey, index, last, aad, in, out);
+        };
+    }
+
+    public static TransformFactory opening(SecretKey segmentKey, byte[] headerDigest) {
+        return () -> {
+            Cipher cipher = SymmetricEncryption.newSegmentCipher();
+            byte[] aad = SymmetricEncryption.segmentAad(headerDigest);
+            return (index, last, in, out) ->
+                SymmetricEncryption.openSegment(cipher, segmentKey, index, last, aad, in, out);
+        };
+    }
+
+    /**
+     * Checks each input segment against {@code manifest} before handing it to {@code transforms}.
+     */
+    public static TransformFactory verified(TransformFactory transforms, ManifestVerifier.Verified manifest) {
+        return () -> {
+            SegmentTransform transform = transforms.create();
+            return (index, last, in, out) -> {
+                manifest.check(index, last, in);
+                return transform.apply(index, last, in, out);
+            };
+        };
+    }
+
+    /**
+     * Shifts segment indices by {@code firstIndex}, for runs that continue an
+     * existing file rather than starting at segment zero.
+     */
+    public static TransformFactory offset(TransformFactory transforms, long firstIndex) {
+        if (firstIndex == 0) {
+            return transforms;
+        }
+        return () -> {
+            SegmentTransform transform = transforms.create();
+            return (index, last, in, out) -> transform.apply(firstIndex + index, last, in, out);
+        };
+    }
+
+    public interface SegmentSource {
+        int read(ByteBuffer dst) throws IOException;
+    }
+
+    public interface SegmentSink {
+        void write(long index, ByteBuffer data) throws IOException;
+    }
+
+    public interface SegmentTransform {
+        int apply(long index, boolean last, ByteBuffer in, ByteBuffer out) throws GeneralSecurityException;
+    }
+
+    public interface TransformFactory {
+        SegmentTransform create() throws GeneralSecurityException;
+    }
+
+    public static final class FileSource implements SegmentSource {
+        private final AsynchronousFileChannel channel;
+        private final long end;
+        private long position;
+
+        public FileSource(AsynchronousFileChannel channel, long position) {
+            this(channel, position, Long.MAX_VALUE);
+        }
+
+        /**
+         * Reads only up to {@code end}, e.g. one member of an archive.
+         */
+        public FileSource(AsynchronousFileChannel channel, long position, long end) {
+            this.channel = channel;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            if (position >= end) {
+                return -1;
+            }
+            int limit = dst.limit();
+            if (dst.remaining() > end - position) {
+                dst.limit(dst.position() + (int) (end - position));
+            }
+            int n;
+            try {
+                n = await(channel.read(dst, position));
+            } finally {
+                dst.limit(limit);
+            }
+            if (n > 0) {
+                position += n;
+            }
+            return n;
+        }
+    }
+
+    public static final class FileSink implements SegmentSink {
+        private final AsynchronousFileChannel channel;
+        private long position;
+
+        public FileSink(AsynchronousFileChannel channel, long position) {
+            this.channel = channel;
+            this.position = position;
+        }
+
+        @Override
+        public void write(long index, ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                position += await(channel.write(data, position));
+            }
+        }
+    }
+
+    /**
+     * Reads a blob from {@code position} in chunks, keeping up to
+     * {@code window} ranged reads in flight so a remote store's latency
+     * overlaps with decryption.
+     */
+    public static final class BlobSource implements SegmentSource {
+        private final BlobReader reader;
+        private final int chunk;
+        private final int window;
+        private final ArrayDeque<CompletableFuture<ByteBuffer>> ahead = new ArrayDeque<>();
+        private long next;
+        private ByteBuffer current;
+
+        public BlobSource(BlobReader reader, long position, int chunk, int window) {
+            if (chunk < 1 || window < 1) {
+                throw new IllegalArgumentException("Chunk and window must be positive");
+            }
+            this.reader = reader;
+            this.next = position;
+            this.chunk = chunk;
+            this.window = window;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (ahead.size() < window && next < reader.size()) {
+                long at = next;
+                int length = (int) Math.min(chunk, reader.size() - at);
+                ahead.add(CompletableFuture.supplyAsync(() -> fetch(at, length), BlobFetchers.POOL));
+                next += length;
+            }
+            if (current == null || !current.hasRemaining()) {
+                CompletableFuture<ByteBuffer> fetched = ahead.poll();
+                if (fetched == null) {
+                    return -1;
+                }
+                try {
+                    current = fetched.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    ahead.forEach(future -> future.cancel(true));
+                    throw new InterruptedIOException("Interrupted during blob read");
+                } catch (ExecutionException e) {
+                    ahead.forEach(future -> future.cancel(true));
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException) {
+                        throw (IOException) cause;
+                    }
+                    throw new IOException("Blob read failed", cause);
+                }
+            }
+            int n = Math.min(current.remaining(), dst.remaining());
+            int limit = current.limit();
+            current.limit(current.position() + n);
+            dst.put(current);
+            current.limit(limit);
+            return n;
+        }
+
+        private ByteBuffer fetch(long position, int length) {
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            try {
+                while (buffer.hasRemaining()) {
+                    if (reader.read(buffer, position + buffer.position()) < 0) {
+                        throw new EOFException("Blob ended at " + (position + buffer.position()));
+                    }
+                }
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+            return buffer.flip();
+        }
+    }
+
+    private static final class BlobFetchers {
+        static final ExecutorService POOL = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "pqve-blob-read-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static final class ChannelSource implements SegmentSource {
+        private final ReadableByteChannel channel;
+
+        public ChannelSource(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+    }
+
+    public static final class ChannelSink implements SegmentSink {
+        private final WritableByteChannel channel;
+
+        public ChannelSink(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(long index, ByteBuffer data) throws IOException {
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    static int await(Future<Integer> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during file I/O");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("File I/O failed", e.getCause());
+        }
+    }
+
+    private static final class Slot {
+        static final Slot END = new Slot(null, null);
+
+        final ByteBuffer in;
+        final ByteBuffer out;
+        long index;
+        boolean last;
+        Throwable failure;
+
+        Slot(ByteBuffer in, ByteBuffer out) {
+            this.in = in;
+            this.out = out;
+        }
+
+        static Slot failed(Throwable failure) {
+            Slot slot = new Slot(null, null);
+            slot.failure = failure;
+            return slot;
+        }
+
+        void begin(long index, boolean last) {
+            this.index = index;
+            this.last = last;
+        }
+    }
+
+    public static final class Stats {
+        private final long segments;
+        private final long bytesIn;
+        private final long bytesOut;
+        private final long elapsedNanos;
+        private final long admissionWaitNanos;
+
+        public Stats(long segments, long bytesIn, long bytesOut, long elapsedNanos, long admissionWaitNanos) {
+            this.segments = segments;
+            this.bytesIn = bytesIn;
+            this.bytesOut = bytesOut;
+            this.elapsedNanos = elapsedNanos;
+            this.admissionWaitNanos = admissionWaitNanos;
+        }
+
+        public long getSegments() {
+            return segments;
+        }
+
+        public long getBytesIn() {
+            return bytesIn;
+        }
+
+        public long getBytesOut() {
+            return bytesOut;
+        }
+
+        public long getElapsedNanos() {
+            return elapsedNanos;
+        }
+
+        public long getAdmissionWaitNanos() {
+            return admissionWaitNanos;
+        }
+
+        public double megabytesPerSecond() {
+            return elapsedNanos == 0 ? 0 : (bytesIn / 1048576.0) / (elapsedNanos / 1e9);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.pqc.videoencryption.crypto;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link SegmentManifest} with the Dilithium signature that vouches for
+ * it, kept next to the encrypted file as {@code <file>.manifest}.
+ *
+ * <p>Manifests signed together share one signature over a batch root: a
+ * hash tree whose leaves are the manifests' roots. Each manifest carries
+ * its position in the batch and the sibling hashes leading up to the
+ * root. A manifest signed on its own is a batch of one with no siblings.
+ *
+ * <pre>
+ * [4 bytes: magic "PQVM"][1 byte: version]
+ * [4 bytes + encoded manifest]
+ * [4 bytes: leaf index][4 bytes: leaf count][1 byte: n][n x 32 bytes: sibling hashes]
+ * [4 bytes + signature]
+ * </pre>
+ *
+ * The signature is over {@code "PQVE manifest batch v1" || leaf count || batch root}.
+ */
+public final class SignedManifest {
+
+    public static final String SUFFIX = ".manifest";
+    private static final int MAGIC = 0x5051564D;
+    private static final int VERSION = 1;
+    private static final byte LEAF = 0;
+    private static final byte NODE = 1;
+    private static final byte[] SIGNATURE_DOMAIN = "PQVE manifest batch v1".getBytes(StandardCharsets.US_ASCII);
+
+    private final SegmentManifest manifest;
+    private final int leafIndex;
+    private final int leafCount;
+    private final byte[][] siblings;
+    private final byte[] signature;
+
+    SignedManifest(SegmentManifest manifest, int leafIndex, int leafCount, byte[][] siblings, byte[] signature) {
+        this.manifest = manifest;
+        this.leafIndex = leafIndex;
+        this.leafCount = leafCount;
+        this.siblings = siblings;
+        this.signature = signature;
+    }
+
+    public static Path sidecar(Path encryptedFile) {
+        return encryptedFile.resolveSibling(encryptedFile.getFileName() + SUFFIX);
+    }
+
+    public static SignedManifest read(Path file) throws IOException {
+        return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+    }
+
+    public static SignedManifest decode(ByteBuffer encoded) throws IOException {
+        try {
+            if (encoded.getInt() != MAGIC || (encoded.get() & 0xFF) != VERSION) {
+                throw new IOException("Not a signed manifest");
+            }
+            int manifestLength = encoded.getInt();
+            if (manifestLength < 0 || manifestLength > encoded.remaining()) {
+                throw new IOException("Corrupt signed manifest");
+            }
+            ByteBuffer manifestBytes = encoded.slice().limit(manifestLength);
+            SegmentManifest manifest = SegmentManifest.decode(manifestBytes);
+            encoded.position(encoded.position() + manifestLength);
+            int leafIndex = encoded.getInt();
+            int leafCount = encoded.getInt();
+            byte[][] siblings = new byte[encoded.get() & 0xFF][SegmentManifest.HASH_SIZE];
+            for (byte[] sibling : siblings) {
+                encoded.get(sibling);
+            }
+            int signatureLength = encoded.getInt();
+            if (leafCount < 1 || leafIndex < 0 || leafIndex >= leafCount
+                    || signatureLength < 0 || signatureLength != encoded.remaining()) {
+                throw new IOException("Corrupt signed manifest");
+            }
+            byte[] signature = new byte[signatureLength];
+            encoded.get(signature);
+            return new SignedManifest(manifest, leafIndex, leafCount, siblings, signature);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated signed manifest", e);
+        }
+    }
+
+    public byte[] getEncoded() {
+        byte[] manifestBytes = manifest.getEncoded();
+        ByteBuffer out = ByteBuffer.allocate(4 + 1 + 4 + manifestBytes.length + 4 + 4 + 1
+            + siblings.length * SegmentManifest.HASH_SIZE + 4 + signature.length);
+        out.putInt(MAGIC).put((byte) VERSION);
+        out.putInt(manifestBytes.length).put(manifestBytes);
+        out.putInt(leafIndex).putInt(leafCount).put((byte) siblings.length);
+        for (byte[] sibling : siblings) {
+            out.put(sibling);
+        }
+        out.putInt(signature.length).put(signature);
+        return out.array();
+    }
+
+    /**
+     * Writes {@code <encryptedFile>.manifest}, committed atomically.
+     */
+    public Path write(Path encryptedFile) throws IOException {
+        Path file = sidecar(encryptedFile);
+        Path temp = OutputCommitter.tempPath(file);
+        boolean committed = false;
+        try {
+            Files.write(temp, getEncoded(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+            OutputCommitter.shared().commit(temp, file);
+            committed = true;
+            return file;
+        } finally {
+            if (!committed) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    public SegmentManifest getManifest() {
+        return manifest;
+    }
+
+    public int getLeafIndex() {
+        return leafIndex;
+    }
+
+    public int getLeafCount() {
+        return leafCount;
+    }
+
+    byte[] getSignature() {
+        return signature;
+    }
+
+    /**
+     * The message the batch signature covers, rebuilt from this manifest
+     * and its path; null if the path does not fit the batch size.
+     */
+    byte[] signedMessage() {
+        byte[] node = SegmentManifest.hash(LEAF, manifest.root());
+        int index = leafIndex;
+        int width = leafCount;
+        int used = 0;
+        while (width > 1) {
+            if ((index & 1) == 1 || index + 1 < width) {
+                if (used == siblings.length) {
+                    return null;
+                }
+                byte[] sibling = siblings[used++];
+                node = (index & 1) == 1
+                    ? SegmentManifest.hash(NODE, sibling, node)
+                    : SegmentManifest.hash(NODE, node, sibling);
+            }
+            index >>= 1;
+            width = (width + 1) >> 1;
+        }
+        return used == siblings.length ? message(leafCount, node) : null;
+    }
+
+    static byte[] message(int leafCount, byte[] batchRoot) {
+        return ByteBuffer.allocate(SIGNATURE_DOMAIN.length + 4 + batchRoot.length)
+            .put(SIGNATURE_DOMAIN).putInt(leafCount).put(batchRoot).array();
+    }
+
+    /**
+     * The hash tree over {@code manifests}: level 0 holds the leaves, the
+     * last level the root. An odd node at the end of a level moves up
+     * unpaired.
+     */
+    static List<byte[][]> tree(List<SegmentManifest> manifests) {
+        byte[][] level = new byte[manifests.size()][];
+        for (int i = 0; i < level.length; i++) {
+            level[i] = SegmentManifest.hash(LEAF, manifests.get(i).root());
+        }
+        List<byte[][]> levels = new ArrayList<>();
+        levels.add(level);
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                next[i] = 2 * i + 1 < level.length
+                    ? SegmentManifest.hash(NODE, level[2 * i], level[2 * i + 1])
+                    : level[2 * i];
+            }
+            levels.add(next);
+            level = next;
+        }
+        return levels;
+    }
+
+    static byte[][] path(List<byte[][]> tree, int leafIndex) {
+        List<byte[]> siblings = new ArrayList<>();
+        int index = leafIndex;
+        for (byte[][] level : tree.subList(0, tree.size() - 1)) {
+            int sibling = index ^ 1;
+            if (sibling < level.length) {
+                siblings.add(level[sibling]);
+            }
+            index >>= 1;
+        }
+        return siblings.toArray(new byte[0][]);
+    }
+
+    @Override
+    public String toString() {
+        return "SignedManifest[" + manifest.getSegmentCount() + " segments, leaf " + leafIndex + " of "
+            + leafCount + "]";
+    }
+}
@@ -7,13 +7,13 @@ import javax.crypto.Cipher;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.GCMParameterSpec;
 import javax.crypto.spec.SecretKeySpec;
-import java.security.SecureRandom;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
 import java.util.Arrays;
 
 public final class SymmetricEncryption {
     
     private static final Logger logger = LoggerFactory.getLogger(SymmetricEncryption.class);
-    private static final SecureRandom secureRandom = new SecureRandom();
     
     private SymmetricEncryption() {
         throw new AssertionError("Utility class");
@@ -33,13 +33,9 @@ public final class SymmetricEncryption {
             throw new IllegalArgumentException("Key and plaintext cannot be null");
         }
         
-        byte[] iv = new byte[CryptoConstants.GCM_IV_SIZE];
-        secureRandom.nextBytes(iv);
+        byte[] iv = RandomSource.nextNonce();
         
-        Cipher cipher = Cipher.getInstance(
-            CryptoConstants.AES_CIPHER, 
-            CryptoConstants.BC_PROVIDER
-        );
+        Cipher cipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
         GCMParameterSpec gcmSpec = new GCMParameterSpec(
             CryptoConstants.GCM_TAG_SIZE, 
             iv
@@ -64,10 +60,7 @@ public final class SymmetricEncryption {
             throw new IllegalArgumentException("IV must be 12 bytes for GCM");
         }
         
-        Cipher cipher = Cipher.getInstance(
-            CryptoConstants.AES_CIPHER, 
-            CryptoConstants.BC_PROVIDER
-        );
+        Cipher cipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
         GCMParameterSpec gcmSpec = new GCMParameterSpec(
             CryptoConstants.GCM_TAG_SIZE, 
             iv
@@ -82,6 +75,51 @@ public final class SymmetricEncryption {
         return plaintext;
     }
     
+    public static Cipher newSegmentCipher() throws GeneralSecurityException {
+        // The JDK provider seals direct buffers in place with AES-NI/CLMUL intrinsics,
+        // whereas BC's CipherSpi stages every ByteBuffer call through temporary arrays.
+        return Cipher.getInstance(CryptoConstants.AES_CIPHER);
+    }
+    
+    public static byte[] segmentAad(byte[] headerDigest) {
+        byte[] aad = new byte[headerDigest.length + 9];
+        System.arraycopy(headerDigest, 0, aad, 0, headerDigest.length);
+        return aad;
+    }
+    
+    public static int sealSegment(Cipher cipher, SecretKey key, long index, boolean last, 
+                                  byte[] aad, ByteBuffer plaintext, ByteBuffer ciphertext) 
+            throws GeneralSecurityException {
+        cipher.init(Cipher.ENCRYPT_MODE, key, segmentSpec(index));
+        cipher.updateAAD(fillSegmentAad(aad, index, last));
+        return cipher.doFinal(plaintext, ciphertext);
+    }
+    
+    public static int openSegment(Cipher cipher, SecretKey key, long index, boolean last, 
+                                  byte[] aad, ByteBuffer ciphertext, ByteBuffer plaintext) 
+            throws GeneralSecurityException {
+        cipher.init(Cipher.DECRYPT_MODE, key, segmentSpec(index));
+        cipher.updateAAD(fillSegmentAad(aad, index, last));
+        return cipher.doFinal(ciphertext, plaintext);
+    }
+    
+    private static GCMParameterSpec segmentSpec(long index) {
+        byte[] nonce = new byte[CryptoConstants.GCM_IV_SIZE];
+        for (int i = 0; i < 8; i++) {
+            nonce[CryptoConstants.GCM_IV_SIZE - 1 - i] = (byte) (index >>> (8 * i));
+        }
+        return new GCMParameterSpec(CryptoConstants.GCM_TAG_SIZE, nonce);
+    }
+    
+    private static byte[] fillSegmentAad(byte[] aad, long index, boolean last) {
+        int offset = aad.length - 9;
+        for (int i = 0; i < 8; i++) {
+            aad[offset + i] = (byte) (index >>> (56 - 8 * i));
+        }
+        aad[aad.length - 1] = (byte) (last ? 1 : 0);
+        return aad;
+    }
+    
     public static void wipe(SecretKey key) {
         if (key instanceof SecretKeySpec) {
             byte[] encoded = key.getEncoded();
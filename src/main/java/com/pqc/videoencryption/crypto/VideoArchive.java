@@ -0,0 +1,481 @@
+package com.pqc.videoencryption.crypto;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file container for many encrypted videos. Each member is a complete
+ * segmented encrypted file stored verbatim; a central directory at the end
+ * maps member names to their position, so any member is found in memory and
+ * read with one seek.
+ *
+ * <pre>
+ * [4 bytes: magic "PQVA"][1 byte: version][3 bytes: reserved]
+ * [member 0: v2 header + sealed segments] ... [member n]
+ * [central directory: per member
+ *    [2 bytes + UTF-8: name][8 bytes: offset][8 bytes: length]
+ *    [4 bytes: header length][8 bytes: plaintext size]]
+ * [8 bytes: directory offset][4 bytes: directory length][4 bytes: members]
+ * [4 bytes: CRC32 of directory][4 bytes: magic "PQVT"]
+ * </pre>
+ *
+ * Appends write the new members and a new directory after the old trailer,
+ * so committed members are never rewritten; the superseded directory stays
+ * behind as a few dead bytes. Sealed sizes are known up front, so members
+ * are encrypted in parallel, each straight to its final offset; a video
+ * whose size changes while it is packed fails the pack.
+ */
+public final class VideoArchive implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(VideoArchive.class);
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private static final int MAGIC = 0x50515641;
+    private static final int TRAILER_MAGIC = 0x50515654;
+    private static final int VERSION = 1;
+    private static final int PREAMBLE_SIZE = 8;
+    private static final int TRAILER_SIZE = 8 + 4 + 4 + 4 + 4;
+
+    private final Path file;
+    private final AsynchronousFileChannel channel;
+    private final int parallelism;
+    private volatile Map<String, Member> members;
+    private long end;
+
+    private VideoArchive(Path file, AsynchronousFileChannel channel, int parallelism,
+                         Map<String, Member> members, long end) {
+        this.file = file;
+        this.channel = channel;
+        this.parallelism = parallelism;
+        this.members = members;
+        this.end = end;
+    }
+
+    /**
+     * Opens {@code file}, creating an empty archive when it does not exist.
+     * {@code parallelism} members are packed or extracted at a time.
+     */
+    public static VideoArchive open(Path file, int parallelism) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        AsynchronousFileChannel channel = AsynchronousFileChannel.open(file,
+            StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            if (channel.size() == 0) {
+                ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE).putInt(MAGIC).put((byte) VERSION);
+                writeFully(channel, preamble.clear(), 0);
+                long end = writeDirectory(channel, PREAMBLE_SIZE, Map.of());
+                channel.force(true);
+                return new VideoArchive(file, channel, parallelism, Map.of(), end);
+            }
+            ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE_SIZE);
+            readFully(channel, preamble, 0);
+            if (preamble.getInt(0) != MAGIC || preamble.get(4) != VERSION) {
+                throw new IOException("Not a video archive: " + file.getFileName());
+            }
+            long trailerEnd = lastValidTrailer(channel);
+            if (trailerEnd < channel.size()) {
+                logger.warn("Archive {} has {} bytes from an unfinished append, ignoring them",
+                    file.getFileName(), channel.size() - trailerEnd);
+            }
+            return new VideoArchive(file, channel, parallelism, readDirectory(channel, trailerEnd), trailerEnd);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public static VideoArchive open(Path file) throws IOException {
+        return open(file, Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors())));
+    }
+
+    public Optional<Member> member(String name) {
+        return Optional.ofNullable(members.get(name));
+    }
+
+    public List<Member> members() {
+        return new ArrayList<>(members.values());
+    }
+
+    /**
+     * Encrypts {@code videos} into the archive, in parallel, and commits them
+     * with a new directory. On failure the archive keeps its previous contents.
+     */
+    public synchronized List<Member> pack(List<Path> videos, String owner, SecretKey masterKey)
+            throws IOException, GeneralSecurityException {
+        Map<String, Member> updated = new LinkedHashMap<>(members);
+        List<Member> added = new ArrayList<>(videos.size());
+        List<EncryptedFileHeader> headers = new ArrayList<>(videos.size());
+        long position = end;
+        for (Path video : videos) {
+            String name = video.getFileName().toString();
+            if (updated.containsKey(name)) {
+                throw new IllegalArgumentException("Archive already contains " + name);
+            }
+            EncryptedFileHeader header = EncryptedFileHeader.create(name, owner, CryptoConstants.SEGMENT_SIZE);
+            long plaintext = Files.size(video);
+            long sealed = header.length() + plaintext
+                + ResumableEncryption.expectedSegments(header, plaintext) * CryptoConstants.GCM_TAG_LENGTH;
+            Member member = new Member(name, position, sealed, header.length(), plaintext);
+            updated.put(name, member);
+            added.add(member);
+            headers.add(header);
+            position += sealed;
+        }
+
+        runParallel(added.size(), i -> {
+            Member member = added.get(i);
+            EncryptedFileHeader header = headers.get(i);
+            writeFully(channel, ByteBuffer.wrap(header.getEncoded()), member.getOffset());
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+            try (AsynchronousFileChannel in = AsynchronousFileChannel.open(videos.get(i), StandardOpenOption.READ)) {
+                SegmentPipeline.Stats stats = memberPipeline(header.getSegmentSize()).run(
+                    new SegmentPipeline.FileSource(in, 0, member.getPlaintextSize()),
+                    header.getSegmentSize(),
+                    SegmentPipeline.sealing(segmentKey, header.digest()),
+                    header.sealedSegmentSize(),
+                    new SegmentPipeline.FileSink(channel, member.getOffset() + header.length()),
+                    List.of(videos.get(i), file));
+                if (stats.getBytesIn() != member.getPlaintextSize()) {
+                    throw new IOException(member.getName() + " shrank while being packed");
+                }
+                // The slot is sized for the length read up front; bytes past it would be dropped.
+                if (in.size() != member.getPlaintextSize()) {
+                    throw new IOException(member.getName() + " grew while being packed");
+                }
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+            }
+        });
+
+        channel.force(false);
+        long newEnd = writeDirectory(channel, position, updated);
+        channel.force(true);
+        members = Collections.unmodifiableMap(updated);
+        end = newEnd;
+        logger.info("Packed {} videos into {} ({} members)", added.size(), file.getFileName(), updated.size());
+        return added;
+    }
+
+    /**
+     * Decrypts one member to {@code output}, which appears only once it is
+     * complete and durable (see {@link OutputCommitter}).
+     */
+    public SegmentPipeline.Stats extract(String name, Path output, SecretKey masterKey)
+            throws IOException, GeneralSecurityException {
+        Path temp = OutputCommitter.tempPath(output);
+        boolean success = false;
+        try {
+            SegmentPipeline.Stats stats;
+            try (AsynchronousFileChannel out = AsynchronousFileChannel.open(temp,
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                stats = extract(name, new SegmentPipeline.FileSink(out, 0), masterKey, List.of(file, output));
+            }
+            OutputCommitter.shared().commit(temp, output);
+            success = true;
+            return stats;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Streams the plaintext of one member to {@code output}.
+     */
+    public SegmentPipeline.Stats extract(String name, WritableByteChannel output, SecretKey masterKey)
+            throws IOException, GeneralSecurityException {
+        return extract(name, new SegmentPipeline.ChannelSink(output), masterKey, List.of(file));
+    }
+
+    /**
+     * Extracts every member into {@code directory}, several at a time.
+     */
+    public void extractAll(Path directory, SecretKey masterKey) throws IOException, GeneralSecurityException {
+        Files.createDirectories(directory);
+        List<Member> all = members();
+        runParallel(all.size(), i -> {
+            Member member = all.get(i);
+            Path output = directory.resolve(member.getName()).normalize();
+            if (!output.getParent().equals(directory.normalize())) {
+                throw new IOException("Refusing to extract outside the target directory: " + member.getName());
+            }
+            extract(member.getName(), output, masterKey);
+        });
+    }
+
+    private SegmentPipeline.Stats extract(String name, SegmentPipeline.SegmentSink sink, SecretKey masterKey,
+                                          List<Path> devices) throws IOException, GeneralSecurityException {
+        Member member = members.get(name);
+        if (member == null) {
+            throw new IOException("No member named " + name);
+        }
+        ByteBuffer headerBytes = ByteBuffer.allocate(member.getHeaderLength());
+        readFully(channel, headerBytes, member.getOffset());
+        EncryptedFileHeader header = EncryptedFileHeader.read(
+            Channels.newChannel(new ByteArrayInputStream(headerBytes.array())));
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        try {
+            return memberPipeline(header.getSegmentSize()).run(
+                new SegmentPipeline.FileSource(channel, member.getOffset() + header.length(),
+                    member.getOffset() + member.getLength()),
+                header.sealedSegmentSize(),
+                SegmentPipeline.opening(segmentKey, header.digest()),
+                header.getSegmentSize(),
+                sink,
+                devices);
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+        }
+    }
+
+    private static SegmentPipeline memberPipeline(int segmentSize) {
+        // Parallelism comes from running members side by side, so each member
+        // gets a single cipher worker and the smallest queue.
+        return new SegmentPipeline(segmentSize, 1, 2);
+    }
+
+    private void runParallel(int count, MemberTask task) throws IOException, GeneralSecurityException {
+        if (count == 0) {
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, count), runnable -> {
+            Thread thread = new Thread(runnable, "pqve-archive-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int index = i;
+                futures.add(executor.submit(() -> {
+                    task.run(index);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Archive task failed", cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted during archive operation");
+        } finally {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static long writeDirectory(AsynchronousFileChannel channel, long offset, Map<String, Member> members)
+            throws IOException {
+        List<byte[]> names = new ArrayList<>(members.size());
+        int length = 0;
+        for (Member member : members.values()) {
+            byte[] name = member.getName().getBytes(StandardCharsets.UTF_8);
+            names.add(name);
+            length += 2 + name.length + 8 + 8 + 4 + 8;
+        }
+        ByteBuffer directory = ByteBuffer.allocate(length + TRAILER_SIZE);
+        int i = 0;
+        for (Member member : members.values()) {
+            byte[] name = names.get(i++);
+            directory.putShort((short) name.length);
+            directory.put(name);
+            directory.putLong(member.getOffset());
+            directory.putLong(member.getLength());
+            directory.putInt(member.getHeaderLength());
+            directory.putLong(member.getPlaintextSize());
+        }
+        CRC32 crc = new CRC32();
+        crc.update(directory.array(), 0, length);
+        directory.putLong(offset);
+        directory.putInt(length);
+        directory.putInt(members.size());
+        directory.putInt((int) crc.getValue());
+        directory.putInt(TRAILER_MAGIC);
+        writeFully(channel, directory.flip(), offset);
+        channel.truncate(offset + directory.limit());
+        return offset + directory.limit();
+    }
+
+    private static Map<String, Member> readDirectory(AsynchronousFileChannel channel, long trailerEnd)
+            throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, trailerEnd - TRAILER_SIZE);
+        trailer.flip();
+        long offset = trailer.getLong();
+        int length = trailer.getInt();
+        int count = trailer.getInt();
+        ByteBuffer directory = ByteBuffer.allocate(length);
+        readFully(channel, directory, offset);
+        directory.flip();
+
+        Map<String, Member> members = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[directory.getShort() & 0xFFFF];
+            directory.get(name);
+            Member member = new Member(new String(name, StandardCharsets.UTF_8), directory.getLong(),
+                directory.getLong(), directory.getInt(), directory.getLong());
+            members.put(member.getName(), member);
+        }
+        return Collections.unmodifiableMap(members);
+    }
+
+    /**
+     * Returns the end of the last trailer whose directory checks out. Normally
+     * that is the end of the file; after a crash mid-append it is found by
+     * scanning backwards for the trailer magic.
+     */
+    private static long lastValidTrailer(AsynchronousFileChannel channel) throws IOException {
+        long candidate = channel.size();
+        ByteBuffer window = ByteBuffer.allocate(64 * 1024);
+        while (candidate >= PREAMBLE_SIZE + TRAILER_SIZE) {
+            if (isValidTrailer(channel, candidate)) {
+                return candidate;
+            }
+            long windowStart = Math.max(0, candidate - window.capacity());
+            window.clear().limit((int) (candidate - 1 - windowStart));
+            readFully(channel, window, windowStart);
+            long next = -1;
+            for (int i = window.limit() - 4; i >= 0; i--) {
+                if (window.getInt(i) == TRAILER_MAGIC) {
+                    next = windowStart + i + 4;
+                    break;
+                }
+            }
+            candidate = next >= 0 ? next : windowStart + 3;
+            if (windowStart == 0 && next < 0) {
+                break;
+            }
+        }
+        throw new IOException("Archive has no intact central directory");
+    }
+
+    private static boolean isValidTrailer(AsynchronousFileChannel channel, long trailerEnd) throws IOException {
+        ByteBuffer trailer = ByteBuffer.allocate(TRAILER_SIZE);
+        readFully(channel, trailer, trailerEnd - TRAILER_SIZE);
+        trailer.flip();
+        long offset = trailer.getLong();
+        int length = trailer.getInt();
+        trailer.getInt();
+        int crcValue = trailer.getInt();
+        if (trailer.getInt() != TRAILER_MAGIC || length < 0 || offset < PREAMBLE_SIZE
+                || offset + length != trailerEnd - TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer directory = ByteBuffer.allocate(length);
+        readFully(channel, directory, offset);
+        CRC32 crc = new CRC32();
+        crc.update(directory.array());
+        return (int) crc.getValue() == crcValue;
+    }
+
+    private static void readFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = SegmentPipeline.await(channel.read(buffer, position));
+            if (n < 0) {
+                throw new EOFException("Truncated archive");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            position += SegmentPipeline.await(channel.write(buffer, position));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private interface MemberTask {
+        void run(int index) throws IOException, GeneralSecurityException;
+    }
+
+    public static final class Member {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final int headerLength;
+        private final long plaintextSize;
+
+        public Member(String name, long offset, long length, int headerLength, long plaintextSize) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.headerLength = headerLength;
+            this.plaintextSize = plaintextSize;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public int getHeaderLength() {
+            return headerLength;
+        }
+
+        public long getPlaintextSize() {
+            return plaintextSize;
+        }
+    }
+}
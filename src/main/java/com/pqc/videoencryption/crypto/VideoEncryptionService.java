@@ -1,15 +1,43 @@
 package com.pqc.videoencryption.crypto;
 
+import com.pqc.videoencryption.audit.AuditEvent;
+import com.pqc.videoencryption.audit.AuditTrail;
+import com.pqc.videoencryption.blob.BlobReader;
+import com.pqc.videoencryption.blob.BlobStore;
+import com.pqc.videoencryption.cluster.ShardCoordinator;
 import com.pqc.videoencryption.storage.KeyStoreManager;
+import com.pqc.videoencryption.storage.LibraryCatalog;
+import com.pqc.videoencryption.storage.SessionManager;
+import org.bouncycastle.crypto.InvalidCipherTextException;
+import org.bouncycastle.crypto.engines.AESEngine;
+import org.bouncycastle.crypto.modes.GCMBlockCipher;
+import org.bouncycastle.crypto.modes.GCMModeCipher;
+import org.bouncycastle.crypto.params.AEADParameters;
+import org.bouncycastle.crypto.params.KeyParameter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.crypto.AEADBadTagException;
 import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
 
 public final class VideoEncryptionService {
     
@@ -21,132 +49,667 @@ public final class VideoEncryptionService {
     
     public static void encryptVideo(Path inputVideo, Path outputFile, String username, String password) 
             throws Exception {
-        
-        Path keystorePath = KeyStoreManager.getKeystorePath(username);
-        if (!Files.exists(keystorePath)) {
-            KeyStoreManager.createKeyStore(keystorePath, password, username);
+        encryptVideo(inputVideo, outputFile, username, loadOrCreateKey(username, password), new SealedOutput(false));
+    }
+    
+    public static void encryptVideo(Path inputVideo, Path outputFile, SessionManager.Session session) 
+            throws Exception {
+        encryptVideo(inputVideo, outputFile, session.getUsername(), session.getAesKey(), new SealedOutput(false));
+    }
+    
+    /**
+     * Encrypts a video and writes a manifest beside it, signed with the
+     * user's signing key from the vault (generated on first use). The
+     * manifest is built from the segments as they are sealed, so the output
+     * is never read back.
+     *
+     * @return the manifest sidecar
+     */
+    public static Path encryptAndSignVideo(Path inputVideo, Path outputFile, String username, String password) 
+            throws Exception {
+        SecretKey aesKey = loadOrCreateKey(username, password);
+        KeyPair signingKeys;
+        try {
+            signingKeys = KeyStoreManager.loadOrGenerateSigningKeyPair(username, password);
+        } catch (GeneralSecurityException | IOException e) {
+            SymmetricEncryption.wipe(aesKey);
+            throw e;
         }
-        
-        SecretKey aesKey = KeyStoreManager.loadAESKey(keystorePath, password);
-        
-        byte[] videoData = Files.readAllBytes(inputVideo);
-        SymmetricEncryption.EncryptionResult result = SymmetricEncryption.encrypt(aesKey, videoData);
-        
+        SealedOutput sealed = new SealedOutput(true);
+        encryptVideo(inputVideo, outputFile, username, aesKey, sealed);
+        try (ManifestSigner signer = new ManifestSigner(signingKeys.getPrivate(), 1)) {
+            return signer.sign(sealed.manifest()).write(outputFile);
+        }
+    }
+    
+    /**
+     * Encrypts each input to the output at the same index and signs the
+     * manifests built while sealing, as {@link #signVideos} would but
+     * without reading the outputs back.
+     *
+     * @return the manifest sidecars, in input order
+     */
+    public static List<Path> encryptAndSignVideos(List<Path> inputVideos, List<Path> outputFiles,
+                                                  SessionManager.Session session, ManifestSigner signer,
+                                                  boolean batch) throws Exception {
+        if (inputVideos.size() != outputFiles.size()) {
+            throw new IllegalArgumentException("One output is needed per input");
+        }
+        List<SegmentManifest> manifests = new ArrayList<>(inputVideos.size());
+        for (int i = 0; i < inputVideos.size(); i++) {
+            SealedOutput sealed = new SealedOutput(true);
+            encryptVideo(inputVideos.get(i), outputFiles.get(i), session.getUsername(), session.getAesKey(),
+                sealed);
+            manifests.add(sealed.manifest());
+        }
+        return writeSigned(outputFiles, manifests, signer, batch);
+    }
+    
+    private static void encryptVideo(Path inputVideo, Path outputFile, String username, SecretKey aesKey,
+                                     SealedOutput sealed) throws Exception {
+        long start = System.nanoTime();
+        String audited = outputFile.getFileName().toString();
         try {
             Path parent = outputFile.getParent();
             if (parent != null && !Files.exists(parent)) {
                 Files.createDirectories(parent);
             }
             
-            EncryptedVideoFile encryptedFile = new EncryptedVideoFile(
-                result.getCiphertext(),
-                result.getIv(),
-                inputVideo.getFileName().toString()
-            );
-            
-            Files.write(outputFile, encryptedFile.serialize());
-            logger.info("Encrypted video: {} -> {}", inputVideo.getFileName(), outputFile.getFileName());
+            PipelineTuner.Job tuning = PipelineTuner.start(inputVideo, outputFile, 0);
+            SegmentPipeline.Stats stats = ResumableEncryption.encrypt(
+                inputVideo, outputFile, username, aesKey, tuning.getPipeline(), sealed);
+            tuning.finish(stats);
+            logger.info("Encrypted video: {} -> {} ({} segments, {} MB/s, queued {} ms)", 
+                inputVideo.getFileName(), outputFile.getFileName(), 
+                stats.getSegments(), String.format("%.1f", stats.megabytesPerSecond()),
+                stats.getAdmissionWaitNanos() / 1_000_000);
+            AuditTrail.shared().publish(
+                AuditEvent.success(username, AuditEvent.Operation.ENCRYPT, audited, stats.getBytesIn(), start));
+        } catch (Exception e) {
+            AuditTrail.shared().publish(
+                AuditEvent.failure(username, AuditEvent.Operation.ENCRYPT, audited, start, e));
+            throw e;
         } finally {
-            result.wipe();
-            Arrays.fill(videoData, (byte) 0);
             SymmetricEncryption.wipe(aesKey);
         }
+        
+        Optional<LibraryCatalog> catalog = LibraryCatalog.ifPresent(outputFile.toAbsolutePath().getParent());
+        if (catalog.isPresent()) {
+            catalog.get().record(outputFile, sealed.integrityRoot());
+        }
+    }
+    
+    /**
+     * Deletes an encrypted file and drops it from its library catalog, even
+     * if its header is damaged.
+     */
+    public static void deleteVideo(Path encryptedFile) throws IOException {
+        long start = System.nanoTime();
+        boolean exists = Files.exists(encryptedFile);
+        EncryptedFileHeader header = null;
+        if (exists) {
+            try {
+                header = readHeader(encryptedFile);
+            } catch (IOException | RuntimeException e) {
+                logger.warn("Deleting {} with an unreadable header: {}", encryptedFile.getFileName(), e.toString());
+            }
+        }
+        long size = exists ? Files.size(encryptedFile) : 0;
+        Files.deleteIfExists(encryptedFile);
+        Files.deleteIfExists(SignedManifest.sidecar(encryptedFile));
+        AuditTrail.shared().publish(AuditEvent.success(header == null ? null : header.getOwner(),
+            AuditEvent.Operation.DELETE, encryptedFile.getFileName().toString(), size, start));
+        Optional<LibraryCatalog> catalog = LibraryCatalog.ifPresent(encryptedFile.toAbsolutePath().getParent());
+        if (catalog.isPresent()) {
+            catalog.get().remove(encryptedFile);
+        }
+        logger.info("Deleted encrypted video: {}", encryptedFile.getFileName());
     }
     
     public static void decryptVideo(Path inputFile, Path outputVideo, String username, String password) 
             throws Exception {
-        
-        Path keystorePath = KeyStoreManager.getKeystorePath(username);
-        SecretKey aesKey = KeyStoreManager.loadAESKey(keystorePath, password);
-        
-        byte[] encryptedData = Files.readAllBytes(inputFile);
-        EncryptedVideoFile encryptedFile = EncryptedVideoFile.deserialize(encryptedData);
-        
+        decryptVideo(inputFile, outputVideo, username, KeyStoreManager.loadAESKey(username, password));
+    }
+    
+    public static void decryptVideo(Path inputFile, Path outputVideo, SessionManager.Session session) 
+            throws Exception {
+        decryptVideo(inputFile, outputVideo, session.getUsername(), session.getAesKey());
+    }
+    
+    /**
+     * Decrypts only if {@code inputFile} matches the manifest beside it, as
+     * signed by {@code verifier}'s key. The signature is checked before any
+     * segment is read and every segment is checked before it is opened; on
+     * a mismatch no output is left behind.
+     */
+    public static void decryptVideo(Path inputFile, Path outputVideo, ManifestVerifier verifier,
+                                    String username, String password) throws Exception {
+        decryptVideo(inputFile, outputVideo, username, KeyStoreManager.loadAESKey(username, password), verifier);
+    }
+    
+    public static void decryptVideo(Path inputFile, Path outputVideo, ManifestVerifier verifier,
+                                    SessionManager.Session session) throws Exception {
+        decryptVideo(inputFile, outputVideo, session.getUsername(), session.getAesKey(), verifier);
+    }
+    
+    private static void decryptVideo(Path inputFile, Path outputVideo, String username, SecretKey aesKey)
+            throws Exception {
+        decryptVideo(inputFile, outputVideo, username, aesKey, null);
+    }
+    
+    private static void decryptVideo(Path inputFile, Path outputVideo, String username, SecretKey aesKey,
+                                      ManifestVerifier verifier) throws Exception {
+        long start = System.nanoTime();
+        String audited = inputFile.getFileName().toString();
         try {
-            byte[] decryptedData = SymmetricEncryption.decrypt(
-                aesKey, 
-                encryptedFile.ciphertext, 
-                encryptedFile.iv
-            );
-            
-            Files.write(outputVideo, decryptedData);
-            logger.info("Decrypted video: {} -> {}", inputFile.getFileName(), outputVideo.getFileName());
+            EncryptedFileHeader header = readHeader(inputFile);
+            ManifestVerifier.Verified manifest = null;
+            if (verifier != null) {
+                if (header == null || header.isFramed()) {
+                    throw new IOException("Only segmented files carry signed manifests: " + audited);
+                }
+                manifest = verifier.verify(SignedManifest.read(SignedManifest.sidecar(inputFile)), header);
+            }
+            if (header == null) {
+                decryptLegacy(inputFile, outputVideo, aesKey);
+                // A legacy file names no owner; the key that just authenticated it does.
+                Optional<LibraryCatalog> catalog = LibraryCatalog.ifPresent(inputFile.toAbsolutePath().getParent());
+                if (catalog.isPresent() && username != null) {
+                    catalog.get().claim(inputFile, username);
+                }
+                AuditTrail.shared().publish(AuditEvent.success(username, AuditEvent.Operation.DECRYPT, audited,
+                    Files.size(outputVideo), start));
+                return;
+            }
             
-            Arrays.fill(decryptedData, (byte) 0);
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+            SegmentPipeline.Stats stats;
+            try {
+                if (header.isFramed()) {
+                    try (FileChannel in = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+                        in.position(header.length());
+                        stats = decryptFramed(in, outputVideo, header, segmentKey);
+                    }
+                } else {
+                    PipelineTuner.Job tuning = PipelineTuner.start(inputFile, outputVideo, header.getSegmentSize());
+                    stats = manifest == null
+                        ? tuning.getPipeline().decrypt(inputFile, outputVideo, header, segmentKey)
+                        : tuning.getPipeline().decrypt(inputFile, outputVideo, header, segmentKey, manifest);
+                    tuning.finish(stats);
+                }
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+            }
+            logger.info("Decrypted video: {} -> {} (queued {} ms)", 
+                inputFile.getFileName(), outputVideo.getFileName(), stats.getAdmissionWaitNanos() / 1_000_000);
+            AuditTrail.shared().publish(
+                AuditEvent.success(username, AuditEvent.Operation.DECRYPT, audited, stats.getBytesOut(), start));
+        } catch (Exception e) {
+            AuditTrail.shared().publish(
+                AuditEvent.failure(username, AuditEvent.Operation.DECRYPT, audited, start, e));
+            throw e;
         } finally {
             SymmetricEncryption.wipe(aesKey);
         }
     }
     
-    private static class EncryptedVideoFile {
-        final byte[] ciphertext;
-        final byte[] iv;
-        final String originalFilename;
+    /**
+     * Hashes each encrypted file's segments and writes a signed manifest
+     * beside it ({@code <file>.manifest}). With {@code batch} the whole list
+     * shares one signature; otherwise each file is signed separately, in
+     * parallel. This reads every file back; files being encrypted now are
+     * cheaper to sign with {@link #encryptAndSignVideos}.
+     */
+    public static List<Path> signVideos(List<Path> encryptedFiles, ManifestSigner signer, boolean batch)
+            throws IOException, GeneralSecurityException {
+        List<SegmentManifest> manifests = new ArrayList<>(encryptedFiles.size());
+        for (Path file : encryptedFiles) {
+            manifests.add(SegmentManifest.of(file));
+        }
+        return writeSigned(encryptedFiles, manifests, signer, batch);
+    }
+    
+    private static List<Path> writeSigned(List<Path> encryptedFiles, List<SegmentManifest> manifests,
+                                          ManifestSigner signer, boolean batch)
+            throws IOException, GeneralSecurityException {
+        List<SignedManifest> signed = batch ? signer.signBatch(manifests) : signer.signAll(manifests);
+        List<Path> sidecars = new ArrayList<>(signed.size());
+        for (int i = 0; i < signed.size(); i++) {
+            sidecars.add(signed.get(i).write(encryptedFiles.get(i)));
+        }
+        logger.info("Signed manifests for {} videos ({})", sidecars.size(),
+            batch ? "one batch signature" : "one signature each");
+        return sidecars;
+    }
+    
+    /**
+     * Encrypts a video into {@code store} under {@code key}, streaming sealed
+     * segments to the store without a local copy of the encrypted file.
+     */
+    public static SegmentPipeline.Stats encryptVideo(Path inputVideo, BlobStore store, String key, String username,
+                                                     String password) throws Exception {
+        return encryptVideo(inputVideo, store, key, username, loadOrCreateKey(username, password));
+    }
+    
+    public static SegmentPipeline.Stats encryptVideo(Path inputVideo, BlobStore store, String key,
+                                                     SessionManager.Session session) throws Exception {
+        return encryptVideo(inputVideo, store, key, session.getUsername(), session.getAesKey());
+    }
+    
+    private static SegmentPipeline.Stats encryptVideo(Path inputVideo, BlobStore store, String key, String username,
+                                                      SecretKey aesKey) throws Exception {
+        long start = System.nanoTime();
+        SegmentPipeline pipeline = SegmentPipeline.defaults();
+        EncryptedFileHeader header = EncryptedFileHeader.create(
+            inputVideo.getFileName().toString(), username, pipeline.getSegmentSize());
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+        try {
+            SegmentPipeline.Stats stats = pipeline.encrypt(inputVideo, store, key, header, segmentKey);
+            logger.info("Encrypted video: {} -> blob {} ({} segments, {} MB/s)", inputVideo.getFileName(), key,
+                stats.getSegments(), String.format("%.1f", stats.megabytesPerSecond()));
+            AuditTrail.shared().publish(
+                AuditEvent.success(username, AuditEvent.Operation.ENCRYPT, key, stats.getBytesIn(), start));
+            return stats;
+        } catch (Exception e) {
+            AuditTrail.shared().publish(AuditEvent.failure(username, AuditEvent.Operation.ENCRYPT, key, start, e));
+            throw e;
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    /**
+     * Decrypts the blob {@code key} to {@code outputVideo}, fetching sealed
+     * segments with ranged reads.
+     */
+    public static SegmentPipeline.Stats decryptVideo(BlobStore store, String key, Path outputVideo, String username,
+                                                     String password) throws Exception {
+        return decryptVideo(store, key, outputVideo, username, KeyStoreManager.loadAESKey(username, password));
+    }
+    
+    public static SegmentPipeline.Stats decryptVideo(BlobStore store, String key, Path outputVideo,
+                                                     SessionManager.Session session) throws Exception {
+        return decryptVideo(store, key, outputVideo, session.getUsername(), session.getAesKey());
+    }
+    
+    private static SegmentPipeline.Stats decryptVideo(BlobStore store, String key, Path outputVideo,
+                                                      String username, SecretKey aesKey) throws Exception {
+        long start = System.nanoTime();
+        try (BlobReader blob = store.open(key)) {
+            EncryptedFileHeader header = EncryptedFileHeader.read(blob);
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+            SegmentPipeline.Stats stats;
+            try {
+                stats = header.isFramed()
+                    ? decryptFramed(blob.channel(header.length()), outputVideo, header, segmentKey)
+                    : SegmentPipeline.defaults().withSegmentSize(header.getSegmentSize())
+                        .decrypt(blob, outputVideo, header, segmentKey);
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+            }
+            logger.info("Decrypted video: blob {} -> {}", key, outputVideo.getFileName());
+            AuditTrail.shared().publish(
+                AuditEvent.success(username, AuditEvent.Operation.DECRYPT, key, stats.getBytesOut(), start));
+            return stats;
+        } catch (Exception e) {
+            AuditTrail.shared().publish(AuditEvent.failure(username, AuditEvent.Operation.DECRYPT, key, start, e));
+            throw e;
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    public static SegmentPipeline.Stats encryptStream(InputStream input, OutputStream output, String originalFilename,
+                                                      String username, String password, SegmentPipeline pipeline) 
+            throws Exception {
+        return encryptStream(input, output, originalFilename, username, loadOrCreateKey(username, password), pipeline);
+    }
+    
+    public static SegmentPipeline.Stats encryptStream(InputStream input, OutputStream output, String originalFilename,
+                                                      SessionManager.Session session, SegmentPipeline pipeline) 
+            throws Exception {
+        return encryptStream(input, output, originalFilename, session.getUsername(), session.getAesKey(), pipeline);
+    }
+    
+    private static SegmentPipeline.Stats encryptStream(InputStream input, OutputStream output, String originalFilename,
+                                                       String username, SecretKey aesKey, SegmentPipeline pipeline) 
+            throws Exception {
+        EncryptedFileHeader header = EncryptedFileHeader.create(originalFilename, username, pipeline.getSegmentSize());
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+        try {
+            return pipeline.encrypt(Channels.newChannel(input), Channels.newChannel(output), header, segmentKey);
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    public static SegmentPipeline.Stats decryptStream(InputStream input, OutputStream output, 
+                                                      String username, String password, SegmentPipeline pipeline) 
+            throws Exception {
+        return decryptStream(input, output, KeyStoreManager.loadAESKey(username, password), pipeline);
+    }
+    
+    public static SegmentPipeline.Stats decryptStream(InputStream input, OutputStream output, 
+                                                      SessionManager.Session session, SegmentPipeline pipeline) 
+            throws Exception {
+        return decryptStream(input, output, session.getAesKey(), pipeline);
+    }
+    
+    private static SegmentPipeline.Stats decryptStream(InputStream input, OutputStream output, SecretKey aesKey,
+                                                       SegmentPipeline pipeline) throws Exception {
+        ReadableByteChannel in = Channels.newChannel(input);
+        EncryptedFileHeader header = EncryptedFileHeader.read(in);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+        try {
+            if (header.isFramed()) {
+                return LiveStreamEncryptor.decrypt(in, Channels.newChannel(output), header, segmentKey);
+            }
+            return pipeline.withSegmentSize(header.getSegmentSize())
+                .decrypt(in, Channels.newChannel(output), header, segmentKey);
+        } finally {
+            SymmetricEncryption.wipe(segmentKey);
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    /**
+     * Starts encrypting a live stream for {@code username}. Subscribe the
+     * consumer of sealed segments first, then subscribe the encryptor to the
+     * producer's publisher.
+     */
+    public static LiveStreamEncryptor openLiveStream(String streamName, String username, String password)
+            throws Exception {
+
+        SecretKey aesKey = loadOrCreateKey(username, password);
+        try {
+            EncryptedFileHeader header = EncryptedFileHeader.create(streamName, username,
+                LiveStreamEncryptor.SEGMENT_SIZE, EncryptedFileHeader.FLAG_FRAMED);
+            return new LiveStreamEncryptor(header, KeyDerivation.deriveSegmentKey(aesKey, header.getSalt()));
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+
+    /**
+     * Encrypts a large file on the workers connected to {@code coordinator}.
+     * The output is the same v2 file {@link #encryptVideo} would write.
+     */
+    public static SegmentPipeline.Stats encryptSharded(Path inputVideo, Path outputFile, String username,
+                                                       String password, ShardCoordinator coordinator)
+            throws Exception {
+        long start = System.nanoTime();
+        String audited = outputFile.getFileName().toString();
+        SecretKey aesKey = loadOrCreateKey(username, password);
+        SegmentPipeline.Stats stats;
+        try {
+            Path parent = outputFile.getParent();
+            if (parent != null && !Files.exists(parent)) {
+                Files.createDirectories(parent);
+            }
+            stats = coordinator.encrypt(inputVideo, outputFile, username, aesKey);
+            AuditTrail.shared().publish(
+                AuditEvent.success(username, AuditEvent.Operation.ENCRYPT, audited, stats.getBytesIn(), start));
+        } catch (Exception e) {
+            AuditTrail.shared().publish(
+                AuditEvent.failure(username, AuditEvent.Operation.ENCRYPT, audited, start, e));
+            throw e;
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+
+        Optional<LibraryCatalog> catalog = LibraryCatalog.ifPresent(outputFile.toAbsolutePath().getParent());
+        if (catalog.isPresent()) {
+            catalog.get().record(outputFile);
+        }
+        return stats;
+    }
+
+    /**
+     * Encrypts {@code videos} into the archive at {@code archiveFile},
+     * creating it or appending to it.
+     */
+    public static List<VideoArchive.Member> packArchive(List<Path> videos, Path archiveFile, String username,
+                                                        String password) throws Exception {
+        SecretKey aesKey = loadOrCreateKey(username, password);
+        try (VideoArchive archive = VideoArchive.open(archiveFile)) {
+            return archive.pack(videos, username, aesKey);
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    public static void extractFromArchive(Path archiveFile, String memberName, Path outputVideo,
+                                          String username, String password) throws Exception {
+        SecretKey aesKey = KeyStoreManager.loadAESKey(username, password);
+        try (VideoArchive archive = VideoArchive.open(archiveFile)) {
+            archive.extract(memberName, outputVideo, aesKey);
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+    
+    /**
+     * Opens a random-access reader whose decrypted segments are shared through
+     * {@link SegmentCache#shared()}, for seeking and range requests.
+     */
+    public static EncryptedVideoReader openReader(Path inputFile, String username, String password)
+            throws Exception {
+
+        SecretKey aesKey = KeyStoreManager.loadAESKey(username, password);
+        try {
+            return EncryptedVideoReader.open(inputFile, aesKey, SegmentCache.shared());
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+
+    /**
+     * Like {@link #openReader(Path, String, String)} for a blob; each segment
+     * is fetched with a ranged read when first needed.
+     */
+    public static EncryptedVideoReader openReader(BlobStore store, String key, String username, String password)
+            throws Exception {
+
+        SecretKey aesKey = KeyStoreManager.loadAESKey(username, password);
+        try {
+            return EncryptedVideoReader.open(store, key, aesKey, SegmentCache.shared());
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+
+    /**
+     * Packages HLS renditions under a fresh content key. The key is stored
+     * next to the output as {@code <outputDir>.key.encrypted}, sealed to the
+     * user like any other file, for handing to the key server behind {@code keyUri}.
+     */
+    public static HlsPackager.Result packageRenditions(Path inputDir, Path outputDir, String username,
+                                                       String password, String keyUri)
+            throws Exception {
+
+        SecretKey aesKey = loadOrCreateKey(username, password);
+        byte[] keyBytes = RandomSource.nextBytes(CryptoConstants.HLS_KEY_SIZE);
+        byte[] salt = RandomSource.nextBytes(EncryptedFileHeader.SALT_SIZE);
+        SecretKey contentKey = HlsPackager.createContentKey(keyBytes);
+        try {
+            HlsPackager.Result result = HlsPackager.defaults().pack(inputDir, outputDir, contentKey, salt, keyUri);
+
+            Path keyFile = outputDir.resolveSibling(outputDir.getFileName() + ".key.encrypted");
+            EncryptedFileHeader header = EncryptedFileHeader.create(
+                "content.key", username, CryptoConstants.MIN_SEGMENT_SIZE);
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(aesKey, header.getSalt());
+            Path keyTemp = OutputCommitter.tempPath(keyFile);
+            boolean committed = false;
+            try {
+                try (OutputStream out = Files.newOutputStream(keyTemp, StandardOpenOption.CREATE_NEW)) {
+                    SegmentPipeline.defaults().withSegmentSize(header.getSegmentSize()).encrypt(
+                        Channels.newChannel(new ByteArrayInputStream(keyBytes)), Channels.newChannel(out),
+                        header, segmentKey);
+                }
+                OutputCommitter.shared().commit(keyTemp, keyFile);
+                committed = true;
+            } finally {
+                SymmetricEncryption.wipe(segmentKey);
+                if (!committed) {
+                    Files.deleteIfExists(keyTemp);
+                }
+            }
+            return result;
+        } finally {
+            Arrays.fill(keyBytes, (byte) 0);
+            SymmetricEncryption.wipe(contentKey);
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+
+    /**
+     * Follows an output's segments as they are sealed: the tag chain the
+     * library catalog uses as integrity root and, if asked for, the
+     * manifest. A resumed encryption replays from segment 0, which starts over.
+     */
+    private static final class SealedOutput implements ResumableEncryption.SegmentListener {
+        private final boolean manifest;
+        private final MessageDigest sha256 = CheckpointJournal.newChainDigest();
+        private byte[] chain;
+        private SegmentManifest.Builder builder;
         
-        EncryptedVideoFile(byte[] ciphertext, byte[] iv, String originalFilename) {
-            this.ciphertext = ciphertext;
-            this.iv = iv;
-            this.originalFilename = originalFilename;
+        SealedOutput(boolean manifest) {
+            this.manifest = manifest;
         }
         
-        byte[] serialize() {
-            int filenameLength = originalFilename.getBytes().length;
-            int totalLength = 4 + filenameLength + 4 + iv.length + 4 + ciphertext.length;
-            byte[] serialized = new byte[totalLength];
-            int offset = 0;
-            
-            putInt(serialized, offset, filenameLength);
-            offset += 4;
-            System.arraycopy(originalFilename.getBytes(), 0, serialized, offset, filenameLength);
-            offset += filenameLength;
-            
-            putInt(serialized, offset, iv.length);
-            offset += 4;
-            System.arraycopy(iv, 0, serialized, offset, iv.length);
-            offset += iv.length;
-            
-            putInt(serialized, offset, ciphertext.length);
-            offset += 4;
-            System.arraycopy(ciphertext, 0, serialized, offset, ciphertext.length);
-            
-            return serialized;
+        @Override
+        public void segment(EncryptedFileHeader header, long index, ByteBuffer sealed) {
+            if (index == 0) {
+                chain = CheckpointJournal.emptyChain();
+                builder = manifest ? new SegmentManifest.Builder(header) : null;
+            }
+            CheckpointJournal.extendChain(sha256, chain, sealed);
+            if (builder != null) {
+                builder.add(sealed);
+            }
         }
         
-        static EncryptedVideoFile deserialize(byte[] data) {
-            int offset = 0;
-            
-            int filenameLength = getInt(data, offset);
-            offset += 4;
-            String filename = new String(data, offset, filenameLength);
-            offset += filenameLength;
-            
-            int ivLength = getInt(data, offset);
-            offset += 4;
-            byte[] iv = new byte[ivLength];
-            System.arraycopy(data, offset, iv, 0, ivLength);
-            offset += ivLength;
-            
-            int ciphertextLength = getInt(data, offset);
-            offset += 4;
-            byte[] ciphertext = new byte[ciphertextLength];
-            System.arraycopy(data, offset, ciphertext, 0, ciphertextLength);
-            
-            return new EncryptedVideoFile(ciphertext, iv, filename);
+        byte[] integrityRoot() {
+            return chain;
         }
         
-        private static void putInt(byte[] array, int offset, int value) {
-            array[offset] = (byte) (value >>> 24);
-            array[offset + 1] = (byte) (value >>> 16);
-            array[offset + 2] = (byte) (value >>> 8);
-            array[offset + 3] = (byte) value;
+        SegmentManifest manifest() {
+            return builder.build();
+        }
+    }
+    
+    private static SecretKey loadOrCreateKey(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        return KeyStoreManager.loadOrCreateAESKey(username, password);
+    }
+    
+    static EncryptedFileHeader readHeader(Path inputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(inputFile, StandardOpenOption.READ)) {
+            if (!EncryptedFileHeader.isSegmented(channel)) {
+                return null;
+            }
+            return EncryptedFileHeader.read(channel, 0);
         }
+    }
+    
+    private static SegmentPipeline.Stats decryptFramed(ReadableByteChannel in, Path outputVideo,
+                                                       EncryptedFileHeader header, SecretKey segmentKey)
+            throws Exception {
+        Path temp = OutputCommitter.tempPath(outputVideo);
+        boolean success = false;
+        try {
+            SegmentPipeline.Stats stats;
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                stats = LiveStreamEncryptor.decrypt(in, out, header, segmentKey);
+            }
+            OutputCommitter.shared().commit(temp, outputVideo);
+            success = true;
+            return stats;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+    
+    static void decryptLegacy(Path inputFile, Path outputVideo, SecretKey aesKey) 
+            throws Exception {
         
-        private static int getInt(byte[] array, int offset) {
-            return ((array[offset] & 0xFF) << 24) |
-                   ((array[offset + 1] & 0xFF) << 16) |
-                   ((array[offset + 2] & 0xFF) << 8) |
-                   (array[offset + 3] & 0xFF);
+        Path temp = OutputCommitter.tempPath(outputVideo);
+        boolean success = false;
+        try {
+            try (FileChannel in = FileChannel.open(inputFile, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE, StandardOpenOption.CREATE_NEW)) {
+                
+                int filenameLength = readInt(in);
+                in.position(in.position() + filenameLength);
+                byte[] iv = new byte[readInt(in)];
+                readFully(in, ByteBuffer.wrap(iv));
+                long remaining = readInt(in) & 0xFFFFFFFFL;
+                
+                // The legacy payload is one GCM message under one IV. JCE ciphers may
+                // hold back all plaintext until doFinal, so BC's GCM engine is used
+                // directly: it releases plaintext as it goes, and the output is only
+                // committed once the tag checks out.
+                GCMModeCipher cipher = GCMBlockCipher.newInstance(AESEngine.newInstance());
+                byte[] keyBytes = aesKey.getEncoded();
+                try {
+                    cipher.init(false, new AEADParameters(new KeyParameter(keyBytes), CryptoConstants.GCM_TAG_SIZE, iv));
+                } finally {
+                    Arrays.fill(keyBytes, (byte) 0);
+                }
+                
+                byte[] src = new byte[CryptoConstants.SEGMENT_SIZE];
+                byte[] dst = new byte[cipher.getUpdateOutputSize(src.length) + CryptoConstants.GCM_TAG_LENGTH];
+                try {
+                    while (remaining > 0) {
+                        int chunk = (int) Math.min(src.length, remaining);
+                        readFully(in, ByteBuffer.wrap(src, 0, chunk));
+                        remaining -= chunk;
+                        int produced = cipher.processBytes(src, 0, chunk, dst, 0);
+                        writeFully(out, ByteBuffer.wrap(dst, 0, produced));
+                    }
+                    int produced = cipher.doFinal(dst, 0);
+                    writeFully(out, ByteBuffer.wrap(dst, 0, produced));
+                } catch (InvalidCipherTextException e) {
+                    throw new AEADBadTagException("Legacy file failed authentication: " + e.getMessage());
+                } finally {
+                    Arrays.fill(dst, (byte) 0);
+                }
+            }
+            OutputCommitter.shared().commit(temp, outputVideo);
+            success = true;
+        } finally {
+            if (!success) {
+                Files.deleteIfExists(temp);
+            }
+        }
+        logger.info("Decrypted legacy video: {} -> {}", inputFile.getFileName(), outputVideo.getFileName());
+    }
+    
+    private static int readInt(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4);
+        readFully(channel, buffer);
+        int value = buffer.getInt(0);
+        if (value < 0) {
+            throw new IOException("Corrupt legacy encrypted file");
+        }
+        return value;
+    }
+    
+    private static void readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Truncated encrypted file");
+            }
+        }
+    }
+    
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
         }
     }
 }
-
@@ -0,0 +1,479 @@
+package com.pqc.videoencryption.loadtest;
+
+import com.pqc.videoencryption.audit.AuditTrail;
+import com.pqc.videoencryption.crypto.EncryptedVideoReader;
+import com.pqc.videoencryption.crypto.SegmentCache;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import com.pqc.videoencryption.crypto.VideoEncryptionService;
+import com.pqc.videoencryption.storage.KeyStoreManager;
+import com.pqc.videoencryption.storage.SessionManager;
+import com.pqc.videoencryption.storage.UserRepository;
+import org.mindrot.jbcrypt.BCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.random.RandomGenerator;
+import java.util.stream.Stream;
+
+/**
+ * Local load and soak harness ({@code --loadtest}). It writes synthetic
+ * videos drawn from a size distribution, registers synthetic users through
+ * {@link UserRepository} and {@link KeyStoreManager}, then runs a weighted
+ * mix of login, encrypt, decrypt and random-range-read operations from
+ * concurrent clients for a fixed time. The report gives per-operation
+ * throughput and p50/p99/p999 latency, plus heap and GC figures.
+ *
+ * <p>For the length of a run the user repository, key vault and audit
+ * trail are moved into the harness work directory, so the synthetic
+ * accounts, which share a known password, and their events never reach
+ * the real stores; {@link #cleanUp} deletes them and moves the stores back.
+ */
+public final class LoadHarness {
+
+    private static final Logger logger = LoggerFactory.getLogger(LoadHarness.class);
+
+    private static final String PASSWORD = "load-test-password";
+    private static final int RANGE_READ_BYTES = 256 * 1024;
+
+    public enum Operation { LOGIN, ENCRYPT, DECRYPT, RANGE_READ }
+
+    private final Config config;
+    private final SessionManager sessions;
+    private final Map<Operation, LatencyHistogram> histograms = new EnumMap<>(Operation.class);
+    private final List<Path> videos = new ArrayList<>();
+    private final List<SessionManager.Session> userSessions = new ArrayList<>();
+    private final List<Path> encrypted = new ArrayList<>();
+    private final AtomicInteger clientCounter = new AtomicInteger();
+    private Path previousUsers;
+    private Path previousVault;
+    private Path previousAudit;
+
+    public LoadHarness(Config config) {
+        this.config = config;
+        this.sessions = new SessionManager(Duration.ofHours(24));
+        for (Operation operation : Operation.values()) {
+            histograms.put(operation, new LatencyHistogram());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Config config = Config.parse(args);
+        LoadHarness harness = new LoadHarness(config);
+        try {
+            harness.run(System.out);
+        } finally {
+            harness.cleanUp();
+        }
+    }
+
+    public Map<Operation, LatencyHistogram> getHistograms() {
+        return histograms;
+    }
+
+    /**
+     * Prepares videos and users, drives the workload and prints the report.
+     */
+    public void run(PrintStream report) throws Exception {
+        Files.createDirectories(config.workDir);
+        previousUsers = UserRepository.relocate(usersFile());
+        previousVault = KeyStoreManager.relocate(vaultFile());
+        previousAudit = AuditTrail.shared().relocate(auditDirectory());
+        String runId = Long.toHexString(System.currentTimeMillis());
+        ExecutorService pool = Executors.newFixedThreadPool(config.clients, runnable -> {
+            Thread thread = new Thread(runnable, "pqve-load-" + clientCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            long setupStart = System.nanoTime();
+            generateVideos(pool);
+            createUsers(pool, "load-" + runId + "-");
+            report.printf(Locale.ROOT, "Setup: %d videos, %d users in %.1f s%n", videos.size(), userSessions.size(),
+                (System.nanoTime() - setupStart) / 1e9);
+
+            Runtime.getRuntime().gc();
+            GcSnapshot before = GcSnapshot.take();
+            for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+                memoryPool.resetPeakUsage();
+            }
+            long start = System.nanoTime();
+            long deadline = start + config.duration.toNanos();
+            List<Future<?>> clients = new ArrayList<>();
+            for (int i = 0; i < config.clients; i++) {
+                Path scratch = config.workDir.resolve("client-" + i);
+                clients.add(pool.submit(() -> {
+                    drive(scratch, deadline);
+                    return null;
+                }));
+            }
+            for (Future<?> client : clients) {
+                client.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            printReport(report, elapsed, before, GcSnapshot.take());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * Revokes the harness sessions, deletes the synthetic users and moves
+     * the stores back, then deletes the synthetic files unless they are kept.
+     */
+    public void cleanUp() throws IOException {
+        sessions.close();
+        if (previousUsers != null) {
+            UserRepository.relocate(previousUsers);
+            previousUsers = null;
+        }
+        if (previousVault != null) {
+            KeyStoreManager.relocate(previousVault);
+            previousVault = null;
+        }
+        if (previousAudit != null) {
+            AuditTrail.shared().relocate(previousAudit);
+            previousAudit = null;
+        }
+        deleteTree(usersFile().getParent());
+        deleteTree(vaultFile().getParent());
+        deleteTree(auditDirectory());
+        if (!config.keepFiles) {
+            deleteTree(config.workDir);
+        }
+    }
+
+    Path usersFile() {
+        return config.workDir.resolve("data").resolve("users.txt");
+    }
+
+    Path vaultFile() {
+        return config.workDir.resolve("keys").resolve("vault.pqkv");
+    }
+
+    Path auditDirectory() {
+        return config.workDir.resolve("audit");
+    }
+
+    private static void deleteTree(Path root) throws IOException {
+        if (!Files.exists(root)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : paths.sorted((a, b) -> b.getNameCount() - a.getNameCount()).toArray(Path[]::new)) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+
+    private void generateVideos(ExecutorService pool) throws Exception {
+        Path dir = Files.createDirectories(config.workDir.resolve("videos"));
+        List<Future<Path>> writes = new ArrayList<>();
+        SplittableRandom random = new SplittableRandom(config.seed);
+        for (int i = 0; i < config.videos; i++) {
+            long size = config.sizes.pick(random);
+            Path file = dir.resolve("synthetic-" + i + ".mp4");
+            long seed = random.nextLong();
+            writes.add(pool.submit(() -> writeSynthetic(file, size, seed)));
+        }
+        for (Path video : await(writes)) {
+            videos.add(video);
+        }
+    }
+
+    private static Path writeSynthetic(Path file, long size, long seed) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed);
+        byte[] block = new byte[1 << 20];
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (long written = 0; written < size; written += block.length) {
+                for (int i = 0; i < block.length; i += 8) {
+                    long value = random.nextLong();
+                    for (int b = 0; b < 8; b++) {
+                        block[i + b] = (byte) (value >>> (8 * b));
+                    }
+                }
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Registers the users in one group-committed batch (one bcrypt hash for
+     * all, since they share a password), creates their keys, logs each one
+     * in and encrypts one video per user as the corpus for decrypt and
+     * range-read operations.
+     */
+    private void createUsers(ExecutorService pool, String prefix) throws Exception {
+        UserRepository.initialize();
+        String hash = BCrypt.hashpw(PASSWORD, BCrypt.gensalt(12));
+        List<UserRepository.UserRecord> records = new ArrayList<>();
+        for (int i = 0; i < config.users; i++) {
+            records.add(new UserRepository.UserRecord(prefix + i, hash, "", "", ""));
+        }
+        UserRepository.importUsers(records);
+
+        Path corpus = Files.createDirectories(config.workDir.resolve("encrypted"));
+        List<Future<Object[]>> setups = new ArrayList<>();
+        for (int i = 0; i < config.users; i++) {
+            String username = prefix + i;
+            Path video = videos.get(i % videos.size());
+            Path output = corpus.resolve(username + ".pqve");
+            setups.add(pool.submit(() -> {
+                KeyStoreManager.createKeys(username, PASSWORD);
+                SessionManager.Session session = sessions.login(username, PASSWORD)
+                    .orElseThrow(() -> new IllegalStateException("Login failed for " + username));
+                VideoEncryptionService.encryptVideo(video, output, session);
+                return new Object[] {session, output};
+            }));
+        }
+        for (Object[] setup : await(setups)) {
+            userSessions.add((SessionManager.Session) setup[0]);
+            encrypted.add((Path) setup[1]);
+        }
+    }
+
+    private void drive(Path scratch, long deadline) throws IOException {
+        Files.createDirectories(scratch);
+        Path encryptOutput = scratch.resolve("out.pqve");
+        Path decryptOutput = scratch.resolve("out.mp4");
+        ByteBuffer rangeBuffer = ByteBuffer.allocate(RANGE_READ_BYTES);
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        while (System.nanoTime() < deadline) {
+            int user = random.nextInt(userSessions.size());
+            SessionManager.Session session = userSessions.get(user);
+            Operation operation = config.mix.pick(random);
+            LatencyHistogram histogram = histograms.get(operation);
+            long start = System.nanoTime();
+            try {
+                long bytes;
+                switch (operation) {
+                    case LOGIN:
+                        SessionManager.Session login = sessions.login(session.getUsername(), PASSWORD)
+                            .orElseThrow(() -> new IllegalStateException("Login failed"));
+                        sessions.revoke(login.getToken());
+                        bytes = 0;
+                        break;
+                    case ENCRYPT:
+                        Path video = videos.get(random.nextInt(videos.size()));
+                        VideoEncryptionService.encryptVideo(video, encryptOutput, session);
+                        bytes = Files.size(video);
+                        break;
+                    case DECRYPT:
+                        VideoEncryptionService.decryptVideo(encrypted.get(user), decryptOutput, session);
+                        bytes = Files.size(decryptOutput);
+                        break;
+                    default:
+                        bytes = readRange(encrypted.get(user), session, rangeBuffer, random);
+                        break;
+                }
+                histogram.record(System.nanoTime() - start, bytes);
+            } catch (Exception e) {
+                histogram.recordError();
+                logger.debug("{} failed: {}", operation, e.toString());
+            }
+        }
+    }
+
+    private static long readRange(Path file, SessionManager.Session session, ByteBuffer buffer,
+                                  ThreadLocalRandom random) throws Exception {
+        SecretKey aesKey = session.getAesKey();
+        EncryptedVideoReader reader;
+        try {
+            reader = EncryptedVideoReader.open(file, aesKey, SegmentCache.shared());
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+        try (reader) {
+            long position = reader.size() > buffer.capacity()
+                ? random.nextLong(reader.size() - buffer.capacity()) : 0;
+            buffer.clear();
+            long read = 0;
+            int n;
+            while (buffer.hasRemaining() && (n = reader.read(position + read, buffer)) > 0) {
+                read += n;
+            }
+            return read;
+        }
+    }
+
+    private void printReport(PrintStream out, long elapsedNanos, GcSnapshot before, GcSnapshot after) {
+        double seconds = elapsedNanos / 1e9;
+        out.printf(Locale.ROOT, "%nRan %d clients against %d users for %.1f s%n", config.clients, config.users, seconds);
+        out.printf(Locale.ROOT, "%-11s %9s %7s %9s %9s %10s %10s %10s %10s%n",
+            "operation", "count", "errors", "ops/s", "MB/s", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Map.Entry<Operation, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram h = entry.getValue();
+            out.printf(Locale.ROOT, "%-11s %9d %7d %9.1f %9.1f %10.2f %10.2f %10.2f %10.2f%n",
+                entry.getKey().name().toLowerCase(Locale.ROOT), h.getCount(), h.getErrors(),
+                h.getCount() / seconds, h.getBytes() / 1048576.0 / seconds,
+                h.percentileNanos(50) / 1e6, h.percentileNanos(99) / 1e6, h.percentileNanos(99.9) / 1e6,
+                h.getMaxNanos() / 1e6);
+        }
+
+        long peakHeap = 0;
+        for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (memoryPool.getType() == MemoryType.HEAP && memoryPool.getPeakUsage() != null) {
+                peakHeap += memoryPool.getPeakUsage().getUsed();
+            }
+        }
+        Runtime runtime = Runtime.getRuntime();
+        out.printf(Locale.ROOT, "%nHeap: used %.1f MB, peak %.1f MB, committed %.1f MB, max %.1f MB%n",
+            (runtime.totalMemory() - runtime.freeMemory()) / 1048576.0, peakHeap / 1048576.0,
+            runtime.totalMemory() / 1048576.0, runtime.maxMemory() / 1048576.0);
+        for (Map.Entry<String, long[]> entry : after.collectors.entrySet()) {
+            long[] start = before.collectors.getOrDefault(entry.getKey(), new long[2]);
+            long collections = entry.getValue()[0] - start[0];
+            long millis = entry.getValue()[1] - start[1];
+            out.printf(Locale.ROOT, "GC %-24s %6d collections, %7d ms (%.2f%% of run)%n", entry.getKey(),
+                collections, millis, 100.0 * millis / (elapsedNanos / 1e6));
+        }
+    }
+
+    private static <T> List<T> await(List<Future<T>> futures) throws Exception {
+        List<T> results = new ArrayList<>(futures.size());
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof Exception) {
+                    throw (Exception) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return results;
+    }
+
+    private static final class GcSnapshot {
+        final Map<String, long[]> collectors = new LinkedHashMap<>();
+
+        static GcSnapshot take() {
+            GcSnapshot snapshot = new GcSnapshot();
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                snapshot.collectors.put(gc.getName(), new long[] {gc.getCollectionCount(), gc.getCollectionTime()});
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * Harness settings, from {@code --name=value} arguments.
+     */
+    public static final class Config {
+        int users = 16;
+        int clients = 8;
+        int videos = 8;
+        Duration duration = Duration.ofSeconds(60);
+        Weighted<Long> sizes = Weighted.parse("4m:60,32m:30,256m:10", Config::parseSize);
+        Weighted<Operation> mix = Weighted.parse("login:5,encrypt:20,decrypt:25,range_read:50",
+            name -> Operation.valueOf(name.toUpperCase(Locale.ROOT)));
+        Path workDir = Paths.get("loadtest-work");
+        long seed = 42;
+        boolean keepFiles;
+
+        public static Config parse(String... args) {
+            Config config = new Config();
+            for (String arg : args) {
+                int equals = arg.indexOf('=');
+                if (!arg.startsWith("--") || equals < 0) {
+                    throw new IllegalArgumentException("Expected --name=value, got " + arg);
+                }
+                String name = arg.substring(2, equals);
+                String value = arg.substring(equals + 1);
+                switch (name) {
+                    case "users": config.users = Integer.parseInt(value); break;
+                    case "clients": config.clients = Integer.parseInt(value); break;
+                    case "videos": config.videos = Integer.parseInt(value); break;
+                    case "duration": config.duration = Duration.ofSeconds(Long.parseLong(value)); break;
+                    case "sizes": config.sizes = Weighted.parse(value, Config::parseSize); break;
+                    case "mix": config.mix = Weighted.parse(value,
+                        operation -> Operation.valueOf(operation.toUpperCase(Locale.ROOT))); break;
+                    case "dir": config.workDir = Paths.get(value); break;
+                    case "seed": config.seed = Long.parseLong(value); break;
+                    case "keep": config.keepFiles = Boolean.parseBoolean(value); break;
+                    default: throw new IllegalArgumentException("Unknown option --" + name);
+                }
+            }
+            if (config.users < 1 || config.clients < 1 || config.videos < 1) {
+                throw new IllegalArgumentException("users, clients and videos must be positive");
+            }
+            return config;
+        }
+
+        /**
+         * Parses sizes such as {@code 512k}, {@code 4m} or {@code 1g}.
+         */
+        static long parseSize(String value) {
+            String lower = value.toLowerCase(Locale.ROOT);
+            char unit = lower.charAt(lower.length() - 1);
+            long multiplier = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20 : unit == 'g' ? 1L << 30 : 1;
+            String digits = multiplier == 1 ? lower : lower.substring(0, lower.length() - 1);
+            return Long.parseLong(digits) * multiplier;
+        }
+    }
+
+    /**
+     * Weighted choice over values, parsed from {@code value:weight,...}.
+     */
+    static final class Weighted<T> {
+        private final List<T> values = new ArrayList<>();
+        private final List<Integer> cumulative = new ArrayList<>();
+        private int total;
+
+        static <T> Weighted<T> parse(String spec, Function<String, T> parser) {
+            Weighted<T> weighted = new Weighted<>();
+            for (String part : spec.split(",")) {
+                int colon = part.lastIndexOf(':');
+                int weight = colon < 0 ? 1 : Integer.parseInt(part.substring(colon + 1).trim());
+                if (weight < 0) {
+                    throw new IllegalArgumentException("Negative weight in " + spec);
+                }
+                weighted.total += weight;
+                weighted.values.add(parser.apply((colon < 0 ? part : part.substring(0, colon)).trim()));
+                weighted.cumulative.add(weighted.total);
+            }
+            if (weighted.total == 0) {
+                throw new IllegalArgumentException("No positive weight in " + spec);
+            }
+            return weighted;
+        }
+
+        T pick(RandomGenerator random) {
+            int ticket = random.nextInt(total);
+            for (int i = 0; i < values.size(); i++) {
+                if (ticket < cumulative.get(i)) {
+                    return values.get(i);
+                }
+            }
+            throw new IllegalStateException("Ticket out of range");
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.pqc.videoencryption.server;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admits requests against a global and a per-user concurrency limit. Waiting
+ * requests queue fairly and give up after the configured timeout.
+ *
+ * <p>A user's slots and rate limiter are kept only while the user has a
+ * request queued or running, and for one rate-limiter window after that:
+ * by then its bucket is full again, so dropping the state changes nothing
+ * and the table stays as small as the set of recently active users.
+ */
+public final class AdmissionController {
+
+    private static final long IDLE_EVICTION_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final ServerConfig config;
+    private final Semaphore global;
+    private final ConcurrentHashMap<String, UserState> users = new ConcurrentHashMap<>();
+    private final RateLimiter globalRate;
+    private final long idleEvictionNanos;
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+
+    public AdmissionController(ServerConfig config) {
+        this(config, IDLE_EVICTION_NANOS);
+    }
+
+    AdmissionController(ServerConfig config, long idleEvictionNanos) {
+        this.config = config;
+        this.global = new Semaphore(config.getMaxConcurrentRequests(), true);
+        this.globalRate = new RateLimiter(config.getGlobalBytesPerSecond());
+        this.idleEvictionNanos = idleEvictionNanos;
+    }
+
+    /**
+     * @return the permit, or {@code null} if no slot freed up within the queue timeout
+     */
+    public Permit admit(String username) throws InterruptedException {
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(config.getQueueTimeoutMillis());
+        evictIdle(start);
+
+        UserState user = users.compute(username, (k, state) -> {
+            UserState entered = state != null ? state : new UserState();
+            entered.holders++;
+            return entered;
+        });
+        boolean admitted = false;
+        try {
+            if (!user.permits.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return null;
+            }
+            if (!global.tryAcquire(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                user.permits.release();
+                return null;
+            }
+            admitted = true;
+            return new Permit(username, user, System.nanoTime() - start);
+        } finally {
+            if (!admitted) {
+                leave(username);
+            }
+        }
+    }
+
+    public int getActiveRequests() {
+        return config.getMaxConcurrentRequests() - global.availablePermits();
+    }
+
+    public int getQueuedRequests() {
+        return global.getQueueLength();
+    }
+
+    /**
+     * Users whose admission state is currently held.
+     */
+    int getTrackedUsers() {
+        return users.size();
+    }
+
+    private void leave(String username) {
+        users.computeIfPresent(username, (k, state) -> {
+            state.holders--;
+            state.lastUsed = System.nanoTime();
+            return state;
+        });
+    }
+
+    private void evictIdle(long now) {
+        long last = lastSweep.get();
+        if (now - last < idleEvictionNanos || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (String username : users.keySet()) {
+            users.computeIfPresent(username, (k, state) ->
+                state.holders == 0 && now - state.lastUsed >= idleEvictionNanos ? null : state);
+        }
+    }
+
+    /**
+     * Guarded by the map: {@code holders} and {@code lastUsed} only change
+     * inside {@code compute} calls on the user's entry.
+     */
+    private final class UserState {
+        final Semaphore permits = new Semaphore(config.getMaxConcurrentPerUser(), true);
+        final RateLimiter rate = new RateLimiter(config.getUserBytesPerSecond());
+        int holders;
+        long lastUsed = System.nanoTime();
+    }
+
+    public final class Permit implements AutoCloseable {
+        private final String username;
+        private final UserState user;
+        private final long waitNanos;
+        private boolean released;
+
+        private Permit(String username, UserState user, long waitNanos) {
+            this.username = username;
+            this.user = user;
+            this.waitNanos = waitNanos;
+        }
+
+        public void charge(long bytes) throws InterruptedIOException {
+            user.rate.acquire(bytes);
+            globalRate.acquire(bytes);
+        }
+
+        public long getWaitNanos() {
+            return waitNanos;
+        }
+
+        @Override
+        public synchronized void close() {
+            if (!released) {
+                released = true;
+                global.release();
+                user.permits.release();
+                leave(username);
+            }
+        }
+    }
+}
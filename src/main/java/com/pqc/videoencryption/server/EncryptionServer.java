@@ -0,0 +1,385 @@
+package com.pqc.videoencryption.server;
+
+import com.pqc.videoencryption.audit.AuditEvent;
+import com.pqc.videoencryption.audit.AuditTrail;
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.SegmentPipeline;
+import com.pqc.videoencryption.crypto.VideoEncryptionService;
+import com.pqc.videoencryption.storage.SessionManager;
+import com.pqc.videoencryption.storage.UserRepository;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running local HTTP service exposing streaming encryption for many users.
+ *
+ * <pre>
+ * POST   /encrypt?name=clip.mp4   body: plaintext   -> encrypted v2 file
+ * POST   /decrypt                 body: v2 file     -> plaintext
+ * POST   /session                                   -> session token
+ * DELETE /session                                   -> revokes the bearer token
+ * GET    /status                                    -> counters
+ * </pre>
+ *
+ * Requests authenticate with a bearer token from {@code POST /session}, or
+ * with HTTP Basic credentials checked by {@link UserRepository#authenticate}
+ * on every request once it has been admitted, so password checks are
+ * bounded by the same limits as the work they guard. Once the response has
+ * started, a failure aborts the connection so clients never see a short body
+ * as complete.
+ */
+public final class EncryptionServer {
+
+    private static final Logger logger = LoggerFactory.getLogger(EncryptionServer.class);
+    private static final int STREAM_CHUNK = 64 * 1024;
+
+    private final ServerConfig config;
+    private final AdmissionController admission;
+    private final SessionManager sessions = SessionManager.shared();
+    private final SegmentPipeline pipeline;
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    private final AtomicLong requestsCompleted = new AtomicLong();
+    private final AtomicLong requestsRejected = new AtomicLong();
+    private HttpServer server;
+    private ExecutorService handlers;
+
+    public EncryptionServer(ServerConfig config) {
+        this.config = config;
+        this.admission = new AdmissionController(config);
+        int workers = config.getPipelineWorkers();
+        this.pipeline = new SegmentPipeline(CryptoConstants.SEGMENT_SIZE, workers, 2 * workers + 2);
+    }
+
+    public synchronized void start() throws IOException {
+        AtomicInteger threadCounter = new AtomicInteger();
+        handlers = Executors.newFixedThreadPool(config.getMaxConcurrentRequests() * 4, runnable -> {
+            Thread thread = new Thread(runnable, "pqve-http-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress(config.getBindAddress(), config.getPort()), 256);
+        server.setExecutor(handlers);
+        server.createContext("/encrypt", exchange -> handle(exchange, true));
+        server.createContext("/decrypt", exchange -> handle(exchange, false));
+        server.createContext("/session", this::session);
+        server.createContext("/status", this::status);
+        server.start();
+        logger.info("Encryption server listening on {}:{}", config.getBindAddress(), getPort());
+    }
+
+    public synchronized void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+            handlers.shutdown();
+            server = null;
+            logger.info("Encryption server stopped");
+        }
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange, boolean encrypt) throws IOException {
+        // Not try-with-resources: closing the exchange after a mid-stream failure
+        // would terminate the chunked body cleanly and hide the truncation.
+        boolean complete = false;
+        try {
+            serve(exchange, encrypt);
+            complete = true;
+        } finally {
+            if (complete) {
+                exchange.close();
+            }
+        }
+    }
+
+    private void serve(HttpExchange exchange, boolean encrypt) throws IOException {
+        if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "POST required");
+            return;
+        }
+        SessionManager.Session session = null;
+        String[] credentials = null;
+        String token = bearerToken(exchange);
+        if (token != null) {
+            session = sessions.validate(token).orElse(null);
+        } else {
+            credentials = basicCredentials(exchange);
+        }
+        if (session == null && credentials == null) {
+            sendUnauthorized(exchange);
+            return;
+        }
+        String username = session != null ? session.getUsername() : credentials[0];
+        AdmissionController.Permit permit = admit(exchange, username);
+        if (permit == null) {
+            return;
+        }
+        if (session == null && !authenticate(credentials, permit)) {
+            sendUnauthorized(exchange);
+            return;
+        }
+
+        AuditEvent.Operation operation = encrypt ? AuditEvent.Operation.ENCRYPT : AuditEvent.Operation.DECRYPT;
+        String audited = queryParameter(exchange, "name");
+        long start = System.nanoTime();
+        try (permit) {
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            InputStream body = new ThrottledInputStream(exchange.getRequestBody(), permit);
+            LazyResponseStream out = new LazyResponseStream(exchange);
+            SegmentPipeline.Stats stats;
+            if (encrypt && session != null) {
+                stats = VideoEncryptionService.encryptStream(body, out, audited, session, pipeline);
+            } else if (encrypt) {
+                stats = VideoEncryptionService.encryptStream(body, out,
+                    audited, username, credentials[1], pipeline);
+            } else if (session != null) {
+                stats = VideoEncryptionService.decryptStream(body, out, session, pipeline);
+            } else {
+                stats = VideoEncryptionService.decryptStream(body, out,
+                    username, credentials[1], pipeline);
+            }
+            out.finish();
+            bytesProcessed.addAndGet(stats.getBytesIn());
+            requestsCompleted.incrementAndGet();
+            logger.info("{} stream for {}: {} bytes in {} ms (queued {} ms, buffer budget {} ms)",
+                encrypt ? "Encrypted" : "Decrypted", username, stats.getBytesIn(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+                TimeUnit.NANOSECONDS.toMillis(permit.getWaitNanos()),
+                TimeUnit.NANOSECONDS.toMillis(stats.getAdmissionWaitNanos()));
+            AuditTrail.shared().publish(AuditEvent.success(username, operation, audited, stats.getBytesIn(), start));
+        } catch (Exception e) {
+            AuditTrail.shared().publish(AuditEvent.failure(username, operation, audited, start, e));
+            logger.warn("Request from {} failed: {}", username, e.toString());
+            if (exchange.getResponseCode() == -1) {
+                sendError(exchange, 400, "Request failed");
+                return;
+            }
+            throw new IOException("Aborting response after failure", e);
+        }
+    }
+
+    private void session(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if ("DELETE".equals(exchange.getRequestMethod())) {
+                String token = bearerToken(exchange);
+                if (token == null || !sessions.revoke(token)) {
+                    sendError(exchange, 404, "No such session");
+                    return;
+                }
+                exchange.sendResponseHeaders(204, -1);
+                return;
+            }
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "POST or DELETE required");
+                return;
+            }
+            String[] credentials = basicCredentials(exchange);
+            if (credentials == null) {
+                sendUnauthorized(exchange);
+                return;
+            }
+            AdmissionController.Permit permit = admit(exchange, credentials[0]);
+            if (permit == null) {
+                return;
+            }
+            Optional<SessionManager.Session> session;
+            try (permit) {
+                session = sessions.login(credentials[0], credentials[1]);
+            } catch (GeneralSecurityException e) {
+                logger.warn("Opening session for {} failed: {}", credentials[0], e.toString());
+                session = Optional.empty();
+            }
+            if (session.isEmpty()) {
+                sendUnauthorized(exchange);
+                return;
+            }
+            byte[] bytes = (session.get().getToken() + "\n").getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    private void status(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String body = String.format(
+                "active=%d%nqueued=%d%ncompleted=%d%nrejected=%d%nbytes=%d%n",
+                admission.getActiveRequests(), admission.getQueuedRequests(),
+                requestsCompleted.get(), requestsRejected.get(), bytesProcessed.get());
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain");
+            exchange.sendResponseHeaders(200, bytes.length);
+            exchange.getResponseBody().write(bytes);
+        }
+    }
+
+    /**
+     * Queues for a slot, answering 429 itself when none frees up in time.
+     */
+    private AdmissionController.Permit admit(HttpExchange exchange, String username) throws IOException {
+        AdmissionController.Permit permit;
+        try {
+            permit = admission.admit(username);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while queued", e);
+        }
+        if (permit == null) {
+            requestsRejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "Too many concurrent requests");
+        }
+        return permit;
+    }
+
+    /**
+     * Checks Basic credentials, releasing {@code permit} if they are wrong.
+     */
+    private static boolean authenticate(String[] credentials, AdmissionController.Permit permit) throws IOException {
+        boolean valid = false;
+        try {
+            valid = UserRepository.authenticate(credentials[0], credentials[1]);
+            return valid;
+        } finally {
+            if (!valid) {
+                permit.close();
+            }
+        }
+    }
+
+    private static void sendUnauthorized(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("WWW-Authenticate", "Basic realm=\"pqve\"");
+        sendError(exchange, 401, "Authentication required");
+    }
+
+    private static String bearerToken(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            return null;
+        }
+        return header.substring(7).trim();
+    }
+
+    private static String[] basicCredentials(HttpExchange exchange) {
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Basic ")) {
+            return null;
+        }
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(header.substring(6).trim()), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        int colon = decoded.indexOf(':');
+        if (colon <= 0) {
+            return null;
+        }
+        return new String[] {decoded.substring(0, colon), decoded.substring(colon + 1)};
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query != null) {
+            for (String pair : query.split("&")) {
+                int eq = pair.indexOf('=');
+                if (eq > 0 && pair.substring(0, eq).equals(name)) {
+                    return URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+                }
+            }
+        }
+        return "stream";
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] bytes = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static final class ThrottledInputStream extends FilterInputStream {
+        private final AdmissionController.Permit permit;
+
+        ThrottledInputStream(InputStream in, AdmissionController.Permit permit) {
+            super(in);
+            this.permit = permit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                permit.charge(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, Math.min(len, STREAM_CHUNK));
+            if (n > 0) {
+                permit.charge(n);
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Defers the 200 status until the first byte is produced, so failures that
+     * happen before any output (bad credentials for the key, corrupt header,
+     * first segment failing authentication) still get a proper error status.
+     */
+    private static final class LazyResponseStream extends OutputStream {
+        private final HttpExchange exchange;
+        private OutputStream out;
+
+        LazyResponseStream(HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        private OutputStream out() throws IOException {
+            if (out == null) {
+                exchange.sendResponseHeaders(200, 0);
+                out = exchange.getResponseBody();
+            }
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > 0) {
+                out().write(b, off, len);
+            }
+        }
+
+        void finish() throws IOException {
+            out().flush();
+        }
+    }
+}
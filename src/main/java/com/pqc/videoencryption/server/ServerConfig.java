@@ -0,0 +1,75 @@
+package com.pqc.videoencryption.server;
+
+public final class ServerConfig {
+
+    private final String bindAddress;
+    private final int port;
+    private final int maxConcurrentRequests;
+    private final int maxConcurrentPerUser;
+    private final long queueTimeoutMillis;
+    private final long globalBytesPerSecond;
+    private final long userBytesPerSecond;
+    private final int pipelineWorkers;
+
+    public ServerConfig(String bindAddress, int port, int maxConcurrentRequests, int maxConcurrentPerUser,
+                        long queueTimeoutMillis, long globalBytesPerSecond, long userBytesPerSecond,
+                        int pipelineWorkers) {
+        if (maxConcurrentRequests < 1 || maxConcurrentPerUser < 1 || pipelineWorkers < 1) {
+            throw new IllegalArgumentException("Concurrency limits must be positive");
+        }
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.maxConcurrentRequests = maxConcurrentRequests;
+        this.maxConcurrentPerUser = maxConcurrentPerUser;
+        this.queueTimeoutMillis = queueTimeoutMillis;
+        this.globalBytesPerSecond = globalBytesPerSecond;
+        this.userBytesPerSecond = userBytesPerSecond;
+        this.pipelineWorkers = pipelineWorkers;
+    }
+
+    public static ServerConfig fromSystemProperties() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return new ServerConfig(
+            System.getProperty("pqve.server.bind", "127.0.0.1"),
+            Integer.getInteger("pqve.server.port", 8480),
+            Integer.getInteger("pqve.server.maxConcurrent", Math.max(4, cores)),
+            Integer.getInteger("pqve.server.maxPerUser", 2),
+            Long.getLong("pqve.server.queueTimeoutMillis", 30_000L),
+            Long.getLong("pqve.server.globalBytesPerSecond", 0L),
+            Long.getLong("pqve.server.userBytesPerSecond", 0L),
+            Integer.getInteger("pqve.server.pipelineWorkers", 2)
+        );
+    }
+
+    public String getBindAddress() {
+        return bindAddress;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getMaxConcurrentRequests() {
+        return maxConcurrentRequests;
+    }
+
+    public int getMaxConcurrentPerUser() {
+        return maxConcurrentPerUser;
+    }
+
+    public long getQueueTimeoutMillis() {
+        return queueTimeoutMillis;
+    }
+
+    public long getGlobalBytesPerSecond() {
+        return globalBytesPerSecond;
+    }
+
+    public long getUserBytesPerSecond() {
+        return userBytesPerSecond;
+    }
+
+    public int getPipelineWorkers() {
+        return pipelineWorkers;
+    }
+}
@@ -1,7 +1,9 @@
 package com.pqc.videoencryption.storage;
 
 import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.ManifestSigner;
 import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import com.pqc.videoencryption.crypto.RandomSource;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -16,15 +18,164 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.security.*;
 import java.util.Arrays;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 public final class KeyStoreManager {
     
     private static final Logger logger = LoggerFactory.getLogger(KeyStoreManager.class);
+    private static final ConcurrentHashMap<String, Object> userLocks = new ConcurrentHashMap<>();
+    private static Path vaultPath = Paths.get("keys", "vault.pqkv");
+    private static KeyVault vault;
     
     private KeyStoreManager() {
         throw new AssertionError("Utility class");
     }
     
+    /**
+     * Returns the shared key vault, opening it on first use.
+     */
+    public static synchronized KeyVault vault() throws IOException {
+        if (vault == null) {
+            vault = KeyVault.open(vaultPath);
+        }
+        return vault;
+    }
+    
+    /**
+     * Moves the vault, and the legacy keystores beside it, to another file,
+     * closing the current vault. For tools that must not touch real keys.
+     *
+     * @return the previous vault location
+     */
+    public static synchronized Path relocate(Path vaultFile) throws IOException {
+        Path previous = vaultPath;
+        if (vault != null) {
+            vault.close();
+            vault = null;
+        }
+        vaultPath = vaultFile;
+        return previous;
+    }
+    
+    /**
+     * True if the user has keys, either in the vault or in a legacy keystore
+     * that has not been migrated yet.
+     */
+    public static boolean hasKeys(String username) throws IOException {
+        return vault().contains(username) || Files.exists(getKeystorePath(username));
+    }
+    
+    public static void createKeys(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        SecretKey aesKey = generateAESKey();
+        try {
+            vault().put(username, password.toCharArray(), aesKey, null);
+        } finally {
+            wipeKey(aesKey);
+        }
+        logger.info("Created vault entry for user: {}", username);
+    }
+    
+    public static SecretKey loadAESKey(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        return unlock(username, password).getAesKey();
+    }
+    
+    public static SecretKey loadOrCreateAESKey(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        // Two concurrent first uses must not each generate (and overwrite) a key.
+        synchronized (lockFor(username)) {
+            if (!hasKeys(username)) {
+                createKeys(username, password);
+            }
+        }
+        return loadAESKey(username, password);
+    }
+    
+    public static KeyPair loadOrGenerateKeyPair(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        // Two concurrent first uses must not each generate a pair and hand out different ones.
+        synchronized (lockFor(username)) {
+            KeyVault.Keys keys = unlock(username, password);
+            try {
+                if (keys.getKyberKeyPair().isPresent()) {
+                    logger.debug("Loaded existing Kyber key pair");
+                    return keys.getKyberKeyPair().get();
+                }
+                KeyPair keyPair = PostQuantumKeyExchange.generateKeyPair();
+                vault().put(username, password.toCharArray(), keys.getAesKey(), keyPair,
+                    keys.getSigningKeyPair().orElse(null));
+                logger.debug("Generated and stored new Kyber key pair");
+                return keyPair;
+            } finally {
+                wipeKey(keys.getAesKey());
+            }
+        }
+    }
+    
+    /**
+     * Returns the Dilithium pair the user signs manifests with, generating
+     * and storing it in the vault on first use.
+     */
+    public static KeyPair loadOrGenerateSigningKeyPair(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        synchronized (lockFor(username)) {
+            KeyVault.Keys keys = unlock(username, password);
+            try {
+                if (keys.getSigningKeyPair().isPresent()) {
+                    logger.debug("Loaded existing signing key pair");
+                    return keys.getSigningKeyPair().get();
+                }
+                KeyPair keyPair = ManifestSigner.generateKeyPair();
+                vault().put(username, password.toCharArray(), keys.getAesKey(),
+                    keys.getKyberKeyPair().orElse(null), keyPair);
+                logger.info("Generated and stored signing key pair for user: {}", username);
+                return keyPair;
+            } finally {
+                wipeKey(keys.getAesKey());
+            }
+        }
+    }
+    
+    /**
+     * The public key to verify the user's manifests with, if the user has
+     * a signing pair. Needs no password.
+     */
+    public static Optional<PublicKey> signingPublicKey(String username) 
+            throws GeneralSecurityException, IOException {
+        return vault().signingPublicKey(username);
+    }
+    
+    private static Object lockFor(String username) {
+        return userLocks.computeIfAbsent(username, k -> new Object());
+    }
+    
+    private static KeyVault.Keys unlock(String username, String password) 
+            throws GeneralSecurityException, IOException {
+        KeyVault keyVault = vault();
+        char[] secret = password.toCharArray();
+        try {
+            Optional<KeyVault.Keys> keys = keyVault.get(username, secret);
+            if (keys.isEmpty()) {
+                // Only one caller migrates a legacy keystore; the others find its vault entry.
+                synchronized (lockFor(username)) {
+                    keys = keyVault.get(username, secret);
+                    if (keys.isEmpty() && keyVault.importLegacy(username, getKeystorePath(username), secret)) {
+                        keys = keyVault.get(username, secret);
+                    }
+                }
+            }
+            return keys.orElseThrow(() -> new KeyStoreException("No keys for user: " + username));
+        } finally {
+            Arrays.fill(secret, '\0');
+        }
+    }
+    
+    /**
+     * Writes a legacy per-user PKCS12 keystore. New users get a vault entry
+     * from {@link #createKeys}; this remains for tooling and migration tests.
+     */
     public static void createKeyStore(Path keystorePath, String password, String username) 
             throws GeneralSecurityException, IOException {
         
@@ -54,9 +205,7 @@ public final class KeyStoreManager {
     public static KeyPair loadOrGenerateKeyPair(Path keystorePath, String password) 
             throws GeneralSecurityException, IOException {
         
-        Path publicKeyFile = keystorePath.resolveSibling(
-            keystorePath.getFileName().toString().replace(".p12", ".pub")
-        );
+        Path publicKeyFile = legacyPublicKeyPath(keystorePath);
         
         KeyStore keyStore = KeyStore.getInstance(CryptoConstants.KEYSTORE_TYPE);
         try (InputStream is = Files.newInputStream(keystorePath)) {
@@ -114,11 +263,8 @@ public final class KeyStoreManager {
     }
     
     private static SecretKey generateAESKey() throws GeneralSecurityException {
-        KeyGenerator kg = KeyGenerator.getInstance(
-            CryptoConstants.AES_ALGORITHM, 
-            CryptoConstants.BC_PROVIDER
-        );
-        kg.init(CryptoConstants.AES_KEY_SIZE, new SecureRandom());
+        KeyGenerator kg = KeyGenerator.getInstance(CryptoConstants.AES_ALGORITHM);
+        kg.init(CryptoConstants.AES_KEY_SIZE, RandomSource.current());
         return kg.generateKey();
     }
     
@@ -131,7 +277,17 @@ public final class KeyStoreManager {
         }
     }
     
-    public static Path getKeystorePath(String username) {
-        return Paths.get("keys", username + ".p12");
+    static Path legacyPublicKeyPath(Path keystorePath) {
+        return keystorePath.resolveSibling(
+            keystorePath.getFileName().toString().replace(".p12", ".pub")
+        );
+    }
+    
+    /**
+     * Location of a user's legacy per-user PKCS12 keystore, which is moved
+     * into the vault the first time the user's password unlocks it.
+     */
+    public static synchronized Path getKeystorePath(String username) {
+        return vaultPath.resolveSibling(username + ".p12");
     }
 }
@@ -0,0 +1,766 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.ManifestSigner;
+import com.pqc.videoencryption.crypto.ManifestVerifier;
+import com.pqc.videoencryption.crypto.OutputCommitter;
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import com.pqc.videoencryption.crypto.RandomSource;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.UnrecoverableKeyException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Single-file store of every user's keys, replacing one PKCS12 file (plus a
+ * {@code .pub} sibling) per user. Each user's AES key and Kyber private key
+ * are wrapped together with AES-GCM under a key derived from that user's
+ * password (PBKDF2, per-entry salt); the Kyber public key is kept in the
+ * clear so it can be looked up without a password.
+ *
+ * <p>The vault is an append-only log of CRC-protected records. An update
+ * appends a new record and fsyncs it, so a crash leaves at most a torn tail,
+ * which is dropped on open. Lookups go through an in-memory map of user to
+ * record offset; that map is persisted to {@code <vault>.idx} on compaction
+ * and close, so opening only scans records appended since. The log is
+ * compacted once most of it is superseded.
+ *
+ * <pre>
+ * [4 bytes: magic "PQKV"][8 bytes: generation]
+ * per record: [4 bytes: body length][body][4 bytes: CRC32 of body]
+ * body: [1 byte: PUT, PUT_SIGNING or REMOVE][2 bytes + UTF-8: username][PUT only:
+ *        [4 bytes: PBKDF2 iterations][16 bytes: salt][12 bytes: IV]
+ *        [4 bytes + public key][4 bytes + wrapped AES key || Kyber private key]]
+ * PUT_SIGNING adds a Dilithium pair for manifest signing:
+ *        [4 bytes: PBKDF2 iterations][16 bytes: salt][12 bytes: IV]
+ *        [4 bytes + public key][4 bytes + signing public key]
+ *        [4 bytes + wrapped AES key || 4 bytes + Kyber private key || signing private key]
+ * </pre>
+ *
+ * The wrapped keys are authenticated together with every body field that
+ * precedes them, so a record cannot be moved to another user or paired
+ * with another public key. Entries without a signing pair keep the PUT
+ * layout.
+ */
+public final class KeyVault implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyVault.class);
+
+    private static final int MAGIC = 0x50514B56;
+    private static final int INDEX_MAGIC = 0x50514B49;
+    private static final int PREAMBLE = 12;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final byte PUT_SIGNING = 3;
+    private static final int AES_KEY_BYTES = CryptoConstants.AES_KEY_SIZE / 8;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    private static final int INDEX_INTERVAL = 4096;
+    private static final int SCAN_PROBE = 4 + 1 + 2 + 512;
+
+    private final Path file;
+    private final Path indexFile;
+    private final ConcurrentHashMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private FileChannel channel;
+    private long generation;
+    private long records;
+    private long unindexed;
+
+    private KeyVault(Path file) {
+        this.file = file;
+        this.indexFile = file.resolveSibling(file.getFileName() + ".idx");
+    }
+
+    /**
+     * Opens the vault at {@code file}, creating it if it does not exist.
+     */
+    public static KeyVault open(Path file) throws IOException {
+        KeyVault vault = new KeyVault(file.toAbsolutePath().normalize());
+        vault.load();
+        return vault;
+    }
+
+    public boolean contains(String username) {
+        return slots.containsKey(username);
+    }
+
+    public int size() {
+        return slots.size();
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Snapshot of the users with an entry in the vault.
+     */
+    public Set<String> users() {
+        return Set.copyOf(slots.keySet());
+    }
+
+    /**
+     * Token that changes whenever the entry of {@code username} is replaced,
+     * removed or moved by compaction; null if there is no entry.
+     */
+    Object entryVersion(String username) {
+        return slots.get(username);
+    }
+
+    /**
+     * Stores (or replaces) the keys of {@code username}, wrapped under
+     * {@code password}. The record is on disk when this returns.
+     *
+     * @param kyberKeyPair may be null for users without a key-exchange pair
+     */
+    public void put(String username, char[] password, SecretKey aesKey, KeyPair kyberKeyPair)
+            throws GeneralSecurityException, IOException {
+        put(username, password, aesKey, kyberKeyPair, null);
+    }
+
+    /**
+     * Stores the keys of {@code username} like {@link #put(String, char[], SecretKey, KeyPair)},
+     * together with a Dilithium key pair for signing manifests.
+     *
+     * @param signingKeyPair may be null for users who do not sign
+     */
+    public void put(String username, char[] password, SecretKey aesKey, KeyPair kyberKeyPair,
+                    KeyPair signingKeyPair) throws GeneralSecurityException, IOException {
+        ByteBuffer body = encodePut(username, password, aesKey, kyberKeyPair, signingKeyPair);
+        lock.writeLock().lock();
+        try {
+            append(username, body);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        logger.debug("Stored vault entry for user: {}", username);
+    }
+
+    /**
+     * Unwraps the keys of {@code username}.
+     *
+     * @throws UnrecoverableKeyException if the password is wrong or the entry is corrupt
+     */
+    public Optional<Keys> get(String username, char[] password) throws GeneralSecurityException, IOException {
+        ByteBuffer body = readBody(username);
+        if (body == null) {
+            return Optional.empty();
+        }
+        return Optional.of(decodePut(username, body, password));
+    }
+
+    /**
+     * Returns the Kyber public key of {@code username} without unwrapping anything.
+     */
+    public Optional<PublicKey> publicKey(String username) throws GeneralSecurityException, IOException {
+        ByteBuffer body = readBody(username);
+        if (body == null) {
+            return Optional.empty();
+        }
+        skipString(body);
+        body.position(body.position() + 4 + CryptoConstants.VAULT_SALT_SIZE + CryptoConstants.GCM_IV_SIZE);
+        byte[] encoded = readBytes(body);
+        if (encoded.length == 0) {
+            return Optional.empty();
+        }
+        return Optional.of(PostQuantumKeyExchange.decodePublicKey(encoded));
+    }
+
+    /**
+     * Returns the Dilithium public key {@code username} signs manifests
+     * with, without unwrapping anything.
+     */
+    public Optional<PublicKey> signingPublicKey(String username) throws GeneralSecurityException, IOException {
+        ByteBuffer body = readBody(username);
+        if (body == null || body.get(0) != PUT_SIGNING) {
+            return Optional.empty();
+        }
+        skipString(body);
+        body.position(body.position() + 4 + CryptoConstants.VAULT_SALT_SIZE + CryptoConstants.GCM_IV_SIZE);
+        readBytes(body);
+        return Optional.of(ManifestVerifier.decodePublicKey(readBytes(body)));
+    }
+
+    public boolean remove(String username) throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (!slots.containsKey(username)) {
+                return false;
+            }
+            byte[] name = username.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length);
+            body.put(REMOVE);
+            putBytes16(body, name);
+            append(username, body.flip());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Moves a legacy {@code <user>.p12} keystore and its {@code .pub}
+     * sibling into the vault. The legacy files are encrypted under the
+     * user's password, so this runs when that password is first presented.
+     * They are deleted once the vault record is durable and unwraps.
+     *
+     * @return false if there is no legacy keystore for the user
+     */
+    public boolean importLegacy(String username, Path keystorePath, char[] password)
+            throws GeneralSecurityException, IOException {
+        if (!Files.exists(keystorePath)) {
+            return false;
+        }
+        KeyStore keyStore = KeyStore.getInstance(CryptoConstants.KEYSTORE_TYPE);
+        try (InputStream is = Files.newInputStream(keystorePath)) {
+            keyStore.load(is, password);
+        } catch (NoSuchFileException e) {
+            // Imported by another caller since the check above.
+            return false;
+        }
+        SecretKey aesKey = (SecretKey) keyStore.getKey(CryptoConstants.KEYSTORE_ALIAS_SYMMETRIC, password);
+        if (aesKey == null) {
+            throw new UnrecoverableKeyException("Legacy keystore has no AES key");
+        }
+        PrivateKey privateKey = (PrivateKey) keyStore.getKey(CryptoConstants.KEYSTORE_ALIAS_KEM, password);
+        Path publicKeyFile = KeyStoreManager.legacyPublicKeyPath(keystorePath);
+        KeyPair kyberKeyPair = null;
+        if (privateKey != null && Files.exists(publicKeyFile)) {
+            PublicKey publicKey = PostQuantumKeyExchange.decodePublicKey(Files.readAllBytes(publicKeyFile));
+            kyberKeyPair = new KeyPair(publicKey, privateKey);
+        }
+
+        try {
+            put(username, password, aesKey, kyberKeyPair);
+            Keys stored = get(username, password).orElseThrow(() -> new IOException("Vault entry vanished"));
+            SymmetricEncryption.wipe(stored.getAesKey());
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+        Files.deleteIfExists(publicKeyFile);
+        Files.deleteIfExists(keystorePath);
+        logger.info("Migrated legacy keystore of user {} into the vault", username);
+        return true;
+    }
+
+    /**
+     * Rewrites the vault with one record per live user.
+     */
+    public void compact() throws IOException {
+        lock.writeLock().lock();
+        try {
+            writeCompacted();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (channel != null) {
+                if (unindexed > 0) {
+                    writeIndex();
+                }
+                channel.close();
+                channel = null;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private ByteBuffer readBody(String username) throws IOException {
+        lock.readLock().lock();
+        try {
+            Slot slot = slots.get(username);
+            if (slot == null) {
+                return null;
+            }
+            if (channel == null) {
+                throw new IOException("Key vault is closed");
+            }
+            ByteBuffer frame = ByteBuffer.allocate(4 + slot.length + 4);
+            readFully(channel, frame, slot.offset);
+            frame.flip();
+            if (frame.getInt(0) != slot.length || frame.getInt(4 + slot.length) != crc(frame, 4, slot.length)) {
+                throw new IOException("Corrupt vault record for user " + username);
+            }
+            ByteBuffer body = frame.position(4).limit(4 + slot.length).slice();
+            byte op = body.get();
+            if (op != PUT && op != PUT_SIGNING) {
+                throw new IOException("Corrupt vault record for user " + username);
+            }
+            return body;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer encodePut(String username, char[] password, SecretKey aesKey, KeyPair kyberKeyPair,
+                                 KeyPair signingKeyPair) throws GeneralSecurityException {
+        byte[] name = username.getBytes(StandardCharsets.UTF_8);
+        if (name.length > 512) {
+            throw new IllegalArgumentException("Username too long");
+        }
+        byte[] salt = RandomSource.nextBytes(CryptoConstants.VAULT_SALT_SIZE);
+        byte[] iv = RandomSource.nextNonce();
+        byte[] publicKey = kyberKeyPair == null
+            ? new byte[0] : PostQuantumKeyExchange.encodePublicKey(kyberKeyPair.getPublic());
+        byte[] privateKey = kyberKeyPair == null ? new byte[0] : kyberKeyPair.getPrivate().getEncoded();
+        boolean signing = signingKeyPair != null;
+        byte[] signingPublicKey = signing ? signingKeyPair.getPublic().getEncoded() : new byte[0];
+        byte[] signingPrivateKey = signing ? signingKeyPair.getPrivate().getEncoded() : new byte[0];
+        int secretsLength = AES_KEY_BYTES + (signing ? 4 : 0) + privateKey.length + signingPrivateKey.length;
+        byte[] aes = aesKey.getEncoded();
+        if (aes == null || aes.length != AES_KEY_BYTES) {
+            throw new IllegalArgumentException("AES key must be " + AES_KEY_BYTES + " bytes");
+        }
+        int iterations = CryptoConstants.VAULT_KDF_ITERATIONS;
+
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length + 4 + salt.length + iv.length
+            + 4 + publicKey.length + (signing ? 4 + signingPublicKey.length : 0)
+            + 4 + secretsLength + CryptoConstants.GCM_TAG_LENGTH);
+        body.put(signing ? PUT_SIGNING : PUT);
+        putBytes16(body, name);
+        body.putInt(iterations);
+        body.put(salt);
+        body.put(iv);
+        body.putInt(publicKey.length);
+        body.put(publicKey);
+        if (signing) {
+            body.putInt(signingPublicKey.length);
+            body.put(signingPublicKey);
+        }
+        int aadLength = body.position();
+        body.putInt(secretsLength + CryptoConstants.GCM_TAG_LENGTH);
+
+        byte[] secrets = new byte[secretsLength];
+        SecretKey kek = deriveKek(password, salt, iterations);
+        try {
+            ByteBuffer plain = ByteBuffer.wrap(secrets).put(aes, 0, AES_KEY_BYTES);
+            if (signing) {
+                plain.putInt(privateKey.length);
+            }
+            plain.put(privateKey).put(signingPrivateKey);
+            Cipher cipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
+            cipher.init(Cipher.ENCRYPT_MODE, kek, new GCMParameterSpec(CryptoConstants.GCM_TAG_SIZE, iv));
+            cipher.updateAAD(body.array(), 0, aadLength);
+            cipher.doFinal(ByteBuffer.wrap(secrets), body);
+        } finally {
+            Arrays.fill(aes, (byte) 0);
+            Arrays.fill(privateKey, (byte) 0);
+            Arrays.fill(signingPrivateKey, (byte) 0);
+            Arrays.fill(secrets, (byte) 0);
+            SymmetricEncryption.wipe(kek);
+        }
+        return body.flip();
+    }
+
+    private Keys decodePut(String username, ByteBuffer body, char[] password) throws GeneralSecurityException {
+        boolean signing = body.get(0) == PUT_SIGNING;
+        if (!readString(body).equals(username)) {
+            throw new UnrecoverableKeyException("Vault record does not belong to " + username);
+        }
+        int iterations = body.getInt();
+        byte[] salt = new byte[CryptoConstants.VAULT_SALT_SIZE];
+        byte[] iv = new byte[CryptoConstants.GCM_IV_SIZE];
+        body.get(salt);
+        body.get(iv);
+        byte[] publicKey = readBytes(body);
+        byte[] signingPublicKey = signing ? readBytes(body) : null;
+        int aadLength = body.position();
+        byte[] wrapped = readBytes(body);
+
+        byte[] secrets = null;
+        SecretKey kek = deriveKek(password, salt, iterations);
+        try {
+            Cipher cipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
+            cipher.init(Cipher.DECRYPT_MODE, kek, new GCMParameterSpec(CryptoConstants.GCM_TAG_SIZE, iv));
+            cipher.updateAAD(body.duplicate().position(0).limit(aadLength));
+            secrets = cipher.doFinal(wrapped);
+        } catch (AEADBadTagException e) {
+            throw new UnrecoverableKeyException("Wrong password for user " + username);
+        } finally {
+            SymmetricEncryption.wipe(kek);
+        }
+        try {
+            SecretKey aesKey = new SecretKeySpec(secrets, 0, AES_KEY_BYTES, CryptoConstants.AES_ALGORITHM);
+            int kyberStart = AES_KEY_BYTES + (signing ? 4 : 0);
+            int kyberEnd = signing ? kyberStart + ByteBuffer.wrap(secrets).getInt(AES_KEY_BYTES) : secrets.length;
+            KeyPair kyberKeyPair = null;
+            if (kyberEnd > kyberStart) {
+                PrivateKey privateKey = PostQuantumKeyExchange.decodePrivateKey(
+                    Arrays.copyOfRange(secrets, kyberStart, kyberEnd));
+                kyberKeyPair = new KeyPair(PostQuantumKeyExchange.decodePublicKey(publicKey), privateKey);
+            }
+            KeyPair signingKeyPair = null;
+            if (signing) {
+                PrivateKey privateKey = ManifestSigner.decodePrivateKey(
+                    Arrays.copyOfRange(secrets, kyberEnd, secrets.length));
+                signingKeyPair = new KeyPair(ManifestVerifier.decodePublicKey(signingPublicKey), privateKey);
+            }
+            return new Keys(aesKey, kyberKeyPair, signingKeyPair);
+        } finally {
+            Arrays.fill(secrets, (byte) 0);
+        }
+    }
+
+    private static SecretKey deriveKek(char[] password, byte[] salt, int iterations)
+            throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, CryptoConstants.AES_KEY_SIZE);
+        try {
+            byte[] material = SecretKeyFactory.getInstance(CryptoConstants.VAULT_KDF_ALGORITHM)
+                .generateSecret(spec).getEncoded();
+            try {
+                return SymmetricEncryption.createKey(material);
+            } finally {
+                Arrays.fill(material, (byte) 0);
+            }
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private void load() throws IOException {
+        Files.createDirectories(file.getParent());
+        if (!Files.exists(file) || Files.size(file) < PREAMBLE) {
+            writeCompacted();
+            return;
+        }
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer preamble = ByteBuffer.allocate(PREAMBLE);
+        readFully(channel, preamble, 0);
+        if (preamble.getInt(0) != MAGIC) {
+            channel.close();
+            throw new IOException("Not a key vault: " + file);
+        }
+        generation = preamble.getLong(4);
+
+        long position = loadIndex();
+        long size = channel.size();
+        ByteBuffer probe = ByteBuffer.allocate(SCAN_PROBE);
+        long lastRecord = -1;
+        while (position + 8 <= size) {
+            probe.clear().limit((int) Math.min(SCAN_PROBE, size - position));
+            readFully(channel, probe, position);
+            probe.flip();
+            int length = probe.getInt();
+            if (length < 3 || length > size - position - 8) {
+                break;
+            }
+            byte op = probe.get();
+            int nameLength = probe.getShort() & 0xFFFF;
+            if ((op != PUT && op != PUT_SIGNING && op != REMOVE) || nameLength > length - 3 || nameLength > probe.remaining()) {
+                break;
+            }
+            byte[] name = new byte[nameLength];
+            probe.get(name);
+            applySlot(new String(name, StandardCharsets.UTF_8), op, position, length);
+            lastRecord = position;
+            position += 8 + length;
+            unindexed++;
+        }
+        // Appends are fsynced one at a time, so only the final record can be
+        // torn; every other record is CRC-checked when it is read.
+        if (lastRecord >= 0 && !recordIntact(lastRecord)) {
+            position = lastRecord;
+        }
+        if (position < size) {
+            logger.warn("Dropping {} bytes of torn key vault records", size - position);
+            channel.truncate(position);
+            channel.force(true);
+            rebuildFrom(position);
+        }
+        channel.position(channel.size());
+        if (records > COMPACT_MIN_RECORDS && records > 2L * slots.size()) {
+            writeCompacted();
+        }
+        logger.info("Opened key vault with {} users", slots.size());
+    }
+
+    /**
+     * Loads the persisted user index, if it matches this vault generation,
+     * and returns the offset scanning should continue from.
+     */
+    private long loadIndex() throws IOException {
+        if (!Files.exists(indexFile)) {
+            return PREAMBLE;
+        }
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(data.array(), 0, data.limit() - 4);
+            if (data.getInt(data.limit() - 4) != (int) crc.getValue()
+                    || data.getInt() != INDEX_MAGIC || data.getLong() != generation) {
+                return PREAMBLE;
+            }
+            long covered = data.getLong();
+            long indexedRecords = data.getLong();
+            int count = data.getInt();
+            if (covered > channel.size()) {
+                return PREAMBLE;
+            }
+            for (int i = 0; i < count; i++) {
+                String username = readString(data);
+                long offset = data.getLong();
+                int length = data.getInt();
+                slots.put(username, new Slot(offset, length));
+            }
+            records = indexedRecords;
+            return covered;
+        } catch (RuntimeException e) {
+            slots.clear();
+            records = 0;
+            return PREAMBLE;
+        }
+    }
+
+    private void rebuildFrom(long end) throws IOException {
+        // The dropped record may already have replaced a slot; rescan from the start.
+        slots.clear();
+        records = 0;
+        unindexed = 0;
+        ByteBuffer probe = ByteBuffer.allocate(SCAN_PROBE);
+        long position = PREAMBLE;
+        while (position + 8 <= end) {
+            probe.clear().limit((int) Math.min(SCAN_PROBE, end - position));
+            readFully(channel, probe, position);
+            probe.flip();
+            int length = probe.getInt();
+            byte op = probe.get();
+            byte[] name = new byte[probe.getShort() & 0xFFFF];
+            probe.get(name);
+            applySlot(new String(name, StandardCharsets.UTF_8), op, position, length);
+            position += 8 + length;
+            unindexed++;
+        }
+    }
+
+    private void applySlot(String username, byte op, long offset, int length) {
+        if (op == REMOVE) {
+            slots.remove(username);
+        } else {
+            slots.put(username, new Slot(offset, length));
+        }
+        records++;
+    }
+
+    private boolean recordIntact(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, offset);
+        ByteBuffer frame = ByteBuffer.allocate(4 + length.getInt(0) + 4);
+        readFully(channel, frame, offset);
+        return frame.getInt(frame.limit() - 4) == crc(frame, 4, frame.limit() - 8);
+    }
+
+    private void append(String username, ByteBuffer body) throws IOException {
+        if (channel == null) {
+            throw new IOException("Key vault is closed");
+        }
+        byte op = body.get(0);
+        int length = body.remaining();
+        long offset = channel.size();
+        ByteBuffer framed = ByteBuffer.allocate(4 + length + 4);
+        framed.putInt(length);
+        framed.put(body.duplicate());
+        framed.putInt(crc(body, body.position(), length));
+        writeFully(channel, framed.flip(), offset);
+        channel.force(false);
+        applySlot(username, op, offset, length);
+        if (records > COMPACT_MIN_RECORDS && records > 2L * slots.size()) {
+            writeCompacted();
+        } else if (++unindexed >= INDEX_INTERVAL) {
+            writeIndex();
+        }
+    }
+
+    private void writeCompacted() throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        long nextGeneration = RandomSource.current().nextLong();
+        Map<String, Slot> moved = new ConcurrentHashMap<>();
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(out, ByteBuffer.allocate(PREAMBLE).putInt(MAGIC).putLong(nextGeneration).flip(), 0);
+            long position = PREAMBLE;
+            out.position(position);
+            for (Map.Entry<String, Slot> entry : slots.entrySet()) {
+                Slot slot = entry.getValue();
+                long frameLength = 8L + slot.length;
+                long copied = 0;
+                while (copied < frameLength) {
+                    copied += channel.transferTo(slot.offset + copied, frameLength - copied, out);
+                }
+                moved.put(entry.getKey(), new Slot(position, slot.length));
+                position += frameLength;
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        OutputCommitter.forceDirectory(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        generation = nextGeneration;
+        slots.clear();
+        slots.putAll(moved);
+        records = slots.size();
+        writeIndex();
+    }
+
+    /**
+     * Persists the user index. It is only a hint: a stale or damaged index is
+     * detected by its generation and CRC and the vault is rescanned instead.
+     */
+    private void writeIndex() throws IOException {
+        int size = 8 + 8 + 8 + 8 + 4 + 4;
+        Map<String, Slot> snapshot = Map.copyOf(slots);
+        for (String username : snapshot.keySet()) {
+            size += 2 + username.getBytes(StandardCharsets.UTF_8).length + 12;
+        }
+        ByteBuffer data = ByteBuffer.allocate(size);
+        data.putInt(INDEX_MAGIC);
+        data.putLong(generation);
+        data.putLong(channel.size());
+        data.putLong(records);
+        data.putInt(snapshot.size());
+        for (Map.Entry<String, Slot> entry : snapshot.entrySet()) {
+            putBytes16(data, entry.getKey().getBytes(StandardCharsets.UTF_8));
+            data.putLong(entry.getValue().offset);
+            data.putInt(entry.getValue().length);
+        }
+        data.putInt(crc(data, 0, data.position()));
+
+        Path temp = indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+        Files.write(temp, Arrays.copyOf(data.array(), data.position()));
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        unindexed = 0;
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.duplicate().position(offset).limit(offset + length));
+        return (int) crc.getValue();
+    }
+
+    private static void putBytes16(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void skipString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        buffer.position(buffer.position() + length);
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getInt()];
+        buffer.get(value);
+        return value;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated key vault");
+            }
+            position += n;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position) throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static final class Slot {
+        final long offset;
+        final int length;
+
+        Slot(long offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Keys unwrapped from one vault entry. Callers wipe the AES key when done.
+     */
+    public static final class Keys {
+        private final SecretKey aesKey;
+        private final KeyPair kyberKeyPair;
+        private final KeyPair signingKeyPair;
+
+        Keys(SecretKey aesKey, KeyPair kyberKeyPair, KeyPair signingKeyPair) {
+            this.aesKey = aesKey;
+            this.kyberKeyPair = kyberKeyPair;
+            this.signingKeyPair = signingKeyPair;
+        }
+
+        public SecretKey getAesKey() {
+            return aesKey;
+        }
+
+        public Optional<KeyPair> getKyberKeyPair() {
+            return Optional.ofNullable(kyberKeyPair);
+        }
+
+        /**
+         * The Dilithium pair this user signs manifests with, if one was stored.
+         */
+        public Optional<KeyPair> getSigningKeyPair() {
+            return Optional.ofNullable(signingKeyPair);
+        }
+    }
+}
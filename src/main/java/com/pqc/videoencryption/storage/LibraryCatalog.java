@@ -0,0 +1,685 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.CheckpointJournal;
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.EncryptedFileHeader;
+import com.pqc.videoencryption.crypto.OutputCommitter;
+import com.pqc.videoencryption.crypto.SignedManifest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent index of an encrypted-video library directory. Lookups are
+ * served from in-memory hash maps (by file name, owner and original name);
+ * every change is appended to {@code <library>/.catalog} as a CRC-protected
+ * record, and the log is compacted when most of it is superseded.
+ *
+ * <p>Entries are built from the file header; framed live captures, whose
+ * segments vary in length, also walk their frame prefixes. The integrity
+ * root is the SHA-256 tag chain of {@link CheckpointJournal}, so it commits
+ * to every ciphertext byte and to the segment order. Encryptors compute it
+ * as they seal and pass it to {@link #record(Path, byte[])}; a rebuild keeps
+ * the roots of files that have not changed since they were recorded and
+ * leaves the others without one rather than reading every segment's tag.
+ *
+ * <pre>
+ * [4 bytes: magic "PQVC"]
+ * per record: [4 bytes: body length][body][4 bytes: CRC32 of body]
+ * body: [1 byte: PUT or REMOVE][2 bytes + UTF-8: file name][entry fields, PUT only]
+ * entry fields end with [1 byte: root length, 0 or 32][integrity root]
+ * </pre>
+ */
+public final class LibraryCatalog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(LibraryCatalog.class);
+    private static final Map<Path, LibraryCatalog> catalogs = new ConcurrentHashMap<>();
+
+    public static final String INDEX_FILE = ".catalog";
+    private static final int MAGIC = 0x50515643;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int COMPACT_MIN_RECORDS = 1024;
+    private static final byte[] NO_ROOT = new byte[0];
+
+    private final Path directory;
+    private final Path indexFile;
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> byOwner = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> byOriginalName = new ConcurrentHashMap<>();
+    private FileChannel log;
+    private long records;
+
+    private LibraryCatalog(Path directory) {
+        this.directory = directory;
+        this.indexFile = directory.resolve(INDEX_FILE);
+    }
+
+    /**
+     * Returns the catalog of {@code libraryDir}, loading its index or
+     * rebuilding it from the files when there is none.
+     */
+    public static LibraryCatalog open(Path libraryDir) throws IOException {
+        Path directory = libraryDir.toAbsolutePath().normalize();
+        LibraryCatalog catalog = catalogs.get(directory);
+        if (catalog != null) {
+            return catalog;
+        }
+        synchronized (catalogs) {
+            catalog = catalogs.get(directory);
+            if (catalog == null) {
+                Files.createDirectories(directory);
+                catalog = new LibraryCatalog(directory);
+                if (Files.exists(catalog.indexFile)) {
+                    catalog.load();
+                } else {
+                    catalog.rebuild();
+                }
+                catalogs.put(directory, catalog);
+            }
+            return catalog;
+        }
+    }
+
+    /**
+     * Returns the catalog of {@code libraryDir} only if the directory already
+     * has one, so writing elsewhere never scatters index files around.
+     */
+    public static Optional<LibraryCatalog> ifPresent(Path libraryDir) throws IOException {
+        if (libraryDir == null) {
+            return Optional.empty();
+        }
+        Path directory = libraryDir.toAbsolutePath().normalize();
+        if (!catalogs.containsKey(directory) && !Files.exists(directory.resolve(INDEX_FILE))) {
+            return Optional.empty();
+        }
+        return Optional.of(open(directory));
+    }
+
+    public Optional<Entry> get(String fileName) {
+        return Optional.ofNullable(entries.get(fileName));
+    }
+
+    public List<Entry> findByOwner(String owner) {
+        return resolve(byOwner.get(owner));
+    }
+
+    public List<Entry> findByOriginalName(String originalFilename) {
+        return resolve(byOriginalName.get(originalFilename));
+    }
+
+    public Collection<Entry> entries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Indexes (or re-indexes) one encrypted file of this library, reading
+     * its segment tags for the integrity root.
+     */
+    public Entry record(Path file) throws IOException {
+        return record(file, integrityRoot(file));
+    }
+
+    /**
+     * Indexes one encrypted file whose integrity root the caller computed
+     * while writing it, reading only the header.
+     */
+    public Entry record(Path file, byte[] integrityRoot) throws IOException {
+        Entry entry = describe(file).withIntegrityRoot(integrityRoot);
+        synchronized (this) {
+            append(encodePut(entry));
+            index(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * Gives a legacy entry, whose file names no owner, to {@code owner},
+     * once that user's key has decrypted it. Entries that already have an
+     * owner are left alone.
+     */
+    public void claim(Path file, String owner) throws IOException {
+        String name = file.getFileName().toString();
+        synchronized (this) {
+            Entry entry = entries.get(name);
+            if (entry != null && entry.getOwner().isEmpty() && !owner.isEmpty()) {
+                Entry claimed = entry.withOwner(owner);
+                append(encodePut(claimed));
+                index(claimed);
+            }
+        }
+    }
+
+    public void remove(Path file) throws IOException {
+        String name = file.getFileName().toString();
+        synchronized (this) {
+            if (entries.containsKey(name)) {
+                append(encodeRemove(name));
+                unindex(name);
+            }
+        }
+    }
+
+    /**
+     * Re-reads the header of every file of the library in parallel and
+     * replaces the index. Integrity roots, and the owners claimed for
+     * legacy files, carry over for files whose size and modification time
+     * are unchanged.
+     */
+    public synchronized void rebuild() throws IOException {
+        List<Path> files;
+        try (Stream<Path> listing = Files.list(directory)) {
+            files = listing.filter(Files::isRegularFile)
+                .filter(path -> isIndexable(path.getFileName().toString()))
+                .collect(Collectors.toList());
+        }
+
+        int workers = Math.max(1, Math.min(8, Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(workers, runnable -> {
+            Thread thread = new Thread(runnable, "pqve-catalog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Entry> described = new ArrayList<>(files.size());
+        try {
+            List<Future<Entry>> tasks = new ArrayList<>(files.size());
+            for (Path file : files) {
+                tasks.add(executor.submit(() -> {
+                    try {
+                        Entry entry = describe(file);
+                        Entry known = entries.get(entry.getFileName());
+                        if (known != null && known.getEncryptedSize() == entry.getEncryptedSize()
+                                && known.getModified() == entry.getModified()) {
+                            if (known.hasIntegrityRoot()) {
+                                entry = entry.withIntegrityRoot(known.integrityRoot);
+                            }
+                            if (entry.getOwner().isEmpty()) {
+                                entry = entry.withOwner(known.getOwner());
+                            }
+                        }
+                        return entry;
+                    } catch (IOException e) {
+                        logger.warn("Not indexing {}: {}", file.getFileName(), e.getMessage());
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Entry> task : tasks) {
+                Entry entry = task.get();
+                if (entry != null) {
+                    described.add(entry);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Catalog rebuild failed", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while rebuilding catalog");
+        } finally {
+            executor.shutdownNow();
+        }
+
+        entries.clear();
+        byOwner.clear();
+        byOriginalName.clear();
+        described.forEach(this::index);
+        writeCompacted();
+        logger.info("Rebuilt catalog of {} with {} entries", directory.getFileName(), entries.size());
+    }
+
+    /**
+     * Rewrites the log with one record per live entry.
+     */
+    public synchronized void compact() throws IOException {
+        writeCompacted();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        catalogs.remove(directory, this);
+        if (log != null) {
+            log.force(true);
+            log.close();
+            log = null;
+        }
+    }
+
+    /**
+     * Reads the metadata of one encrypted file from its header (the
+     * filename prefix for legacy files, the frame prefixes for framed
+     * ones). The entry has no integrity root.
+     */
+    public static Entry describe(Path file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        long size = attributes.size();
+        long modified = attributes.lastModifiedTime().toMillis();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (!EncryptedFileHeader.isSegmented(channel)) {
+                return describeLegacy(file, channel, size, modified);
+            }
+            EncryptedFileHeader header = EncryptedFileHeader.read(channel, 0);
+            long plaintext = 0;
+            if (header.isFramed()) {
+                long position = header.length();
+                while (position < size) {
+                    int sealed = readFrame(channel, header, position);
+                    position += EncryptedFileHeader.FRAME_PREFIX + sealed;
+                    plaintext += sealed - CryptoConstants.GCM_TAG_LENGTH;
+                }
+            } else {
+                plaintext = header.plaintextLength(size - header.length());
+            }
+            return new Entry(file.getFileName().toString(), header.getOriginalFilename(), header.getOwner(),
+                header.getVersion(), header.getFlags(), plaintext, header.getCreatedAt(), size, modified, NO_ROOT);
+        }
+    }
+
+    /**
+     * Computes a file's integrity root from the GCM tags of its segments,
+     * or the final tag of a legacy file.
+     */
+    public static byte[] integrityRoot(Path file) throws IOException {
+        MessageDigest sha256 = CheckpointJournal.newChainDigest();
+        byte[] chain = CheckpointJournal.emptyChain();
+        ByteBuffer tag = ByteBuffer.allocate(CryptoConstants.GCM_TAG_LENGTH);
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (!EncryptedFileHeader.isSegmented(channel)) {
+                extendChain(channel, size, sha256, chain, tag);
+                return chain;
+            }
+            EncryptedFileHeader header = EncryptedFileHeader.read(channel, 0);
+            if (header.isFramed()) {
+                long position = header.length();
+                while (position < size) {
+                    position += EncryptedFileHeader.FRAME_PREFIX + readFrame(channel, header, position);
+                    extendChain(channel, position, sha256, chain, tag);
+                }
+            } else {
+                long segments = header.segmentCount(size - header.length());
+                for (long i = 0; i < segments; i++) {
+                    long end = Math.min(size, header.length() + (i + 1) * header.sealedSegmentSize());
+                    extendChain(channel, end, sha256, chain, tag);
+                }
+            }
+            return chain;
+        }
+    }
+
+    /**
+     * False for what a library keeps beside its videos: hidden and
+     * temporary files, checkpoints and signed manifests.
+     */
+    private static boolean isIndexable(String name) {
+        return !name.startsWith(".")
+            && !name.endsWith(".tmp")
+            && !name.endsWith(".partial")
+            && !name.endsWith(".journal")
+            && !name.endsWith(SignedManifest.SUFFIX);
+    }
+
+    private static Entry describeLegacy(Path file, FileChannel channel, long size, long modified)
+            throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(channel, length, 0);
+        int filenameLength = length.getInt(0);
+        if (filenameLength < 0 || filenameLength > size - 12) {
+            throw new IOException("Not an encrypted video file");
+        }
+        ByteBuffer filename = ByteBuffer.allocate(filenameLength);
+        readFully(channel, filename, 4);
+        long plaintext = Math.max(0, size - 4 - filenameLength - 4 - CryptoConstants.GCM_IV_SIZE - 4
+            - CryptoConstants.GCM_TAG_LENGTH);
+        return new Entry(file.getFileName().toString(), new String(filename.array(), StandardCharsets.UTF_8),
+            "", 1, 0, plaintext, modified, size, modified, NO_ROOT);
+    }
+
+    private static int readFrame(FileChannel channel, EncryptedFileHeader header, long position)
+            throws IOException {
+        ByteBuffer prefix = ByteBuffer.allocate(EncryptedFileHeader.FRAME_PREFIX);
+        readFully(channel, prefix, position);
+        int sealed = prefix.getInt(0);
+        if (sealed < CryptoConstants.GCM_TAG_LENGTH || sealed > header.sealedSegmentSize()) {
+            throw new IOException("Corrupt segment frame");
+        }
+        return sealed;
+    }
+
+    private static void extendChain(FileChannel channel, long segmentEnd, MessageDigest sha256, byte[] chain,
+                                    ByteBuffer tag) throws IOException {
+        readFully(channel, tag.clear(), segmentEnd - CryptoConstants.GCM_TAG_LENGTH);
+        CheckpointJournal.extendChain(sha256, chain, tag.flip());
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Truncated encrypted file");
+            }
+            position += n;
+        }
+    }
+
+    private List<Entry> resolve(Set<String> names) {
+        if (names == null) {
+            return List.of();
+        }
+        List<Entry> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            Entry entry = entries.get(name);
+            if (entry != null) {
+                result.add(entry);
+            }
+        }
+        return result;
+    }
+
+    private void index(Entry entry) {
+        Entry previous = entries.put(entry.getFileName(), entry);
+        if (previous != null) {
+            removeFrom(byOwner, previous.getOwner(), previous.getFileName());
+            removeFrom(byOriginalName, previous.getOriginalFilename(), previous.getFileName());
+        }
+        byOwner.computeIfAbsent(entry.getOwner(), k -> ConcurrentHashMap.newKeySet()).add(entry.getFileName());
+        byOriginalName.computeIfAbsent(entry.getOriginalFilename(), k -> ConcurrentHashMap.newKeySet())
+            .add(entry.getFileName());
+    }
+
+    private void unindex(String name) {
+        Entry previous = entries.remove(name);
+        if (previous != null) {
+            removeFrom(byOwner, previous.getOwner(), name);
+            removeFrom(byOriginalName, previous.getOriginalFilename(), name);
+        }
+    }
+
+    private static void removeFrom(ConcurrentHashMap<String, Set<String>> index, String key, String name) {
+        index.computeIfPresent(key, (k, names) -> {
+            names.remove(name);
+            return names.isEmpty() ? null : names;
+        });
+    }
+
+    private void load() throws IOException {
+        ByteBuffer data = ByteBuffer.wrap(Files.readAllBytes(indexFile));
+        if (data.remaining() < 4 || data.getInt() != MAGIC) {
+            logger.warn("Catalog index of {} is unreadable, rebuilding", directory.getFileName());
+            rebuild();
+            return;
+        }
+        long valid = data.position();
+        CRC32 crc = new CRC32();
+        while (data.remaining() >= 8) {
+            int length = data.getInt();
+            if (length <= 0 || length > data.remaining() - 4) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.array(), data.position(), length);
+            if (data.getInt(data.position() + length) != (int) crc.getValue()) {
+                break;
+            }
+            ByteBuffer body = data.slice().limit(length);
+            data.position(data.position() + length + 4);
+            try {
+                apply(body);
+            } catch (RuntimeException e) {
+                break;
+            }
+            records++;
+            valid = data.position();
+        }
+        if (valid < data.limit()) {
+            // A torn append from a crash; everything before it is intact.
+            logger.warn("Dropping {} bytes of torn catalog records", data.limit() - valid);
+        }
+        log = FileChannel.open(indexFile, StandardOpenOption.WRITE);
+        log.truncate(valid);
+        log.position(valid);
+        if (records > COMPACT_MIN_RECORDS && records > 2L * entries.size()) {
+            writeCompacted();
+        }
+    }
+
+    private void apply(ByteBuffer body) {
+        byte op = body.get();
+        String name = readString(body);
+        if (op == REMOVE) {
+            unindex(name);
+            return;
+        }
+        String originalFilename = readString(body);
+        String owner = readString(body);
+        int version = body.get() & 0xFF;
+        int flags = body.get() & 0xFF;
+        long plaintextSize = body.getLong();
+        long createdAt = body.getLong();
+        long encryptedSize = body.getLong();
+        long modified = body.getLong();
+        byte[] root = new byte[body.get() & 0xFF];
+        body.get(root);
+        index(new Entry(name, originalFilename, owner, version, flags, plaintextSize, createdAt,
+            encryptedSize, modified, root));
+    }
+
+    private void append(ByteBuffer body) throws IOException {
+        if (log == null) {
+            log = FileChannel.open(indexFile, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            if (log.size() == 0) {
+                writeFully(log, ByteBuffer.allocate(4).putInt(0, MAGIC));
+            }
+            log.position(log.size());
+        }
+        writeFully(log, frame(body));
+        records++;
+        if (records > COMPACT_MIN_RECORDS && records > 2L * entries.size()) {
+            writeCompacted();
+        }
+    }
+
+    private void writeCompacted() throws IOException {
+        Path temp = indexFile.resolveSibling(INDEX_FILE + ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(channel, ByteBuffer.allocate(4).putInt(0, MAGIC));
+            for (Entry entry : entries.values()) {
+                writeFully(channel, frame(encodePut(entry)));
+            }
+            channel.force(true);
+        }
+        if (log != null) {
+            log.close();
+        }
+        try {
+            Files.move(temp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+        }
+        OutputCommitter.forceDirectory(directory);
+        log = FileChannel.open(indexFile, StandardOpenOption.WRITE);
+        log.position(log.size());
+        records = entries.size();
+    }
+
+    private static ByteBuffer frame(ByteBuffer body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        ByteBuffer framed = ByteBuffer.allocate(4 + body.remaining() + 4);
+        framed.putInt(body.remaining());
+        framed.put(body);
+        framed.putInt((int) crc.getValue());
+        return framed.flip();
+    }
+
+    private static ByteBuffer encodePut(Entry entry) {
+        byte[] name = entry.getFileName().getBytes(StandardCharsets.UTF_8);
+        byte[] original = entry.getOriginalFilename().getBytes(StandardCharsets.UTF_8);
+        byte[] owner = entry.getOwner().getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length + 2 + original.length + 2 + owner.length
+            + 1 + 1 + 8 * 4 + 1 + entry.integrityRoot.length);
+        body.put(PUT);
+        putString(body, name);
+        putString(body, original);
+        putString(body, owner);
+        body.put((byte) entry.getVersion());
+        body.put((byte) entry.getFlags());
+        body.putLong(entry.getPlaintextSize());
+        body.putLong(entry.getCreatedAt());
+        body.putLong(entry.getEncryptedSize());
+        body.putLong(entry.getModified());
+        body.put((byte) entry.integrityRoot.length);
+        body.put(entry.integrityRoot);
+        return body.flip();
+    }
+
+    private static ByteBuffer encodeRemove(String fileName) {
+        byte[] name = fileName.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer body = ByteBuffer.allocate(1 + 2 + name.length);
+        body.put(REMOVE);
+        putString(body, name);
+        return body.flip();
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] value) {
+        buffer.putShort((short) value.length);
+        buffer.put(value);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] value = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data) throws IOException {
+        while (data.hasRemaining()) {
+            channel.write(data);
+        }
+    }
+
+    public static final class Entry {
+        private final String fileName;
+        private final String originalFilename;
+        private final String owner;
+        private final int version;
+        private final int flags;
+        private final long plaintextSize;
+        private final long createdAt;
+        private final long encryptedSize;
+        private final long modified;
+        private final byte[] integrityRoot;
+
+        public Entry(String fileName, String originalFilename, String owner, int version, int flags,
+                     long plaintextSize, long createdAt, long encryptedSize, long modified, byte[] integrityRoot) {
+            this.fileName = fileName;
+            this.originalFilename = originalFilename;
+            this.owner = owner;
+            this.version = version;
+            this.flags = flags;
+            this.plaintextSize = plaintextSize;
+            this.createdAt = createdAt;
+            this.encryptedSize = encryptedSize;
+            this.modified = modified;
+            this.integrityRoot = integrityRoot.clone();
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public String getOriginalFilename() {
+            return originalFilename;
+        }
+
+        public String getOwner() {
+            return owner;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public long getPlaintextSize() {
+            return plaintextSize;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public long getEncryptedSize() {
+            return encryptedSize;
+        }
+
+        public long getModified() {
+            return modified;
+        }
+
+        /**
+         * False for entries a rebuild found without a recorded root.
+         */
+        public boolean hasIntegrityRoot() {
+            return integrityRoot.length > 0;
+        }
+
+        /**
+         * @return the root, or an empty array if there is none
+         */
+        public byte[] getIntegrityRoot() {
+            return integrityRoot.clone();
+        }
+
+        Entry withIntegrityRoot(byte[] root) {
+            return new Entry(fileName, originalFilename, owner, version, flags, plaintextSize, createdAt,
+                encryptedSize, modified, root);
+        }
+
+        Entry withOwner(String newOwner) {
+            return new Entry(fileName, originalFilename, newOwner, version, flags, plaintextSize, createdAt,
+                encryptedSize, modified, integrityRoot);
+        }
+    }
+}
@@ -0,0 +1,203 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.KyberEncapsulator;
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.GeneralSecurityException;
+import java.security.KeyStoreException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Every user's Kyber public key, looked up by name.
+ *
+ * <p>Keys come from the vault, or from a legacy {@code <user>.pub} file for
+ * users whose keystore has not been migrated yet. Decoded keys (and the
+ * absence of one) are kept in a bounded LRU. Each entry remembers which
+ * vault record or file it was decoded from, so a user who regenerates
+ * their key pair is picked up on the next lookup without reading or
+ * decoding anything for users whose keys did not change.
+ */
+public final class PublicKeyDirectory {
+
+    private static final String LEGACY_SUFFIX = ".pub";
+    private static PublicKeyDirectory shared;
+
+    private final KeyVault vault;
+    private final Path legacyDirectory;
+    private final int capacity;
+    private final LinkedHashMap<String, Cached> entries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param legacyDirectory where unmigrated {@code .pub} files live; may be null
+     * @param capacity decoded keys kept before the least recently used is dropped
+     */
+    public PublicKeyDirectory(KeyVault vault, Path legacyDirectory, int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be positive");
+        }
+        this.vault = vault;
+        this.legacyDirectory = legacyDirectory;
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<>(64, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Cached> eldest) {
+                if (size() > PublicKeyDirectory.this.capacity) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * The directory over the shared vault, holding up to
+     * {@code pqve.pubkeys.cacheSize} decoded keys (default 4096).
+     */
+    public static synchronized PublicKeyDirectory shared() throws IOException {
+        if (shared == null) {
+            KeyVault vault = KeyStoreManager.vault();
+            shared = new PublicKeyDirectory(vault, vault.getFile().getParent(),
+                Integer.getInteger("pqve.pubkeys.cacheSize", 4096));
+        }
+        return shared;
+    }
+
+    /**
+     * Names of all users who may have a public key, sorted.
+     */
+    public Set<String> users() throws IOException {
+        Set<String> users = new TreeSet<>(vault.users());
+        if (legacyDirectory != null && Files.isDirectory(legacyDirectory)) {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(legacyDirectory, "*" + LEGACY_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    users.add(name.substring(0, name.length() - LEGACY_SUFFIX.length()));
+                }
+            }
+        }
+        return users;
+    }
+
+    public Optional<PublicKey> lookup(String username) throws GeneralSecurityException, IOException {
+        Object version = vault.entryVersion(username);
+        Path legacy = null;
+        if (version == null && legacyDirectory != null) {
+            legacy = legacyDirectory.resolve(username + LEGACY_SUFFIX);
+            version = legacyVersion(legacy);
+        }
+        if (version == null) {
+            return Optional.empty();
+        }
+
+        Cached cached;
+        synchronized (entries) {
+            cached = entries.get(username);
+        }
+        if (cached != null && cached.version.equals(version)) {
+            hits.incrementAndGet();
+            return cached.key;
+        }
+        misses.incrementAndGet();
+
+        Optional<PublicKey> key;
+        try {
+            key = legacy == null
+                ? vault.publicKey(username)
+                : Optional.of(PostQuantumKeyExchange.decodePublicKey(Files.readAllBytes(legacy)));
+        } catch (NoSuchFileException e) {
+            // Migrated into the vault between the version check and the read.
+            return lookup(username);
+        }
+        synchronized (entries) {
+            entries.put(username, new Cached(version, key));
+        }
+        return key;
+    }
+
+    /**
+     * Like {@link #lookup}, but a user without a key is an error.
+     */
+    public PublicKey require(String username) throws GeneralSecurityException, IOException {
+        return lookup(username).orElseThrow(() -> new KeyStoreException("No public key for user: " + username));
+    }
+
+    /**
+     * Encapsulates a fresh shared secret to each of {@code usernames}, in
+     * parallel on {@code encapsulator}. The map iterates in the order given.
+     *
+     * @throws KeyStoreException if any user has no public key
+     */
+    public Map<String, KyberEncapsulator.Encapsulation> encapsulateFor(Collection<String> usernames,
+            KyberEncapsulator encapsulator) throws GeneralSecurityException, IOException {
+        List<String> recipients = new ArrayList<>(new LinkedHashSet<>(usernames));
+        List<PublicKey> keys = new ArrayList<>(recipients.size());
+        for (String username : recipients) {
+            keys.add(require(username));
+        }
+        List<KyberEncapsulator.Encapsulation> results = encapsulator.encapsulateAll(keys);
+        Map<String, KyberEncapsulator.Encapsulation> byUser = new LinkedHashMap<>();
+        for (int i = 0; i < recipients.size(); i++) {
+            byUser.put(recipients.get(i), results.get(i));
+        }
+        return byUser;
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    private static Object legacyVersion(Path file) throws IOException {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return List.of(attributes.lastModifiedTime(), attributes.size(),
+                Objects.requireNonNullElse(attributes.fileKey(), ""));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static final class Cached {
+        final Object version;
+        final Optional<PublicKey> key;
+
+        Cached(Object version, Optional<PublicKey> key) {
+            this.version = version;
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.pqc.videoencryption.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only user file with a single writer thread and group commit.
+ *
+ * <p>Uniqueness is decided in memory: a registration first claims its
+ * username with {@code putIfAbsent} on the index, so two concurrent
+ * registrations of one name cannot both succeed. The claimed record then
+ * goes onto a lock-free queue. The writer drains whatever has queued up,
+ * writes it with one {@code write} and one {@code force}, and only then
+ * completes the registrations, so every returned registration is durable
+ * and many concurrent ones share a single fsync. A failed write releases
+ * the claims of its batch.
+ *
+ * <p>Each line ends with a CRC32 of the record ({@code ,crc32=<8 hex>}), so
+ * a final line that lost only its newline is told apart from one torn by a
+ * crash: the first is kept, the second truncated. Lines without a checksum,
+ * from older files, are read as before; so is an unterminated last line of
+ * such a file if it has all five fields. The file is read once on open;
+ * changes made to it by other processes are not seen.
+ */
+public final class RegistrationLog implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegistrationLog.class);
+    private static final int MAX_BATCH = 8192;
+    private static final String CHECKSUM = ",crc32=";
+
+    private final Path file;
+    private final ConcurrentHashMap<String, UserRepository.UserRecord> users = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<Pending> queue = new ConcurrentLinkedQueue<>();
+    private final FileChannel channel;
+    private final Thread writer;
+    private volatile boolean closed;
+    private long batches;
+    private long records;
+
+    private RegistrationLog(Path file, FileChannel channel) {
+        this.file = file;
+        this.channel = channel;
+        this.writer = new Thread(this::run, "pqve-user-log");
+        this.writer.setDaemon(true);
+    }
+
+    public static RegistrationLog open(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+        RegistrationLog log = new RegistrationLog(file, channel);
+        try {
+            log.load();
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        log.writer.start();
+        return log;
+    }
+
+    public Optional<UserRepository.UserRecord> find(String username) {
+        return Optional.ofNullable(users.get(username));
+    }
+
+    public boolean contains(String username) {
+        return users.containsKey(username);
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    /**
+     * Claims the username and queues the record; the future completes once
+     * the record is on disk.
+     *
+     * @throws IllegalArgumentException if the username is taken
+     */
+    public CompletableFuture<Void> register(UserRepository.UserRecord record) {
+        String line = encode(record);
+        if (users.putIfAbsent(record.username, record) != null) {
+            throw new IllegalArgumentException("User already exists: " + record.username);
+        }
+        return enqueue(record, line);
+    }
+
+    /**
+     * Queues every record whose username is still free, for bulk imports.
+     * The future completes when all of them are durable; taken usernames
+     * are skipped and not counted.
+     */
+    public CompletableFuture<Integer> registerAll(Collection<UserRepository.UserRecord> batch) {
+        List<CompletableFuture<Void>> writes = new ArrayList<>(batch.size());
+        for (UserRepository.UserRecord record : batch) {
+            String line = encode(record);
+            if (users.putIfAbsent(record.username, record) == null) {
+                writes.add(enqueue(record, line));
+            }
+        }
+        int count = writes.size();
+        return CompletableFuture.allOf(writes.toArray(new CompletableFuture<?>[0])).thenApply(done -> count);
+    }
+
+    /**
+     * Waits for a registration future, rethrowing a failed write as the
+     * {@link IOException} behind it.
+     */
+    public static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the user log");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("User log write failed", cause);
+        }
+    }
+
+    public synchronized long getBatches() {
+        return batches;
+    }
+
+    public synchronized long getRecords() {
+        return records;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Anything queued after the writer saw the close flag never gets written.
+        fail(drain(Integer.MAX_VALUE), new IOException("User log is closed"));
+        channel.close();
+    }
+
+    private CompletableFuture<Void> enqueue(UserRepository.UserRecord record, String line) {
+        Pending pending = new Pending(record, line.getBytes(StandardCharsets.UTF_8));
+        queue.add(pending);
+        LockSupport.unpark(writer);
+        if (closed && queue.remove(pending)) {
+            fail(List.of(pending), new IOException("User log is closed"));
+        }
+        return pending.done;
+    }
+
+    private void run() {
+        while (true) {
+            List<Pending> batch = drain(MAX_BATCH);
+            if (batch.isEmpty()) {
+                if (closed) {
+                    return;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            long start = -1;
+            try {
+                start = channel.position();
+                int size = 0;
+                for (Pending pending : batch) {
+                    size += pending.line.length;
+                }
+                ByteBuffer data = ByteBuffer.allocate(size);
+                for (Pending pending : batch) {
+                    data.put(pending.line);
+                }
+                data.flip();
+                while (data.hasRemaining()) {
+                    channel.write(data);
+                }
+                channel.force(false);
+                synchronized (this) {
+                    batches++;
+                    records += batch.size();
+                }
+                for (Pending pending : batch) {
+                    pending.done.complete(null);
+                }
+            } catch (IOException e) {
+                logger.error("Writing {} user records failed", batch.size(), e);
+                rollback(start);
+                fail(batch, e);
+            }
+        }
+    }
+
+    private void rollback(long start) {
+        // Later batches must not be appended after half of a failed one.
+        if (start >= 0) {
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            } catch (IOException e) {
+                logger.error("Could not roll back the user log", e);
+            }
+        }
+    }
+
+    private List<Pending> drain(int limit) {
+        List<Pending> batch = new ArrayList<>();
+        Pending pending;
+        while (batch.size() < limit && (pending = queue.poll()) != null) {
+            batch.add(pending);
+        }
+        return batch;
+    }
+
+    private void fail(List<Pending> batch, IOException cause) {
+        for (Pending pending : batch) {
+            users.remove(pending.record.username, pending.record);
+            pending.done.completeExceptionally(cause);
+        }
+    }
+
+    private void load() throws IOException {
+        byte[] data = Files.readAllBytes(file);
+        int end = data.length;
+        while (end > 0 && data[end - 1] != '\n') {
+            end--;
+        }
+        if (end < data.length) {
+            String tail = new String(data, end, data.length - end, StandardCharsets.UTF_8);
+            if (verifiedRecord(tail) != null || legacyTail(new String(data, 0, end, StandardCharsets.UTF_8), tail)) {
+                // Complete and intact; only the newline is missing.
+                channel.position(data.length);
+                channel.write(ByteBuffer.wrap(new byte[] {'\n'}));
+                end = data.length;
+            } else {
+                logger.warn("Dropping torn user record at the end of {}", file.getFileName());
+                channel.truncate(end);
+            }
+            channel.force(false);
+        }
+        for (String line : new String(data, 0, end, StandardCharsets.UTF_8).split("\n")) {
+            line = line.trim();
+            if (line.isEmpty()) continue;
+
+            String verified = verifiedRecord(line);
+            String[] parts = (verified != null ? verified : line).split(",", 5);
+            if (parts.length >= 2) {
+                users.putIfAbsent(parts[0], new UserRepository.UserRecord(
+                    parts[0],
+                    parts[1],
+                    parts.length > 2 ? parts[2] : "",
+                    parts.length > 3 ? parts[3] : "",
+                    parts.length > 4 ? parts[4] : ""
+                ));
+            }
+        }
+        channel.position(channel.size());
+        logger.debug("Loaded {} users from {}", users.size(), file.getFileName());
+    }
+
+    private static String encode(UserRepository.UserRecord record) {
+        if (record.username.isEmpty() || record.username.indexOf(',') >= 0) {
+            throw new IllegalArgumentException("Invalid username: " + record.username);
+        }
+        for (String field : new String[] {record.username, record.hashedPassword, record.contact,
+                record.email, record.address}) {
+            if (field.indexOf('\n') >= 0 || field.indexOf('\r') >= 0) {
+                throw new IllegalArgumentException("User fields must not contain line breaks");
+            }
+        }
+        String body = String.join(",",
+            record.username, record.hashedPassword, record.contact, record.email, record.address);
+        return body + CHECKSUM + String.format("%08x", crc32(body)) + "\n";
+    }
+
+    /**
+     * True if {@code tail} is a complete record of a file written before
+     * checksums: nothing in the file carries one, and all fields are there.
+     * Once checksummed records are appended, an unchecked tail is torn.
+     */
+    private static boolean legacyTail(String head, String tail) {
+        return !head.contains(CHECKSUM) && !tail.contains(CHECKSUM) && tail.trim().split(",", 5).length == 5;
+    }
+
+    /**
+     * @return the record without its checksum, or null if the line has no
+     *         checksum or it does not match
+     */
+    private static String verifiedRecord(String line) {
+        line = line.trim();
+        int mark = line.lastIndexOf(CHECKSUM);
+        if (mark < 0 || line.length() != mark + CHECKSUM.length() + 8) {
+            return null;
+        }
+        String body = line.substring(0, mark);
+        try {
+            long expected = Long.parseLong(line.substring(mark + CHECKSUM.length()), 16);
+            return expected == crc32(body) ? body : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long crc32(String body) {
+        CRC32 crc = new CRC32();
+        crc.update(body.getBytes(StandardCharsets.UTF_8));
+        return crc.getValue();
+    }
+
+    private static final class Pending {
+        final UserRepository.UserRecord record;
+        final byte[] line;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(UserRepository.UserRecord record, byte[] line) {
+            this.record = record;
+            this.line = line;
+        }
+    }
+}
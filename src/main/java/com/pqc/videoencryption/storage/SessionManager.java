@@ -0,0 +1,273 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.audit.AuditEvent;
+import com.pqc.videoencryption.audit.AuditTrail;
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.RandomSource;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short-lived sessions, so the bcrypt check and the key-vault unwrap are paid
+ * once per login instead of once per operation.
+ *
+ * <p>A token is {@code base64url(id || expiry || HMAC-SHA256(id || expiry))}
+ * under a random per-process key. Validation checks the MAC and the expiry
+ * before touching the session map, so forged or stale tokens are rejected
+ * without any shared state, and a revoked session is simply absent from the
+ * map. Sessions hold the user's AES key; it is wiped when the session is
+ * revoked or swept after expiry.
+ */
+public final class SessionManager implements AutoCloseable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionManager.class);
+    private static final Duration DEFAULT_TTL = Duration.ofSeconds(Long.getLong("pqve.session.ttlSeconds", 900L));
+    private static final SessionManager shared = new SessionManager(DEFAULT_TTL);
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final int ID_SIZE = 16;
+    private static final int MAC_SIZE = 32;
+    private static final int TOKEN_SIZE = ID_SIZE + 8 + MAC_SIZE;
+
+    private final long ttlMillis;
+    private final SecretKeySpec macKey;
+    private final ThreadLocal<Mac> macs;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService sweeper;
+
+    public SessionManager(Duration ttl) {
+        if (ttl.isNegative() || ttl.isZero()) {
+            throw new IllegalArgumentException("Session lifetime must be positive");
+        }
+        this.ttlMillis = ttl.toMillis();
+        byte[] keyBytes = RandomSource.nextBytes(32);
+        this.macKey = new SecretKeySpec(keyBytes, MAC_ALGORITHM);
+        Arrays.fill(keyBytes, (byte) 0);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(MAC_ALGORITHM);
+                mac.init(macKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HMAC-SHA256 unavailable", e);
+            }
+        });
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "pqve-session-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1_000, Math.min(60_000, ttlMillis / 2));
+        sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The process-wide manager; the lifetime comes from {@code pqve.session.ttlSeconds}.
+     */
+    public static SessionManager shared() {
+        return shared;
+    }
+
+    /**
+     * Checks the password once and opens a session holding the user's key,
+     * creating the key on the user's first login.
+     */
+    public Optional<Session> login(String username, String password) throws GeneralSecurityException, IOException {
+        long start = System.nanoTime();
+        if (!UserRepository.authenticate(username, password)) {
+            AuditTrail.shared().publish(AuditEvent.denied(username, AuditEvent.Operation.LOGIN, null, start));
+            return Optional.empty();
+        }
+        SecretKey aesKey = KeyStoreManager.loadOrCreateAESKey(username, password);
+        try {
+            Session session = issue(username, aesKey);
+            AuditTrail.shared().publish(AuditEvent.success(username, AuditEvent.Operation.LOGIN, null, 0, start));
+            return Optional.of(session);
+        } finally {
+            SymmetricEncryption.wipe(aesKey);
+        }
+    }
+
+    Session issue(String username, SecretKey aesKey) {
+        byte[] id = RandomSource.nextBytes(ID_SIZE);
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        ByteBuffer token = ByteBuffer.allocate(TOKEN_SIZE);
+        token.put(id).putLong(expiresAt);
+        token.put(mac(token.array(), ID_SIZE + 8));
+        Session session = new Session(username, Base64.getUrlEncoder().withoutPadding().encodeToString(token.array()),
+            expiresAt, aesKey.getEncoded());
+        sessions.put(key(id), session);
+        logger.info("Opened session for user: {}", username);
+        return session;
+    }
+
+    /**
+     * Returns the live session for {@code token}, or empty if the token is
+     * forged, expired or revoked.
+     */
+    public Optional<Session> validate(String token) {
+        byte[] raw = decode(token);
+        if (raw == null) {
+            return Optional.empty();
+        }
+        byte[] expected = mac(raw, ID_SIZE + 8);
+        if (!MessageDigest.isEqual(expected, Arrays.copyOfRange(raw, ID_SIZE + 8, TOKEN_SIZE))) {
+            return Optional.empty();
+        }
+        long expiresAt = ByteBuffer.wrap(raw, ID_SIZE, 8).getLong();
+        if (expiresAt <= System.currentTimeMillis()) {
+            return Optional.empty();
+        }
+        Session session = sessions.get(key(Arrays.copyOf(raw, ID_SIZE)));
+        return session == null || !session.isLive() ? Optional.empty() : Optional.of(session);
+    }
+
+    public boolean revoke(String token) {
+        byte[] raw = decode(token);
+        if (raw == null) {
+            return false;
+        }
+        String id = key(Arrays.copyOf(raw, ID_SIZE));
+        Session session = sessions.get(id);
+        if (session == null || !session.getToken().equals(token) || !sessions.remove(id, session)) {
+            return false;
+        }
+        session.end();
+        logger.info("Revoked session for user: {}", session.getUsername());
+        return true;
+    }
+
+    /**
+     * Ends every session of {@code username}, e.g. after a password change.
+     */
+    public int revokeAll(String username) {
+        int revoked = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().getUsername().equals(username) && sessions.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().end();
+                revoked++;
+            }
+        }
+        return revoked;
+    }
+
+    /**
+     * Drops expired sessions and wipes their keys. Runs periodically; callable directly.
+     */
+    public int sweep() {
+        long now = System.currentTimeMillis();
+        int swept = 0;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().getExpiresAt() <= now && sessions.remove(entry.getKey(), entry.getValue())) {
+                entry.getValue().end();
+                swept++;
+            }
+        }
+        if (swept > 0) {
+            logger.debug("Swept {} expired sessions", swept);
+        }
+        return swept;
+    }
+
+    public int size() {
+        return sessions.size();
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+        sessions.values().forEach(Session::end);
+        sessions.clear();
+    }
+
+    private byte[] mac(byte[] data, int length) {
+        Mac mac = macs.get();
+        mac.update(data, 0, length);
+        return mac.doFinal();
+    }
+
+    private static byte[] decode(String token) {
+        if (token == null) {
+            return null;
+        }
+        try {
+            byte[] raw = Base64.getUrlDecoder().decode(token);
+            return raw.length == TOKEN_SIZE ? raw : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static String key(byte[] id) {
+        return Base64.getEncoder().encodeToString(id);
+    }
+
+    /**
+     * One logged-in user. {@link #getAesKey} hands out a copy of the key for
+     * a single operation; callers wipe that copy as they would a loaded key.
+     */
+    public static final class Session {
+        private final String username;
+        private final String token;
+        private final long expiresAt;
+        private byte[] keyBytes;
+
+        private Session(String username, String token, long expiresAt, byte[] keyBytes) {
+            this.username = username;
+            this.token = token;
+            this.expiresAt = expiresAt;
+            this.keyBytes = keyBytes;
+        }
+
+        public String getUsername() {
+            return username;
+        }
+
+        public String getToken() {
+            return token;
+        }
+
+        public long getExpiresAt() {
+            return expiresAt;
+        }
+
+        public synchronized boolean isLive() {
+            return keyBytes != null && expiresAt > System.currentTimeMillis();
+        }
+
+        /**
+         * @throws IllegalStateException if the session has expired or was revoked
+         */
+        public synchronized SecretKey getAesKey() {
+            if (!isLive()) {
+                throw new IllegalStateException("Session expired");
+            }
+            return new SecretKeySpec(keyBytes, CryptoConstants.AES_ALGORITHM);
+        }
+
+        private synchronized void end() {
+            if (keyBytes != null) {
+                Arrays.fill(keyBytes, (byte) 0);
+                keyBytes = null;
+            }
+        }
+    }
+}
@@ -5,48 +5,76 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
-import java.util.List;
+import java.util.Collection;
 import java.util.Optional;
 
 public final class UserRepository {
     
     private static final Logger logger = LoggerFactory.getLogger(UserRepository.class);
-    private static final Path USERS_FILE = Paths.get("data", "users.txt");
     private static final int BCRYPT_ROUNDS = 12;
     
+    private static Path usersFile = Paths.get("data", "users.txt");
+    private static RegistrationLog log;
+    
     private UserRepository() {
         throw new AssertionError("Utility class");
     }
     
     public static void initialize() throws IOException {
-        Path parent = USERS_FILE.getParent();
-        if (parent != null && !Files.exists(parent)) {
-            Files.createDirectories(parent);
+        log();
+    }
+    
+    /**
+     * Moves the repository to another users file, closing the current one,
+     * so tools such as the load harness can work on accounts of their own.
+     *
+     * @return the previous location
+     */
+    public static synchronized Path relocate(Path file) throws IOException {
+        Path previous = usersFile;
+        if (log != null) {
+            log.close();
+            log = null;
         }
-        if (!Files.exists(USERS_FILE)) {
-            Files.createFile(USERS_FILE);
+        usersFile = file;
+        return previous;
+    }
+    
+    private static synchronized RegistrationLog log() throws IOException {
+        if (log == null) {
+            log = RegistrationLog.open(usersFile);
         }
+        return log;
     }
     
     public static void createUser(String username, String password, String contact, 
                                    String email, String address) throws IOException {
         
+        // Cheap early rejection; the log re-checks atomically before writing.
         if (userExists(username)) {
             throw new IllegalArgumentException("User already exists: " + username);
         }
         
         String hashedPassword = BCrypt.hashpw(password, BCrypt.gensalt(BCRYPT_ROUNDS));
-        String record = String.format("%s,%s,%s,%s,%s%n", 
-            username, hashedPassword, contact, email, address);
-        
-        Files.write(USERS_FILE, record.getBytes(), StandardOpenOption.APPEND, StandardOpenOption.CREATE);
+        RegistrationLog.await(log().register(
+            new UserRecord(username, hashedPassword, contact, email, address)));
         logger.info("Created user: {}", username);
     }
     
+    /**
+     * Adds already-hashed user records, e.g. from another installation,
+     * skipping usernames that exist. All records share group-committed writes.
+     *
+     * @return the number of users added
+     */
+    public static int importUsers(Collection<UserRecord> records) throws IOException {
+        int imported = RegistrationLog.await(log().registerAll(records));
+        logger.info("Imported {} of {} users", imported, records.size());
+        return imported;
+    }
+    
     public static boolean authenticate(String username, String password) throws IOException {
         Optional<UserRecord> user = findUser(username);
         if (user.isEmpty()) {
@@ -63,31 +91,11 @@ public final class UserRepository {
     }
     
     public static boolean userExists(String username) throws IOException {
-        return findUser(username).isPresent();
+        return log().contains(username);
     }
     
     public static Optional<UserRecord> findUser(String username) throws IOException {
-        if (!Files.exists(USERS_FILE)) {
-            return Optional.empty();
-        }
-        
-        List<String> lines = Files.readAllLines(USERS_FILE);
-        for (String line : lines) {
-            line = line.trim();
-            if (line.isEmpty()) continue;
-            
-            String[] parts = line.split(",", 5);
-            if (parts.length >= 2 && parts[0].equals(username)) {
-                return Optional.of(new UserRecord(
-                    parts[0],
-                    parts[1],
-                    parts.length > 2 ? parts[2] : "",
-                    parts.length > 3 ? parts[3] : "",
-                    parts.length > 4 ? parts[4] : ""
-                ));
-            }
-        }
-        return Optional.empty();
+        return log().find(username);
     }
     
     public static final class UserRecord {
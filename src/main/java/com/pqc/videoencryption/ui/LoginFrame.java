@@ -1,12 +1,14 @@
 package com.pqc.videoencryption.ui;
 
-import com.pqc.videoencryption.storage.UserRepository;
+import com.pqc.videoencryption.storage.SessionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Optional;
 
 public class LoginFrame extends JFrame {
     
@@ -107,9 +109,10 @@ public class LoginFrame extends JFrame {
         }
         
         try {
-            if (UserRepository.authenticate(username, password)) {
+            Optional<SessionManager.Session> session = SessionManager.shared().login(username, password);
+            if (session.isPresent()) {
                 setVisible(false);
-                UserScreenFrame userScreen = new UserScreenFrame(username, password);
+                UserScreenFrame userScreen = new UserScreenFrame(session.get());
                 userScreen.setVisible(true);
                 dispose();
             } else {
@@ -117,7 +120,7 @@ public class LoginFrame extends JFrame {
                     "Authentication Failed", JOptionPane.ERROR_MESSAGE);
                 resetFields();
             }
-        } catch (IOException e) {
+        } catch (IOException | GeneralSecurityException e) {
             logger.error("Error during authentication", e);
             JOptionPane.showMessageDialog(this, 
                 "Error accessing user database: " + e.getMessage(), 
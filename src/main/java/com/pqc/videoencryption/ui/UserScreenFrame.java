@@ -1,33 +1,60 @@
 package com.pqc.videoencryption.ui;
 
+import com.pqc.videoencryption.audit.AuditEvent;
+import com.pqc.videoencryption.audit.AuditTrail;
 import com.pqc.videoencryption.crypto.VideoEncryptionService;
+import com.pqc.videoencryption.storage.LibraryCatalog;
+import com.pqc.videoencryption.storage.SessionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
+import javax.swing.text.BadLocationException;
 import java.awt.*;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
 
 public class UserScreenFrame extends JFrame {
     
     private static final Logger logger = LoggerFactory.getLogger(UserScreenFrame.class);
+    /** Lines kept in the activity log; older ones are dropped. */
+    private static final int MAX_LOG_LINES = 1000;
     
     private final String username;
-    private final String password;
+    private String sessionToken;
     private JTextArea logArea;
     private Path selectedVideoPath;
+    private final ArrayDeque<String> pendingLog = new ArrayDeque<>();
+    private int skippedLog;
+    private boolean logFlushScheduled;
+    private final Consumer<List<AuditEvent>> auditListener = this::showAuditEvents;
     
-    public UserScreenFrame(String username, String password) {
+    public UserScreenFrame(SessionManager.Session session) {
         super("Post-Quantum Video Encryption - User Screen");
-        this.username = username;
-        this.password = password;
+        this.username = session.getUsername();
+        this.sessionToken = session.getToken();
         initializeUI();
+        AuditTrail.shared().addListener(auditListener);
     }
     
     private void initializeUI() {
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosing(WindowEvent e) {
+                AuditTrail.shared().removeListener(auditListener);
+                SessionManager.shared().revoke(sessionToken);
+            }
+        });
         setLayout(new BorderLayout());
         setSize(900, 600);
         
@@ -63,14 +90,17 @@ public class UserScreenFrame extends JFrame {
         JButton selectButton = new JButton("Select Video File");
         JButton encryptButton = new JButton("Encrypt Video (PQC)");
         JButton decryptButton = new JButton("Decrypt Video (PQC)");
+        JButton libraryButton = new JButton("My Library");
         
         selectButton.addActionListener(e -> selectVideoFile());
         encryptButton.addActionListener(e -> encryptVideo());
         decryptButton.addActionListener(e -> decryptVideo());
+        libraryButton.addActionListener(e -> showLibrary());
         
         panel.add(selectButton);
         panel.add(encryptButton);
         panel.add(decryptButton);
+        panel.add(libraryButton);
         
         return panel;
     }
@@ -123,15 +153,13 @@ public class UserScreenFrame extends JFrame {
                 selectedVideoPath.getFileName().toString() + ".encrypted"
             );
             
+            SessionManager.Session session = currentSession();
+            if (session == null) {
+                return;
+            }
             log("Encrypting video...");
-            VideoEncryptionService.encryptVideo(
-                selectedVideoPath, 
-                outputFile, 
-                username, 
-                password
-            );
+            VideoEncryptionService.encryptVideo(selectedVideoPath, outputFile, session);
             
-            log("Encryption complete: " + outputFile.getFileName());
             JOptionPane.showMessageDialog(this, 
                 "Video encrypted successfully!\nSaved to: " + outputFile, 
                 "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -171,15 +199,13 @@ public class UserScreenFrame extends JFrame {
                 .replace(".encrypted", "");
             Path outputFile = decryptedDir.resolve(originalName);
             
+            SessionManager.Session session = currentSession();
+            if (session == null) {
+                return;
+            }
             log("Decrypting video...");
-            VideoEncryptionService.decryptVideo(
-                encryptedFile, 
-                outputFile, 
-                username, 
-                password
-            );
+            VideoEncryptionService.decryptVideo(encryptedFile, outputFile, session);
             
-            log("Decryption complete: " + outputFile.getFileName());
             JOptionPane.showMessageDialog(this, 
                 "Video decrypted successfully!\nSaved to: " + outputFile, 
                 "Success", JOptionPane.INFORMATION_MESSAGE);
@@ -193,11 +219,103 @@ public class UserScreenFrame extends JFrame {
         }
     }
     
+    private void showLibrary() {
+        try {
+            LibraryCatalog catalog = LibraryCatalog.open(Paths.get("encryptedVideos"));
+            List<LibraryCatalog.Entry> videos = catalog.findByOwner(username);
+            log("Library: " + videos.size() + " encrypted video(s)");
+            for (LibraryCatalog.Entry video : videos) {
+                log(String.format("  %s (%s, %,d bytes, %s)", video.getOriginalFilename(), 
+                    video.getFileName(), video.getPlaintextSize(), Instant.ofEpochMilli(video.getCreatedAt())));
+            }
+        } catch (Exception e) {
+            logger.error("Listing library failed", e);
+            log("ERROR: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Returns the live session, asking for the password again once it has expired.
+     */
+    private SessionManager.Session currentSession() throws Exception {
+        Optional<SessionManager.Session> session = SessionManager.shared().validate(sessionToken);
+        if (session.isPresent()) {
+            return session.get();
+        }
+        JPasswordField passwordField = new JPasswordField(20);
+        int choice = JOptionPane.showConfirmDialog(this, passwordField, 
+            "Session expired - enter password", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        if (choice != JOptionPane.OK_OPTION) {
+            return null;
+        }
+        session = SessionManager.shared().login(username, new String(passwordField.getPassword()));
+        if (session.isEmpty()) {
+            JOptionPane.showMessageDialog(this, "Invalid password", 
+                "Authentication Failed", JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        sessionToken = session.get().getToken();
+        log("Session renewed");
+        return session.get();
+    }
+    
+    /**
+     * Shows this user's audited actions; runs on the audit writer thread.
+     */
+    private void showAuditEvents(List<AuditEvent> events) {
+        for (AuditEvent event : events) {
+            if (event.getUsername().equals(username)) {
+                log(event.toString());
+            }
+        }
+    }
+    
+    /**
+     * Queues a line for the activity log. Lines logged before the event
+     * thread gets to them are appended in one update, and at most
+     * {@link #MAX_LOG_LINES} are held, so a burst of messages costs one
+     * repaint and the log's memory stays flat.
+     */
     private void log(String message) {
-        SwingUtilities.invokeLater(() -> {
-            logArea.append("[" + java.time.LocalTime.now() + "] " + message + "\n");
-            logArea.setCaretPosition(logArea.getDocument().getLength());
-        });
+        String line = "[" + LocalTime.now() + "] " + message + "\n";
+        synchronized (pendingLog) {
+            if (pendingLog.size() == MAX_LOG_LINES) {
+                pendingLog.removeFirst();
+                skippedLog++;
+            }
+            pendingLog.addLast(line);
+            if (logFlushScheduled) {
+                return;
+            }
+            logFlushScheduled = true;
+        }
+        SwingUtilities.invokeLater(this::flushLog);
+    }
+    
+    private void flushLog() {
+        StringBuilder text = new StringBuilder();
+        synchronized (pendingLog) {
+            if (skippedLog > 0) {
+                text.append("... ").append(skippedLog).append(" earlier messages skipped\n");
+                skippedLog = 0;
+            }
+            for (String line : pendingLog) {
+                text.append(line);
+            }
+            pendingLog.clear();
+            logFlushScheduled = false;
+        }
+        logArea.append(text.toString());
+        // The text ends with a newline, so the last line is always empty.
+        int excess = logArea.getLineCount() - 1 - MAX_LOG_LINES;
+        if (excess > 0) {
+            try {
+                logArea.getDocument().remove(0, logArea.getLineStartOffset(excess));
+            } catch (BadLocationException e) {
+                logger.debug("Trimming the activity log failed", e);
+            }
+        }
+        logArea.setCaretPosition(logArea.getDocument().getLength());
     }
 }
 
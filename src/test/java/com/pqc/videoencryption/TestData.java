@@ -0,0 +1,28 @@
+package com.pqc.videoencryption;
+
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+
+import javax.crypto.SecretKey;
+import java.security.SecureRandom;
+
+/**
+ * Random keys and payloads shared by the test classes.
+ */
+public final class TestData {
+
+    private static final SecureRandom random = new SecureRandom();
+
+    private TestData() {
+        throw new AssertionError("Utility class");
+    }
+
+    public static SecretKey randomKey() {
+        return SymmetricEncryption.createKey(randomBytes(32));
+    }
+
+    public static byte[] randomBytes(int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        return data;
+    }
+}
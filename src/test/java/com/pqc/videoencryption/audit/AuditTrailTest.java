@@ -0,0 +1,113 @@
+package com.pqc.videoencryption.audit;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class AuditTrailTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testConcurrentEventsAreWrittenInBatches() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        AtomicInteger delivered = new AtomicInteger();
+        try (AuditTrail trail = AuditTrail.open(dir)) {
+            trail.addListener(batch -> delivered.addAndGet(batch.size()));
+            List<Thread> producers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                String user = "user" + t;
+                Thread producer = new Thread(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        assertTrue(trail.publish(new AuditEvent(System.currentTimeMillis(), user,
+                            AuditEvent.Operation.ENCRYPT, "clip\t" + i + ".mp4", i, 1_000, AuditEvent.Outcome.SUCCESS,
+                            null)));
+                    }
+                });
+                producers.add(producer);
+                producer.start();
+            }
+            for (Thread producer : producers) {
+                producer.join();
+            }
+            assertTrue(trail.flush(10, TimeUnit.SECONDS));
+
+            assertEquals(threads * perThread, delivered.get());
+            assertEquals(0, trail.getDropped());
+            assertTrue(trail.getBatches() < threads * perThread, "batches: " + trail.getBatches());
+        }
+
+        List<String> lines = Files.readAllLines(dir.resolve(AuditTrail.FILE_NAME));
+        assertEquals(threads * perThread, lines.size());
+        String[] fields = lines.get(0).split("\t", -1);
+        assertEquals(8, fields.length);
+        assertEquals("ENCRYPT", fields[2]);
+        assertTrue(fields[3].startsWith("clip "));
+        assertEquals("SUCCESS", fields[6]);
+    }
+
+    @Test
+    public void testFullBufferDropsAndFileRotates() throws Exception {
+        CountDownLatch stalled = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (AuditTrail trail = AuditTrail.open(dir, 4, 512, 2)) {
+            trail.addListener(batch -> {
+                stalled.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(trail.publish(event("first")));
+            assertTrue(stalled.await(10, TimeUnit.SECONDS));
+
+            // The writer is stuck in the listener: four more fit, the rest are dropped at once.
+            int accepted = 0;
+            for (int i = 0; i < 10; i++) {
+                if (trail.publish(event("user" + i))) {
+                    accepted++;
+                }
+            }
+            assertEquals(4, accepted);
+            assertEquals(6, trail.getDropped());
+            release.countDown();
+            assertTrue(trail.flush(10, TimeUnit.SECONDS));
+            String written = Files.readString(dir.resolve(AuditTrail.FILE_NAME));
+            if (Files.exists(dir.resolve(AuditTrail.FILE_NAME + ".1"))) {
+                written = Files.readString(dir.resolve(AuditTrail.FILE_NAME + ".1")) + written;
+            }
+            assertTrue(written.contains("\t6\t0\tDROPPED\t"), written);
+            assertTrue(written.contains("\tuser3\t"));
+
+            for (int i = 0; i < 40; i++) {
+                assertTrue(trail.publish(event("later" + i)));
+                assertTrue(trail.flush(10, TimeUnit.SECONDS));
+            }
+            assertTrue(trail.getRotations() > 2);
+        }
+
+        assertTrue(Files.exists(dir.resolve(AuditTrail.FILE_NAME + ".1")));
+        assertTrue(Files.exists(dir.resolve(AuditTrail.FILE_NAME + ".2")));
+        assertFalse(Files.exists(dir.resolve(AuditTrail.FILE_NAME + ".3")));
+        for (String name : new String[] {AuditTrail.FILE_NAME, AuditTrail.FILE_NAME + ".1"}) {
+            assertTrue(Files.size(dir.resolve(name)) <= 512);
+        }
+        assertTrue(Files.readString(dir.resolve(AuditTrail.FILE_NAME)).contains("later39"));
+    }
+
+    private static AuditEvent event(String user) {
+        return AuditEvent.success(user, AuditEvent.Operation.DECRYPT, "movie.mp4.encrypted", 1 << 20,
+            System.nanoTime());
+    }
+}
@@ -0,0 +1,323 @@
+package com.pqc.videoencryption.blob;
+
+import com.pqc.videoencryption.crypto.EncryptedFileHeader;
+import com.pqc.videoencryption.crypto.EncryptedVideoReader;
+import com.pqc.videoencryption.crypto.KeyDerivation;
+import com.pqc.videoencryption.crypto.SegmentCache;
+import com.pqc.videoencryption.crypto.SegmentPipeline;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+public class BlobStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private MockObjectStore mock;
+    private S3BlobStore store;
+
+    @BeforeEach
+    public void startMock() throws IOException {
+        mock = new MockObjectStore();
+        store = new S3BlobStore(new S3Config(mock.endpoint(), "videos", "us-east-1", "test-key", "test-secret",
+            S3Config.MIN_PART_SIZE, 3, 3, Duration.ofSeconds(10)));
+    }
+
+    @AfterEach
+    public void stopMock() {
+        store.close();
+        mock.stop();
+    }
+
+    @Test
+    public void testEncryptStreamsToObjectStoreAndDecryptsWithRangedReads() throws Exception {
+        byte[] video = new byte[21 << 20];
+        new SecureRandom().nextBytes(video);
+        Path input = dir.resolve("movie.mp4");
+        Files.write(input, video);
+        byte[] material = new byte[32];
+        new SecureRandom().nextBytes(material);
+        SecretKey masterKey = SymmetricEncryption.createKey(material);
+
+        SegmentPipeline pipeline = new SegmentPipeline(1 << 20, 2, 4);
+        EncryptedFileHeader header = EncryptedFileHeader.create("movie.mp4", "alice", pipeline.getSegmentSize());
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        mock.failures.put("PUT partNumber=2", new AtomicInteger(1));
+        mock.failures.put("GET", new AtomicInteger(1));
+        String key = "alice/movie 1.mp4.encrypted";
+
+        pipeline.encrypt(input, store, key, header, segmentKey);
+        byte[] stored = mock.objects.get(key);
+        assertNotNull(stored);
+        assertEquals(header.length() + 21L * header.sealedSegmentSize(), stored.length);
+        assertEquals(5, mock.partsCompleted.get());
+        assertTrue(mock.maxActiveParts.get() >= 2 && mock.maxActiveParts.get() <= 3,
+            "parts in flight: " + mock.maxActiveParts.get());
+        assertEquals(0, mock.unsigned.get());
+        try (Stream<Path> listing = Files.list(dir)) {
+            assertEquals(1, listing.count(), "encrypted bytes were staged locally");
+        }
+
+        Path output = dir.resolve("movie.out.mp4");
+        try (BlobReader blob = store.open(key)) {
+            assertEquals(stored.length, blob.size());
+            EncryptedFileHeader read = EncryptedFileHeader.read(blob);
+            assertArrayEquals(header.getEncoded(), read.getEncoded());
+            pipeline.decrypt(blob, output, read, segmentKey);
+        }
+        assertArrayEquals(video, Files.readAllBytes(output));
+        assertTrue(mock.rangedGets.get() >= 21, "ranged GETs: " + mock.rangedGets.get());
+        assertEquals(2, store.getRetries());
+
+        SegmentCache cache = new SegmentCache(8 << 20, 1);
+        try (EncryptedVideoReader reader = EncryptedVideoReader.open(store, key, masterKey, cache)) {
+            assertEquals(video.length, reader.size());
+            ByteBuffer dst = ByteBuffer.allocate(4096);
+            long position = 13L * (1 << 20) + 12345;
+            reader.read(position, dst);
+            assertArrayEquals(Arrays.copyOfRange(video, (int) position, (int) position + 4096), dst.array());
+        }
+
+        // A blob smaller than one part goes up in a single PUT.
+        BlobWriter small = store.create("alice/note.txt");
+        small.write(ByteBuffer.wrap("hello".getBytes(StandardCharsets.UTF_8)));
+        assertFalse(store.exists("alice/note.txt"));
+        assertEquals(5, small.commit());
+        assertArrayEquals("hello".getBytes(StandardCharsets.UTF_8), mock.objects.get("alice/note.txt"));
+        assertEquals(1, mock.uploadsStarted.get());
+        assertTrue(store.delete("alice/note.txt"));
+        assertThrows(NoSuchFileException.class, () -> store.open("alice/note.txt"));
+    }
+
+    @Test
+    public void testFailedUploadsAreAbortedAndNothingIsPublished() throws Exception {
+        mock.failures.put("PUT partNumber=2", new AtomicInteger(Integer.MAX_VALUE));
+        byte[] part = new byte[S3Config.MIN_PART_SIZE];
+        BlobWriter writer = store.create("bob/broken.bin");
+        IOException failure = assertThrows(IOException.class, () -> {
+            for (int i = 0; i < 4; i++) {
+                writer.write(ByteBuffer.wrap(part));
+            }
+            writer.commit();
+        });
+        assertTrue(failure.getMessage().contains("HTTP 503"), failure.getMessage());
+        writer.close();
+        assertEquals(1, mock.uploadsAborted.get());
+        assertFalse(store.exists("bob/broken.bin"));
+
+        LocalBlobStore local = new LocalBlobStore(dir.resolve("blobs"));
+        assertThrows(IllegalArgumentException.class, () -> local.create("../outside"));
+        assertThrows(IllegalArgumentException.class, () -> local.resolve("a//b"));
+        try (BlobWriter abandoned = local.create("carol/draft.bin")) {
+            abandoned.write(ByteBuffer.wrap(new byte[100]));
+            assertFalse(local.exists("carol/draft.bin"));
+        }
+        try (Stream<Path> listing = Files.list(dir.resolve("blobs").resolve("carol"))) {
+            assertEquals(0, listing.count());
+        }
+        try (BlobWriter committed = local.create("carol/final.bin")) {
+            committed.write(ByteBuffer.wrap("final".getBytes(StandardCharsets.UTF_8)));
+            assertEquals(5, committed.commit());
+        }
+        try (BlobReader reader = local.open("carol/final.bin")) {
+            ByteBuffer dst = ByteBuffer.allocate(3);
+            assertEquals(3, reader.read(dst, 2));
+            assertEquals("nal", new String(dst.array(), StandardCharsets.UTF_8));
+            assertEquals(-1, reader.read(ByteBuffer.allocate(1), 5));
+        }
+        assertTrue(local.delete("carol/final.bin"));
+        assertFalse(local.delete("carol/final.bin"));
+    }
+
+    /**
+     * Just enough of the S3 REST API for the blob store: path-style single
+     * and multipart PUTs, HEAD, ranged GET and DELETE, with injectable
+     * 503s. Requests must carry a SigV4 authorization for test-key.
+     */
+    private static final class MockObjectStore {
+        private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+        private static final Pattern PART = Pattern.compile("<PartNumber>(\\d+)</PartNumber><ETag>\"([^\"]+)\"</ETag>");
+
+        final Map<String, byte[]> objects = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+        final Map<String, AtomicInteger> failures = new ConcurrentHashMap<>();
+        final AtomicInteger uploadsStarted = new AtomicInteger();
+        final AtomicInteger uploadsAborted = new AtomicInteger();
+        final AtomicInteger partsCompleted = new AtomicInteger();
+        final AtomicInteger activeParts = new AtomicInteger();
+        final AtomicInteger maxActiveParts = new AtomicInteger();
+        final AtomicInteger rangedGets = new AtomicInteger();
+        final AtomicInteger unsigned = new AtomicInteger();
+        private final HttpServer server;
+
+        MockObjectStore() throws IOException {
+            server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/videos/", exchange -> {
+                try {
+                    handle(exchange);
+                } catch (RuntimeException e) {
+                    respond(exchange, 500, new byte[0]);
+                } finally {
+                    exchange.close();
+                }
+            });
+            server.setExecutor(Executors.newFixedThreadPool(8));
+            server.start();
+        }
+
+        URI endpoint() {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+
+        void stop() {
+            server.stop(0);
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+            String method = exchange.getRequestMethod();
+            String key = exchange.getRequestURI().getPath().substring("/videos/".length());
+            Map<String, String> query = new TreeMap<>();
+            String raw = exchange.getRequestURI().getQuery();
+            if (raw != null) {
+                for (String pair : raw.split("&")) {
+                    int eq = pair.indexOf('=');
+                    query.put(eq < 0 ? pair : pair.substring(0, eq), eq < 0 ? "" : pair.substring(eq + 1));
+                }
+            }
+            String authorization = exchange.getRequestHeaders().getFirst("Authorization");
+            if (authorization == null || !authorization.startsWith("AWS4-HMAC-SHA256 Credential=test-key/")
+                    || exchange.getRequestHeaders().getFirst("x-amz-date") == null) {
+                unsigned.incrementAndGet();
+                respond(exchange, 403, "<Error><Code>AccessDenied</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            byte[] body = exchange.getRequestBody().readAllBytes();
+            String fault = method + (query.containsKey("partNumber") ? " partNumber=" + query.get("partNumber") : "");
+            AtomicInteger failing = failures.get(fault);
+            if (failing != null && failing.getAndDecrement() > 0) {
+                respond(exchange, 503, "<Error><Code>SlowDown</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+
+            switch (method) {
+                case "POST":
+                    if (query.containsKey("uploads")) {
+                        String id = "upload-" + uploadsStarted.incrementAndGet();
+                        uploads.put(id, new ConcurrentHashMap<>());
+                        respond(exchange, 200, ("<InitiateMultipartUploadResult><UploadId>" + id
+                            + "</UploadId></InitiateMultipartUploadResult>").getBytes(StandardCharsets.UTF_8));
+                    } else {
+                        Map<Integer, byte[]> parts = uploads.remove(query.get("uploadId"));
+                        ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+                        Matcher matcher = PART.matcher(new String(body, StandardCharsets.UTF_8));
+                        int expected = 1;
+                        while (matcher.find()) {
+                            int number = Integer.parseInt(matcher.group(1));
+                            assertEquals(expected++, number);
+                            assertEquals("etag-" + number, matcher.group(2));
+                            assembled.write(parts.get(number));
+                            partsCompleted.incrementAndGet();
+                        }
+                        objects.put(key, assembled.toByteArray());
+                        respond(exchange, 200, "<CompleteMultipartUploadResult/>".getBytes(StandardCharsets.UTF_8));
+                    }
+                    return;
+                case "PUT":
+                    if (query.containsKey("uploadId")) {
+                        int active = activeParts.incrementAndGet();
+                        maxActiveParts.accumulateAndGet(active, Math::max);
+                        try {
+                            Thread.sleep(100);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        } finally {
+                            activeParts.decrementAndGet();
+                        }
+                        int number = Integer.parseInt(query.get("partNumber"));
+                        uploads.get(query.get("uploadId")).put(number, body);
+                        exchange.getResponseHeaders().set("ETag", "\"etag-" + number + "\"");
+                    } else {
+                        objects.put(key, body);
+                    }
+                    respond(exchange, 200, new byte[0]);
+                    return;
+                case "HEAD": {
+                    byte[] object = objects.get(key);
+                    if (object == null) {
+                        exchange.sendResponseHeaders(404, -1);
+                    } else {
+                        exchange.getResponseHeaders().set("Content-Length", Integer.toString(object.length));
+                        exchange.sendResponseHeaders(200, -1);
+                    }
+                    return;
+                }
+                case "GET": {
+                    byte[] object = objects.get(key);
+                    if (object == null) {
+                        respond(exchange, 404, "<Error><Code>NoSuchKey</Code></Error>".getBytes(StandardCharsets.UTF_8));
+                        return;
+                    }
+                    Matcher range = RANGE.matcher(String.valueOf(exchange.getRequestHeaders().getFirst("Range")));
+                    if (!range.matches()) {
+                        respond(exchange, 200, object);
+                        return;
+                    }
+                    rangedGets.incrementAndGet();
+                    int from = Integer.parseInt(range.group(1));
+                    int to = Math.min(Integer.parseInt(range.group(2)), object.length - 1);
+                    respond(exchange, 206, Arrays.copyOfRange(object, from, to + 1));
+                    return;
+                }
+                case "DELETE":
+                    if (query.containsKey("uploadId")) {
+                        uploads.remove(query.get("uploadId"));
+                        uploadsAborted.incrementAndGet();
+                    } else {
+                        objects.remove(key);
+                    }
+                    exchange.sendResponseHeaders(204, -1);
+                    return;
+                default:
+                    respond(exchange, 405, new byte[0]);
+            }
+        }
+
+        private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+            exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+            if (body.length > 0) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        }
+    }
+}
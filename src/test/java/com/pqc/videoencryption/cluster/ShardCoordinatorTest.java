@@ -0,0 +1,221 @@
+package com.pqc.videoencryption.cluster;
+
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.EncryptedFileHeader;
+import com.pqc.videoencryption.crypto.KeyDerivation;
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import com.pqc.videoencryption.crypto.SegmentPipeline;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ShardCoordinatorTest {
+
+    private static final String SECRET = "shard-test-secret-0123456789";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testWorkerProcessesProduceDecryptableFile() throws Exception {
+        byte[] plaintext = new byte[20 * CryptoConstants.SEGMENT_SIZE + 4321];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("movie.bin"), plaintext);
+        Path output = dir.resolve("movie.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        List<Process> workers = new ArrayList<>();
+        try (ShardCoordinator coordinator = new ShardCoordinator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret())) {
+            for (int i = 0; i < 2; i++) {
+                ProcessBuilder builder = new ProcessBuilder(
+                    Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                    "-cp", System.getProperty("java.class.path"),
+                    "com.pqc.videoencryption.Main", "--worker", "127.0.0.1:" + coordinator.getPort(), "2");
+                builder.environment().put(ShardProtocol.SECRET_ENV, SECRET);
+                builder.redirectErrorStream(true).redirectOutput(new File(dir.toFile(), "worker-" + i + ".log"));
+                workers.add(builder.start());
+            }
+
+            SegmentPipeline.Stats stats = coordinator.encrypt(input, output, "alice", masterKey);
+            assertEquals(21, stats.getSegments());
+            assertTrue(coordinator.getWorkerConnections() >= 1);
+            // The workers see the same files, so no plaintext crossed the links.
+            assertEquals(0, coordinator.getInlineRanges());
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+
+        assertFalse(Files.exists(dir.resolve("movie.bin.encrypted.partial")));
+        assertArrayEquals(plaintext, decrypt(output, masterKey));
+    }
+
+    @Test
+    public void testWorkerWithoutSharedStorageIsSentPlaintext() throws Exception {
+        byte[] plaintext = new byte[10 * CryptoConstants.SEGMENT_SIZE + 17];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("remote.bin"), plaintext);
+        Path output = dir.resolve("remote.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret())) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.getPort());
+            Thread remote = new Thread(() -> {
+                try {
+                    new ShardWorker(address, secret(), 2, ShardWorker.IDLE_TIMEOUT_MILLIS, false).run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "remote-worker");
+            remote.setDaemon(true);
+            remote.start();
+
+            SegmentPipeline.Stats stats = coordinator.encrypt(input, output, "alice", masterKey);
+            assertEquals(11, stats.getSegments());
+            assertEquals(2, coordinator.getInlineRanges());
+            assertEquals(0, coordinator.getRedispatched());
+        }
+
+        assertArrayEquals(plaintext, decrypt(output, masterKey));
+    }
+
+    @Test
+    public void testDroppedWorkerRangeIsRedispatched() throws Exception {
+        byte[] plaintext = new byte[3 * CryptoConstants.SEGMENT_SIZE + 99];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("clip.bin"), plaintext);
+        Path output = dir.resolve("clip.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret())) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.getPort());
+            // Authenticates, accepts the first range and disconnects without
+            // answering; only then does a real worker join.
+            Thread flaky = new Thread(() -> {
+                try {
+                    try (Socket socket = new Socket(address.getAddress(), address.getPort())) {
+                        ShardChannel channel = ShardChannel.worker(new DataInputStream(socket.getInputStream()),
+                            new DataOutputStream(socket.getOutputStream()), secret());
+                        assertEquals(ShardProtocol.TASK, channel.receive().readInt());
+                    }
+                    new ShardWorker(address, secret(), 1).run();
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            }, "flaky-worker");
+            flaky.setDaemon(true);
+            flaky.start();
+
+            SegmentPipeline.Stats stats = coordinator.encrypt(input, output, "alice", masterKey);
+            assertEquals(4, stats.getSegments());
+            assertTrue(coordinator.getRedispatched() >= 1);
+        }
+
+        assertArrayEquals(plaintext, decrypt(output, masterKey));
+    }
+
+    @Test
+    public void testJobFailsWithoutWorkersAndImpostorsAreRefused() throws Exception {
+        Path input = Files.write(dir.resolve("clip.bin"), new byte[CryptoConstants.SEGMENT_SIZE + 1]);
+        Path output = dir.resolve("clip.bin.encrypted");
+
+        try (ShardCoordinator coordinator = new ShardCoordinator(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), secret(), 500)) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), coordinator.getPort());
+            // A worker holding the wrong secret is turned away, so the job
+            // still has nobody to run it.
+            Thread stranger = new Thread(() -> {
+                try {
+                    new ShardWorker(address, "not-the-cluster-secret".getBytes(StandardCharsets.UTF_8), 1).run();
+                } catch (Exception expected) {
+                    // rejected during the handshake
+                }
+            }, "stranger-worker");
+            stranger.setDaemon(true);
+            stranger.start();
+
+            IOException failure = assertThrows(IOException.class,
+                () -> coordinator.encrypt(input, output, "alice", randomKey()));
+            assertTrue(failure.getMessage().contains("No shard worker"), failure.getMessage());
+            assertEquals(0, coordinator.getWorkerConnections());
+        }
+        assertFalse(Files.exists(output));
+        assertFalse(Files.exists(dir.resolve("clip.bin.encrypted.partial")));
+
+        // Nothing listening: the worker gives up instead of hanging.
+        int closedPort;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            closedPort = socket.getLocalPort();
+        }
+        ShardWorker unreachable = new ShardWorker(
+            new InetSocketAddress(InetAddress.getLoopbackAddress(), closedPort), secret(), 1);
+        assertThrows(IOException.class, unreachable::run);
+
+        // A coordinator that does not know the secret skips the worker's proof
+        // and answers with a forged one; the worker hangs up before any task.
+        try (ServerSocket impostor = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            Thread fake = new Thread(() -> {
+                try (Socket socket = impostor.accept()) {
+                    DataInputStream in = new DataInputStream(socket.getInputStream());
+                    DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+                    out.writeInt(ShardProtocol.MAGIC);
+                    out.writeInt(ShardProtocol.VERSION);
+                    out.write(new byte[ShardProtocol.CHALLENGE_SIZE]);
+                    ShardProtocol.writeBytes(out, PostQuantumKeyExchange.generateKeyPair().getPublic().getEncoded());
+                    in.readFully(new byte[ShardProtocol.CHALLENGE_SIZE]);
+                    in.readFully(new byte[in.readInt() + ShardProtocol.PROOF_SIZE]);
+                    out.write(new byte[ShardProtocol.PROOF_SIZE]);
+                    out.flush();
+                    in.read();
+                } catch (Exception ignored) {
+                    // the worker disconnects
+                }
+            }, "impostor-coordinator");
+            fake.setDaemon(true);
+            fake.start();
+            ShardWorker worker = new ShardWorker(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), impostor.getLocalPort()), secret(), 1);
+            IOException refused = assertThrows(IOException.class, worker::run);
+            assertEquals("Coordinator failed authentication", refused.getCause().getMessage());
+        }
+    }
+
+    private byte[] decrypt(Path encrypted, SecretKey masterKey) throws Exception {
+        EncryptedFileHeader header;
+        try (FileChannel channel = FileChannel.open(encrypted, StandardOpenOption.READ)) {
+            header = EncryptedFileHeader.read(channel, 0);
+        }
+        Path decrypted = dir.resolve("decrypted");
+        SegmentPipeline.defaults().decrypt(encrypted, decrypted, header,
+            KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()));
+        return Files.readAllBytes(decrypted);
+    }
+
+    private static byte[] secret() {
+        return SECRET.getBytes(StandardCharsets.UTF_8);
+    }
+}
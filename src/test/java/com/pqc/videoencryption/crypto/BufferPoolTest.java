@@ -0,0 +1,88 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+public class BufferPoolTest {
+
+    @Test
+    public void testBuffersAreAlignedAndReusedZeroed() throws Exception {
+        BufferPool pool = new BufferPool(1 << 20, false);
+
+        ByteBuffer first;
+        try (BufferPool.PooledBuffer buffer = pool.acquire(10_000)) {
+            first = buffer.buffer();
+            assertTrue(first.isDirect());
+            assertEquals(10_000, first.capacity());
+            assertEquals(0, first.alignmentOffset(0, BufferPool.PAGE_SIZE));
+            while (first.hasRemaining()) {
+                first.put((byte) 0x5A);
+            }
+        }
+
+        try (BufferPool.PooledBuffer buffer = pool.acquire(9_000)) {
+            ByteBuffer second = buffer.buffer();
+            while (second.hasRemaining()) {
+                assertEquals(0, second.get());
+            }
+        }
+        assertEquals(1, pool.getMisses());
+        assertEquals(1, pool.getHits());
+        assertEquals(0, pool.getInUseBytes());
+    }
+
+    @Test
+    public void testCapIsEnforced() throws Exception {
+        BufferPool pool = new BufferPool(64 * 1024, false);
+        try (BufferPool.PooledBuffer held = pool.acquire(48 * 1024)) {
+            assertThrows(IOException.class, () -> pool.acquire(32 * 1024, 10, TimeUnit.MILLISECONDS));
+        }
+        try (BufferPool.PooledBuffer reused = pool.acquire(32 * 1024, 10, TimeUnit.MILLISECONDS)) {
+            assertTrue(pool.getReservedBytes() <= pool.getMaxBytes());
+        }
+        // Alignment costs each buffer a page, so two half-cap buffers do not fit.
+        try (BufferPool.PooledBuffer half = pool.acquire(32 * 1024, 10, TimeUnit.MILLISECONDS)) {
+            assertThrows(IOException.class, () -> pool.acquire(32 * 1024, 10, TimeUnit.MILLISECONDS));
+        }
+    }
+
+    @Test
+    public void testLeakedBufferIsFreedNotPooled() throws Exception {
+        BufferPool pool = new BufferPool(1 << 20, false);
+        ByteBuffer view = leak(pool);
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pool.getLeaks() == 0 && System.nanoTime() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(1, pool.getLeaks());
+        assertEquals(0, pool.getInUseBytes());
+        assertEquals(0, pool.getReservedBytes());
+
+        // The next owner gets fresh memory, not the one the stale view still points at.
+        try (BufferPool.PooledBuffer next = pool.acquire(10_000)) {
+            next.buffer().put(0, (byte) 1);
+            assertEquals(0x5A, view.get(0));
+        }
+        assertEquals(2, pool.getMisses());
+        assertEquals(0, pool.getHits());
+    }
+
+    private static ByteBuffer leak(BufferPool pool) throws IOException {
+        ByteBuffer view = pool.acquire(10_000).buffer();
+        view.put(0, (byte) 0x5A);
+        return view;
+    }
+
+    @Test
+    public void testSizeClassesBoundWaste() {
+        assertEquals(BufferPool.PAGE_SIZE, BufferPool.sizeClass(1));
+        int segmentClass = BufferPool.sizeClass(CryptoConstants.SEGMENT_SIZE + CryptoConstants.GCM_TAG_LENGTH);
+        assertTrue(segmentClass >= CryptoConstants.SEGMENT_SIZE + CryptoConstants.GCM_TAG_LENGTH);
+        assertTrue(segmentClass <= CryptoConstants.SEGMENT_SIZE * 5 / 4);
+    }
+}
@@ -0,0 +1,38 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.security.Provider;
+import java.security.Security;
+
+public class CryptoWarmupTest {
+
+    @Test
+    public void testPqcProviderIsCreatedOnceAndRegistered() throws Exception {
+        // The full BouncyCastle provider is no longer needed for AES or HMAC.
+        assertNull(Security.getProvider("BC"));
+
+        Provider pqc = CryptoConstants.pqcProvider();
+        assertSame(pqc, CryptoConstants.pqcProvider());
+        assertSame(pqc, Security.getProvider(pqc.getName()));
+        assertNotNull(PostQuantumKeyExchange.generateKeyPair());
+    }
+
+    @Test
+    public void testBackgroundWarmupStartsOnce() throws Exception {
+        CryptoWarmup.run();
+        assertTrue(CryptoWarmup.start());
+        assertFalse(CryptoWarmup.start());
+
+        Thread warmup = Thread.getAllStackTraces().keySet().stream()
+            .filter(thread -> thread.getName().equals("pqve-warmup"))
+            .findFirst()
+            .orElse(null);
+        if (warmup != null) {
+            assertTrue(warmup.isDaemon());
+            warmup.join(60_000);
+            assertFalse(warmup.isAlive());
+        }
+    }
+}
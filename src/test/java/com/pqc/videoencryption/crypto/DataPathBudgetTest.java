@@ -0,0 +1,353 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import com.pqc.videoencryption.storage.KeyStoreManager;
+import com.pqc.videoencryption.storage.SessionManager;
+import com.pqc.videoencryption.storage.UserRepository;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Performance contracts for the data path: heap bytes allocated per MB
+ * encrypted or decrypted, counted on every thread that touches the data
+ * with {@code com.sun.management.ThreadMXBean}, and a throughput floor on
+ * synthetic input. A per-segment copy or allocation creeping back in
+ * breaks the allocation budgets long before anyone notices it in a
+ * profile; the throughput floors are set low enough for a loaded CI host.
+ * The service-level cases add a CPU budget, in thread CPU time per MB,
+ * which unlike throughput does not depend on how loaded the host is.
+ */
+public class DataPathBudgetTest {
+
+    private static final int MB = 1 << 20;
+    private static final int SEGMENT = CryptoConstants.SEGMENT_SIZE;
+    private static final int PAYLOAD_MB = 64;
+
+    /** Heap bytes per MB for sealing and opening segments on one thread. */
+    static final long CIPHER_BYTES_PER_MB = Long.getLong("pqve.budget.cipherBytesPerMb", 32 * 1024);
+    /** Heap bytes per MB for a whole file-to-file pipeline run, all stages. */
+    static final long PIPELINE_BYTES_PER_MB = Long.getLong("pqve.budget.pipelineBytesPerMb", 48 * 1024);
+    /** Heap bytes per MB for {@code VideoEncryptionService} calls, every thread they use. */
+    static final long SERVICE_BYTES_PER_MB = Long.getLong("pqve.budget.serviceBytesPerMb", 64 * 1024);
+    /** CPU time per MB for {@code VideoEncryptionService} calls, summed over their threads. */
+    static final double SERVICE_CPU_MILLIS_PER_MB = Double.parseDouble(
+        System.getProperty("pqve.budget.serviceCpuMillisPerMb", "25"));
+    static final double MIN_CIPHER_MB_PER_SECOND = Double.parseDouble(
+        System.getProperty("pqve.budget.cipherMbPerSecond", "50"));
+    static final double MIN_PIPELINE_MB_PER_SECOND = Double.parseDouble(
+        System.getProperty("pqve.budget.pipelineMbPerSecond", "25"));
+
+    private static com.sun.management.ThreadMXBean threads;
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    public static void requireAllocationCounters() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Test
+    public void testSegmentCipherStaysWithinBudget() throws Exception {
+        SecretKey key = randomKey();
+        byte[] aad = SymmetricEncryption.segmentAad(new byte[32]);
+        Cipher cipher = SymmetricEncryption.newSegmentCipher();
+        try (BufferPool.PooledBuffer plain = BufferPool.shared().acquire(SEGMENT);
+             BufferPool.PooledBuffer sealed = BufferPool.shared().acquire(SEGMENT + CryptoConstants.GCM_TAG_LENGTH);
+             BufferPool.PooledBuffer opened = BufferPool.shared().acquire(SEGMENT)) {
+            fill(plain.buffer());
+            roundTrips(cipher, key, aad, plain.buffer(), sealed.buffer(), opened.buffer(), 32);
+
+            long allocatedBefore = threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            roundTrips(cipher, key, aad, plain.buffer(), sealed.buffer(), opened.buffer(), PAYLOAD_MB);
+            long elapsed = System.nanoTime() - start;
+            long allocated = threads.getCurrentThreadAllocatedBytes() - allocatedBefore;
+
+            assertEquals(plain.buffer().rewind(), opened.buffer().rewind());
+            // Each MB is both sealed and opened.
+            assertBudget("segment cipher", allocated, 2L * PAYLOAD_MB, CIPHER_BYTES_PER_MB);
+            assertThroughput("segment cipher", 2L * PAYLOAD_MB * MB, elapsed, MIN_CIPHER_MB_PER_SECOND);
+        } finally {
+            SymmetricEncryption.wipe(key);
+        }
+    }
+
+    @Test
+    public void testFilePipelineStaysWithinBudget() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 4, 10);
+        Path input = dir.resolve("synthetic.bin");
+        byte[] block = new byte[MB];
+        new SecureRandom().nextBytes(block);
+        try (var out = Files.newOutputStream(input)) {
+            for (int i = 0; i < PAYLOAD_MB; i++) {
+                out.write(block);
+            }
+        }
+        Path sealed = dir.resolve("synthetic.bin.encrypted");
+        Path opened = dir.resolve("synthetic.out");
+        SecretKey masterKey = randomKey();
+        EncryptedFileHeader header = EncryptedFileHeader.create("synthetic.bin", "alice", SEGMENT);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+
+        run(pipeline, input, 0, sealed, SegmentPipeline.sealing(segmentKey, header.digest()),
+            SEGMENT, header.sealedSegmentSize(), new Meter());
+
+        Meter encryptMeter = new Meter();
+        SegmentPipeline.Stats encrypted = run(pipeline, input, 0, sealed,
+            SegmentPipeline.sealing(segmentKey, header.digest()), SEGMENT, header.sealedSegmentSize(), encryptMeter);
+        Meter decryptMeter = new Meter();
+        SegmentPipeline.Stats decrypted = run(pipeline, sealed, 0, opened,
+            SegmentPipeline.opening(segmentKey, header.digest()), header.sealedSegmentSize(), SEGMENT, decryptMeter);
+
+        assertEquals(Files.size(input), Files.size(opened));
+        assertEquals(-1, Files.mismatch(input, opened));
+        assertBudget("pipeline encrypt", encryptMeter.total(), PAYLOAD_MB, PIPELINE_BYTES_PER_MB);
+        assertBudget("pipeline decrypt", decryptMeter.total(), PAYLOAD_MB, PIPELINE_BYTES_PER_MB);
+        assertThroughput("pipeline encrypt", encrypted.getBytesIn(), encrypted.getElapsedNanos(),
+            MIN_PIPELINE_MB_PER_SECOND);
+        assertThroughput("pipeline decrypt", decrypted.getBytesOut(), decrypted.getElapsedNanos(),
+            MIN_PIPELINE_MB_PER_SECOND);
+        SymmetricEncryption.wipe(segmentKey);
+    }
+
+    @Test
+    public void testServiceEncryptAndDecryptStayWithinBudget() throws Exception {
+        Path input = dir.resolve("synthetic.mp4");
+        byte[] block = new byte[MB];
+        new SecureRandom().nextBytes(block);
+        try (var out = Files.newOutputStream(input)) {
+            for (int i = 0; i < PAYLOAD_MB; i++) {
+                out.write(block);
+            }
+        }
+        Path sealed = dir.resolve("synthetic.mp4.encrypted");
+        Path opened = dir.resolve("synthetic.out.mp4");
+        Path previousUsers = UserRepository.relocate(dir.resolve("data").resolve("users.txt"));
+        Path previousVault = KeyStoreManager.relocate(dir.resolve("keys").resolve("vault.pqkv"));
+        // The shared tuner would keep a profile for this host under data/.
+        String tuning = System.setProperty(PipelineTuner.PROPERTY, "false");
+        try (SessionManager sessions = new SessionManager(Duration.ofMinutes(10))) {
+            // A session, as the server uses, so the password KDF stays out of the measurement.
+            UserRepository.createUser("alice", "budget-password", "", "", "");
+            SessionManager.Session session = sessions.login("alice", "budget-password").orElseThrow();
+            VideoEncryptionService.encryptVideo(input, sealed, session);
+            VideoEncryptionService.decryptVideo(sealed, opened, session);
+
+            ServiceMeter encryptMeter = new ServiceMeter();
+            VideoEncryptionService.encryptVideo(input, sealed, session);
+            encryptMeter.stop();
+            ServiceMeter decryptMeter = new ServiceMeter();
+            VideoEncryptionService.decryptVideo(sealed, opened, session);
+            decryptMeter.stop();
+
+            assertEquals(-1, Files.mismatch(input, opened));
+            assertBudget("service encrypt", encryptMeter.allocated, PAYLOAD_MB, SERVICE_BYTES_PER_MB);
+            assertBudget("service decrypt", decryptMeter.allocated, PAYLOAD_MB, SERVICE_BYTES_PER_MB);
+            assertCpu("service encrypt", encryptMeter.cpuNanos, PAYLOAD_MB);
+            assertCpu("service decrypt", decryptMeter.cpuNanos, PAYLOAD_MB);
+        } finally {
+            if (tuning == null) {
+                System.clearProperty(PipelineTuner.PROPERTY);
+            } else {
+                System.setProperty(PipelineTuner.PROPERTY, tuning);
+            }
+            KeyStoreManager.relocate(previousVault);
+            UserRepository.relocate(previousUsers);
+        }
+    }
+
+    private static void roundTrips(Cipher cipher, SecretKey key, byte[] aad, ByteBuffer plain, ByteBuffer sealed,
+                                   ByteBuffer opened, int segments) throws Exception {
+        for (int i = 0; i < segments; i++) {
+            plain.rewind();
+            sealed.clear();
+            SymmetricEncryption.sealSegment(cipher, key, i, false, aad, plain, sealed);
+            sealed.flip();
+            opened.clear();
+            SymmetricEncryption.openSegment(cipher, key, i, false, aad, sealed, opened);
+        }
+    }
+
+    /**
+     * Runs the file-to-file pipeline with every stage metered: the reader
+     * through its source, each cipher worker through its transform and the
+     * writer on this thread.
+     */
+    private static SegmentPipeline.Stats run(SegmentPipeline pipeline, Path input, long position, Path output,
+                                             SegmentPipeline.TransformFactory transforms, int inputChunk,
+                                             int outputChunk, Meter meter) throws Exception {
+        try (AsynchronousFileChannel in = AsynchronousFileChannel.open(input, StandardOpenOption.READ);
+             AsynchronousFileChannel out = AsynchronousFileChannel.open(output, StandardOpenOption.WRITE,
+                 StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            SegmentPipeline.FileSource source = new SegmentPipeline.FileSource(in, position);
+            ThreadCounter reader = meter.counter();
+            SegmentPipeline.SegmentSource meteredSource = dst -> {
+                reader.start();
+                int n = source.read(dst);
+                reader.update();
+                return n;
+            };
+            SegmentPipeline.TransformFactory meteredTransforms = () -> {
+                ThreadCounter worker = meter.counter();
+                worker.start();
+                SegmentPipeline.SegmentTransform transform = transforms.create();
+                return (index, last, src, dst) -> {
+                    int n = transform.apply(index, last, src, dst);
+                    worker.update();
+                    return n;
+                };
+            };
+            ThreadCounter writer = meter.counter();
+            writer.start();
+            SegmentPipeline.Stats stats = pipeline.run(meteredSource, inputChunk, meteredTransforms, outputChunk,
+                new SegmentPipeline.FileSink(out, 0), List.of());
+            writer.update();
+            return stats;
+        }
+    }
+
+    private static void assertBudget(String path, long allocated, long megabytes, long budgetPerMb) {
+        long perMb = allocated / megabytes;
+        assertTrue(perMb <= budgetPerMb, path + " allocated " + perMb + " bytes/MB, budget is " + budgetPerMb);
+    }
+
+    private static void assertThroughput(String path, long bytes, long elapsedNanos, double minimum) {
+        double mbPerSecond = (bytes / (double) MB) / (elapsedNanos / 1e9);
+        assertTrue(mbPerSecond >= minimum,
+            String.format("%s ran at %.1f MB/s, floor is %.1f MB/s", path, mbPerSecond, minimum));
+    }
+
+    private static void assertCpu(String path, long cpuNanos, long megabytes) {
+        double perMb = cpuNanos / 1e6 / megabytes;
+        assertTrue(perMb <= SERVICE_CPU_MILLIS_PER_MB,
+            String.format("%s used %.1f ms CPU/MB, budget is %.1f ms", path, perMb, SERVICE_CPU_MILLIS_PER_MB));
+    }
+
+    private static void fill(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        new SecureRandom().nextBytes(bytes);
+        buffer.put(bytes).flip();
+    }
+
+    private static final class Meter {
+        private final ConcurrentLinkedQueue<ThreadCounter> counters = new ConcurrentLinkedQueue<>();
+
+        ThreadCounter counter() {
+            ThreadCounter counter = new ThreadCounter();
+            counters.add(counter);
+            return counter;
+        }
+
+        long total() {
+            return counters.stream().mapToLong(counter -> counter.allocated).sum();
+        }
+    }
+
+    /**
+     * Allocation and CPU time of the calling thread and every {@code pqve-}
+     * thread from construction to {@link #stop}. The service starts its own
+     * pipeline threads, which cannot be metered from inside, so they are
+     * sampled every few milliseconds; a thread that exits counts with its
+     * last sample.
+     */
+    private static final class ServiceMeter {
+        private final long caller = Thread.currentThread().getId();
+        private final Map<Long, long[]> baseline = new HashMap<>();
+        private final Map<Long, long[]> latest = new HashMap<>();
+        private final Map<Long, Boolean> metered = new HashMap<>();
+        private final Thread sampler;
+        private volatile boolean running = true;
+        long allocated;
+        long cpuNanos;
+
+        ServiceMeter() {
+            sample(baseline);
+            sampler = new Thread(() -> {
+                while (running) {
+                    sample(latest);
+                    try {
+                        Thread.sleep(2);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }, "budget-sampler");
+            sampler.setDaemon(true);
+            sampler.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            sampler.join();
+            sample(latest);
+            for (Map.Entry<Long, long[]> entry : latest.entrySet()) {
+                long[] start = baseline.getOrDefault(entry.getKey(), new long[2]);
+                allocated += entry.getValue()[0] - start[0];
+                cpuNanos += entry.getValue()[1] - start[1];
+            }
+        }
+
+        private synchronized void sample(Map<Long, long[]> into) {
+            long[] ids = threads.getAllThreadIds();
+            long[] bytes = threads.getThreadAllocatedBytes(ids);
+            long[] cpu = threads.getThreadCpuTime(ids);
+            for (int i = 0; i < ids.length; i++) {
+                if (bytes[i] >= 0 && cpu[i] >= 0 && isMetered(ids[i])) {
+                    into.put(ids[i], new long[] {bytes[i], cpu[i]});
+                }
+            }
+        }
+
+        private boolean isMetered(long id) {
+            return metered.computeIfAbsent(id, key -> {
+                if (key == caller) {
+                    return true;
+                }
+                ThreadInfo info = threads.getThreadInfo(key);
+                return info != null && info.getThreadName().startsWith("pqve-");
+            });
+        }
+    }
+
+    /**
+     * Allocation on one thread between its first {@link #start} and its last {@link #update}.
+     */
+    private static final class ThreadCounter {
+        private volatile long baseline = -1;
+        private volatile long allocated;
+
+        void start() {
+            if (baseline < 0) {
+                baseline = threads.getCurrentThreadAllocatedBytes();
+            }
+        }
+
+        void update() {
+            allocated = threads.getCurrentThreadAllocatedBytes() - baseline;
+        }
+    }
+}
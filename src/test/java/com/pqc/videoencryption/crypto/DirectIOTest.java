@@ -0,0 +1,82 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+public class DirectIOTest {
+
+    private static final int SEGMENT = 16 * 1024;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testDirectPipelineResumesAndRoundTrips() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4).withDirectIo(true);
+        assertTrue(pipeline.withSegmentSize(2 * SEGMENT).isDirectIo());
+        byte[] plaintext = new byte[700 * SEGMENT + 123];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("archive.bin"), plaintext);
+        Path output = dir.resolve("archive.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        // Checkpoints land mid-block, so the resumed run starts at an unaligned offset.
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, 100_000,
+                ResumableEncryptionTest.stopAfter(333)));
+        SegmentPipeline.Stats stats = ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline);
+        assertTrue(stats.getSegments() > 0);
+
+        EncryptedFileHeader header;
+        try (FileChannel channel = FileChannel.open(output, StandardOpenOption.READ)) {
+            header = EncryptedFileHeader.read(channel, 0);
+        }
+        assertEquals(header.length() + plaintext.length + 701L * CryptoConstants.GCM_TAG_LENGTH, Files.size(output));
+        Path decrypted = dir.resolve("decrypted");
+        pipeline.decrypt(output, decrypted, header, KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()));
+        assertArrayEquals(plaintext, Files.readAllBytes(decrypted));
+    }
+
+    @Test
+    public void testUnalignedWritesAndReadsMatchBufferedBytes() throws Exception {
+        byte[] existing = new byte[10_000];
+        new SecureRandom().nextBytes(existing);
+        Path file = Files.write(dir.resolve("data.bin"), existing);
+        byte[] appended = new byte[3 * DirectIO.STAGING_SIZE + 5_000];
+        new SecureRandom().nextBytes(appended);
+
+        try (DirectIO.Output out = DirectIO.openOutput(file, 7_777, BufferPool.shared())) {
+            assertTrue(out.isDirect() || DirectIO.getFallbacks() > 0);
+            out.write(0, ByteBuffer.wrap(appended, 0, 333));
+            out.force();
+            out.write(1, ByteBuffer.wrap(appended, 333, appended.length - 333));
+            out.finish();
+        }
+        byte[] expected = Arrays.copyOf(existing, 7_777 + appended.length);
+        System.arraycopy(appended, 0, expected, 7_777, appended.length);
+        assertArrayEquals(expected, Files.readAllBytes(file));
+
+        ByteBuffer read = ByteBuffer.allocate(expected.length - 4_321);
+        try (DirectIO.Input in = DirectIO.openInput(file, 4_321, BufferPool.shared())) {
+            ByteBuffer chunk = ByteBuffer.allocateDirect(SEGMENT);
+            int n;
+            while ((n = in.read(chunk.clear())) >= 0) {
+                read.put(chunk.flip());
+                assertTrue(n > 0);
+            }
+        }
+        assertArrayEquals(Arrays.copyOfRange(expected, 4_321, expected.length), read.array());
+    }
+}
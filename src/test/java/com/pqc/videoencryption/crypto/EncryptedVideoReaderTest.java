@@ -0,0 +1,143 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Random;
+
+public class EncryptedVideoReaderTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRandomRangesMatchPlaintextWithinCacheBudget() throws Exception {
+        byte[] plaintext = new byte[20 * SEGMENT + 123];
+        new SecureRandom().nextBytes(plaintext);
+        SecretKey masterKey = randomKey();
+        Path encrypted = encrypt(plaintext, masterKey);
+        SegmentCache cache = new SegmentCache(4L * SEGMENT, 1);
+
+        try (EncryptedVideoReader reader = EncryptedVideoReader.open(encrypted, masterKey, cache)) {
+            assertEquals(plaintext.length, reader.size());
+            Random random = new Random(7);
+            for (int i = 0; i < 50; i++) {
+                int position = random.nextInt(plaintext.length);
+                int length = 1 + random.nextInt(3 * SEGMENT);
+                byte[] range = readRange(reader, position, length);
+                assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + range.length), range);
+                assertTrue(cache.getSizeBytes() <= cache.getCapacityBytes());
+            }
+            assertEquals(-1, reader.read(plaintext.length, ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    public void testSequentialReadsHitCacheAndOtherKeysDoNot() throws Exception {
+        byte[] plaintext = new byte[8 * SEGMENT];
+        new SecureRandom().nextBytes(plaintext);
+        SecretKey masterKey = randomKey();
+        Path encrypted = encrypt(plaintext, masterKey);
+        SegmentCache cache = new SegmentCache(16L * SEGMENT, 2);
+
+        try (EncryptedVideoReader reader = EncryptedVideoReader.open(encrypted, masterKey, cache)) {
+            assertArrayEquals(plaintext, readRange(reader, 0, plaintext.length));
+            long misses = cache.getMisses();
+            assertArrayEquals(plaintext, readRange(reader, 0, plaintext.length));
+            assertEquals(misses, cache.getMisses());
+            assertTrue(cache.getHits() > 0);
+        }
+
+        try (EncryptedVideoReader intruder = EncryptedVideoReader.open(encrypted, randomKey(), cache)) {
+            assertThrows(GeneralSecurityException.class, () -> intruder.read(0, ByteBuffer.allocate(16)));
+        }
+    }
+
+    @Test
+    public void testClosingReadersAndCacheWipesPlaintext() throws Exception {
+        byte[] plaintext = new byte[6 * SEGMENT];
+        new SecureRandom().nextBytes(plaintext);
+        SecretKey masterKey = randomKey();
+        Path encrypted = encrypt(plaintext, masterKey);
+        try (SegmentCache cache = new SegmentCache(16L * SEGMENT, 1)) {
+            EncryptedVideoReader first = EncryptedVideoReader.open(encrypted, masterKey, cache);
+            EncryptedVideoReader second = EncryptedVideoReader.open(encrypted, masterKey, cache);
+            assertArrayEquals(plaintext, readRange(first, 0, plaintext.length));
+            first.close();
+            assertTrue(cache.getSizeBytes() > 0, "segments stay cached while another reader is open");
+            long misses = cache.getMisses();
+            assertArrayEquals(plaintext, readRange(second, 0, plaintext.length));
+            assertEquals(misses, cache.getMisses());
+            second.close();
+            assertEquals(0, cache.getSizeBytes());
+        }
+
+        BufferPool pool = new BufferPool(1 << 20, false);
+        SegmentCache.Loader loader = index -> {
+            BufferPool.PooledBuffer buffer = pool.acquire(SEGMENT);
+            while (buffer.buffer().hasRemaining()) {
+                buffer.buffer().put((byte) (index + 1));
+            }
+            buffer.buffer().flip();
+            return buffer;
+        };
+        SegmentCache cache = new SegmentCache(2 * BufferPool.footprint(SEGMENT), 1);
+        cache.attach("clip");
+        ByteBuffer[] views = new ByteBuffer[3];
+        for (int i = 0; i < views.length; i++) {
+            try (SegmentCache.Entry entry = cache.get(new SegmentCache.Key("clip", 1, 1, i), loader)) {
+                views[i] = entry.data();
+            }
+        }
+        assertEquals(1, cache.getEvictions());
+        assertTrue(isZero(views[0]), "evicted segment was not wiped");
+        assertFalse(isZero(views[2]));
+
+        SegmentCache.Entry held = cache.get(new SegmentCache.Key("clip", 1, 1, 2), loader);
+        cache.close();
+        assertTrue(isZero(views[1]), "closing the cache did not wipe an idle segment");
+        assertFalse(isZero(views[2]), "a segment in use was wiped under its reader");
+        held.close();
+        assertTrue(isZero(views[2]));
+        assertEquals(0, pool.getInUseBytes());
+    }
+
+    private static boolean isZero(ByteBuffer view) {
+        ByteBuffer data = view.duplicate().clear();
+        while (data.hasRemaining()) {
+            if (data.get() != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Path encrypt(byte[] plaintext, SecretKey masterKey) throws Exception {
+        Path input = Files.write(dir.resolve("movie.bin"), plaintext);
+        Path output = dir.resolve("movie.bin.encrypted");
+        ResumableEncryption.encrypt(input, output, "alice", masterKey, new SegmentPipeline(SEGMENT, 2, 4));
+        return output;
+    }
+
+    private static byte[] readRange(EncryptedVideoReader reader, long position, int length) throws Exception {
+        ByteBuffer range = ByteBuffer.allocate(length);
+        while (range.hasRemaining()) {
+            int n = reader.read(position + range.position(), range);
+            if (n < 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(range.array(), range.position());
+    }
+}
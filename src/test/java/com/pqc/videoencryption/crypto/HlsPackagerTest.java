@@ -0,0 +1,105 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class HlsPackagerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRenditionsAreEncryptedWithPerSegmentIvs() throws Exception {
+        Path input = dir.resolve("source");
+        Map<String, byte[]> media = new HashMap<>();
+        write(input, "master.m3u8", "#EXTM3U\n#EXT-X-STREAM-INF:BANDWIDTH=800000\nlow/index.m3u8\n"
+            + "#EXT-X-STREAM-INF:BANDWIDTH=2400000\nhigh/index.m3u8\n");
+        write(input, "low/index.m3u8", "#EXTM3U\n#EXT-X-VERSION:1\n#EXT-X-TARGETDURATION:4\n"
+            + "#EXTINF:4.0,\nseg0.ts\n#EXTINF:4.0,\nseg1.ts\n#EXTINF:2.5,\nseg2.ts\n#EXT-X-ENDLIST\n");
+        write(input, "high/index.m3u8", "#EXTM3U\n#EXT-X-VERSION:7\n#EXT-X-TARGETDURATION:4\n"
+            + "#EXT-X-MAP:URI=\"init.mp4\"\n#EXTINF:4.0,\nseg0.m4s\n#EXTINF:4.0,\nseg1.m4s\n#EXT-X-ENDLIST\n");
+        for (String name : List.of("low/seg0.ts", "low/seg1.ts", "low/seg2.ts",
+                "high/init.mp4", "high/seg0.m4s", "high/seg1.m4s")) {
+            byte[] data = new byte[5000 + media.size() * 70_001];
+            new SecureRandom().nextBytes(data);
+            Files.write(input.resolve(name), data);
+            media.put(name, data);
+        }
+
+        byte[] keyBytes = new byte[CryptoConstants.HLS_KEY_SIZE];
+        new SecureRandom().nextBytes(keyBytes);
+        SecretKey contentKey = HlsPackager.createContentKey(keyBytes);
+        Path output = dir.resolve("packaged");
+        HlsPackager.Result result = new HlsPackager(3, CryptoConstants.MIN_SEGMENT_SIZE)
+            .pack(input, output, contentKey, new byte[32], "https://keys.example/k1");
+
+        assertEquals(6, result.getSegments());
+        assertEquals(3, result.getPlaylists());
+        assertEquals(Files.readString(input.resolve("master.m3u8")), Files.readString(output.resolve("master.m3u8")));
+
+        int checked = 0;
+        for (String rendition : List.of("low", "high")) {
+            List<String> lines = Files.readAllLines(output.resolve(rendition + "/index.m3u8"));
+            assertTrue(lines.contains("#EXT-X-VERSION:" + (rendition.equals("low") ? 2 : 7)));
+            String iv = null;
+            for (String line : lines) {
+                if (line.startsWith("#EXT-X-KEY:")) {
+                    assertTrue(line.contains("METHOD=AES-128,URI=\"https://keys.example/k1\""));
+                    iv = line.substring(line.indexOf("IV=0x") + 5);
+                    continue;
+                }
+                String uri = line.startsWith("#EXT-X-MAP") ? "init.mp4" : line.startsWith("#") ? null : line;
+                if (uri == null) {
+                    continue;
+                }
+                assertNotNull(iv, "segment without key tag: " + uri);
+                String name = rendition + "/" + uri;
+                Cipher cipher = Cipher.getInstance(CryptoConstants.HLS_CIPHER);
+                cipher.init(Cipher.DECRYPT_MODE, contentKey, new IvParameterSpec(hex(iv)));
+                assertArrayEquals(media.get(name), cipher.doFinal(Files.readAllBytes(output.resolve(name))));
+                checked++;
+                iv = null;
+            }
+        }
+        assertEquals(6, checked);
+    }
+
+    @Test
+    public void testByteRangePlaylistsAreRejected() throws Exception {
+        Path input = dir.resolve("ranged");
+        write(input, "index.m3u8", "#EXTM3U\n#EXT-X-TARGETDURATION:4\n#EXTINF:4.0,\n"
+            + "#EXT-X-BYTERANGE:1000@0\nall.ts\n#EXT-X-ENDLIST\n");
+        write(input, "all.ts", "not really a transport stream");
+        SecretKey contentKey = HlsPackager.createContentKey(new byte[CryptoConstants.HLS_KEY_SIZE]);
+
+        assertThrows(IOException.class, () -> HlsPackager.defaults()
+            .pack(input, dir.resolve("out"), contentKey, new byte[32], "key.bin"));
+        assertFalse(Files.exists(dir.resolve("out/index.m3u8")));
+    }
+
+    private static void write(Path root, String name, String content) throws IOException {
+        Path file = root.resolve(name);
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, content);
+    }
+
+    private static byte[] hex(String value) {
+        byte[] bytes = new byte[value.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(value.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
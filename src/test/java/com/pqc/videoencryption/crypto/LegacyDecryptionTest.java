@@ -0,0 +1,59 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomBytes;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class LegacyDecryptionTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testV1FileLargerThanOneSegmentDecrypts() throws Exception {
+        SecretKey key = randomKey();
+        byte[] plaintext = randomBytes(3 * CryptoConstants.SEGMENT_SIZE + 1234);
+        Path legacy = writeV1(key, plaintext);
+        Path output = dir.resolve("clip.mp4");
+
+        VideoEncryptionService.decryptLegacy(legacy, output, key);
+        assertArrayEquals(plaintext, Files.readAllBytes(output));
+    }
+
+    @Test
+    public void testTamperedV1FileLeavesNoOutput() throws Exception {
+        SecretKey key = randomKey();
+        Path legacy = writeV1(key, randomBytes(2 * CryptoConstants.SEGMENT_SIZE));
+        byte[] data = Files.readAllBytes(legacy);
+        data[data.length - 1] ^= 1;
+        Files.write(legacy, data);
+        Path output = dir.resolve("clip.mp4");
+
+        assertThrows(AEADBadTagException.class, () -> VideoEncryptionService.decryptLegacy(legacy, output, key));
+        assertFalse(Files.exists(output));
+    }
+
+    private Path writeV1(SecretKey key, byte[] plaintext) throws Exception {
+        byte[] iv = randomBytes(CryptoConstants.GCM_IV_SIZE);
+        Cipher cipher = Cipher.getInstance(CryptoConstants.AES_CIPHER);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(CryptoConstants.GCM_TAG_SIZE, iv));
+        byte[] ciphertext = cipher.doFinal(plaintext);
+        byte[] name = "clip.mp4".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer file = ByteBuffer.allocate(12 + name.length + iv.length + ciphertext.length)
+            .putInt(name.length).put(name)
+            .putInt(iv.length).put(iv)
+            .putInt(ciphertext.length).put(ciphertext);
+        return Files.write(dir.resolve("clip.enc"), file.array());
+    }
+}
@@ -0,0 +1,186 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+public class LiveStreamEncryptorTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @Test
+    public void testStreamRoundTripAndTruncationDetection() throws Exception {
+        byte[] plaintext = new byte[7 * SEGMENT + 1234];
+        new SecureRandom().nextBytes(plaintext);
+        SecretKey masterKey = randomKey();
+        EncryptedFileHeader header = EncryptedFileHeader.create("camera-1", "alice", SEGMENT,
+            EncryptedFileHeader.FLAG_FRAMED);
+        LiveStreamEncryptor encryptor = new LiveStreamEncryptor(header,
+            KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()), 1000, ForkJoinPool.commonPool(), 2);
+        Collector collector = new Collector();
+        encryptor.subscribe(collector);
+
+        try (SubmissionPublisher<ByteBuffer> camera = new SubmissionPublisher<>()) {
+            camera.subscribe(encryptor);
+            for (int offset = 0; offset < plaintext.length; offset += 997) {
+                camera.submit(ByteBuffer.wrap(plaintext, offset, Math.min(997, plaintext.length - offset)));
+            }
+        }
+        List<byte[]> items = collector.done.get(10, TimeUnit.SECONDS);
+        assertEquals(9, items.size());
+        assertEquals(8, encryptor.getSegments());
+
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        items.forEach(stream::writeBytes);
+        assertArrayEquals(plaintext, decrypt(stream.toByteArray(), masterKey));
+
+        byte[] truncated = Arrays.copyOf(stream.toByteArray(), stream.size() - items.get(items.size() - 1).length);
+        assertThrows(GeneralSecurityException.class, () -> decrypt(truncated, masterKey));
+    }
+
+    @Test
+    public void testPartialSegmentIsFlushedAfterLatencyBound() throws Exception {
+        SecretKey masterKey = randomKey();
+        EncryptedFileHeader header = EncryptedFileHeader.create("camera-2", "alice", SEGMENT,
+            EncryptedFileHeader.FLAG_FRAMED);
+        LiveStreamEncryptor encryptor = new LiveStreamEncryptor(header,
+            KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()), 5, ForkJoinPool.commonPool(), 4);
+        Collector collector = new Collector();
+        encryptor.subscribe(collector);
+
+        try (SubmissionPublisher<ByteBuffer> camera = new SubmissionPublisher<>()) {
+            camera.subscribe(encryptor);
+            camera.submit(ByteBuffer.wrap(new byte[100]));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (collector.items.size() < 2 && System.nanoTime() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(2, collector.items.size());
+            assertFalse(collector.done.isDone());
+            assertEquals(EncryptedFileHeader.FRAME_PREFIX + 100 + CryptoConstants.GCM_TAG_LENGTH,
+                collector.items.get(1).length);
+        }
+        collector.done.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testSlowSubscriberOnlyStallsItsOwnStream() throws Exception {
+        SecretKey masterKey = randomKey();
+        EncryptedFileHeader slowHeader = EncryptedFileHeader.create("camera-3", "alice", SEGMENT,
+            EncryptedFileHeader.FLAG_FRAMED);
+        ExecutorService slowDelivery = Executors.newSingleThreadExecutor();
+        LiveStreamEncryptor slow = new LiveStreamEncryptor(slowHeader,
+            KeyDerivation.deriveSegmentKey(masterKey, slowHeader.getSalt()), 5, slowDelivery, 1);
+        Collector stuck = new Collector(new CountDownLatch(1));
+        slow.subscribe(stuck);
+        byte[] plaintext = new byte[3 * SEGMENT + 100];
+        new SecureRandom().nextBytes(plaintext);
+        SubmissionPublisher<ByteBuffer> camera = new SubmissionPublisher<>();
+        try {
+            camera.subscribe(slow);
+            // One sealed segment fills the subscriber's buffer; the partial one behind it is due for a flush.
+            camera.submit(ByteBuffer.wrap(plaintext, 0, SEGMENT));
+            camera.submit(ByteBuffer.wrap(plaintext, SEGMENT, 100));
+            Thread.sleep(50);
+
+            EncryptedFileHeader header = EncryptedFileHeader.create("camera-4", "alice", SEGMENT,
+                EncryptedFileHeader.FLAG_FRAMED);
+            LiveStreamEncryptor fast = new LiveStreamEncryptor(header,
+                KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()), 5, ForkJoinPool.commonPool(), 4);
+            Collector collector = new Collector();
+            fast.subscribe(collector);
+            try (SubmissionPublisher<ByteBuffer> other = new SubmissionPublisher<>()) {
+                other.subscribe(fast);
+                other.submit(ByteBuffer.wrap(new byte[100]));
+                long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+                while (collector.items.size() < 2 && System.nanoTime() < deadline) {
+                    Thread.sleep(1);
+                }
+                assertEquals(2, collector.items.size(), "flush of a healthy stream waited on a stalled one");
+            }
+            collector.done.get(5, TimeUnit.SECONDS);
+            assertFalse(stuck.done.isDone());
+        } finally {
+            stuck.gate.countDown();
+        }
+        camera.submit(ByteBuffer.wrap(plaintext, SEGMENT + 100, plaintext.length - SEGMENT - 100));
+        camera.close();
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stuck.done.get(5, TimeUnit.SECONDS).forEach(stream::writeBytes);
+        slowDelivery.shutdown();
+        assertArrayEquals(plaintext, decrypt(stream.toByteArray(), masterKey));
+    }
+
+    private static byte[] decrypt(byte[] stream, SecretKey masterKey) throws Exception {
+        ReadableByteChannel in = Channels.newChannel(new ByteArrayInputStream(stream));
+        EncryptedFileHeader header = EncryptedFileHeader.read(in);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        LiveStreamEncryptor.decrypt(in, Channels.newChannel(out), header,
+            KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()));
+        return out.toByteArray();
+    }
+
+    private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+        final List<byte[]> items = new CopyOnWriteArrayList<>();
+        final CompletableFuture<List<byte[]>> done = new CompletableFuture<>();
+        final CountDownLatch gate;
+
+        Collector() {
+            this(new CountDownLatch(0));
+        }
+
+        /**
+         * @param gate opened before the first item is taken in
+         */
+        Collector(CountDownLatch gate) {
+            this.gate = gate;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] bytes = new byte[item.remaining()];
+            item.get(bytes);
+            items.add(bytes);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(items);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+public class OutputCommitterTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testConcurrentCommitsShareDirectorySyncs() throws Exception {
+        int files = 200;
+        int threads = 16;
+        CyclicBarrier start = new CyclicBarrier(threads);
+        ExecutorService jobs = Executors.newFixedThreadPool(threads);
+        try (OutputCommitter committer = new OutputCommitter(4)) {
+            List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                int first = t;
+                results.add(jobs.submit(() -> {
+                    List<Path> outputs = new ArrayList<>();
+                    List<Path> temps = new ArrayList<>();
+                    for (int i = first; i < files; i += threads) {
+                        Path output = dir.resolve("video" + i + ".mp4.encrypted");
+                        Path temp = OutputCommitter.tempPath(output);
+                        Files.write(temp, ("segment data " + i).getBytes());
+                        assertFalse(Files.exists(output));
+                        outputs.add(output);
+                        temps.add(temp);
+                    }
+                    // Every thread commits at once, as concurrent jobs finishing together would.
+                    start.await();
+                    List<CompletableFuture<Void>> commits = new ArrayList<>();
+                    for (int i = 0; i < temps.size(); i++) {
+                        commits.add(committer.commitAsync(temps.get(i), outputs.get(i)));
+                    }
+                    for (CompletableFuture<Void> commit : commits) {
+                        OutputCommitter.await(commit);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+
+            assertEquals(files, committer.getCommits());
+            assertTrue(committer.getBatches() < files / 4, "batches: " + committer.getBatches());
+            assertTrue(committer.getDirectorySyncs() < files / 4,
+                "directory syncs: " + committer.getDirectorySyncs());
+        } finally {
+            jobs.shutdown();
+        }
+        for (int i = 0; i < files; i++) {
+            assertEquals("segment data " + i, Files.readString(dir.resolve("video" + i + ".mp4.encrypted")));
+        }
+        try (Stream<Path> listing = Files.list(dir)) {
+            assertEquals(files, listing.count(), "temporary files left behind");
+        }
+    }
+
+    @Test
+    public void testFailedCommitLeavesOthersAndNoOutput() throws Exception {
+        Path output = dir.resolve("clip.mp4");
+        Files.writeString(output, "previous version");
+        Path temp = OutputCommitter.tempPath(output);
+        assertTrue(temp.getFileName().toString().startsWith("."));
+        assertNotEquals(temp, OutputCommitter.tempPath(output));
+
+        try (OutputCommitter committer = new OutputCommitter(2)) {
+            Path missing = OutputCommitter.tempPath(dir.resolve("missing.mp4"));
+            CompletableFuture<Void> failed = committer.commitAsync(missing, dir.resolve("missing.mp4"));
+            Files.writeString(temp, "new version");
+            CompletableFuture<Void> replaced = committer.commitAsync(temp, output);
+
+            assertThrows(NoSuchFileException.class, () -> OutputCommitter.await(failed));
+            OutputCommitter.await(replaced);
+        }
+        assertFalse(Files.exists(dir.resolve("missing.mp4")));
+        assertEquals("new version", Files.readString(output));
+        assertFalse(Files.exists(temp));
+
+        OutputCommitter closed = new OutputCommitter(1);
+        closed.close();
+        Path late = OutputCommitter.tempPath(output);
+        Files.writeString(late, "too late");
+        assertThrows(IOException.class, () -> closed.commit(late, output));
+        assertEquals("new version", Files.readString(output));
+    }
+}
@@ -0,0 +1,79 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+
+public class PipelineTunerTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testWorkerControlSettlesAtThroughputPeak() {
+        PipelineTuner.WorkerControl control = new PipelineTuner.WorkerControl(2, 8, PipelineTuner.WINDOW_NANOS);
+        for (int window = 0; window < 40; window++) {
+            // Scales to five workers, then contention costs throughput.
+            int workers = control.getActiveWorkers();
+            control.adjust(Math.min(workers, 5) * 100.0 - Math.max(0, workers - 5) * 30.0, false);
+            assertTrue(control.getActiveWorkers() >= 4 || window < 3, "workers: " + control.getActiveWorkers());
+        }
+        assertEquals(5, control.getSettledWorkers());
+
+        PipelineTuner.WorkerControl saturated = new PipelineTuner.WorkerControl(4, 8, PipelineTuner.WINDOW_NANOS);
+        for (int window = 0; window < 40; window++) {
+            saturated.adjust(400, true);
+            assertTrue(saturated.getActiveWorkers() <= 4);
+        }
+        assertEquals(4, saturated.getSettledWorkers());
+    }
+
+    @Test
+    public void testProbesSegmentSizesAndPersistsProfile() throws Exception {
+        Path profile = dir.resolve("profile.properties");
+        Path input = dir.resolve("input.bin");
+        byte[] data = new byte[16 << 20];
+        new SecureRandom().nextBytes(data);
+        Files.write(input, data);
+        Path output = dir.resolve("input.bin.encrypted");
+        byte[] material = new byte[32];
+        new SecureRandom().nextBytes(material);
+        SecretKey masterKey = SymmetricEncryption.createKey(material);
+
+        PipelineTuner tuner = new PipelineTuner(profile, 4);
+        Set<Integer> tried = new HashSet<>();
+        String device = null;
+        for (int job = 0; job < PipelineTuner.SEGMENT_SIZES.length; job++) {
+            PipelineTuner.Job tuning = tuner.begin(input, output, 0);
+            device = tuning.getDevice();
+            SegmentPipeline pipeline = tuning.getPipeline();
+            assertEquals(4, pipeline.getWorkers());
+            tried.add(pipeline.getSegmentSize());
+
+            EncryptedFileHeader header = EncryptedFileHeader.create("input.bin", "alice", pipeline.getSegmentSize());
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+            tuning.finish(pipeline.encrypt(input, output, header, segmentKey));
+            assertTrue(tuner.getRecordedRate(device, pipeline.getSegmentSize()) > 0);
+        }
+        assertEquals(PipelineTuner.SEGMENT_SIZES.length, tried.size());
+
+        int best = 0;
+        for (int size : PipelineTuner.SEGMENT_SIZES) {
+            if (best == 0 || tuner.getRecordedRate(device, size) > tuner.getRecordedRate(device, best)) {
+                best = size;
+            }
+        }
+        PipelineTuner reloaded = new PipelineTuner(profile, 4);
+        assertEquals(tuner.getRecordedRate(device, best), reloaded.getRecordedRate(device, best));
+        assertEquals(best, reloaded.begin(input, output, 0).getPipeline().getSegmentSize());
+        // A fixed segment size, as when decrypting, is kept.
+        assertEquals(64 << 10, reloaded.begin(input, output, 64 << 10).getPipeline().getSegmentSize());
+    }
+}
@@ -0,0 +1,62 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class RandomSourceTest {
+
+    @Test
+    public void testEachThreadHasItsOwnGeneratorAndNoncesNeverRepeat() throws Exception {
+        Set<SecureRandom> generators = ConcurrentHashMap.newKeySet();
+        Set<ByteBuffer> nonces = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                tasks.add(executor.submit(() -> {
+                    generators.add(RandomSource.current());
+                    for (int i = 0; i < 20_000; i++) {
+                        byte[] nonce = RandomSource.nextNonce();
+                        assertEquals(CryptoConstants.GCM_IV_SIZE, nonce.length);
+                        assertTrue(nonces.add(ByteBuffer.wrap(nonce)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(8, generators.size());
+        assertEquals(160_000, nonces.size());
+    }
+
+    @Test
+    public void testSequenceCountsAndGeneratorSurvivesReseed() {
+        RandomSource.NonceSequence sequence = RandomSource.nonceSequence();
+        ByteBuffer first = ByteBuffer.wrap(sequence.next());
+        ByteBuffer second = ByteBuffer.wrap(sequence.next());
+        assertEquals(first.getInt(0), second.getInt(0));
+        assertEquals(first.getLong(4) + 1, second.getLong(4));
+
+        byte[] previous = RandomSource.nextBytes(32);
+        for (int i = 0; i < RandomSource.RESEED_REQUESTS + 10; i++) {
+            byte[] next = RandomSource.nextBytes(32);
+            assertFalse(Arrays.equals(previous, next));
+            previous = next;
+        }
+    }
+}
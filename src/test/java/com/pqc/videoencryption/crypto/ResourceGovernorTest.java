@@ -0,0 +1,121 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static com.pqc.videoencryption.TestData.randomBytes;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+public class ResourceGovernorTest {
+
+    @Test
+    public void testJobsWaitForByteBudgetAndReportWaitTime() throws Exception {
+        ResourceGovernor governor = new ResourceGovernor(100, 4);
+
+        ResourceGovernor.Lease first = governor.admit(80, List.of());
+        CompletableFuture<ResourceGovernor.Lease> second = CompletableFuture.supplyAsync(() -> {
+            try {
+                return governor.admit(50, List.of());
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        Thread.sleep(100);
+        assertFalse(second.isDone());
+        assertEquals(1, governor.getQueuedJobs());
+
+        first.close();
+        ResourceGovernor.Lease admitted = second.get(5, TimeUnit.SECONDS);
+        assertTrue(admitted.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(50, governor.getAvailableBytes());
+        admitted.close();
+        assertEquals(100, governor.getAvailableBytes());
+    }
+
+    @Test
+    public void testOversizedJobRunsAlone() throws Exception {
+        ResourceGovernor governor = new ResourceGovernor(100, 1);
+        try (ResourceGovernor.Lease lease = governor.admit(1_000, List.of())) {
+            assertEquals(0, governor.getAvailableBytes());
+        }
+        assertEquals(100, governor.getAvailableBytes());
+    }
+
+    @Test
+    public void testLeaseCoversWhatThePoolReserves() throws Exception {
+        int segment = 64 * 1024;
+        BufferPool pool = new BufferPool(64L << 20, false);
+        ResourceGovernor governor = new ResourceGovernor(64L << 20, 4);
+        SegmentPipeline pipeline = new SegmentPipeline(segment, 2, 4, pool, governor);
+        EncryptedFileHeader header = EncryptedFileHeader.create("clip.mp4", "alice", segment);
+        long[] reserved = new long[1];
+        long[] leased = new long[1];
+
+        // By the first read every slot buffer is acquired from the fresh pool.
+        pipeline.run(dst -> {
+            if (leased[0] == 0) {
+                reserved[0] = pool.getReservedBytes();
+                leased[0] = (64L << 20) - governor.getAvailableBytes();
+            }
+            return -1;
+        }, segment, SegmentPipeline.sealing(randomKey(), header.digest()), header.sealedSegmentSize(),
+            (index, data) -> { });
+        assertTrue(reserved[0] > 0);
+        assertTrue(reserved[0] <= leased[0], reserved[0] + " bytes reserved under a lease of " + leased[0]);
+    }
+
+    @Test
+    public void testAdmittedJobsRunAlongsideFullCache() throws Exception {
+        int segment = 64 * 1024;
+        BufferPool pool = new BufferPool(3L << 20, false);
+        SegmentCache cache = new SegmentCache(1L << 20, 1);
+        Object file = new Object();
+        cache.attach(file);
+        for (int i = 0; i < 32; i++) {
+            cache.get(new SegmentCache.Key(file, 0, 0, i), index -> pool.acquire(segment)).close();
+        }
+        long cached = cache.getSizeBytes();
+        assertTrue(cached > cache.getCapacityBytes() - BufferPool.footprint(segment), "cache is full");
+
+        ResourceGovernor governor = new ResourceGovernor(ResourceGovernor.defaultBudget(pool, cache), 4);
+        assertEquals(2L << 20, governor.getAvailableBytes());
+        SegmentPipeline pipeline = new SegmentPipeline(segment, 2, 4, pool, governor);
+        byte[] plaintext = randomBytes(20 * segment + 5);
+        SecretKey segmentKey = randomKey();
+
+        // More jobs than fit at once; each must be admitted only when the
+        // pool, with the cache's buffers taken out, really has its buffers.
+        ExecutorService jobs = Executors.newFixedThreadPool(6);
+        try {
+            List<Future<SegmentPipeline.Stats>> results = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                results.add(jobs.submit(() -> pipeline.encrypt(
+                    Channels.newChannel(new ByteArrayInputStream(plaintext)),
+                    Channels.newChannel(new ByteArrayOutputStream()),
+                    EncryptedFileHeader.create("clip.mp4", "alice", segment), segmentKey)));
+            }
+            for (Future<SegmentPipeline.Stats> result : results) {
+                assertEquals(21, result.get(20, TimeUnit.SECONDS).getSegments());
+            }
+        } finally {
+            jobs.shutdownNow();
+        }
+        assertEquals(cached, cache.getSizeBytes());
+        assertEquals(2L << 20, governor.getAvailableBytes());
+        assertTrue(pool.getReservedBytes() <= pool.getMaxBytes());
+        cache.close();
+    }
+}
@@ -0,0 +1,160 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+public class ResumableEncryptionTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testInterruptedEncryptionResumesFromCheckpoint() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4);
+        byte[] plaintext = new byte[10 * SEGMENT + 77];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("archive.bin"), plaintext);
+        Path output = dir.resolve("archive.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, 1, stopAfter(4)));
+        assertFalse(Files.exists(output));
+        assertTrue(Files.exists(CheckpointJournal.partialPath(output)));
+        assertEquals(4, CheckpointJournal.load(CheckpointJournal.journalPath(output)).getCommittedSegments());
+
+        // The listener also sees the segments the first run committed.
+        List<Long> seen = new ArrayList<>();
+        SegmentPipeline.Stats resumed = ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline,
+            (header, index, sealed) -> seen.add(index));
+        assertEquals(7, resumed.getSegments());
+        assertEquals(LongStream.range(0, 11).boxed().collect(Collectors.toList()), seen);
+        assertTrue(Files.exists(output));
+        assertFalse(Files.exists(CheckpointJournal.partialPath(output)));
+        assertFalse(Files.exists(CheckpointJournal.journalPath(output)));
+
+        assertArrayEquals(plaintext, decrypt(pipeline, output, masterKey));
+    }
+
+    @Test
+    public void testCorruptPrefixRestartsFromScratch() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4);
+        byte[] plaintext = new byte[6 * SEGMENT];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("clip.bin"), plaintext);
+        Path output = dir.resolve("clip.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, 1, stopAfter(3)));
+        Path partial = CheckpointJournal.partialPath(output);
+        byte[] damaged = Files.readAllBytes(partial);
+        damaged[damaged.length - 1] ^= 1;
+        Files.write(partial, damaged);
+
+        SegmentPipeline.Stats stats = ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline);
+        assertEquals(6, stats.getSegments());
+        assertArrayEquals(plaintext, decrypt(pipeline, output, masterKey));
+    }
+
+    @Test
+    public void testChangedInputIsEncryptedFromScratch() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4);
+        byte[] plaintext = new byte[6 * SEGMENT];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("clip.bin"), plaintext);
+        Path output = dir.resolve("clip.bin.encrypted");
+        SecretKey masterKey = randomKey();
+
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, 1, stopAfter(3)));
+        // Same size and mtime: only the content shows the committed prefix no longer matches.
+        FileTime modified = Files.getLastModifiedTime(input);
+        plaintext[SEGMENT + 9] ^= 1;
+        Files.write(input, plaintext);
+        Files.setLastModifiedTime(input, modified);
+
+        SegmentPipeline.Stats stats = ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline);
+        assertEquals(6, stats.getSegments());
+        assertArrayEquals(plaintext, decrypt(pipeline, output, masterKey));
+    }
+
+    @Test
+    public void testFailureThatCannotBeResumedRemovesCheckpoint() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4);
+        Path input = Files.write(dir.resolve("clip.bin"), new byte[4 * SEGMENT]);
+        Path output = dir.resolve("clip.bin.encrypted");
+
+        assertThrows(IllegalStateException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", randomKey(), pipeline, 1, (header, index, sealed) -> {
+                if (index == 2) {
+                    throw new IllegalStateException("listener failed");
+                }
+            }));
+        assertFalse(Files.exists(output));
+        assertFalse(Files.exists(CheckpointJournal.partialPath(output)));
+        assertFalse(Files.exists(CheckpointJournal.journalPath(output)));
+    }
+
+    @Test
+    public void testCheckpointsEveryIntervalAndNoneForShortInput() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 4);
+        byte[] plaintext = new byte[9 * SEGMENT + 5];
+        new SecureRandom().nextBytes(plaintext);
+        Path input = Files.write(dir.resolve("clip.bin"), plaintext);
+        Path output = dir.resolve("clip.bin.encrypted");
+        SecretKey masterKey = randomKey();
+        long threeSegments = 3L * (SEGMENT + CryptoConstants.GCM_TAG_LENGTH);
+
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, threeSegments, stopAfter(8)));
+        assertEquals(6, CheckpointJournal.load(CheckpointJournal.journalPath(output)).getCommittedSegments());
+        ResumableEncryption.encrypt(input, output, "alice", masterKey, pipeline, threeSegments, null);
+        assertArrayEquals(plaintext, decrypt(pipeline, output, masterKey));
+
+        // Shorter than one interval: nothing to resume from, so nothing is left behind.
+        Path shortOutput = dir.resolve("short.encrypted");
+        assertThrows(IOException.class, () ->
+            ResumableEncryption.encrypt(input, shortOutput, "alice", masterKey, pipeline, 64L * SEGMENT, stopAfter(2)));
+        assertFalse(Files.exists(CheckpointJournal.partialPath(shortOutput)));
+        assertFalse(Files.exists(CheckpointJournal.journalPath(shortOutput)));
+    }
+
+    /**
+     * Interrupts an encryption as a kill would, once {@code segments} segments are written.
+     */
+    static ResumableEncryption.SegmentListener stopAfter(long segments) {
+        return (header, index, sealed) -> {
+            if (index >= segments) {
+                throw new IOException("Stopped after " + segments + " segments");
+            }
+        };
+    }
+
+    private byte[] decrypt(SegmentPipeline pipeline, Path encrypted, SecretKey masterKey) throws Exception {
+        EncryptedFileHeader header;
+        try (FileChannel channel = FileChannel.open(encrypted, StandardOpenOption.READ)) {
+            header = EncryptedFileHeader.read(channel, 0);
+        }
+        Path decrypted = dir.resolve("decrypted");
+        pipeline.decrypt(encrypted, decrypted, header, KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()));
+        return Files.readAllBytes(decrypted);
+    }
+}
@@ -0,0 +1,94 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomBytes;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.SecretKey;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class SegmentPipelineTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRoundTripAcrossSegmentBoundaries() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 3, 4);
+        int[] sizes = {0, 1, SEGMENT - 1, SEGMENT, SEGMENT + 1, 7 * SEGMENT + 123};
+
+        for (int size : sizes) {
+            byte[] plaintext = randomBytes(size);
+            Path input = Files.write(dir.resolve("in-" + size), plaintext);
+            Path sealed = dir.resolve("sealed-" + size);
+            Path output = dir.resolve("out-" + size);
+
+            SecretKey masterKey = SymmetricEncryption.createKey(randomBytes(32));
+            EncryptedFileHeader header = EncryptedFileHeader.create("clip.mp4", "alice", SEGMENT);
+            SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+
+            SegmentPipeline.Stats stats = pipeline.encrypt(input, sealed, header, segmentKey);
+            assertEquals(header.segmentCount(Files.size(sealed) - header.length()), stats.getSegments());
+            assertEquals(size, header.plaintextLength(Files.size(sealed) - header.length()));
+
+            EncryptedFileHeader readBack;
+            try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.READ)) {
+                readBack = EncryptedFileHeader.read(channel, 0);
+            }
+            assertEquals("clip.mp4", readBack.getOriginalFilename());
+            assertEquals("alice", readBack.getOwner());
+
+            SecretKey openKey = KeyDerivation.deriveSegmentKey(masterKey, readBack.getSalt());
+            pipeline.decrypt(sealed, output, readBack, openKey);
+            assertArrayEquals(plaintext, Files.readAllBytes(output));
+        }
+    }
+
+    @Test
+    public void testTamperedSegmentIsRejected() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 3);
+        Path input = Files.write(dir.resolve("in"), randomBytes(3 * SEGMENT));
+        Path sealed = dir.resolve("sealed");
+        Path output = dir.resolve("out");
+
+        SecretKey masterKey = SymmetricEncryption.createKey(randomBytes(32));
+        EncryptedFileHeader header = EncryptedFileHeader.create("clip.mp4", "alice", SEGMENT);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        pipeline.encrypt(input, sealed, header, segmentKey);
+
+        byte[] data = Files.readAllBytes(sealed);
+        data[header.length() + header.sealedSegmentSize() + 5] ^= 1;
+        Files.write(sealed, data);
+
+        assertThrows(AEADBadTagException.class,
+            () -> pipeline.decrypt(sealed, output, header, segmentKey));
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    public void testTruncationIsRejected() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 3);
+        Path input = Files.write(dir.resolve("in"), randomBytes(3 * SEGMENT));
+        Path sealed = dir.resolve("sealed");
+        Path output = dir.resolve("out");
+
+        SecretKey masterKey = SymmetricEncryption.createKey(randomBytes(32));
+        EncryptedFileHeader header = EncryptedFileHeader.create("clip.mp4", "alice", SEGMENT);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        pipeline.encrypt(input, sealed, header, segmentKey);
+
+        try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.WRITE)) {
+            channel.truncate(header.length() + 2L * header.sealedSegmentSize());
+        }
+
+        assertThrows(AEADBadTagException.class,
+            () -> pipeline.decrypt(sealed, output, header, segmentKey));
+    }
+}
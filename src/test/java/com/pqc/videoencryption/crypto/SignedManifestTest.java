@@ -0,0 +1,153 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomBytes;
+
+import com.pqc.videoencryption.storage.KeyStoreManager;
+import com.pqc.videoencryption.storage.LibraryCatalog;
+
+import javax.crypto.SecretKey;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SignedManifestTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testBatchIsVerifiedWithOneSignatureCheck() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 3);
+        SecretKey masterKey = SymmetricEncryption.createKey(randomBytes(32));
+        List<Path> files = new ArrayList<>();
+        List<EncryptedFileHeader> headers = new ArrayList<>();
+        List<byte[]> plaintexts = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            byte[] plaintext = randomBytes(i * SEGMENT + 17);
+            EncryptedFileHeader header = EncryptedFileHeader.create("clip" + i + ".mp4", "alice", SEGMENT);
+            Path sealed = dir.resolve("clip" + i + ".pqve");
+            pipeline.encrypt(Files.write(dir.resolve("in" + i), plaintext), sealed, header,
+                KeyDerivation.deriveSegmentKey(masterKey, header.getSalt()));
+            files.add(sealed);
+            headers.add(header);
+            plaintexts.add(plaintext);
+        }
+
+        KeyPair keys = ManifestSigner.generateKeyPair();
+        try (ManifestSigner signer = new ManifestSigner(keys.getPrivate(), 2)) {
+            VideoEncryptionService.signVideos(files, signer, true);
+            ManifestVerifier verifier = new ManifestVerifier(
+                ManifestVerifier.decodePublicKey(keys.getPublic().getEncoded()));
+            for (int i = 0; i < files.size(); i++) {
+                SignedManifest signed = SignedManifest.read(SignedManifest.sidecar(files.get(i)));
+                assertEquals(i, signed.getLeafIndex());
+                assertEquals(files.size(), signed.getLeafCount());
+                ManifestVerifier.Verified manifest = verifier.verify(signed, headers.get(i));
+
+                Path output = dir.resolve("out" + i);
+                pipeline.decrypt(files.get(i), output, headers.get(i),
+                    KeyDerivation.deriveSegmentKey(masterKey, headers.get(i).getSalt()), manifest);
+                assertArrayEquals(plaintexts.get(i), Files.readAllBytes(output));
+            }
+            assertEquals(1, verifier.getSignatureChecks());
+
+            SignedManifest other = SignedManifest.read(SignedManifest.sidecar(files.get(1)));
+            assertThrows(SignatureException.class, () -> verifier.verify(other, headers.get(0)));
+
+            List<SegmentManifest> manifests = new ArrayList<>();
+            for (Path file : files) {
+                manifests.add(SegmentManifest.of(file));
+            }
+            ManifestVerifier separate = new ManifestVerifier(keys.getPublic());
+            List<SignedManifest> individual = signer.signAll(manifests);
+            for (int i = 0; i < individual.size(); i++) {
+                assertEquals(1, individual.get(i).getLeafCount());
+                separate.verify(individual.get(i), headers.get(i));
+            }
+            assertEquals(files.size(), separate.getSignatureChecks());
+
+            ManifestVerifier stranger = new ManifestVerifier(ManifestSigner.generateKeyPair().getPublic());
+            assertThrows(SignatureException.class, () -> stranger.verify(individual.get(0), headers.get(0)));
+        }
+    }
+
+    @Test
+    public void testTamperingAndTruncationAreCaughtWhileStreaming() throws Exception {
+        SegmentPipeline pipeline = new SegmentPipeline(SEGMENT, 2, 3);
+        SecretKey masterKey = SymmetricEncryption.createKey(randomBytes(32));
+        EncryptedFileHeader header = EncryptedFileHeader.create("clip.mp4", "alice", SEGMENT);
+        SecretKey segmentKey = KeyDerivation.deriveSegmentKey(masterKey, header.getSalt());
+        Path sealed = dir.resolve("clip.pqve");
+        pipeline.encrypt(Files.write(dir.resolve("in"), randomBytes(4 * SEGMENT)), sealed, header, segmentKey);
+
+        KeyPair keys = ManifestSigner.generateKeyPair();
+        ManifestVerifier.Verified manifest;
+        try (ManifestSigner signer = new ManifestSigner(keys.getPrivate(), 1)) {
+            SignedManifest signed = signer.sign(SegmentManifest.of(sealed));
+            manifest = new ManifestVerifier(keys.getPublic())
+                .verify(SignedManifest.decode(ByteBuffer.wrap(signed.getEncoded())), header);
+        }
+        byte[] original = Files.readAllBytes(sealed);
+        Path output = dir.resolve("out");
+
+        byte[] tampered = original.clone();
+        tampered[header.length() + 2 * header.sealedSegmentSize() + 5] ^= 1;
+        Files.write(sealed, tampered);
+        assertThrows(SignatureException.class,
+            () -> pipeline.decrypt(sealed, output, header, segmentKey, manifest));
+        assertFalse(Files.exists(output));
+
+        Files.write(sealed, original);
+        try (FileChannel channel = FileChannel.open(sealed, StandardOpenOption.WRITE)) {
+            channel.truncate(header.length() + 2L * header.sealedSegmentSize());
+        }
+        assertThrows(SignatureException.class,
+            () -> pipeline.decrypt(sealed, output, header, segmentKey, manifest));
+        assertFalse(Files.exists(output));
+    }
+
+    @Test
+    public void testManifestIsBuiltWhileEncryptingAndKeyIsKept() throws Exception {
+        Path vault = dir.resolve("keys").resolve("vault.pqkv");
+        Path previous = KeyStoreManager.relocate(vault);
+        try {
+            KeyStoreManager.createKeys("carol", "hunter2");
+            KeyStoreManager.loadOrGenerateKeyPair("carol", "hunter2");
+            byte[] plaintext = randomBytes(3 * 1024 * 1024 + 99);
+            Path input = Files.write(dir.resolve("clip.mp4"), plaintext);
+            Path sealed = dir.resolve("clip.pqve");
+            LibraryCatalog catalog = LibraryCatalog.open(dir);
+            Path sidecar = VideoEncryptionService.encryptAndSignVideo(input, sealed, "carol", "hunter2");
+            assertEquals(SignedManifest.sidecar(sealed), sidecar);
+            assertArrayEquals(SegmentManifest.of(sealed).root(), SignedManifest.read(sidecar).getManifest().root());
+            assertArrayEquals(LibraryCatalog.integrityRoot(sealed),
+                catalog.get("clip.pqve").orElseThrow().getIntegrityRoot());
+            catalog.close();
+
+            // A later run finds the same signing key, and the Kyber pair survived the rewrite.
+            KeyStoreManager.relocate(vault);
+            KeyPair signing = KeyStoreManager.loadOrGenerateSigningKeyPair("carol", "hunter2");
+            assertArrayEquals(signing.getPublic().getEncoded(),
+                KeyStoreManager.signingPublicKey("carol").orElseThrow().getEncoded());
+            assertTrue(KeyStoreManager.vault().publicKey("carol").isPresent());
+            ManifestVerifier verifier = new ManifestVerifier(KeyStoreManager.signingPublicKey("carol").orElseThrow());
+            Path output = dir.resolve("out.mp4");
+            VideoEncryptionService.decryptVideo(sealed, output, verifier, "carol", "hunter2");
+            assertArrayEquals(plaintext, Files.readAllBytes(output));
+            assertEquals(1, verifier.getSignatureChecks());
+        } finally {
+            KeyStoreManager.relocate(previous);
+        }
+    }
+}
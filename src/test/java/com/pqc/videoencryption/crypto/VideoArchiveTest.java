@@ -0,0 +1,142 @@
+package com.pqc.videoencryption.crypto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class VideoArchiveTest {
+
+    @TempDir
+    Path dir;
+
+    private final Map<String, byte[]> originals = new HashMap<>();
+
+    @Test
+    public void testPackAppendAndExtractMembers() throws Exception {
+        SecretKey masterKey = randomKey();
+        Path archiveFile = dir.resolve("clips.pqva");
+        List<Path> first = List.of(video("a.mp4", 0), video("b.mp4", 1000),
+            video("c.mp4", CryptoConstants.SEGMENT_SIZE * 2 + 17), video("d.mp4", 65_536));
+
+        VideoArchive.Member c;
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 3)) {
+            archive.pack(first, "alice", masterKey);
+            c = archive.member("c.mp4").orElseThrow();
+        }
+
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 3)) {
+            archive.pack(List.of(video("e.mp4", 4321), video("f.mp4", 12)), "alice", masterKey);
+            assertEquals(6, archive.members().size());
+            assertEquals(c.getOffset(), archive.member("c.mp4").orElseThrow().getOffset());
+            assertThrows(IllegalArgumentException.class,
+                () -> archive.pack(List.of(dir.resolve("a.mp4")), "alice", masterKey));
+
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            archive.extract("c.mp4", Channels.newChannel(streamed), masterKey);
+            assertArrayEquals(originals.get("c.mp4"), streamed.toByteArray());
+        }
+
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 4)) {
+            Path extracted = dir.resolve("extracted");
+            archive.extractAll(extracted, masterKey);
+            for (String name : originals.keySet()) {
+                assertArrayEquals(originals.get(name), Files.readAllBytes(extracted.resolve(name)), name);
+            }
+        }
+    }
+
+    @Test
+    public void testUnfinishedAppendIsIgnoredAndOverwritten() throws Exception {
+        SecretKey masterKey = randomKey();
+        Path archiveFile = dir.resolve("clips.pqva");
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+            archive.pack(List.of(video("a.mp4", 5000), video("b.mp4", 7000)), "alice", masterKey);
+        }
+        byte[] garbage = new byte[10_000];
+        new SecureRandom().nextBytes(garbage);
+        Files.write(archiveFile, garbage, StandardOpenOption.APPEND);
+
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+            assertEquals(2, archive.members().size());
+            archive.pack(List.of(video("c.mp4", 3000)), "alice", masterKey);
+        }
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+            List<String> names = new ArrayList<>();
+            archive.members().forEach(member -> names.add(member.getName()));
+            assertEquals(List.of("a.mp4", "b.mp4", "c.mp4"), names);
+            Path output = dir.resolve("c.out");
+            archive.extract("c.mp4", output, masterKey);
+            assertArrayEquals(originals.get("c.mp4"), Files.readAllBytes(output));
+            assertThrows(Exception.class, () -> archive.extract("a.mp4", dir.resolve("a.out"), randomKey()));
+            assertFalse(Files.exists(dir.resolve("a.out")));
+        }
+    }
+
+    @Test
+    public void testMemberThatGrowsFailsThePack() throws Exception {
+        SecretKey masterKey = randomKey();
+        Path archiveFile = dir.resolve("clips.pqva");
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+            archive.pack(List.of(video("a.mp4", 5000)), "alice", masterKey);
+        }
+        Path growing = video("live.mp4", 4 * 1024 * 1024);
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread recorder = new Thread(() -> {
+            byte[] chunk = new byte[4096];
+            try {
+                while (!stop.get()) {
+                    Files.write(growing, chunk, StandardOpenOption.APPEND);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long initial = Files.size(growing);
+        recorder.start();
+        try {
+            while (Files.size(growing) == initial) {
+                Thread.sleep(1);
+            }
+            try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+                IOException e = assertThrows(IOException.class,
+                    () -> archive.pack(List.of(growing), "alice", masterKey));
+                assertTrue(e.getMessage().contains("grew"), e.getMessage());
+                assertFalse(archive.member("live.mp4").isPresent());
+            }
+        } finally {
+            stop.set(true);
+            recorder.join();
+        }
+
+        try (VideoArchive archive = VideoArchive.open(archiveFile, 2)) {
+            assertEquals(1, archive.members().size());
+            archive.pack(List.of(growing), "alice", masterKey);
+            ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+            archive.extract("live.mp4", Channels.newChannel(streamed), masterKey);
+            assertArrayEquals(Files.readAllBytes(growing), streamed.toByteArray());
+        }
+    }
+
+    private Path video(String name, int size) throws Exception {
+        byte[] data = new byte[size];
+        new SecureRandom().nextBytes(data);
+        originals.put(name, data);
+        return Files.write(dir.resolve(name), data);
+    }
+}
@@ -0,0 +1,101 @@
+package com.pqc.videoencryption.loadtest;
+
+import com.pqc.videoencryption.audit.AuditTrail;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+public class LoadHarnessTest {
+
+    @Test
+    public void testHistogramPercentilesWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long micros = 1; micros <= 100_000; micros++) {
+            histogram.record(micros * 1_000, 10);
+        }
+        histogram.recordError();
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(1, histogram.getErrors());
+        assertEquals(1_000_000, histogram.getBytes());
+        assertEquals(100_000_000L, histogram.getMaxNanos());
+        assertWithin(50_000_000L, histogram.percentileNanos(50));
+        assertWithin(99_000_000L, histogram.percentileNanos(99));
+        assertWithin(99_900_000L, histogram.percentileNanos(99.9));
+        assertEquals(100_000_000L, histogram.percentileNanos(100));
+        for (long value : new long[] {0, 31, 32, 1_000, 123_456_789, Long.MAX_VALUE / 4}) {
+            assertTrue(LatencyHistogram.upperBound(LatencyHistogram.index(value)) >= value);
+        }
+    }
+
+    @Test
+    public void testConfigParsesSizesAndOperationMix() {
+        LoadHarness.Config config = LoadHarness.Config.parse(
+            "--users=3", "--clients=2", "--duration=5", "--sizes=512k:1,2m:3", "--mix=encrypt:1,range_read:0");
+        assertEquals(3, config.users);
+        assertEquals(2, config.clients);
+        assertEquals(Duration.ofSeconds(5), config.duration);
+        assertEquals(1L << 30, LoadHarness.Config.parseSize("1G"));
+
+        SplittableRandom random = new SplittableRandom(7);
+        Map<LoadHarness.Operation, Integer> picks = new EnumMap<>(LoadHarness.Operation.class);
+        long large = 0;
+        for (int i = 0; i < 4_000; i++) {
+            picks.merge(config.mix.pick(random), 1, Integer::sum);
+            if (config.sizes.pick(random) == 2L << 20) {
+                large++;
+            }
+        }
+        assertEquals(Map.of(LoadHarness.Operation.ENCRYPT, 4_000), picks);
+        assertTrue(large > 2_700 && large < 3_300, "2m picked " + large + " times");
+        assertThrows(IllegalArgumentException.class, () -> LoadHarness.Config.parse("--threads=4"));
+    }
+
+    @Test
+    public void testSyntheticUsersStayOutOfTheRealStores(@TempDir Path dir) throws Exception {
+        Path realUsers = Paths.get("data", "users.txt");
+        Path realVault = Paths.get("keys", "vault.pqkv");
+        Path realAudit = AuditTrail.shared().getDirectory();
+        assertTrue(AuditTrail.shared().flush(5, TimeUnit.SECONDS));
+        String before = describe(realUsers) + describe(realVault) + describe(realAudit.resolve(AuditTrail.FILE_NAME));
+
+        Path work = dir.resolve("work");
+        LoadHarness harness = new LoadHarness(LoadHarness.Config.parse("--users=2", "--clients=1", "--videos=1",
+            "--duration=1", "--sizes=64k:1", "--mix=login:1,decrypt:1", "--dir=" + work));
+        try {
+            harness.run(new PrintStream(OutputStream.nullOutputStream()));
+            assertTrue(Files.size(harness.usersFile()) > 0);
+            assertTrue(Files.exists(harness.vaultFile()));
+            assertEquals(0, harness.getHistograms().get(LoadHarness.Operation.LOGIN).getErrors());
+            assertTrue(AuditTrail.shared().flush(5, TimeUnit.SECONDS));
+            assertTrue(Files.readString(harness.auditDirectory().resolve(AuditTrail.FILE_NAME)).contains("load-"));
+        } finally {
+            harness.cleanUp();
+        }
+
+        assertTrue(AuditTrail.shared().flush(5, TimeUnit.SECONDS));
+        assertEquals(realAudit, AuditTrail.shared().getDirectory());
+        assertEquals(before, describe(realUsers) + describe(realVault) + describe(realAudit.resolve(AuditTrail.FILE_NAME)));
+        assertFalse(Files.exists(work));
+    }
+
+    private static String describe(Path file) throws IOException {
+        return Files.exists(file) ? file + ":" + Files.size(file) + ":" + Files.getLastModifiedTime(file) : file + ":-";
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.035, "expected ~" + expected + ", got " + actual);
+    }
+}
@@ -0,0 +1,73 @@
+package com.pqc.videoencryption.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void testLimitsQueueAndTimeOut() throws Exception {
+        AdmissionController admission = new AdmissionController(
+            new ServerConfig("127.0.0.1", 0, 2, 1, 150, 0, 0, 1));
+        AdmissionController.Permit alice = admission.admit("alice");
+        assertNotNull(alice);
+
+        long start = System.nanoTime();
+        assertNull(admission.admit("alice"), "second request exceeds the per-user limit");
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(140));
+
+        AdmissionController.Permit bob = admission.admit("bob");
+        assertNotNull(bob);
+        assertEquals(2, admission.getActiveRequests());
+        assertNull(admission.admit("carol"), "third request exceeds the global limit");
+
+        CompletableFuture<AdmissionController.Permit> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admission.admit("carol");
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(50);
+        bob.close();
+        bob.close();
+        AdmissionController.Permit carol = queued.get(5, TimeUnit.SECONDS);
+        assertNotNull(carol, "a slot freed within the timeout goes to the queued request");
+        assertTrue(carol.getWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(40));
+        assertEquals(2, admission.getActiveRequests());
+        alice.close();
+        carol.close();
+        assertEquals(0, admission.getActiveRequests());
+
+        RateLimiter rate = new RateLimiter(1_000_000);
+        start = System.nanoTime();
+        rate.acquire(1_000_000);
+        rate.acquire(300_000);
+        long elapsed = System.nanoTime() - start;
+        assertTrue(elapsed >= TimeUnit.MILLISECONDS.toNanos(250), "over budget waits, took " + elapsed);
+        assertTrue(new RateLimiter(0).isUnlimited());
+    }
+
+    @Test
+    public void testIdleUserStateIsEvicted() throws Exception {
+        ServerConfig config = new ServerConfig("127.0.0.1", 0, 4, 1, 100, 0, 1_000_000, 1);
+        AdmissionController retaining = new AdmissionController(config);
+        for (int i = 0; i < 10; i++) {
+            retaining.admit("user" + i).close();
+        }
+        assertEquals(10, retaining.getTrackedUsers(), "state is kept for one rate window");
+
+        AdmissionController evicting = new AdmissionController(config, 0);
+        AdmissionController.Permit held = evicting.admit("alice");
+        for (int i = 0; i < 1_000; i++) {
+            evicting.admit("user" + i).close();
+        }
+        assertEquals(2, evicting.getTrackedUsers(), "only the held user and the last one closed remain");
+        assertNull(evicting.admit("alice"), "the held user's limit survives sweeps");
+        held.close();
+        assertNotNull(evicting.admit("alice"));
+    }
+}
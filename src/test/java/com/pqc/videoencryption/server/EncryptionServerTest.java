@@ -0,0 +1,153 @@
+package com.pqc.videoencryption.server;
+
+import com.pqc.videoencryption.storage.KeyStoreManager;
+import com.pqc.videoencryption.storage.SessionManager;
+import com.pqc.videoencryption.storage.UserRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomBytes;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class EncryptionServerTest {
+
+    private static final String PASSWORD = "correct horse battery";
+
+    @TempDir
+    Path dir;
+
+    private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+    private Path previousUsers;
+    private Path previousVault;
+    private EncryptionServer server;
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        previousUsers = UserRepository.relocate(dir.resolve("users.txt"));
+        previousVault = KeyStoreManager.relocate(dir.resolve("vault.pqkv"));
+        UserRepository.createUser("alice", PASSWORD, "", "", "");
+        server = new EncryptionServer(new ServerConfig("127.0.0.1", 0, 4, 1, 300, 0, 0, 1));
+        server.start();
+    }
+
+    @AfterEach
+    public void tearDown() throws IOException {
+        server.stop(0);
+        SessionManager.shared().revokeAll("alice");
+        UserRepository.relocate(previousUsers);
+        KeyStoreManager.relocate(previousVault);
+    }
+
+    @Test
+    public void testRoundTripAndAuthenticationFailures() throws Exception {
+        byte[] plaintext = randomBytes(200_000);
+        HttpResponse<byte[]> sealed = post("/encrypt?name=clip.mp4", basic("alice", PASSWORD), plaintext);
+        assertEquals(200, sealed.statusCode());
+        byte[] header = Arrays.copyOf(sealed.body(), 64);
+        HttpResponse<byte[]> anonymous = post("/encrypt", null, header);
+        assertEquals(401, anonymous.statusCode());
+        assertTrue(anonymous.headers().firstValue("WWW-Authenticate").isPresent());
+        assertEquals(401, post("/decrypt", basic("alice", "wrong"), header).statusCode());
+        assertEquals(401, post("/decrypt", basic("mallory", PASSWORD), header).statusCode());
+        assertEquals(401, post("/decrypt", "Bearer not-a-token", header).statusCode());
+        assertEquals(401, post("/session", basic("alice", "wrong"), new byte[0]).statusCode());
+        assertEquals(405, client.send(request("/encrypt", basic("alice", PASSWORD)).GET().build(),
+            HttpResponse.BodyHandlers.ofByteArray()).statusCode());
+
+        assertArrayEquals(plaintext, post("/decrypt", basic("alice", PASSWORD), sealed.body()).body());
+        String token = new String(post("/session", basic("alice", PASSWORD), new byte[0]).body(),
+            StandardCharsets.UTF_8).trim();
+        HttpResponse<byte[]> opened = post("/decrypt", "Bearer " + token, sealed.body());
+        assertEquals(200, opened.statusCode());
+        assertArrayEquals(plaintext, opened.body());
+
+        assertEquals(204, client.send(request("/session", "Bearer " + token).DELETE().build(),
+            HttpResponse.BodyHandlers.ofByteArray()).statusCode());
+        assertEquals(401, post("/decrypt", "Bearer " + token, header).statusCode());
+    }
+
+    @Test
+    public void testBusyUserIsRejectedBeforeThePasswordCheck() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        byte[] plaintext = randomBytes(100_000);
+        CompletableFuture<Integer> running = CompletableFuture.supplyAsync(() -> {
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL(
+                    "http://127.0.0.1:" + server.getPort() + "/encrypt").openConnection();
+                connection.setRequestMethod("POST");
+                connection.setRequestProperty("Authorization", basic("alice", PASSWORD));
+                connection.setDoOutput(true);
+                connection.setChunkedStreamingMode(1_000);
+                try (OutputStream body = connection.getOutputStream()) {
+                    body.write(plaintext, 0, 1_000);
+                    body.flush();
+                    release.await();
+                    body.write(plaintext, 1_000, plaintext.length - 1_000);
+                }
+                connection.getInputStream().readAllBytes();
+                return connection.getResponseCode();
+            } catch (IOException | InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        try {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while (!status().contains("active=1")) {
+                assertTrue(System.nanoTime() < deadline, "first request was never admitted");
+                Thread.sleep(20);
+            }
+
+            HttpResponse<byte[]> busy = post("/encrypt", basic("alice", "wrong"), new byte[16]);
+            assertEquals(429, busy.statusCode(), "a busy user is turned away without a bcrypt check");
+            assertEquals("1", busy.headers().firstValue("Retry-After").orElseThrow());
+            assertEquals(429, post("/session", basic("alice", PASSWORD), new byte[0]).statusCode());
+            assertEquals(401, post("/encrypt", basic("bob", "wrong"), new byte[16]).statusCode());
+            assertTrue(status().contains("rejected=2"));
+        } finally {
+            release.countDown();
+        }
+        assertEquals(200, running.get(30, TimeUnit.SECONDS));
+        assertTrue(status().contains("active=0"));
+    }
+
+    private HttpResponse<byte[]> post(String path, String authorization, byte[] body) throws Exception {
+        return client.send(request(path, authorization).POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(),
+            HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private String status() throws Exception {
+        return client.send(request("/status", null).GET().build(), HttpResponse.BodyHandlers.ofString()).body();
+    }
+
+    private HttpRequest.Builder request(String path, String authorization) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(
+            URI.create("http://127.0.0.1:" + server.getPort() + path)).timeout(Duration.ofSeconds(30));
+        if (authorization != null) {
+            builder.header("Authorization", authorization);
+        }
+        return builder;
+    }
+
+    private static String basic(String username, String password) {
+        return "Basic " + Base64.getEncoder().encodeToString(
+            (username + ":" + password).getBytes(StandardCharsets.UTF_8));
+    }
+}
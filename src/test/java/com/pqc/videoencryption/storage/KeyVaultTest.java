@@ -0,0 +1,130 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyPair;
+import java.security.UnrecoverableKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class KeyVaultTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testEntriesSurviveReopenCompactionAndTornTail() throws Exception {
+        Path file = dir.resolve("vault.pqkv");
+        SecretKey alice = randomKey();
+        SecretKey bob = randomKey();
+        KeyPair kyber = PostQuantumKeyExchange.generateKeyPair();
+
+        try (KeyVault vault = KeyVault.open(file)) {
+            vault.put("alice", "pw-a".toCharArray(), randomKey(), null);
+            vault.put("alice", "pw-a".toCharArray(), alice, kyber);
+            vault.put("bob", "pw-b".toCharArray(), bob, null);
+            vault.put("carol", "pw-c".toCharArray(), randomKey(), null);
+            assertTrue(vault.remove("carol"));
+            assertFalse(vault.remove("carol"));
+            assertThrows(UnrecoverableKeyException.class, () -> vault.get("alice", "pw-b".toCharArray()));
+        }
+
+        // Records appended after the persisted index, then a torn append.
+        try (KeyVault vault = KeyVault.open(file)) {
+            assertEquals(2, vault.size());
+            vault.put("dave", "pw-d".toCharArray(), randomKey(), null);
+        }
+        Files.write(file, new byte[] {0, 0, 1, 0, 1, 0, 3, 'e', 'v'}, StandardOpenOption.APPEND);
+
+        try (KeyVault vault = KeyVault.open(file)) {
+            assertEquals(3, vault.size());
+            assertFalse(vault.contains("carol"));
+            KeyVault.Keys keys = vault.get("alice", "pw-a".toCharArray()).orElseThrow();
+            assertArrayEquals(alice.getEncoded(), keys.getAesKey().getEncoded());
+            assertArrayEquals(kyber.getPrivate().getEncoded(),
+                keys.getKyberKeyPair().orElseThrow().getPrivate().getEncoded());
+            assertArrayEquals(kyber.getPublic().getEncoded(), vault.publicKey("alice").orElseThrow().getEncoded());
+            assertTrue(vault.publicKey("bob").isEmpty());
+
+            long before = Files.size(file);
+            vault.compact();
+            assertTrue(Files.size(file) < before);
+            vault.put("erin", "pw-e".toCharArray(), randomKey(), null);
+        }
+
+        try (KeyVault vault = KeyVault.open(file)) {
+            assertEquals(4, vault.size());
+            assertArrayEquals(bob.getEncoded(),
+                vault.get("bob", "pw-b".toCharArray()).orElseThrow().getAesKey().getEncoded());
+            assertTrue(vault.get("erin", "pw-e".toCharArray()).isPresent());
+        }
+    }
+
+    @Test
+    public void testLegacyKeystoreIsImportedAndRemoved() throws Exception {
+        Path keystore = dir.resolve("frank.p12");
+        KeyStoreManager.createKeyStore(keystore, "secret", "frank");
+        SecretKey aesKey = KeyStoreManager.loadAESKey(keystore, "secret");
+        // A stray public key without a stored private key is not imported.
+        Path publicKeyFile = Files.write(dir.resolve("frank.pub"),
+            PostQuantumKeyExchange.generateKeyPair().getPublic().getEncoded());
+
+        try (KeyVault vault = KeyVault.open(dir.resolve("vault.pqkv"))) {
+            assertThrows(Exception.class, () -> vault.importLegacy("frank", keystore, "wrong".toCharArray()));
+            assertTrue(Files.exists(keystore));
+
+            assertTrue(vault.importLegacy("frank", keystore, "secret".toCharArray()));
+            assertFalse(Files.exists(keystore));
+            assertFalse(Files.exists(publicKeyFile));
+            assertFalse(vault.importLegacy("frank", keystore, "secret".toCharArray()));
+
+            KeyVault.Keys keys = vault.get("frank", "secret".toCharArray()).orElseThrow();
+            assertArrayEquals(aesKey.getEncoded(), keys.getAesKey().getEncoded());
+            assertTrue(keys.getKyberKeyPair().isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentFirstUsesImportOnceAndShareOneKeyPair() throws Exception {
+        Path previous = KeyStoreManager.relocate(dir.resolve("keys").resolve("vault.pqkv"));
+        ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            Path keystore = KeyStoreManager.getKeystorePath("grace");
+            KeyStoreManager.createKeyStore(keystore, "secret", "grace");
+            SecretKey aesKey = KeyStoreManager.loadAESKey(keystore, "secret");
+
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<KeyPair>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(callers.submit(() -> {
+                    start.await();
+                    return KeyStoreManager.loadOrGenerateKeyPair("grace", "secret");
+                }));
+            }
+            start.countDown();
+            byte[] publicKey = results.get(0).get(30, TimeUnit.SECONDS).getPublic().getEncoded();
+            for (Future<KeyPair> result : results) {
+                assertArrayEquals(publicKey, result.get(30, TimeUnit.SECONDS).getPublic().getEncoded());
+            }
+            assertFalse(Files.exists(keystore));
+            assertArrayEquals(aesKey.getEncoded(), KeyStoreManager.loadAESKey("grace", "secret").getEncoded());
+            assertArrayEquals(publicKey, KeyStoreManager.vault().publicKey("grace").orElseThrow().getEncoded());
+        } finally {
+            callers.shutdownNow();
+            KeyStoreManager.relocate(previous);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.CryptoConstants;
+import com.pqc.videoencryption.crypto.OutputCommitter;
+import com.pqc.videoencryption.crypto.ResumableEncryption;
+import com.pqc.videoencryption.crypto.SegmentPipeline;
+import com.pqc.videoencryption.crypto.SignedManifest;
+import com.pqc.videoencryption.crypto.SymmetricEncryption;
+import com.pqc.videoencryption.crypto.VideoEncryptionService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.crypto.SecretKey;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+public class LibraryCatalogTest {
+
+    private static final int SEGMENT = CryptoConstants.MIN_SEGMENT_SIZE;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testRebuildThenIncrementalUpdatesSurviveReopen() throws Exception {
+        Path library = dir.resolve("library");
+        Files.createDirectories(library);
+        encrypt(library, "a.mp4", "alice", 3 * SEGMENT + 10);
+        encrypt(library, "b.mp4", "bob", 100);
+
+        LibraryCatalog catalog = LibraryCatalog.open(library);
+        assertEquals(2, catalog.size());
+        LibraryCatalog.Entry a = catalog.get("a.mp4.encrypted").orElseThrow();
+        assertEquals("a.mp4", a.getOriginalFilename());
+        assertEquals("alice", a.getOwner());
+        assertEquals(2, a.getVersion());
+        assertEquals(3 * SEGMENT + 10, a.getPlaintextSize());
+        assertEquals(1, catalog.findByOwner("bob").size());
+
+        Path c = encrypt(library, "c.mp4", "alice", 2 * SEGMENT);
+        catalog.record(c);
+        catalog.remove(library.resolve("b.mp4.encrypted"));
+        assertEquals(2, catalog.findByOwner("alice").size());
+        assertTrue(catalog.findByOwner("bob").isEmpty());
+        catalog.close();
+
+        // A torn trailing record from a crash is ignored on load.
+        Files.write(library.resolve(LibraryCatalog.INDEX_FILE), new byte[] {0, 0, 0, 40, 1, 2},
+            StandardOpenOption.APPEND);
+        LibraryCatalog reopened = LibraryCatalog.open(library);
+        assertEquals(2, reopened.size());
+        assertEquals("c.mp4", reopened.get("c.mp4.encrypted").orElseThrow().getOriginalFilename());
+        assertArrayEquals(a.getIntegrityRoot(), reopened.get("a.mp4.encrypted").orElseThrow().getIntegrityRoot());
+        assertEquals(1, reopened.findByOriginalName("c.mp4").size());
+        reopened.close();
+    }
+
+    @Test
+    public void testIntegrityRootTracksCiphertext() throws Exception {
+        Path file = encrypt(dir, "clip.mp4", "alice", 5 * SEGMENT);
+        byte[] root = LibraryCatalog.integrityRoot(file);
+        assertArrayEquals(root, LibraryCatalog.integrityRoot(file));
+
+        byte[] data = Files.readAllBytes(file);
+        data[data.length - 1] ^= 1;
+        Files.write(file, data);
+        assertFalse(Arrays.equals(root, LibraryCatalog.integrityRoot(file)));
+    }
+
+    @Test
+    public void testRebuildReadsHeadersOnlyAndSkipsSidecars() throws Exception {
+        Path library = Files.createDirectories(dir.resolve("library"));
+        Path file = encrypt(library, "a.mp4", "alice", 3 * SEGMENT);
+        String name = file.getFileName().toString();
+        LibraryCatalog catalog = LibraryCatalog.open(library);
+        assertFalse(catalog.get(name).orElseThrow().hasIntegrityRoot());
+        byte[] root = LibraryCatalog.integrityRoot(file);
+        catalog.record(file, root);
+
+        Files.write(SignedManifest.sidecar(file), new byte[64]);
+        Files.write(library.resolve("b.mp4.encrypted.partial"), new byte[64]);
+        Files.write(library.resolve("b.mp4.encrypted.journal"), new byte[64]);
+        Files.write(OutputCommitter.tempPath(library.resolve("c.mp4.encrypted")), new byte[64]);
+        Files.write(library.resolve("d.mp4.encrypted.tmp"), new byte[64]);
+        // A flipped tag behind an unchanged size and mtime shows the rebuild never read the tags.
+        FileTime modified = Files.getLastModifiedTime(file);
+        byte[] data = Files.readAllBytes(file);
+        data[data.length - 1] ^= 1;
+        Files.write(file, data);
+        Files.setLastModifiedTime(file, modified);
+
+        catalog.rebuild();
+        assertEquals(1, catalog.size());
+        assertArrayEquals(root, catalog.get(name).orElseThrow().getIntegrityRoot());
+        catalog.close();
+        assertArrayEquals(root, LibraryCatalog.open(library).get(name).orElseThrow().getIntegrityRoot());
+        LibraryCatalog.open(library).close();
+    }
+
+    @Test
+    public void testLegacyEntryIsClaimedAndFileWithDamagedHeaderCanBeDeleted() throws Exception {
+        Path library = Files.createDirectories(dir.resolve("library"));
+        byte[] name = "old.mp4".getBytes(StandardCharsets.UTF_8);
+        Path legacy = Files.write(library.resolve("old.mp4.encrypted"), ByteBuffer.allocate(4 + name.length + 200)
+            .putInt(name.length).put(name).array());
+        Path damaged = encrypt(library, "b.mp4", "alice", 2 * SEGMENT);
+        LibraryCatalog catalog = LibraryCatalog.open(library);
+        assertEquals("", catalog.get(legacy.getFileName().toString()).orElseThrow().getOwner());
+
+        catalog.claim(legacy, "alice");
+        catalog.claim(legacy, "bob");
+        assertEquals(2, catalog.findByOwner("alice").size());
+        catalog.rebuild();
+        catalog.close();
+        catalog = LibraryCatalog.open(library);
+        assertEquals("alice", catalog.get(legacy.getFileName().toString()).orElseThrow().getOwner());
+
+        // An unknown version byte makes the header unreadable.
+        try (FileChannel channel = FileChannel.open(damaged, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] {(byte) 0xFF}), 4);
+        }
+        assertThrows(IOException.class, () -> LibraryCatalog.describe(damaged));
+        VideoEncryptionService.deleteVideo(damaged);
+        assertFalse(Files.exists(damaged));
+        assertFalse(catalog.get(damaged.getFileName().toString()).isPresent());
+        catalog.close();
+    }
+
+    private Path encrypt(Path directory, String name, String owner, int size) throws Exception {
+        byte[] plaintext = new byte[size];
+        new SecureRandom().nextBytes(plaintext);
+        Path sources = Files.createDirectories(dir.resolve("sources"));
+        Path input = Files.write(sources.resolve(name), plaintext);
+        Path output = directory.resolve(name + ".encrypted");
+        byte[] material = new byte[32];
+        new SecureRandom().nextBytes(material);
+        SecretKey key = SymmetricEncryption.createKey(material);
+        ResumableEncryption.encrypt(input, output, owner, key, new SegmentPipeline(SEGMENT, 2, 4));
+        return output;
+    }
+}
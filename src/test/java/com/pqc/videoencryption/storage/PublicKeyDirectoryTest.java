@@ -0,0 +1,94 @@
+package com.pqc.videoencryption.storage;
+
+import com.pqc.videoencryption.crypto.KyberEncapsulator;
+import com.pqc.videoencryption.crypto.PostQuantumKeyExchange;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.KeyPair;
+import java.security.KeyStoreException;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class PublicKeyDirectoryTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testCachesDecodedKeysAndNoticesNewKeyPairs() throws Exception {
+        KeyPair alice = PostQuantumKeyExchange.generateKeyPair();
+        KeyPair carol = PostQuantumKeyExchange.generateKeyPair();
+        Files.write(dir.resolve("carol.pub"), carol.getPublic().getEncoded());
+
+        try (KeyVault vault = KeyVault.open(dir.resolve("vault.pqkv"))) {
+            vault.put("alice", "pw".toCharArray(), randomKey(), alice);
+            vault.put("bob", "pw".toCharArray(), randomKey(), null);
+            PublicKeyDirectory directory = new PublicKeyDirectory(vault, dir, 2);
+
+            assertEquals(Set.of("alice", "bob", "carol"), directory.users());
+            PublicKey first = directory.lookup("alice").orElseThrow();
+            assertArrayEquals(alice.getPublic().getEncoded(), first.getEncoded());
+            assertSame(first, directory.lookup("alice").orElseThrow());
+            assertTrue(directory.lookup("bob").isEmpty());
+            assertTrue(directory.lookup("bob").isEmpty());
+            assertTrue(directory.lookup("nobody").isEmpty());
+            assertEquals(2, directory.getHits());
+            assertEquals(2, directory.getMisses());
+
+            assertArrayEquals(carol.getPublic().getEncoded(), directory.lookup("carol").orElseThrow().getEncoded());
+            assertEquals(2, directory.size());
+            assertEquals(1, directory.getEvictions());
+
+            KeyPair replaced = PostQuantumKeyExchange.generateKeyPair();
+            vault.put("alice", "pw".toCharArray(), randomKey(), replaced);
+            assertArrayEquals(replaced.getPublic().getEncoded(), directory.lookup("alice").orElseThrow().getEncoded());
+            vault.compact();
+            assertArrayEquals(replaced.getPublic().getEncoded(), directory.lookup("alice").orElseThrow().getEncoded());
+            assertThrows(KeyStoreException.class, () -> directory.require("bob"));
+        }
+    }
+
+    @Test
+    public void testBatchEncapsulationMatchesRecipients() throws Exception {
+        int recipients = 24;
+        List<KeyPair> pairs = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try (KeyVault vault = KeyVault.open(dir.resolve("vault.pqkv"));
+                KyberEncapsulator encapsulator = new KyberEncapsulator(4)) {
+            for (int i = 0; i < recipients; i++) {
+                KeyPair pair = PostQuantumKeyExchange.generateKeyPair();
+                pairs.add(pair);
+                names.add("user" + i);
+                vault.put("user" + i, "pw".toCharArray(), randomKey(), pair);
+            }
+            PublicKeyDirectory directory = new PublicKeyDirectory(vault, null, 64);
+
+            List<String> list = new ArrayList<>(names);
+            list.add("user3");
+            Map<String, KyberEncapsulator.Encapsulation> wrapped = directory.encapsulateFor(list, encapsulator);
+            assertEquals(names, new ArrayList<>(wrapped.keySet()));
+            for (int i = 0; i < recipients; i++) {
+                KyberEncapsulator.Encapsulation encapsulation = wrapped.get("user" + i);
+                assertArrayEquals(encapsulation.getSecret().getEncoded(),
+                    KyberEncapsulator.decapsulate(pairs.get(i).getPrivate(),
+                        encapsulation.getEncapsulation()).getEncoded());
+                // Another recipient's key cannot recover it.
+                assertFalse(Arrays.equals(encapsulation.getSecret().getEncoded(),
+                    KyberEncapsulator.decapsulate(pairs.get((i + 1) % recipients).getPrivate(),
+                        encapsulation.getEncapsulation()).getEncoded()));
+            }
+
+            list.add("stranger");
+            assertThrows(KeyStoreException.class, () -> directory.encapsulateFor(list, encapsulator));
+        }
+    }
+}
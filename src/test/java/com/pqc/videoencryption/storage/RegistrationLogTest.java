@@ -0,0 +1,133 @@
+package com.pqc.videoencryption.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RegistrationLogTest {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    public void testConcurrentRegistrationsAreUniqueAndGroupCommitted() throws Exception {
+        Path file = dir.resolve("users.txt");
+        AtomicInteger accepted = new AtomicInteger();
+        AtomicInteger rejected = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int i = 0; i < 2000; i++) {
+                String name = "user" + (i % 500);
+                tasks.add(executor.submit(() -> {
+                    try {
+                        RegistrationLog.await(log.register(record(name)));
+                        accepted.incrementAndGet();
+                    } catch (IllegalArgumentException e) {
+                        rejected.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+            assertEquals(500, accepted.get());
+            assertEquals(1500, rejected.get());
+            assertEquals(500, log.getRecords());
+            assertTrue(log.getBatches() < 500, "registrations should share fsyncs");
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(500, Files.readAllLines(file).size());
+    }
+
+    @Test
+    public void testBulkImportIsDurableAndTornTailIsDropped() throws Exception {
+        Path file = dir.resolve("users.txt");
+        List<UserRepository.UserRecord> records = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            records.add(record("bulk" + i));
+        }
+        long start = System.nanoTime();
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            CompletableFuture<Integer> imported = log.registerAll(records);
+            assertEquals(100_000, RegistrationLog.await(imported));
+            assertEquals(0, RegistrationLog.await(log.registerAll(records.subList(0, 10))));
+            assertThrows(IllegalArgumentException.class, () -> log.register(record("bad,name")));
+        }
+        assertTrue(System.nanoTime() - start < 30_000_000_000L);
+
+        Files.write(file, "half-written,$2a$12$".getBytes(), StandardOpenOption.APPEND);
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertEquals(100_000, log.size());
+            assertEquals("bulk99999@example.com", log.find("bulk99999").orElseThrow().email);
+            RegistrationLog.await(log.register(record("half-written")));
+        }
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertEquals(100_001, log.size());
+            assertTrue(log.contains("half-written"));
+        }
+    }
+
+    @Test
+    public void testRecordMissingOnlyItsNewlineIsKept() throws Exception {
+        Path file = dir.resolve("users.txt");
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            RegistrationLog.await(log.register(record("amy")));
+            RegistrationLog.await(log.register(record("ben")));
+        }
+        byte[] complete = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(complete, complete.length - 1));
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertTrue(log.contains("ben"));
+            RegistrationLog.await(log.register(record("cat")));
+        }
+        assertEquals(3, Files.readAllLines(file).size());
+
+        // Torn anywhere before the newline, e.g. inside the address, the record is dropped.
+        byte[] torn = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(torn, torn.length - 15));
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertEquals(2, log.size());
+            assertFalse(log.contains("cat"));
+        }
+    }
+
+    @Test
+    public void testLegacyLastRecordWithoutNewlineIsKept() throws Exception {
+        Path file = dir.resolve("users.txt");
+        Files.writeString(file, "amy,$2a$12$hash,555-0100,amy@example.com,1 Main St\n"
+            + "ben,$2a$12$hash,555-0101,ben@example.com,2 Main St");
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertEquals(2, log.size());
+            assertTrue(log.contains("ben"));
+            RegistrationLog.await(log.register(record("cat")));
+        }
+        List<String> lines = Files.readAllLines(file);
+        assertEquals(3, lines.size());
+        assertEquals("ben,$2a$12$hash,555-0101,ben@example.com,2 Main St", lines.get(1));
+
+        // A legacy line cut short of its fields is still torn.
+        Files.writeString(file, "amy,$2a$12$hash,555-0100,amy@example.com,1 Main St\nben,$2a$12$ha");
+        try (RegistrationLog log = RegistrationLog.open(file)) {
+            assertEquals(1, log.size());
+        }
+    }
+
+    private static UserRepository.UserRecord record(String name) {
+        return new UserRepository.UserRecord(name, "$2a$12$hash", "555-0100", name + "@example.com", "1 Main St");
+    }
+}
@@ -0,0 +1,55 @@
+package com.pqc.videoencryption.storage;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+import static com.pqc.videoencryption.TestData.randomKey;
+
+import javax.crypto.SecretKey;
+import java.time.Duration;
+import java.util.Base64;
+
+public class SessionManagerTest {
+
+    @Test
+    public void testTokensValidateUntilRevokedAndRejectTampering() {
+        SecretKey key = randomKey();
+        try (SessionManager sessions = new SessionManager(Duration.ofMinutes(5))) {
+            SessionManager.Session alice = sessions.issue("alice", key);
+            SessionManager.Session bob = sessions.issue("bob", randomKey());
+
+            long start = System.nanoTime();
+            for (int i = 0; i < 10_000; i++) {
+                assertSame(alice, sessions.validate(alice.getToken()).orElseThrow());
+            }
+            assertTrue(System.nanoTime() - start < 2_000_000_000L, "validation should not cost a bcrypt check");
+            assertArrayEquals(key.getEncoded(), alice.getAesKey().getEncoded());
+
+            byte[] raw = Base64.getUrlDecoder().decode(alice.getToken());
+            raw[20] ^= 1;
+            String tampered = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+            assertTrue(sessions.validate(tampered).isEmpty());
+            assertFalse(sessions.revoke(tampered));
+            assertTrue(sessions.validate("not a token").isEmpty());
+
+            assertTrue(sessions.revoke(alice.getToken()));
+            assertTrue(sessions.validate(alice.getToken()).isEmpty());
+            assertThrows(IllegalStateException.class, alice::getAesKey);
+            assertEquals("bob", sessions.validate(bob.getToken()).orElseThrow().getUsername());
+            assertEquals(1, sessions.revokeAll("bob"));
+            assertEquals(0, sessions.size());
+        }
+    }
+
+    @Test
+    public void testExpiredSessionsAreRejectedAndSwept() throws Exception {
+        try (SessionManager sessions = new SessionManager(Duration.ofMillis(50))) {
+            SessionManager.Session session = sessions.issue("alice", randomKey());
+            assertTrue(sessions.validate(session.getToken()).isPresent());
+            Thread.sleep(120);
+            assertTrue(sessions.validate(session.getToken()).isEmpty());
+            assertEquals(1, sessions.sweep());
+            assertEquals(0, sessions.size());
+            assertThrows(IllegalStateException.class, session::getAesKey);
+        }
+    }
+}